@@ -0,0 +1,195 @@
+package com.hoseacodes.emailintegrator.brevo;
+
+import com.hoseacodes.emailintegrator.email.EmailProviderException;
+import com.hoseacodes.emailintegrator.email.EmailProviderException.Reason;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Caps how many sends are in flight to Brevo at once, at a level learned from Brevo's latency.
+ *
+ * <p>{@code brevo.max-connections} is a fixed guess at Brevo's capacity. When Brevo slows down,
+ * a fixed cap keeps admitting work up to that guess: each extra send queues behind the others,
+ * on Brevo's side or in a connection-pool lease wait on ours, and latency climbs for everyone.
+ * This limit instead moves with the latency it observes, and a send beyond it is refused at once
+ * with {@code CONCURRENCY_LIMITED} rather than joining the queue.
+ *
+ * <h2>The algorithm</h2>
+ * A gradient limit, after Netflix's {@code concurrency-limits} Gradient2. Two latency figures are
+ * kept: the latest round trip, and a long-run average that moves slowly. Their ratio is the
+ * gradient:
+ *
+ * <pre>
+ * gradient = clamp(tolerance × longRtt / rtt, 0.5, 1.0)
+ * newLimit = limit × gradient + √limit
+ * limit    = limit × (1 − smoothing) + newLimit × smoothing
+ * </pre>
+ *
+ * While round trips stay within {@code tolerance} of the average the gradient is 1 and the
+ * {@code √limit} headroom term grows the limit. When they rise beyond it, the gradient drops below
+ * 1 and the limit shrinks in proportion — at most halving per step. The long-run average catches
+ * up with a sustained new latency eventually, which is what lets the limit grow again against a
+ * provider that has become slower but stable.
+ *
+ * <p>Two refinements from the same source. The limit does not grow while fewer than half of it
+ * are in use: an idle service has learnt nothing about Brevo's capacity, and a limit inflated by
+ * quiet traffic is no limit when a burst arrives. And when the average is more than twice the
+ * latest round trip — a spike has passed — the average is decayed toward it, so the limit is not
+ * held down by memory of an incident that is over.
+ *
+ * <h2>Which outcomes are samples</h2>
+ * A reply of any status is a latency sample: a 400 takes Brevo as long to produce as a 201. A read
+ * timeout is the strongest signal there is, and halves the limit directly. A connection failure
+ * carries no latency information at all — Brevo was never reached — and only releases the slot;
+ * the circuit breaker is what reacts to those.
+ *
+ * <p>In-flight accounting is a lock-free counter checked against the current limit; only the
+ * limit's recalculation takes a lock.
+ */
+final class AdaptiveConcurrencyLimit implements MeterBinder {
+
+    private static final Logger log = LoggerFactory.getLogger(AdaptiveConcurrencyLimit.class);
+
+    /** How much slower than the long-run average a round trip may be before the limit shrinks. */
+    static final double TOLERANCE = 1.5;
+
+    /** Weight of each new limit in the smoothed one. */
+    static final double SMOOTHING = 0.2;
+
+    /** Samples the long-run average is taken over, as an exponential moving average. */
+    static final int LONG_WINDOW = 100;
+
+    private final BrevoProperties.ConcurrencyLimit settings;
+    private final LongSupplier nanoTime;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder rejected = new LongAdder();
+    private volatile int limit;
+
+    // Guarded by this.
+    private double exactLimit;
+    private double longRttNanos;
+
+    AdaptiveConcurrencyLimit(BrevoProperties.ConcurrencyLimit settings) {
+        this(settings, System::nanoTime);
+    }
+
+    AdaptiveConcurrencyLimit(BrevoProperties.ConcurrencyLimit settings, LongSupplier nanoTime) {
+        this.settings = settings;
+        this.nanoTime = nanoTime;
+        this.exactLimit = settings.initialLimit();
+        this.limit = settings.initialLimit();
+    }
+
+    /** Admission to one send. Carries what the release needs to turn it into a sample. */
+    record Permit(long startNanos, int inFlightAtStart) {
+    }
+
+    /**
+     * @return a permit, or null if the limit is reached; a null is a refusal and has already been
+     *         counted as one
+     */
+    Permit tryAcquire() {
+        while (true) {
+            int current = inFlight.get();
+            if (settings.enabled() && current >= limit) {
+                rejected.increment();
+                return null;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return new Permit(nanoTime.getAsLong(), current + 1);
+            }
+        }
+    }
+
+    /**
+     * Ends a send and learns from it.
+     *
+     * @param failure null if the send succeeded
+     */
+    void release(Permit permit, EmailProviderException failure) {
+        inFlight.decrementAndGet();
+        if (!settings.enabled() || failure != null && failure.getReason() == Reason.CONNECT_FAILED) {
+            return;
+        }
+        boolean dropped = failure != null && failure.getReason() == Reason.TIMEOUT;
+        onSample(nanoTime.getAsLong() - permit.startNanos(), permit.inFlightAtStart(), dropped);
+    }
+
+    /**
+     * Ends a send that says nothing about Brevo: one that failed in our own code, or was refused
+     * after its permit was taken. The slot is freed and no sample is taken, so a bug cannot pass
+     * for a fast, healthy round trip.
+     */
+    void abandon(Permit permit) {
+        inFlight.decrementAndGet();
+    }
+
+    private synchronized void onSample(long rttNanos, int inFlightAtStart, boolean dropped) {
+        double rtt = Math.max(1, rttNanos);
+        longRttNanos = longRttNanos == 0 ? rtt : longRttNanos + (rtt - longRttNanos) / LONG_WINDOW;
+        if (longRttNanos / rtt > 2) {
+            longRttNanos *= 0.95;
+        }
+
+        double next;
+        if (dropped) {
+            next = exactLimit / 2;
+        } else {
+            if (inFlightAtStart < exactLimit / 2) {
+                return; // not using the limit we have, so no evidence we need more
+            }
+            double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * longRttNanos / rtt));
+            double proposed = exactLimit * gradient + Math.sqrt(exactLimit);
+            next = exactLimit * (1 - SMOOTHING) + proposed * SMOOTHING;
+        }
+        next = Math.max(settings.minLimit(), Math.min(settings.maxLimit(), next));
+
+        int previous = limit;
+        exactLimit = next;
+        limit = (int) next;
+        if (limit != previous && log.isDebugEnabled()) {
+            log.debug("Brevo concurrency limit {} -> {} (rttMs={} longRttMs={}{})", previous, limit,
+                    Math.round(rtt / 1e6), Math.round(longRttNanos / 1e6), dropped ? " timeout" : "");
+        }
+    }
+
+    int limit() {
+        return limit;
+    }
+
+    int inFlight() {
+        return inFlight.get();
+    }
+
+    long rejected() {
+        return rejected.sum();
+    }
+
+    /**
+     * {@code brevo.concurrency.limit} and {@code brevo.concurrency.in-flight} are gauges — values
+     * that go up and down. Rejections are a counter, so a dashboard charts their rate.
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("brevo.concurrency.limit", this, AdaptiveConcurrencyLimit::limit)
+                .description("Sends to Brevo allowed in flight at once, as currently learnt")
+                .register(registry);
+        Gauge.builder("brevo.concurrency.in-flight", this, AdaptiveConcurrencyLimit::inFlight)
+                .description("Sends to Brevo currently in flight")
+                .register(registry);
+        // Function-tracking, so the counter reads the adder rather than keeping a second tally.
+        FunctionCounter.builder("brevo.concurrency.rejected", this,
+                        AdaptiveConcurrencyLimit::rejected)
+                .description("Sends refused because the concurrency limit was reached")
+                .register(registry);
+    }
+}
@@ -0,0 +1,178 @@
+package com.hoseacodes.emailintegrator.brevo;
+
+import org.apache.hc.client5.http.async.methods.SimpleHttpResponse;
+import org.apache.hc.client5.http.async.methods.SimpleResponseConsumer;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.core5.concurrent.FutureCallback;
+import org.apache.hc.core5.http.HttpHost;
+import org.apache.hc.core5.http.nio.AsyncRequestProducer;
+import org.apache.hc.core5.http.nio.ssl.TlsStrategy;
+import org.apache.hc.core5.http2.ssl.ApplicationProtocol;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.net.NamedEndpoint;
+import org.apache.hc.core5.reactor.ssl.TlsDetails;
+import org.apache.hc.core5.reactor.ssl.TransportSecurityLayer;
+import org.apache.hc.core5.util.Timeout;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.util.function.Supplier;
+
+/**
+ * The asynchronous route to Brevo: HTTP/1.1, or HTTP/2 with a fallback to it.
+ *
+ * <h2>Why two clients rather than one negotiating client</h2>
+ * HttpClient 5's pooled async client can negotiate {@code h2}, but it still leases each
+ * connection to one exchange at a time — a burst of fifty sends opens fifty connections whichever
+ * protocol they speak. Multiplexing needs the dedicated HTTP/2 client, which keeps one connection
+ * per host and runs every send on it as a stream. That client speaks nothing but HTTP/2, so the
+ * fallback is assembled here.
+ *
+ * <h2>Why falling back is not a retry</h2>
+ * The HTTP/2 client is given a TLS strategy that checks what ALPN settled on as the handshake
+ * completes, and fails the connection with {@link Http2NotNegotiatedException} if it was not
+ * {@code h2}. At that point no request byte has been written, so re-issuing the send over
+ * HTTP/1.1 cannot duplicate it — the same reasoning that makes {@code CONNECT_FAILED} safe. Left
+ * to itself, the HTTP/2 client would instead write its preface to an HTTP/1.1 server and fail
+ * with a bare "connection closed", indistinguishable from a send lost mid-flight.
+ *
+ * <p>The first refusal switches every later send to HTTP/1.1 for the life of the process, so a
+ * Brevo endpoint that stops offering {@code h2} costs one extra handshake, not one per send.
+ */
+final class BrevoAsyncTransport implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(BrevoAsyncTransport.class);
+
+    private final CloseableHttpAsyncClient http1;
+    private final CloseableHttpAsyncClient http2;
+    private volatile boolean http2Refused;
+
+    /**
+     * @param http1 the HTTP/1.1 client; always present, and the only one used when {@code http2}
+     *              is null
+     * @param http2 an HTTP/2-only client whose TLS strategy was wrapped by
+     *              {@link #requireHttp2}, or null
+     */
+    BrevoAsyncTransport(CloseableHttpAsyncClient http1, CloseableHttpAsyncClient http2) {
+        this.http1 = http1;
+        this.http2 = http2;
+    }
+
+    /**
+     * Issues one exchange.
+     *
+     * @param request  builds the request; called a second time only when HTTP/2 was refused
+     *                 before anything was sent
+     * @param callback receives the outcome exactly once
+     */
+    void execute(Supplier<AsyncRequestProducer> request, FutureCallback<SimpleHttpResponse> callback) {
+        if (http2 == null || http2Refused) {
+            http1.execute(request.get(), SimpleResponseConsumer.create(), callback);
+            return;
+        }
+
+        http2.execute(request.get(), SimpleResponseConsumer.create(), new FutureCallback<>() {
+            @Override
+            public void completed(SimpleHttpResponse response) {
+                callback.completed(response);
+            }
+
+            @Override
+            public void failed(Exception e) {
+                if (!isHttp2Refusal(e)) {
+                    callback.failed(e);
+                    return;
+                }
+                if (!http2Refused) {
+                    http2Refused = true;
+                    log.warn("Brevo did not negotiate HTTP/2 ({}); using HTTP/1.1 from now on", e.getMessage());
+                }
+                http1.execute(request.get(), SimpleResponseConsumer.create(), callback);
+            }
+
+            @Override
+            public void cancelled() {
+                callback.cancelled();
+            }
+        });
+    }
+
+    private static boolean isHttp2Refusal(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause() == t ? null : t.getCause()) {
+            if (t instanceof Http2NotNegotiatedException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** The protocol the next send will use. For logging and tests. */
+    String protocol() {
+        return http2 == null || http2Refused ? "HTTP/1.1" : "HTTP/2";
+    }
+
+    @Override
+    public void close() {
+        close(CloseMode.GRACEFUL);
+    }
+
+    void close(CloseMode mode) {
+        http1.close(mode);
+        if (http2 != null) {
+            http2.close(mode);
+        }
+    }
+
+    /** Wraps a TLS strategy so a connection that did not negotiate {@code h2} fails before use. */
+    static TlsStrategy requireHttp2(TlsStrategy delegate) {
+        return new TlsStrategy() {
+
+            @Override
+            @Deprecated
+            public boolean upgrade(TransportSecurityLayer session, HttpHost host, SocketAddress localAddress,
+                                   SocketAddress remoteAddress, Object attachment, Timeout handshakeTimeout) {
+                // Not called by the HTTP/2 client, which uses the callback form below. Delegated
+                // rather than rejected so a library change degrades to "unchecked", not "broken".
+                return delegate.upgrade(session, host, localAddress, remoteAddress, attachment, handshakeTimeout);
+            }
+
+            @Override
+            public void upgrade(TransportSecurityLayer session, NamedEndpoint endpoint, Object attachment,
+                                Timeout handshakeTimeout, FutureCallback<TransportSecurityLayer> callback) {
+                delegate.upgrade(session, endpoint, attachment, handshakeTimeout, new FutureCallback<>() {
+                    @Override
+                    public void completed(TransportSecurityLayer result) {
+                        TlsDetails details = result.getTlsDetails();
+                        String selected = details == null ? null : details.getApplicationProtocol();
+                        if (!ApplicationProtocol.HTTP_2.id.equals(selected)) {
+                            callback.failed(new Http2NotNegotiatedException(selected));
+                            return;
+                        }
+                        callback.completed(result);
+                    }
+
+                    @Override
+                    public void failed(Exception e) {
+                        callback.failed(e);
+                    }
+
+                    @Override
+                    public void cancelled() {
+                        callback.cancelled();
+                    }
+                });
+            }
+        };
+    }
+
+    /** The TLS handshake completed without selecting {@code h2}. Nothing was sent. */
+    static final class Http2NotNegotiatedException extends IOException {
+
+        Http2NotNegotiatedException(String selected) {
+            super("ALPN selected " + (selected == null || selected.isEmpty() ? "no protocol" : selected));
+        }
+    }
+}
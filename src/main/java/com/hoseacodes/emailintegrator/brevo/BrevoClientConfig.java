@@ -2,10 +2,18 @@ package com.hoseacodes.emailintegrator.brevo;
 
 import org.apache.hc.client5.http.config.ConnectionConfig;
 import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.config.TlsConfig;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.client5.http.impl.async.HttpAsyncClients;
 import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
 import org.apache.hc.client5.http.impl.classic.HttpClients;
 import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
 import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManager;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManagerBuilder;
+import org.apache.hc.client5.http.ssl.DefaultClientTlsStrategy;
+import org.apache.hc.core5.http.nio.ssl.TlsStrategy;
+import org.apache.hc.core5.http2.HttpVersionPolicy;
 import org.apache.hc.core5.util.Timeout;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
@@ -70,6 +78,8 @@ public class BrevoClientConfig {
         PoolingHttpClientConnectionManager connectionManager =
                 PoolingHttpClientConnectionManagerBuilder.create()
                         .setDefaultConnectionConfig(connectionConfig)
+                        .setMaxConnTotal(properties.maxConnections())
+                        .setMaxConnPerRoute(properties.maxConnections())
                         .build();
 
         // responseTimeout: how long to wait for the response head after the request is written.
@@ -95,4 +105,110 @@ public class BrevoClientConfig {
                 .defaultHeader("accept", MediaType.APPLICATION_JSON_VALUE)
                 .build();
     }
+
+    /**
+     * The adaptive cap on sends in flight, shared by both transports. A {@code MeterBinder}, so
+     * Spring Boot registers its gauges and counter with the application's meter registry.
+     */
+    @Bean
+    AdaptiveConcurrencyLimit brevoConcurrencyLimit(BrevoProperties properties) {
+        return new AdaptiveConcurrencyLimit(properties.concurrencyLimit());
+    }
+
+    /** The pause after a 429 and the optional account-rate pacing, shared by both transports. */
+    @Bean
+    RateLimitGate brevoRateLimitGate(BrevoProperties properties) {
+        return new RateLimitGate(properties.rateLimit());
+    }
+
+    /**
+     * The non-blocking transport behind {@link BrevoEmailProvider#sendAsync}.
+     *
+     * <p>Same timeouts, same pool size, and — the part that must not drift — the same disabled
+     * retries and redirects as {@link #brevoRestClient}. The async builders have their own retry
+     * defaults, independent of the classic one, so disabling it there does nothing here.
+     *
+     * <p>What differs is where waiting happens. A send in flight holds a connection and a
+     * callback, not a thread: the I/O reactor multiplexes every open connection over a handful of
+     * dispatcher threads. A slow Brevo then costs sockets rather than Tomcat workers.
+     *
+     * <h2>HTTP/2</h2>
+     * With {@code brevo.protocol=HTTP_2} and an {@code https} base URL, sends go first to an
+     * HTTP/2-only client that keeps one connection to Brevo and runs every send on it as a
+     * stream, so concurrency costs streams rather than TCP and TLS handshakes. If ALPN does not
+     * select {@code h2}, the transport falls back to the HTTP/1.1 client; see
+     * {@link BrevoAsyncTransport} for why that fallback cannot duplicate a send. The retry and
+     * redirect settings are identical on both: an HTTP/2 stream reset is a failed exchange like
+     * any other, and is not replayed.
+     *
+     * <p>On a plain-{@code http} base URL the option is ignored. There is no ALPN without TLS,
+     * and cleartext HTTP/2 would have to be assumed rather than negotiated.
+     *
+     * @return a transport over started clients; Spring closes it on shutdown
+     */
+    @Bean(destroyMethod = "close")
+    BrevoAsyncTransport brevoAsyncTransport(BrevoProperties properties) {
+        return brevoAsyncTransport(properties, DefaultClientTlsStrategy.getDefault());
+    }
+
+    /** Separated so tests can trust a self-signed stub; production always uses the JDK trust store. */
+    static BrevoAsyncTransport brevoAsyncTransport(BrevoProperties properties, TlsStrategy tlsStrategy) {
+        boolean http2 = properties.protocol() == BrevoProperties.Protocol.HTTP_2
+                && properties.baseUrl().regionMatches(true, 0, "https:", 0, 6);
+        return new BrevoAsyncTransport(
+                http1AsyncClient(properties, tlsStrategy),
+                http2 ? http2AsyncClient(properties, tlsStrategy) : null);
+    }
+
+    private static CloseableHttpAsyncClient http1AsyncClient(BrevoProperties properties, TlsStrategy tlsStrategy) {
+        // Pinned: left to itself the pooled async client negotiates h2, and would then hold a
+        // whole HTTP/2 connection per send without multiplexing anything.
+        TlsConfig tlsConfig = TlsConfig.custom()
+                .setVersionPolicy(HttpVersionPolicy.FORCE_HTTP_1)
+                .build();
+
+        PoolingAsyncClientConnectionManager connectionManager =
+                PoolingAsyncClientConnectionManagerBuilder.create()
+                        .setDefaultConnectionConfig(asyncConnectionConfig(properties))
+                        .setDefaultTlsConfig(tlsConfig)
+                        .setTlsStrategy(tlsStrategy)
+                        .setMaxConnTotal(properties.maxConnections())
+                        .setMaxConnPerRoute(properties.maxConnections())
+                        .build();
+
+        CloseableHttpAsyncClient client = HttpAsyncClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(asyncRequestConfig(properties))
+                .disableAutomaticRetries()
+                .disableRedirectHandling()
+                .build();
+        client.start();
+        return client;
+    }
+
+    private static CloseableHttpAsyncClient http2AsyncClient(BrevoProperties properties, TlsStrategy tlsStrategy) {
+        CloseableHttpAsyncClient client = HttpAsyncClients.customHttp2()
+                .setTlsStrategy(BrevoAsyncTransport.requireHttp2(tlsStrategy))
+                .setDefaultConnectionConfig(asyncConnectionConfig(properties))
+                .setDefaultRequestConfig(asyncRequestConfig(properties))
+                .disableAutomaticRetries()
+                .disableRedirectHandling()
+                .build();
+        client.start();
+        return client;
+    }
+
+    private static ConnectionConfig asyncConnectionConfig(BrevoProperties properties) {
+        return ConnectionConfig.custom()
+                .setConnectTimeout(Timeout.of(properties.connectTimeout()))
+                .setSocketTimeout(Timeout.of(properties.readTimeout()))
+                .build();
+    }
+
+    private static RequestConfig asyncRequestConfig(BrevoProperties properties) {
+        return RequestConfig.custom()
+                .setResponseTimeout(Timeout.of(properties.readTimeout()))
+                .setConnectionRequestTimeout(Timeout.of(properties.connectTimeout()))
+                .build();
+    }
 }
@@ -1,5 +1,7 @@
 package com.hoseacodes.emailintegrator.brevo;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.hoseacodes.emailintegrator.brevo.wire.BrevoWire;
 import com.hoseacodes.emailintegrator.email.EmailAddress;
 import com.hoseacodes.emailintegrator.email.EmailProvider;
@@ -8,10 +10,17 @@ import com.hoseacodes.emailintegrator.email.EmailProviderException.Reason;
 import com.hoseacodes.emailintegrator.email.MessageVariant;
 import com.hoseacodes.emailintegrator.email.SendEmailCommand;
 import com.hoseacodes.emailintegrator.email.SendEmailResult;
+import org.apache.hc.client5.http.async.methods.SimpleHttpResponse;
+import org.apache.hc.core5.concurrent.FutureCallback;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.nio.AsyncRequestProducer;
+import org.apache.hc.core5.http.nio.support.AsyncRequestBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatusCode;
 import org.springframework.http.MediaType;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
 import org.springframework.stereotype.Component;
 import org.springframework.web.client.ResourceAccessException;
 import org.springframework.web.client.RestClient;
@@ -23,7 +32,9 @@ import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
 import java.time.Duration;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 /**
  * Sends email through Brevo's transactional API.
@@ -44,6 +55,23 @@ import java.util.concurrent.TimeUnit;
  * it genuinely unknown whether the message went out. {@link Reason#isSideEffectPossible()}
  * records that per failure so a future retry or idempotency layer can decide safely rather
  * than guessing. See {@code docs/RELIABILITY.md}.
+ *
+ * <h2>Two transports, one interpretation</h2>
+ * {@link #send} rides the blocking {@link RestClient}; {@link #sendAsync} rides HttpClient 5's
+ * asynchronous clients ({@link BrevoAsyncTransport}) and completes on its I/O reactor. Each has
+ * its own way of reading a response, but both hand the status, {@code Retry-After}, and parsed
+ * body to the same {@link #toResult} and {@link #mapErrorStatus}, so a given Brevo reply cannot be
+ * classified differently depending on which path carried it.
+ *
+ * <h2>Admission</h2>
+ * Before sending, both paths take a permit from {@link AdaptiveConcurrencyLimit} and then ask
+ * {@link RateLimitGate} whether Brevo is to be left alone — after a 429, or at the configured
+ * account rate. The permit comes first because it can be handed back untouched and a pacing token
+ * cannot: the other way round, every send refused at the concurrency limit would also spend rate
+ * budget on a request never made. The permit is returned with the outcome so the limit learns from
+ * every round trip whichever client carried it. A send refused by either fails with
+ * {@link Reason#CONCURRENCY_LIMITED} or {@link Reason#RATE_LIMITED} without touching the network.
+ * Every 429 that does come back is reported to the gate.
  */
 @Component
 public class BrevoEmailProvider implements EmailProvider {
@@ -53,12 +81,38 @@ public class BrevoEmailProvider implements EmailProvider {
 
     private static final Logger log = LoggerFactory.getLogger(BrevoEmailProvider.class);
 
+    /**
+     * Writes request bodies for both paths (see {@link SendRequestBody}) and reads async
+     * responses. Built the way {@link RestClient}'s default Jackson converter builds its mapper,
+     * so the blocking path's response parsing and this agree.
+     */
+    private static final ObjectMapper JSON = Jackson2ObjectMapperBuilder.json().build();
+
+    /**
+     * Brevo's own rate-limit header: seconds until the limit resets. Read when a 429 carries no
+     * standard {@code Retry-After}, since it says the same thing.
+     */
+    private static final String RATE_LIMIT_RESET = "x-sib-ratelimit-reset";
+
+    /** How long a caller refused for concurrency is told to wait: about one Brevo round trip. */
+    private static final Duration CONCURRENCY_RETRY_AFTER = Duration.ofSeconds(1);
+
     private final RestClient restClient;
+    private final BrevoAsyncTransport asyncTransport;
     private final BrevoProperties properties;
-
-    BrevoEmailProvider(RestClient brevoRestClient, BrevoProperties properties) {
+    private final AdaptiveConcurrencyLimit concurrencyLimit;
+    private final RateLimitGate rateLimitGate;
+
+    BrevoEmailProvider(RestClient brevoRestClient,
+                       BrevoAsyncTransport brevoAsyncTransport,
+                       BrevoProperties properties,
+                       AdaptiveConcurrencyLimit brevoConcurrencyLimit,
+                       RateLimitGate brevoRateLimitGate) {
         this.restClient = brevoRestClient;
+        this.asyncTransport = brevoAsyncTransport;
         this.properties = properties;
+        this.concurrencyLimit = brevoConcurrencyLimit;
+        this.rateLimitGate = brevoRateLimitGate;
     }
 
     @Override
@@ -69,33 +123,164 @@ public class BrevoEmailProvider implements EmailProvider {
     @Override
     public SendEmailResult send(SendEmailCommand command) {
         BrevoWire.SendRequest request = toWireRequest(command);
-        long startNanos = System.nanoTime();
+        AdaptiveConcurrencyLimit.Permit permit = admit();
+        long startNanos = permit.startNanos();
+        EmailProviderException failure = null;
+        boolean sampled = true;
 
         try {
             SendEmailResult result = execute(request);
-            log.info("Brevo send succeeded: recipients={} variants={} messageIds={} durationMs={}",
-                    command.totalRecipientCount(), command.variants().size(),
-                    result.messageIds().size(), elapsedMillis(startNanos));
+            logSuccess(command, result, startNanos);
             return result;
 
         } catch (EmailProviderException e) {
-            // Log the classification and timing; never the payload, the recipients, or the key.
-            log.warn("Brevo send failed: reason={} sideEffectPossible={} durationMs={} detail={}",
-                    e.getReason(), e.isSideEffectPossible(), elapsedMillis(startNanos), e.getMessage());
+            failure = e;
+            logFailure(e, startNanos);
             throw e;
 
         } catch (ResourceAccessException e) {
             // Transport-level failure: the request factory could not complete the exchange.
-            throw transportFailure(e, startNanos);
+            failure = transportFailure(e, startNanos);
+            throw failure;
+
+        } catch (RuntimeException e) {
+            // Unclassified, so a failure of ours rather than Brevo's: it must not be read as a
+            // healthy round trip, nor as an overload one.
+            sampled = false;
+            throw e;
+
+        } finally {
+            if (sampled) {
+                settle(permit, failure);
+            } else {
+                concurrencyLimit.abandon(permit);
+            }
+        }
+    }
+
+    /**
+     * Sends one message without holding the calling thread while Brevo responds.
+     *
+     * <p>The returned future completes on an HTTP client I/O thread. Dependent stages must not
+     * block; anything slow belongs on an executor of its own.
+     */
+    @Override
+    public CompletableFuture<SendEmailResult> sendAsync(SendEmailCommand command) {
+        BrevoWire.SendRequest body = toWireRequest(command);
+        AdaptiveConcurrencyLimit.Permit permit;
+        try {
+            permit = admit();
+        } catch (EmailProviderException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        long startNanos = permit.startNanos();
+        CompletableFuture<SendEmailResult> outcome = new CompletableFuture<>();
+
+        // A supplier rather than a request: the transport may need a fresh one if HTTP/2 is
+        // refused before anything was sent. The body is generated as the connection takes it.
+        Supplier<AsyncRequestProducer> request = () -> AsyncRequestBuilder.post(properties.baseUrl() + SEND_PATH)
+                .setHeader("api-key", properties.apiKey())
+                .setHeader(HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON_VALUE)
+                .setEntity(new SendRequestBody(JSON, body, properties.compressRequests()))
+                .build();
+
+        FutureCallback<SimpleHttpResponse> callback = new FutureCallback<>() {
+            @Override
+            public void completed(SimpleHttpResponse response) {
+                SendEmailResult result;
+                try {
+                    result = handleResponse(response);
+                } catch (EmailProviderException e) {
+                    logFailure(e, startNanos);
+                    fail(e);
+                    return;
+                } catch (RuntimeException e) {
+                    // As on the blocking path: ours, not Brevo's, so no sample either way.
+                    concurrencyLimit.abandon(permit);
+                    outcome.completeExceptionally(e);
+                    return;
+                }
+                logSuccess(command, result, startNanos);
+                settle(permit, null);
+                outcome.complete(result);
+            }
+
+            @Override
+            public void failed(Exception e) {
+                fail(transportFailure(e, startNanos));
+            }
+
+            @Override
+            public void cancelled() {
+                // Only happens on client shutdown. The request may already have been written,
+                // so this is classified the way an unexplained transport failure is.
+                fail(new EmailProviderException(Reason.TIMEOUT, PROVIDER_NAME,
+                        "the Brevo request was cancelled before a response arrived"));
+            }
+
+            // The permit is returned before the future completes, so a caller that sends again
+            // from a dependent stage is not refused for its own previous send.
+            private void fail(EmailProviderException e) {
+                settle(permit, e);
+                outcome.completeExceptionally(e);
+            }
+        };
+        try {
+            asyncTransport.execute(request, callback);
+        } catch (RuntimeException e) {
+            // Thrown before any request was made, by one that cannot be built say. As on the
+            // blocking path, a failure of ours rather than Brevo's, so no sample either way.
+            concurrencyLimit.abandon(permit);
+            outcome.completeExceptionally(e);
+        }
+        return outcome;
+    }
+
+    /** Takes a concurrency permit and passes the rate-limit gate, or refuses the send outright. */
+    private AdaptiveConcurrencyLimit.Permit admit() {
+        AdaptiveConcurrencyLimit.Permit permit = concurrencyLimit.tryAcquire();
+        if (permit == null) {
+            log.warn("Brevo send refused: reason={} limit={} inFlight={}",
+                    Reason.CONCURRENCY_LIMITED, concurrencyLimit.limit(), concurrencyLimit.inFlight());
+            throw new EmailProviderException(Reason.CONCURRENCY_LIMITED, PROVIDER_NAME,
+                    "Brevo concurrency limit of " + concurrencyLimit.limit() + " reached; send not attempted",
+                    CONCURRENCY_RETRY_AFTER, null);
+        }
+        Duration wait = rateLimitGate.tryPass();
+        if (wait != null) {
+            concurrencyLimit.abandon(permit);
+            // Whole seconds, rounded up: Retry-After has no finer unit, and rounding down would
+            // send the caller back before the gate opens.
+            long seconds = Math.max(1, (wait.toMillis() + 999) / 1000);
+            log.debug("Brevo send refused: reason={} retryAfterSeconds={}", Reason.RATE_LIMITED, seconds);
+            throw new EmailProviderException(Reason.RATE_LIMITED, PROVIDER_NAME,
+                    "Brevo rate limit in effect; send not attempted", Duration.ofSeconds(seconds), null);
+        }
+        return permit;
+    }
+
+    /** Returns the permit, and tells the gate if Brevo has asked us to back off. */
+    private void settle(AdaptiveConcurrencyLimit.Permit permit, EmailProviderException failure) {
+        concurrencyLimit.release(permit, failure);
+        if (failure != null && failure.getReason() == Reason.RATE_LIMITED) {
+            rateLimitGate.onRateLimited(failure.getRetryAfter());
         }
     }
 
     private SendEmailResult execute(BrevoWire.SendRequest request) {
+        boolean gzip = properties.compressRequests();
         return restClient.post()
                 .uri(SEND_PATH)
                 .header("api-key", properties.apiKey())
+                .headers(headers -> {
+                    if (gzip) {
+                        headers.set(HttpHeaders.CONTENT_ENCODING, "gzip");
+                    }
+                })
                 .contentType(MediaType.APPLICATION_JSON)
-                .body(request)
+                // Written straight to the connection rather than through the Jackson converter,
+                // so the optional compression applies to both paths identically.
+                .body(out -> SendRequestBody.writeTo(JSON, request, gzip, out))
                 // exchange() rather than retrieve(): it hands us the raw status and body so every
                 // status code is mapped explicitly here, instead of relying on RestClient's default
                 // "throw on 4xx/5xx" behaviour and unpacking a generic exception afterwards.
@@ -112,21 +297,58 @@ public class BrevoEmailProvider implements EmailProvider {
             try {
                 body = response.bodyTo(BrevoWire.SendResponse.class);
             } catch (RestClientException e) {
-                // Brevo accepted the request but we cannot parse the reply. The mail was most
-                // likely sent, so this is side-effect-possible and must not be blind-retried.
-                throw new EmailProviderException(Reason.PROVIDER_UNAVAILABLE, PROVIDER_NAME,
-                        "Brevo returned " + status.value() + " with an unreadable body", e);
+                throw unreadableBody(status.value(), e);
             }
+            return toResult(status.value(), body);
+        }
 
-            List<String> messageIds = body == null ? List.of() : body.allMessageIds();
-            if (messageIds.isEmpty()) {
-                throw new EmailProviderException(Reason.PROVIDER_UNAVAILABLE, PROVIDER_NAME,
-                        "Brevo returned " + status.value() + " without a message id");
+        String retryAfter = response.getHeaders().getFirst(HttpHeaders.RETRY_AFTER);
+        throw mapErrorStatus(status.value(),
+                retryAfter != null ? retryAfter : response.getHeaders().getFirst(RATE_LIMIT_RESET),
+                readErrorCode(response));
+    }
+
+    /** The async counterpart of the method above: same decisions, a different response type. */
+    private SendEmailResult handleResponse(SimpleHttpResponse response) {
+        int code = response.getCode();
+        byte[] bytes = response.getBodyBytes();
+        boolean empty = bytes == null || bytes.length == 0;
+
+        if (code >= 200 && code < 300) {
+            BrevoWire.SendResponse body;
+            try {
+                body = empty ? null : JSON.readValue(bytes, BrevoWire.SendResponse.class);
+            } catch (IOException e) {
+                throw unreadableBody(code, e);
             }
-            return new SendEmailResult(messageIds, PROVIDER_NAME);
+            return toResult(code, body);
+        }
+
+        Header retryAfter = response.getFirstHeader(HttpHeaders.RETRY_AFTER);
+        if (retryAfter == null) {
+            retryAfter = response.getFirstHeader(RATE_LIMIT_RESET);
         }
+        throw mapErrorStatus(code,
+                retryAfter == null ? null : retryAfter.getValue(),
+                empty ? null : readErrorCode(bytes));
+    }
+
+    private static SendEmailResult toResult(int code, BrevoWire.SendResponse body) {
+        List<String> messageIds = body == null ? List.of() : body.allMessageIds();
+        if (messageIds.isEmpty()) {
+            throw new EmailProviderException(Reason.PROVIDER_UNAVAILABLE, PROVIDER_NAME,
+                    "Brevo returned " + code + " without a message id");
+        }
+        return new SendEmailResult(messageIds, PROVIDER_NAME);
+    }
 
-        throw mapErrorStatus(status, response);
+    /**
+     * Brevo accepted the request but we cannot parse the reply. The mail was most likely sent, so
+     * this is side-effect-possible and must not be blind-retried.
+     */
+    private static EmailProviderException unreadableBody(int code, Exception cause) {
+        return new EmailProviderException(Reason.PROVIDER_UNAVAILABLE, PROVIDER_NAME,
+                "Brevo returned " + code + " with an unreadable body", cause);
     }
 
     /**
@@ -136,15 +358,9 @@ public class BrevoEmailProvider implements EmailProvider {
      * configuration problem, not the API caller's. It must not surface to the caller as 401 —
      * they supplied valid credentials to us. It becomes a 502 upstream.
      */
-    private EmailProviderException mapErrorStatus(
-            HttpStatusCode status,
-            RestClient.RequestHeadersSpec.ConvertibleClientHttpResponse response) {
-
-        String providerCode = readErrorCode(response);
-        int code = status.value();
-
+    private static EmailProviderException mapErrorStatus(int code, String retryAfterHeader, String providerCode) {
         if (code == 429) {
-            Duration retryAfter = parseRetryAfter(response.getHeaders().getFirst("Retry-After"));
+            Duration retryAfter = parseRetryAfter(retryAfterHeader);
             return new EmailProviderException(Reason.RATE_LIMITED, PROVIDER_NAME,
                     "Brevo rate limit exceeded" + suffix(providerCode), retryAfter, null);
         }
@@ -152,7 +368,7 @@ public class BrevoEmailProvider implements EmailProvider {
             return new EmailProviderException(Reason.PROVIDER_AUTH_FAILED, PROVIDER_NAME,
                     "Brevo rejected our API credentials (HTTP " + code + ")" + suffix(providerCode));
         }
-        if (status.is5xxServerError()) {
+        if (code >= 500 && code < 600) {
             return new EmailProviderException(Reason.PROVIDER_UNAVAILABLE, PROVIDER_NAME,
                     "Brevo returned HTTP " + code + suffix(providerCode));
         }
@@ -169,20 +385,32 @@ public class BrevoEmailProvider implements EmailProvider {
      */
     private String readErrorCode(RestClient.RequestHeadersSpec.ConvertibleClientHttpResponse response) {
         try {
-            BrevoWire.ErrorResponse error = response.bodyTo(BrevoWire.ErrorResponse.class);
-            if (error == null) {
-                return null;
-            }
-            if (log.isDebugEnabled()) {
-                log.debug("Brevo error body: code={} message={}", error.code(), error.message());
-            }
-            return error.code();
+            return errorCodeOf(response.bodyTo(BrevoWire.ErrorResponse.class));
         } catch (RestClientException e) {
             log.debug("Brevo error body was not parseable JSON", e);
             return null;
         }
     }
 
+    private static String readErrorCode(byte[] body) {
+        try {
+            return errorCodeOf(JSON.readValue(body, BrevoWire.ErrorResponse.class));
+        } catch (IOException e) {
+            log.debug("Brevo error body was not parseable JSON", e);
+            return null;
+        }
+    }
+
+    private static String errorCodeOf(BrevoWire.ErrorResponse error) {
+        if (error == null) {
+            return null;
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Brevo error body: code={} message={}", error.code(), error.message());
+        }
+        return error.code();
+    }
+
     /**
      * Classifies a transport failure by whether the request could have reached Brevo.
      *
@@ -190,7 +418,16 @@ public class BrevoEmailProvider implements EmailProvider {
      * A read timeout means the request was written and the outcome is unknown — not safe.
      * Distinguishing them is what makes a future retry policy sound rather than reckless.
      */
-    private EmailProviderException transportFailure(ResourceAccessException e, long startNanos) {
+    private EmailProviderException transportFailure(Exception e, long startNanos) {
+        if (hasCause(e, JsonProcessingException.class)) {
+            // The body is generated while it is sent, so this surfaces as a broken exchange. The
+            // JSON stopped short of its end, so Brevo cannot have accepted it. Every field is a
+            // String or a list of them, so this is our bug, not the caller's or Brevo's.
+            log.error("Brevo request could not be serialised", e);
+            return new EmailProviderException(Reason.REQUEST_REJECTED, PROVIDER_NAME,
+                    "could not serialise the Brevo request", e);
+        }
+
         boolean neverConnected = isConnectFailure(e);
         Reason reason = neverConnected ? Reason.CONNECT_FAILED : Reason.TIMEOUT;
         String detail = neverConnected
@@ -236,6 +473,15 @@ public class BrevoEmailProvider implements EmailProvider {
         return false;
     }
 
+    private static boolean hasCause(Throwable e, Class<? extends Throwable> type) {
+        for (Throwable t = e; t != null; t = t.getCause() == t ? null : t.getCause()) {
+            if (type.isInstance(t)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /** Parses the seconds form of {@code Retry-After}; the HTTP-date form is ignored. */
     private static Duration parseRetryAfter(String headerValue) {
         if (headerValue == null || headerValue.isBlank()) {
@@ -250,6 +496,18 @@ public class BrevoEmailProvider implements EmailProvider {
         }
     }
 
+    // Log the classification and timing; never the payload, the recipients, or the key.
+    private static void logSuccess(SendEmailCommand command, SendEmailResult result, long startNanos) {
+        log.info("Brevo send succeeded: recipients={} variants={} messageIds={} durationMs={}",
+                command.totalRecipientCount(), command.variants().size(),
+                result.messageIds().size(), elapsedMillis(startNanos));
+    }
+
+    private static void logFailure(EmailProviderException e, long startNanos) {
+        log.warn("Brevo send failed: reason={} sideEffectPossible={} durationMs={} detail={}",
+                e.getReason(), e.isSideEffectPossible(), elapsedMillis(startNanos), e.getMessage());
+    }
+
     // -- mapping -----------------------------------------------------------------------------
 
     private BrevoWire.SendRequest toWireRequest(SendEmailCommand command) {
@@ -1,8 +1,12 @@
 package com.hoseacodes.emailintegrator.brevo;
 
+import jakarta.validation.Valid;
 import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Positive;
+import jakarta.validation.constraints.PositiveOrZero;
 import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.ConstructorBinding;
 import org.springframework.validation.annotation.Validated;
 
 import java.time.Duration;
@@ -28,6 +32,16 @@ import java.time.Duration;
  * @param baseUrl        API root; overridable so tests can point at a local WireMock server.
  * @param connectTimeout cap on establishing a TCP connection.
  * @param readTimeout    cap on waiting for a response once the request has been written.
+ * @param maxConnections cap on concurrent connections to Brevo, applied to each HTTP/1.1 pool,
+ *                       blocking and asynchronous. HttpClient's own default is five per route, which
+ *                       would quietly serialise the async path behind a handful of sockets.
+ * @param protocol       HTTP version the asynchronous client offers Brevo. HTTP/1.1 unless set.
+ * @param compressRequests gzip request bodies and send {@code Content-Encoding: gzip}. Off by
+ *                       default; see {@code SendRequestBody}.
+ * @param batching       opt-in coalescing of compatible sends into one request; off by default.
+ * @param concurrencyLimit adaptive cap on sends in flight to Brevo; on by default, bounded above
+ *                       by {@code maxConnections}.
+ * @param rateLimit      pausing after a 429, and optional pacing to the account's rate.
  */
 @Validated
 @ConfigurationProperties(prefix = "brevo")
@@ -43,12 +57,159 @@ public record BrevoProperties(
         Duration connectTimeout,
 
         @NotNull
-        Duration readTimeout) {
+        Duration readTimeout,
 
+        @Positive
+        int maxConnections,
+
+        Protocol protocol,
+
+        boolean compressRequests,
+
+        @Valid
+        Batching batching,
+
+        @Valid
+        ConcurrencyLimit concurrencyLimit,
+
+        @Valid
+        RateLimit rateLimit) {
+
+    @ConstructorBinding
     public BrevoProperties {
         // Defaults for everything except the API key, which must be supplied explicitly.
         baseUrl = (baseUrl == null || baseUrl.isBlank()) ? "https://api.brevo.com" : baseUrl;
         connectTimeout = connectTimeout == null ? Duration.ofSeconds(3) : connectTimeout;
         readTimeout = readTimeout == null ? Duration.ofSeconds(10) : readTimeout;
+        maxConnections = maxConnections == 0 ? 50 : maxConnections;
+        protocol = protocol == null ? Protocol.HTTP_1_1 : protocol;
+        batching = batching == null ? new Batching(false, null, 0) : batching;
+        concurrencyLimit = (concurrencyLimit == null ? new ConcurrencyLimit(null, 0, 0, 0) : concurrencyLimit)
+                .boundedBy(maxConnections);
+        rateLimit = rateLimit == null ? new RateLimit(0, 0, null, null) : rateLimit;
+    }
+
+    /** The connection settings alone, with every tuning knob at its default. */
+    public BrevoProperties(String apiKey, String baseUrl, Duration connectTimeout, Duration readTimeout) {
+        this(apiKey, baseUrl, connectTimeout, readTimeout, 0, null, false, null, null, null);
+    }
+
+    /**
+     * Which HTTP version the asynchronous client speaks to Brevo.
+     *
+     * <p>The blocking client is HTTP/1.1 whatever this says; HttpClient's classic API has no
+     * HTTP/2 support.
+     */
+    public enum Protocol {
+
+        /** One in-flight send per connection. */
+        HTTP_1_1,
+
+        /**
+         * Offer HTTP/2 during the TLS handshake and multiplex sends over a few connections if
+         * Brevo accepts. Falls back to HTTP/1.1 when ALPN does not select {@code h2}, including
+         * on a plain-{@code http} base URL, so it is safe to enable against any endpoint.
+         */
+        HTTP_2
+    }
+
+    /**
+     * Settings for {@link CoalescingBrevoEmailProvider}.
+     *
+     * <p>Off unless asked for: coalescing changes failure semantics (one rejected batch fails
+     * every caller in it) and adds up to {@code linger} to every eligible send, which is only a
+     * good trade for bulk traffic.
+     *
+     * @param enabled     whether compatible sends are coalesced at all.
+     * @param linger      how long the first send in a batch waits for company before the batch
+     *                    is sent regardless of size.
+     * @param maxVersions batch size at which a batch is sent without waiting out the linger.
+     *                    Brevo caps {@code messageVersions} per request; the default sits at that
+     *                    cap, so lower it rather than raise it.
+     */
+    public record Batching(
+            boolean enabled,
+
+            @NotNull
+            Duration linger,
+
+            @Positive
+            int maxVersions) {
+
+        public Batching {
+            linger = linger == null ? Duration.ofMillis(50) : linger;
+            maxVersions = maxVersions == 0 ? 1000 : maxVersions;
+        }
+    }
+
+    /**
+     * Settings for {@link AdaptiveConcurrencyLimit}.
+     *
+     * <p>The limit starts at {@code initialLimit} and moves between the bounds as Brevo's latency
+     * changes. The upper bound defaults to {@code brevo.max-connections}: beyond it a send would
+     * only wait for a pooled connection, which is the queueing the limit exists to prevent.
+     *
+     * @param enabled      false admits every send; the in-flight figure is still tracked. On
+     *                     unless set.
+     * @param initialLimit where the limit starts, before any latency has been observed.
+     * @param minLimit     the floor. Never below one, or a slow spell could stop sending outright.
+     * @param maxLimit     the ceiling; {@code brevo.max-connections} unless set.
+     */
+    public record ConcurrencyLimit(
+            Boolean enabled,
+
+            @Positive
+            int initialLimit,
+
+            @Positive
+            int minLimit,
+
+            @Positive
+            int maxLimit) {
+
+        public ConcurrencyLimit {
+            enabled = enabled == null || enabled;
+            minLimit = minLimit == 0 ? 2 : minLimit;
+            initialLimit = initialLimit == 0 ? 20 : initialLimit;
+        }
+
+        /** Fills in the ceiling from the pool size and keeps the other figures inside it. */
+        ConcurrencyLimit boundedBy(int maxConnections) {
+            int max = maxLimit == 0 ? maxConnections : maxLimit;
+            int min = Math.min(minLimit, max);
+            return new ConcurrencyLimit(enabled, Math.max(min, Math.min(initialLimit, max)), min, max);
+        }
+    }
+
+    /**
+     * Settings for {@link RateLimitGate}.
+     *
+     * <p>Pausing after a 429 is always on: once Brevo has said to wait, a send before then can
+     * only fail. Proactive pacing is off unless {@code requestsPerSecond} is set.
+     *
+     * @param requestsPerSecond the account's send rate; zero disables pacing.
+     * @param burst             sends admitted at once after a quiet spell; the rate rounded up
+     *                          unless set.
+     * @param defaultPause      how long a 429 without a readable {@code Retry-After} pauses sends.
+     * @param maxPause          the longest any 429 pauses sends, whatever it asked for.
+     */
+    public record RateLimit(
+            @PositiveOrZero
+            double requestsPerSecond,
+
+            @PositiveOrZero
+            int burst,
+
+            @NotNull
+            Duration defaultPause,
+
+            @NotNull
+            Duration maxPause) {
+
+        public RateLimit {
+            burst = burst == 0 ? Math.max(1, (int) Math.ceil(requestsPerSecond)) : burst;
+            defaultPause = defaultPause == null ? Duration.ofSeconds(1) : defaultPause;
+            maxPause = maxPause == null ? Duration.ofMinutes(5) : maxPause;
+        }
     }
 }
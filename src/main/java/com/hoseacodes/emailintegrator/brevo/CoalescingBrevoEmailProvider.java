@@ -0,0 +1,245 @@
+package com.hoseacodes.emailintegrator.brevo;
+
+import com.hoseacodes.emailintegrator.email.EmailAddress;
+import com.hoseacodes.emailintegrator.email.EmailProvider;
+import com.hoseacodes.emailintegrator.email.EmailProviderException;
+import com.hoseacodes.emailintegrator.email.EmailProviderException.Reason;
+import com.hoseacodes.emailintegrator.email.MessageVariant;
+import com.hoseacodes.emailintegrator.email.SendEmailCommand;
+import com.hoseacodes.emailintegrator.email.SendEmailResult;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coalesces concurrent, near-identical sends into one Brevo request with {@code messageVersions}.
+ *
+ * <p>Bulk callers issue thousands of {@code POST /email} calls that differ only in the
+ * recipient. Sent one by one, each costs an HTTP round trip and a unit of Brevo's rate limit.
+ * This decorator holds an eligible send for at most {@code brevo.batching.linger}, gathers every
+ * other send with the same sender, reply-to, subject and body that arrives meanwhile, and issues
+ * them as a single multi-variant send: one version per caller, each carrying only that caller's
+ * recipients. Brevo answers with one message id per version, in order, and each caller's future
+ * is completed with its own.
+ *
+ * <h2>What is eligible</h2>
+ * Only a plain single message: no variants of its own, and no cc or bcc. A version can override
+ * {@code to} but not cc/bcc, so a caller's copies would otherwise go to every caller's
+ * recipients. Anything else passes straight through to {@link BrevoEmailProvider}, as does the
+ * blocking {@link #send}, whose caller is holding a thread and should not also wait out a linger.
+ *
+ * <h2>What a batch shares</h2>
+ * Its fate. Brevo accepts or rejects the request as a whole, so one malformed recipient rejects
+ * every caller in the batch with the same {@link Reason#REQUEST_REJECTED}, and a timeout leaves
+ * every one of them uncertain. Nothing is retried or split to isolate the culprit — that would be
+ * a retry of a send whose outcome may be unknown. This is why batching is opt-in: it is a good
+ * trade for trusted bulk traffic, and a poor one for a mix of unrelated callers.
+ *
+ * <p>A batch that closes with a single send is sent exactly as that send would have been without
+ * batching, so light traffic pays the linger and nothing else.
+ *
+ * <p>Where this sits among the other provider decorators is decided in {@code EmailProviderConfig}.
+ */
+@Component
+@ConditionalOnProperty(prefix = "brevo.batching", name = "enabled", havingValue = "true")
+public class CoalescingBrevoEmailProvider implements EmailProvider {
+
+    private static final Logger log = LoggerFactory.getLogger(CoalescingBrevoEmailProvider.class);
+
+    private final EmailProvider delegate;
+    private final BrevoProperties.Batching settings;
+    private final ScheduledExecutorService lingerTimer;
+
+    /** Open batches, one per compatibility key. Guarded by {@code this}. */
+    private final Map<BatchKey, Batch> open = new HashMap<>();
+
+    CoalescingBrevoEmailProvider(BrevoEmailProvider brevoEmailProvider, BrevoProperties properties) {
+        this.delegate = brevoEmailProvider;
+        this.settings = properties.batching();
+        this.lingerTimer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "brevo-batch-linger");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public String name() {
+        return delegate.name();
+    }
+
+    @Override
+    public boolean supports(SendEmailCommand command) {
+        return delegate.supports(command);
+    }
+
+    @Override
+    public SendEmailResult send(SendEmailCommand command) {
+        return delegate.send(command);
+    }
+
+    @Override
+    public CompletableFuture<SendEmailResult> sendAsync(SendEmailCommand command) {
+        if (!isEligible(command)) {
+            return delegate.sendAsync(command);
+        }
+
+        Pending pending = new Pending(command, new CompletableFuture<>());
+        Batch full = null;
+
+        synchronized (this) {
+            BatchKey key = BatchKey.of(command);
+            Batch batch = open.get(key);
+            if (batch == null) {
+                batch = new Batch(key);
+                open.put(key, batch);
+                Batch scheduled = batch;
+                batch.lingerTask = lingerTimer.schedule(() -> closeOnLinger(scheduled),
+                        settings.linger().toNanos(), TimeUnit.NANOSECONDS);
+            }
+            batch.members.add(pending);
+            if (batch.members.size() >= settings.maxVersions()) {
+                open.remove(key);
+                batch.lingerTask.cancel(false);
+                full = batch;
+            }
+        }
+
+        // Sent outside the lock: building and handing off the request is not free, and other
+        // callers should be free to open the next batch meanwhile.
+        if (full != null) {
+            dispatch(full);
+        }
+        return pending.result;
+    }
+
+    /** Sends whatever is still waiting, so a shutdown does not strand callers on their futures. */
+    @PreDestroy
+    void flushOnShutdown() {
+        List<Batch> remaining;
+        synchronized (this) {
+            remaining = new ArrayList<>(open.values());
+            open.clear();
+        }
+        remaining.forEach(batch -> {
+            batch.lingerTask.cancel(false);
+            dispatch(batch);
+        });
+        lingerTimer.shutdown();
+    }
+
+    private void closeOnLinger(Batch batch) {
+        synchronized (this) {
+            // Already closed by reaching maxVersions; that path has dispatched it.
+            if (open.get(batch.key) != batch) {
+                return;
+            }
+            open.remove(batch.key);
+        }
+        dispatch(batch);
+    }
+
+    private void dispatch(Batch batch) {
+        List<Pending> members = batch.members;
+
+        if (members.size() == 1) {
+            Pending only = members.get(0);
+            delegate.sendAsync(only.command).whenComplete((result, failure) -> {
+                if (failure != null) {
+                    only.result.completeExceptionally(unwrap(failure));
+                } else {
+                    only.result.complete(result);
+                }
+            });
+            return;
+        }
+
+        log.debug("Sending coalesced batch: versions={}", members.size());
+        delegate.sendAsync(merge(batch.key, members)).whenComplete((result, failure) -> {
+            if (failure != null) {
+                Throwable cause = unwrap(failure);
+                members.forEach(member -> member.result.completeExceptionally(cause));
+                return;
+            }
+            distribute(result, members);
+        });
+    }
+
+    /**
+     * Hands each caller the message id Brevo assigned to its version.
+     *
+     * <p>Brevo returns ids in version order. If the count does not match, the mapping is unknown:
+     * the mail was accepted, so every caller is told it may have been sent rather than being
+     * handed somebody else's id.
+     */
+    private void distribute(SendEmailResult result, List<Pending> members) {
+        List<String> ids = result.messageIds();
+        if (ids.size() != members.size()) {
+            EmailProviderException unmapped = new EmailProviderException(Reason.PROVIDER_UNAVAILABLE,
+                    result.provider(), "Brevo returned " + ids.size() + " message ids for a batch of "
+                    + members.size() + "; they cannot be attributed to individual sends");
+            log.warn("Coalesced batch accepted but unattributable: versions={} messageIds={}",
+                    members.size(), ids.size());
+            members.forEach(member -> member.result.completeExceptionally(unmapped));
+            return;
+        }
+        for (int i = 0; i < members.size(); i++) {
+            members.get(i).result.complete(SendEmailResult.single(ids.get(i), result.provider()));
+        }
+    }
+
+    // Package-private for tests: the rule that keeps one caller's copies away from another's.
+    static boolean isEligible(SendEmailCommand command) {
+        return !command.isMultiVariant() && command.cc().isEmpty() && command.bcc().isEmpty();
+    }
+
+    private static SendEmailCommand merge(BatchKey key, List<Pending> members) {
+        List<MessageVariant> versions = members.stream()
+                .map(member -> new MessageVariant(member.command.to(), null, null))
+                .toList();
+        return new SendEmailCommand(key.sender(), List.of(), List.of(), List.of(), key.replyTo(),
+                key.subject(), key.htmlContent(), key.textContent(), versions);
+    }
+
+    private static Throwable unwrap(Throwable failure) {
+        return failure instanceof CompletionException && failure.getCause() != null
+                ? failure.getCause()
+                : failure;
+    }
+
+    /** Everything two sends must share to travel as versions of one message. */
+    private record BatchKey(EmailAddress sender, EmailAddress replyTo, String subject,
+                            String htmlContent, String textContent) {
+
+        static BatchKey of(SendEmailCommand command) {
+            return new BatchKey(command.sender(), command.replyTo(), command.subject(),
+                    command.htmlContent(), command.textContent());
+        }
+    }
+
+    private record Pending(SendEmailCommand command, CompletableFuture<SendEmailResult> result) {
+    }
+
+    private static final class Batch {
+        final BatchKey key;
+        final List<Pending> members = new ArrayList<>();
+        ScheduledFuture<?> lingerTask;
+
+        Batch(BatchKey key) {
+            this.key = key;
+        }
+    }
+}
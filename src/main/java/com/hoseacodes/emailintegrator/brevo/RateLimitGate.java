@@ -0,0 +1,149 @@
+package com.hoseacodes.emailintegrator.brevo;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Keeps sends away from Brevo while Brevo has asked us to wait, and optionally paces them to the
+ * account's rate so it never has to.
+ *
+ * <p>A 429 is an answer about the account, not the request: every send made before its
+ * {@code Retry-After} has passed earns another 429, costs a round trip to find that out, and on
+ * some plans counts against the quota it is being refused for. So the first 429 pauses every send
+ * through this process until the instant it names, and a send in that window is refused here as
+ * {@code RATE_LIMITED} with the time remaining — the same answer Brevo would have given, without
+ * asking it.
+ *
+ * <p>The pause only ever lengthens. Sends in flight when the first 429 arrives can come back with
+ * shorter {@code Retry-After}s of their own; honouring the shortest would reopen the gate early.
+ * A 429 without a usable header pauses for {@code brevo.rate-limit.default-pause}, and no pause is
+ * longer than {@code max-pause}: a malformed or quota-reset header naming tomorrow should not stop
+ * mail for a day on the strength of one reply.
+ *
+ * <h2>Proactive pacing</h2>
+ * With {@code brevo.rate-limit.requests-per-second} set, a token bucket holding up to
+ * {@code burst} sends admits them at that rate, and a send finding it empty is refused the same
+ * way. Set it to the account's published limit and the 429s do not happen in the first place. It
+ * is off by default because the right figure depends on the plan, and a guess too low would refuse
+ * mail Brevo would have taken. The bucket is per process; on several instances, divide the account
+ * rate between them.
+ *
+ * <p>Neither mechanism waits. A caller is told how long to wait and decides for itself, for the
+ * same reason the HTTP clients do not sleep on {@code Retry-After}: a request thread parked on
+ * someone else's rate limit is how one throttled dependency becomes an outage.
+ */
+final class RateLimitGate implements MeterBinder {
+
+    private static final Logger log = LoggerFactory.getLogger(RateLimitGate.class);
+
+    private final BrevoProperties.RateLimit settings;
+    private final LongSupplier nanoTime;
+
+    private final LongAdder refusedPaused = new LongAdder();
+    private final LongAdder refusedPaced = new LongAdder();
+
+    // Written under this; read without it on every send, so volatile.
+    private volatile long pausedUntilNanos;
+
+    // Guarded by this.
+    private double tokens;
+    private long refilledAtNanos;
+
+    RateLimitGate(BrevoProperties.RateLimit settings) {
+        this(settings, System::nanoTime);
+    }
+
+    RateLimitGate(BrevoProperties.RateLimit settings, LongSupplier nanoTime) {
+        this.settings = settings;
+        this.nanoTime = nanoTime;
+        long now = nanoTime.getAsLong();
+        // nanoTime has an arbitrary origin, so "not paused" is a deadline already passed rather
+        // than zero, which could lie in the future.
+        this.pausedUntilNanos = now;
+        this.refilledAtNanos = now;
+        this.tokens = settings.burst();
+    }
+
+    /**
+     * @return null if the send may go ahead, otherwise how long until one might; a refusal has
+     *         already been counted
+     */
+    Duration tryPass() {
+        long now = nanoTime.getAsLong();
+        long paused = pausedUntilNanos - now;
+        if (paused > 0) {
+            refusedPaused.increment();
+            return Duration.ofNanos(paused);
+        }
+        if (settings.requestsPerSecond() > 0) {
+            Duration wait = takeToken(now);
+            if (wait != null) {
+                refusedPaced.increment();
+                return wait;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Brevo answered 429. Pauses every send until its {@code Retry-After} has passed.
+     *
+     * @param retryAfter as Brevo gave it, or null if it gave none we could read
+     */
+    synchronized void onRateLimited(Duration retryAfter) {
+        Duration pause = retryAfter == null ? settings.defaultPause() : retryAfter;
+        if (pause.compareTo(settings.maxPause()) > 0) {
+            log.warn("Brevo asked us to wait {}; pausing for brevo.rate-limit.max-pause={} instead",
+                    pause, settings.maxPause());
+            pause = settings.maxPause();
+        }
+        long until = nanoTime.getAsLong() + pause.toNanos();
+        if (until - pausedUntilNanos > 0) {
+            pausedUntilNanos = until;
+            log.warn("Brevo returned 429; refusing sends for {}", pause);
+        }
+    }
+
+    private synchronized Duration takeToken(long now) {
+        double rate = settings.requestsPerSecond();
+        tokens = Math.min(settings.burst(), tokens + (now - refilledAtNanos) * rate / 1e9);
+        refilledAtNanos = now;
+        if (tokens >= 1) {
+            tokens -= 1;
+            return null;
+        }
+        return Duration.ofNanos((long) Math.ceil((1 - tokens) / rate * 1e9));
+    }
+
+    long refusedPaused() {
+        return refusedPaused.sum();
+    }
+
+    long refusedPaced() {
+        return refusedPaced.sum();
+    }
+
+    /**
+     * One counter, tagged by why: {@code retry-after} while paused after a 429, {@code rate}
+     * when the token bucket was empty. The first means Brevo is throttling us; the second means
+     * we are throttling ourselves, as configured.
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("brevo.rate-limit.refused", this, RateLimitGate::refusedPaused)
+                .tag("cause", "retry-after")
+                .description("Sends refused without calling Brevo because of its rate limit")
+                .register(registry);
+        FunctionCounter.builder("brevo.rate-limit.refused", this, RateLimitGate::refusedPaced)
+                .tag("cause", "rate")
+                .description("Sends refused without calling Brevo because of its rate limit")
+                .register(registry);
+    }
+}
@@ -0,0 +1,236 @@
+package com.hoseacodes.emailintegrator.brevo;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hoseacodes.emailintegrator.brevo.wire.BrevoWire;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.nio.AsyncEntityProducer;
+import org.apache.hc.core5.http.nio.DataStreamChannel;
+import org.springframework.util.StreamUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes a {@link BrevoWire.SendRequest} as JSON without first materialising it.
+ *
+ * <p>A multi-variant send with a thousand versions of a large HTML body is megabytes of JSON.
+ * {@code writeValueAsBytes} builds all of it in segments, then copies it into one array, and the
+ * array lives until the last byte is on the wire — two or three payload-sized allocations per send,
+ * on top of the request itself. Here the body is generated as the connection accepts it: the
+ * fixed fields first, then versions one at a time into a small reused buffer, so what a send
+ * allocates for serialisation no longer grows with its payload.
+ *
+ * <p>Two entry points share one field order. {@link #writeTo} feeds the blocking client, which
+ * hands us its connection's output stream; the instance itself is an {@link AsyncEntityProducer}
+ * for the non-blocking client, which instead asks for bytes whenever its channel is writable.
+ *
+ * <h2>Field order</h2>
+ * The top-level fields are written by hand so the {@code messageVersions} array can be produced
+ * incrementally. They follow {@link BrevoWire.SendRequest}'s declaration order and its
+ * {@code NON_NULL} rule, and a test asserts the output is identical to Jackson's for the same
+ * record — add a field there and that test fails until it is added here.
+ *
+ * <h2>Compression</h2>
+ * With {@code gzip}, the JSON passes through a {@link GZIPOutputStream} on its way out and the
+ * request carries {@code Content-Encoding: gzip}. Version bodies in a bulk send are near-identical,
+ * which is the best case for DEFLATE. Off by default, because a provider that does not decode
+ * request bodies would reject every send.
+ *
+ * <p>Not thread-safe. One producer per exchange; the transport builds a fresh one per attempt.
+ */
+final class SendRequestBody implements AsyncEntityProducer {
+
+    /** Roughly how much JSON is generated per write to the channel. */
+    static final int CHUNK_BYTES = 8 * 1024;
+
+    private final ObjectMapper json;
+    private final BrevoWire.SendRequest request;
+    private final boolean gzip;
+
+    private Chunk chunk;
+    private JsonGenerator generator;
+    private int nextVersion;
+    private boolean generated;
+    private boolean ended;
+    private ByteBuffer pending;
+
+    SendRequestBody(ObjectMapper json, BrevoWire.SendRequest request, boolean gzip) {
+        this.json = json;
+        this.request = request;
+        this.gzip = gzip;
+    }
+
+    /**
+     * Streams the request to {@code out}, compressing it if asked. {@code out} is left open: it
+     * belongs to the HTTP client.
+     */
+    static void writeTo(ObjectMapper json, BrevoWire.SendRequest request, boolean gzip, OutputStream out)
+            throws IOException {
+        OutputStream target = StreamUtils.nonClosing(out);
+        OutputStream sink = gzip ? new GZIPOutputStream(target, CHUNK_BYTES) : target;
+        // Closing the generator closes the gzip stream, which finishes it; target ignores close.
+        try (JsonGenerator g = json.createGenerator(sink)) {
+            writeHead(g, request);
+            List<BrevoWire.MessageVersion> versions = request.messageVersions();
+            if (versions != null) {
+                for (BrevoWire.MessageVersion version : versions) {
+                    g.writeObject(version);
+                }
+            }
+            writeTail(g, request);
+        }
+    }
+
+    // -- AsyncEntityProducer ---------------------------------------------------------------------
+
+    @Override
+    public void produce(DataStreamChannel channel) throws IOException {
+        while (!ended) {
+            if (pending != null) {
+                channel.write(pending);
+                if (pending.hasRemaining()) {
+                    return; // the channel is full; we are called again when it drains
+                }
+                pending = null;
+                chunk.reset();
+            }
+            if (generated) {
+                ended = true;
+                channel.endStream();
+                return;
+            }
+            generateChunk();
+        }
+    }
+
+    /**
+     * Generates at least {@link #CHUNK_BYTES} of output, or the rest of the body if less remains.
+     * Versions are never split, so a single huge version makes a chunk that size.
+     */
+    private void generateChunk() throws IOException {
+        if (generator == null) {
+            chunk = new Chunk();
+            generator = json.createGenerator(gzip ? new GZIPOutputStream(chunk, CHUNK_BYTES) : chunk);
+            writeHead(generator, request);
+        }
+
+        List<BrevoWire.MessageVersion> versions = request.messageVersions();
+        int total = versions == null ? 0 : versions.size();
+        while (chunk.size() < CHUNK_BYTES && nextVersion < total) {
+            generator.writeObject(versions.get(nextVersion++));
+            generator.flush();
+        }
+
+        if (nextVersion == total) {
+            writeTail(generator, request);
+            generator.close();
+            generated = true;
+        } else {
+            generator.flush();
+        }
+        pending = chunk.readable();
+    }
+
+    @Override
+    public int available() {
+        if (ended) {
+            return 0;
+        }
+        return pending != null ? pending.remaining() : CHUNK_BYTES;
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    @Override
+    public void failed(Exception cause) {
+        releaseResources();
+    }
+
+    /** Also what makes the producer repeatable: the next {@link #produce} starts from the top. */
+    @Override
+    public void releaseResources() {
+        generator = null;
+        chunk = null;
+        pending = null;
+        nextVersion = 0;
+        generated = false;
+        ended = false;
+    }
+
+    @Override
+    public String getContentType() {
+        return ContentType.APPLICATION_JSON.toString();
+    }
+
+    @Override
+    public String getContentEncoding() {
+        return gzip ? "gzip" : null;
+    }
+
+    @Override
+    public long getContentLength() {
+        return -1;
+    }
+
+    @Override
+    public boolean isChunked() {
+        return true;
+    }
+
+    @Override
+    public Set<String> getTrailerNames() {
+        return null;
+    }
+
+    // -- the JSON around messageVersions ---------------------------------------------------------
+
+    private static void writeHead(JsonGenerator g, BrevoWire.SendRequest request) throws IOException {
+        g.writeStartObject();
+        writeIfPresent(g, "sender", request.sender());
+        writeIfPresent(g, "to", request.to());
+        writeIfPresent(g, "cc", request.cc());
+        writeIfPresent(g, "bcc", request.bcc());
+        writeIfPresent(g, "replyTo", request.replyTo());
+        writeIfPresent(g, "subject", request.subject());
+        writeIfPresent(g, "htmlContent", request.htmlContent());
+        writeIfPresent(g, "textContent", request.textContent());
+        if (request.messageVersions() != null) {
+            g.writeFieldName("messageVersions");
+            g.writeStartArray();
+        }
+    }
+
+    private static void writeTail(JsonGenerator g, BrevoWire.SendRequest request) throws IOException {
+        if (request.messageVersions() != null) {
+            g.writeEndArray();
+        }
+        g.writeEndObject();
+    }
+
+    private static void writeIfPresent(JsonGenerator g, String field, Object value) throws IOException {
+        if (value != null) {
+            g.writeObjectField(field, value);
+        }
+    }
+
+    /** A byte buffer whose contents can be handed to the channel without copying. */
+    private static final class Chunk extends ByteArrayOutputStream {
+
+        Chunk() {
+            super(CHUNK_BYTES * 2);
+        }
+
+        ByteBuffer readable() {
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+    }
+}
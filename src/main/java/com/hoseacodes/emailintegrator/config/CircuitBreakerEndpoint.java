@@ -0,0 +1,28 @@
+package com.hoseacodes.emailintegrator.config;
+
+import com.hoseacodes.emailintegrator.email.CircuitBreakingEmailProvider;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+
+/**
+ * {@code GET /actuator/circuitbreaker}: whether sends are currently being refused, and why.
+ *
+ * <p>A separate endpoint rather than a health contributor on purpose. An open breaker means the
+ * provider is down, not this process; reporting it through {@code /actuator/health} would have the
+ * platform replace a healthy instance for an outage it cannot fix. Like every actuator endpoint
+ * other than health, this one requires an API key.
+ */
+@Endpoint(id = "circuitbreaker")
+public class CircuitBreakerEndpoint {
+
+    private final CircuitBreakingEmailProvider emailProvider;
+
+    CircuitBreakerEndpoint(CircuitBreakingEmailProvider emailProvider) {
+        this.emailProvider = emailProvider;
+    }
+
+    @ReadOperation
+    public CircuitBreakingEmailProvider.Snapshot circuitBreaker() {
+        return emailProvider.snapshot();
+    }
+}
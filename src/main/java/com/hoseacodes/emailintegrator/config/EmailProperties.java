@@ -23,6 +23,12 @@ public class EmailProperties {
      */
     private List<String> allowedLinkHosts = new ArrayList<>();
 
+    /**
+     * How many accepted links {@code LinkSanitizer} remembers, most recently used first, so a
+     * link sent again is not parsed again. Zero turns the cache off.
+     */
+    private int linkCacheSize = 1024;
+
     public List<String> getAllowedLinkHosts() {
         return allowedLinkHosts;
     }
@@ -31,6 +37,14 @@ public class EmailProperties {
         this.allowedLinkHosts = allowedLinkHosts;
     }
 
+    public int getLinkCacheSize() {
+        return linkCacheSize;
+    }
+
+    public void setLinkCacheSize(int linkCacheSize) {
+        this.linkCacheSize = linkCacheSize;
+    }
+
     public String getDefaultFromAddress() {
         return defaultFromAddress;
     }
@@ -0,0 +1,67 @@
+package com.hoseacodes.emailintegrator.config;
+
+import com.hoseacodes.emailintegrator.brevo.BrevoEmailProvider;
+import com.hoseacodes.emailintegrator.brevo.CoalescingBrevoEmailProvider;
+import com.hoseacodes.emailintegrator.email.CircuitBreakerProperties;
+import com.hoseacodes.emailintegrator.email.CircuitBreakingEmailProvider;
+import com.hoseacodes.emailintegrator.email.EmailProvider;
+import com.hoseacodes.emailintegrator.email.RoutingEmailProvider;
+import com.hoseacodes.emailintegrator.email.RoutingProperties;
+import com.hoseacodes.emailintegrator.service.SmtpEmailProvider;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+
+import java.util.List;
+
+/**
+ * Assembles the {@link EmailProvider} the application sends through.
+ *
+ * <p>Each layer is an {@code EmailProvider} wrapping the next, so the order is a decision, and it
+ * is made here rather than left to bean precedence:
+ *
+ * <pre>
+ * RoutingEmailProvider                  only when app.email.routing.enabled=true
+ *   ├ CircuitBreakingEmailProvider      refuses sends while Brevo is down
+ *   │   └ CoalescingBrevoEmailProvider  only when brevo.batching.enabled=true
+ *   │       └ BrevoEmailProvider        the HTTP calls
+ *   └ SmtpEmailProvider                 the mail server, when Brevo certainly did not send
+ * </pre>
+ *
+ * <p>The breaker is outermost on the Brevo side so that a refused send is refused before it joins
+ * a batch: a batch that the breaker would reject whole should never be assembled, and an open
+ * breaker should not leave callers waiting out a linger to be told so. It sits under the router,
+ * not over it, so that it judges Brevo alone — a breaker over both would open on Brevo's outage
+ * and refuse the sends SMTP could have carried.
+ */
+@Configuration
+@EnableConfigurationProperties({CircuitBreakerProperties.class, RoutingProperties.class})
+public class EmailProviderConfig {
+
+    @Bean
+    CircuitBreakingEmailProvider brevoCircuitBreaker(BrevoEmailProvider brevo,
+                                                     ObjectProvider<CoalescingBrevoEmailProvider> coalescing,
+                                                     CircuitBreakerProperties circuitBreaker) {
+        CoalescingBrevoEmailProvider batching = coalescing.getIfAvailable();
+        EmailProvider delegate = batching != null ? batching : brevo;
+        return new CircuitBreakingEmailProvider(delegate, circuitBreaker);
+    }
+
+    @Bean
+    @Primary
+    EmailProvider emailProvider(CircuitBreakingEmailProvider brevoCircuitBreaker,
+                                SmtpEmailProvider smtp,
+                                RoutingProperties routing) {
+        if (!routing.enabled()) {
+            return brevoCircuitBreaker;
+        }
+        return new RoutingEmailProvider(List.of(brevoCircuitBreaker, smtp), routing);
+    }
+
+    @Bean
+    CircuitBreakerEndpoint circuitBreakerEndpoint(CircuitBreakingEmailProvider brevoCircuitBreaker) {
+        return new CircuitBreakerEndpoint(brevoCircuitBreaker);
+    }
+}
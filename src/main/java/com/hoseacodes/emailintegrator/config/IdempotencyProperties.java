@@ -0,0 +1,48 @@
+package com.hoseacodes.emailintegrator.config;
+
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Positive;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.ConstructorBinding;
+import org.springframework.validation.annotation.Validated;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+/**
+ * How long {@code Idempotency-Key}s are remembered, how many, and where. See
+ * {@code IdempotencyStore}.
+ *
+ * @param ttl     how long after a key is first used a repeat of it is still answered from the
+ *                store. A retry later than this sends again, so it should comfortably outlast any
+ *                caller's retry schedule; a day by default.
+ * @param maxKeys keys held at most. Past it the oldest settled ones are forgotten before their
+ *                {@code ttl}, which is counted and logged: the bound is there so a flood of keys
+ *                costs memory up to a limit rather than the heap. Keys still sending are kept, so
+ *                they alone can exceed it.
+ * @param file    append-only journal of keys and outcomes, read back at startup so a restart does
+ *                not forget them; optional. Must be writable if set.
+ */
+@Validated
+@ConfigurationProperties(prefix = "app.email.idempotency")
+public record IdempotencyProperties(
+
+        @NotNull
+        Duration ttl,
+
+        @Positive
+        Integer maxKeys,
+
+        Path file) {
+
+    @ConstructorBinding
+    public IdempotencyProperties {
+        ttl = ttl == null ? Duration.ofHours(24) : ttl;
+        maxKeys = maxKeys == null ? 50_000 : maxKeys;
+    }
+
+    /** In memory only, with the default limits. */
+    public static IdempotencyProperties inMemory() {
+        return new IdempotencyProperties(null, null, null);
+    }
+}
@@ -2,10 +2,13 @@ package com.hoseacodes.emailintegrator.config;
 
 import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.PositiveOrZero;
 import jakarta.validation.constraints.Size;
 import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.ConstructorBinding;
 import org.springframework.validation.annotation.Validated;
 
+import java.nio.file.Path;
 import java.time.Duration;
 
 /**
@@ -27,6 +30,14 @@ import java.time.Duration;
  *                   below that JJWT throws {@code WeakKeyException} at first use.
  * @param expiration how long an approval link stays valid
  * @param issuer     value placed in, and required from, the {@code iss} claim
+ * @param verifiedCacheSize how many verified tokens are remembered until they expire, so one
+ *                   presented again is not verified again; zero turns that off. 1024 unless set.
+ * @param format     which format new links are minted in. Both are always accepted, so switching
+ *                   to {@code compact} is safe once every instance runs a version that verifies
+ *                   it; until then an older instance would refuse a newer instance's links.
+ *                   {@code jwt} unless set.
+ * @param consumedTokensFile where the ids of used approval links are journaled, so they stay
+ *                   used across a restart. Held in memory only when unset.
  */
 @Validated
 @ConfigurationProperties(prefix = "app.jwt")
@@ -41,10 +52,29 @@ public record JwtProperties(
         Duration expiration,
 
         @NotBlank
-        String issuer) {
+        String issuer,
 
+        @PositiveOrZero
+        Integer verifiedCacheSize,
+
+        TokenFormat format,
+
+        Path consumedTokensFile) {
+
+    /** How approval links are minted; see {@code ApprovalTokenService}. */
+    public enum TokenFormat {
+        JWT, COMPACT
+    }
+
+    @ConstructorBinding
     public JwtProperties {
         expiration = expiration == null ? Duration.ofHours(24) : expiration;
         issuer = (issuer == null || issuer.isBlank()) ? "email-integrator" : issuer.trim();
+        verifiedCacheSize = verifiedCacheSize == null ? 1024 : verifiedCacheSize;
+        format = format == null ? TokenFormat.JWT : format;
+    }
+
+    public JwtProperties(String secret, Duration expiration, String issuer) {
+        this(secret, expiration, issuer, null, null, null);
     }
 }
@@ -1,6 +1,9 @@
 package com.hoseacodes.emailintegrator.config;
 
+import com.hoseacodes.emailintegrator.service.PooledJavaMailSender;
+import io.micrometer.core.instrument.binder.MeterBinder;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.mail.javamail.JavaMailSender;
@@ -39,10 +42,51 @@ public class MailConfig {
     @Value("${app.mail.write-timeout:15s}")
     private Duration writeTimeout;
 
+    /** Authenticated sessions kept open between sends. */
+    @Value("${app.mail.pool.size:4}")
+    private int poolSize;
+
+    /** Messages sent on one session before it is closed and a fresh one opened. */
+    @Value("${app.mail.pool.max-messages:50}")
+    private int poolMaxMessages;
+
+    /**
+     * How long a session may sit unused before it is closed. Kept well below the few minutes
+     * after which mail servers drop idle clients, so a session is normally closed by us, politely,
+     * rather than found dead.
+     */
+    @Value("${app.mail.pool.max-idle:30s}")
+    private Duration poolMaxIdle;
+
+    /**
+     * The sender, keeping SMTP sessions open between sends. On unless
+     * {@code app.mail.pool.enabled=false}. See {@link PooledJavaMailSender}.
+     *
+     * <p>Declared as {@code JavaMailSender}, as it always has been, rather than as its own type:
+     * Spring Boot adds a mail health indicator for any {@code JavaMailSenderImpl} bean it can see,
+     * and that indicator would put Gmail's reachability into the public health check. See
+     * OPERATIONS.md on why health does not probe the mail dependency.
+     */
     @Bean
+    @ConditionalOnProperty(prefix = "app.mail.pool", name = "enabled", havingValue = "true", matchIfMissing = true)
+    public JavaMailSender pooledJavaMailSender() {
+        return configure(new PooledJavaMailSender(poolSize, poolMaxMessages, poolMaxIdle));
+    }
+
+    /** The sender that connects for every send, for when pooling is turned off. */
+    @Bean
+    @ConditionalOnProperty(prefix = "app.mail.pool", name = "enabled", havingValue = "false")
     public JavaMailSender getJavaMailSender() {
-        JavaMailSenderImpl mailSender = new JavaMailSenderImpl();
-        
+        return configure(new JavaMailSenderImpl());
+    }
+
+    /** Publishes {@code smtp.sessions.*} when the sender is pooled; nothing otherwise. */
+    @Bean
+    MeterBinder smtpSessionMetrics(JavaMailSender mailSender) {
+        return mailSender instanceof PooledJavaMailSender pooled ? pooled : registry -> { };
+    }
+
+    private <T extends JavaMailSenderImpl> T configure(T mailSender) {
         mailSender.setHost(host);
         mailSender.setPort(port);
         mailSender.setUsername(username);
@@ -0,0 +1,67 @@
+package com.hoseacodes.emailintegrator.config;
+
+import jakarta.validation.constraints.NotNull;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.ConstructorBinding;
+import org.springframework.validation.annotation.Validated;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Set;
+
+/**
+ * Where email templates come from besides the jar, and how they are prepared.
+ *
+ * <p>Unset, the templates bundled under {@code resources/templates} are the only ones, and
+ * changing one is a redeploy. Set, every {@code *.html} in {@code directory} is compiled over the
+ * bundled set by file name — a template the directory lacks is still served from the jar — and
+ * the directory is watched, so an edited file is live within {@code reload-delay} of the last
+ * write to it. See {@code EmailTemplateService}.
+ *
+ * <p>Every template, bundled or not, is minified as it is compiled unless switched off here; see
+ * {@code HtmlMinifier} for what that does and does not touch.
+ *
+ * @param directory   filesystem directory of templates overriding the bundled ones; optional
+ * @param reloadDelay quiet period after a change before the directory is recompiled, so a burst
+ *                    of writes — an editor saving, a deploy tool copying several files — is one
+ *                    reload of the finished files rather than several of partial ones
+ * @param minify      strip indentation and comments from templates when they are compiled. On
+ *                    unless set.
+ * @param unminified  file names of templates compiled exactly as written even with
+ *                    {@code minify} on — for a template whose whitespace matters in a way the
+ *                    minifier cannot see, such as one viewed as plain text
+ */
+@Validated
+@ConfigurationProperties(prefix = "app.email.templates")
+public record TemplateProperties(
+
+        Path directory,
+
+        @NotNull
+        Duration reloadDelay,
+
+        Boolean minify,
+
+        Set<String> unminified) {
+
+    @ConstructorBinding
+    public TemplateProperties {
+        reloadDelay = reloadDelay == null ? Duration.ofMillis(250) : reloadDelay;
+        minify = minify == null || minify;
+        unminified = unminified == null ? Set.of() : Set.copyOf(unminified);
+    }
+
+    public TemplateProperties(Path directory, Duration reloadDelay) {
+        this(directory, reloadDelay, null, null);
+    }
+
+    /** Bundled templates only, minified. */
+    public static TemplateProperties bundledOnly() {
+        return new TemplateProperties(null, null);
+    }
+
+    /** Whether the template with this file name is minified when compiled. */
+    public boolean minifies(String templateName) {
+        return minify && !unminified.contains(templateName);
+    }
+}
@@ -3,7 +3,9 @@ package com.hoseacodes.emailintegrator.controller;
 import com.fasterxml.jackson.annotation.JsonSubTypes;
 import com.fasterxml.jackson.databind.exc.InvalidTypeIdException;
 import com.hoseacodes.emailintegrator.email.EmailProviderException;
+import com.hoseacodes.emailintegrator.security.ClientRateLimitedException;
 import com.hoseacodes.emailintegrator.service.EmailSendingDisabledException;
+import com.hoseacodes.emailintegrator.service.IdempotencyKeyReusedException;
 import jakarta.servlet.http.HttpServletRequest;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -61,6 +63,12 @@ import java.util.stream.Collectors;
  *   <li>{@code PROVIDER_UNAVAILABLE} → <b>502</b>; {@code TIMEOUT} → <b>504</b>;
  *       {@code CONNECT_FAILED} → <b>503</b>. Distinguishing these lets a caller — and a dashboard —
  *       tell "provider erroring" from "provider slow" from "provider unreachable".</li>
+ *   <li>{@code CIRCUIT_OPEN} → <b>503</b> with {@code Retry-After}. The provider was not called at
+ *       all, so like {@code CONNECT_FAILED} nothing was sent; the distinct code tells an operator
+ *       the refusal was ours, made on the strength of earlier failures.</li>
+ *   <li>{@code CONCURRENCY_LIMITED} → <b>503</b> with {@code Retry-After}. Also ours and also not
+ *       attempted: the provider is slow and already has as much work as it is judged to handle.
+ *       Not 429, which would tell this caller that <em>they</em> are sending too much.</li>
  * </ul>
  */
 @RestControllerAdvice
@@ -240,6 +248,54 @@ public class ApiExceptionHandler extends ResponseEntityExceptionHandler {
                 errorId));
     }
 
+    /**
+     * The calling client is over its own recipient allowance.
+     *
+     * <p>429 with {@code Retry-After}, like a provider's {@code RATE_LIMITED}, but a separate code:
+     * that one says the service is throttled for everyone, this one that this client should slow
+     * down while others carry on. {@code Retry-After} is rounded up, since a caller retrying on
+     * the rounded-down second would be refused again.
+     */
+    @ExceptionHandler(ClientRateLimitedException.class)
+    ResponseEntity<ApiError> handleClientRateLimited(ClientRateLimitedException e, HttpServletRequest request) {
+        String errorId = newErrorId();
+        log.info("Send rejected [{}] for {}: client {} is over its rate limit",
+                errorId, request.getRequestURI(), e.getClientId());
+
+        HttpHeaders headers = new HttpHeaders();
+        long seconds = e.getRetryAfter().plusNanos(999_999_999).toSeconds();
+        headers.add(HttpHeaders.RETRY_AFTER, Long.toString(Math.max(1, seconds)));
+        return new ResponseEntity<>(ApiError.of(
+                HttpStatus.TOO_MANY_REQUESTS.value(),
+                "CLIENT_RATE_LIMITED",
+                "This client has sent to too many recipients recently. The message was not sent; "
+                        + "retry after the indicated delay.",
+                request.getRequestURI(),
+                errorId), headers, HttpStatus.TOO_MANY_REQUESTS);
+    }
+
+    /**
+     * An {@code Idempotency-Key} arrived with a request other than the one it was first used for.
+     *
+     * <p>422, as the IETF idempotency-key draft specifies: the request is well-formed, but cannot
+     * be processed under that key. Not 409, which the draft keeps for a key whose first request is
+     * still in flight — here that case waits for it instead.
+     */
+    @ExceptionHandler(IdempotencyKeyReusedException.class)
+    ResponseEntity<ApiError> handleIdempotencyKeyReused(IdempotencyKeyReusedException e, HttpServletRequest request) {
+        String errorId = newErrorId();
+        log.info("Send rejected [{}] for {}: idempotency key reused for a different request",
+                errorId, request.getRequestURI());
+
+        return ResponseEntity.unprocessableEntity().body(ApiError.of(
+                HttpStatus.UNPROCESSABLE_ENTITY.value(),
+                "IDEMPOTENCY_KEY_REUSED",
+                "This Idempotency-Key was already used for a different request. The message was not sent; "
+                        + "use a new key for a new message.",
+                request.getRequestURI(),
+                errorId));
+    }
+
     /** Anything unanticipated. The caller learns nothing about our internals beyond a correlation id. */
     @ExceptionHandler(Exception.class)
     ResponseEntity<ApiError> handleUnexpected(Exception e, HttpServletRequest request) {
@@ -261,6 +317,7 @@ public class ApiExceptionHandler extends ResponseEntityExceptionHandler {
             case RATE_LIMITED -> HttpStatus.TOO_MANY_REQUESTS;      // 429 — caller can act
             case TIMEOUT -> HttpStatus.GATEWAY_TIMEOUT;             // 504 — provider too slow
             case CONNECT_FAILED -> HttpStatus.SERVICE_UNAVAILABLE;  // 503 — provider unreachable
+            case CIRCUIT_OPEN, CONCURRENCY_LIMITED -> HttpStatus.SERVICE_UNAVAILABLE; // 503 — not attempted
             case REQUEST_REJECTED, PROVIDER_AUTH_FAILED, PROVIDER_UNAVAILABLE -> HttpStatus.BAD_GATEWAY;
         };
     }
@@ -276,6 +333,10 @@ public class ApiExceptionHandler extends ResponseEntityExceptionHandler {
                     + "with its provider.";
             case REQUEST_REJECTED -> "The email provider rejected the message.";
             case PROVIDER_UNAVAILABLE -> "The email provider returned an error. Delivery status is unknown.";
+            case CIRCUIT_OPEN -> "The email provider is failing, so sending is paused. The message was not sent; "
+                    + "retry after the indicated delay.";
+            case CONCURRENCY_LIMITED -> "The email provider is at capacity. The message was not sent; "
+                    + "retry after the indicated delay.";
         };
     }
 
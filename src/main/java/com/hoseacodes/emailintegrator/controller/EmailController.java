@@ -6,18 +6,21 @@ import com.hoseacodes.emailintegrator.controller.dto.SendEmailRequest;
 import com.hoseacodes.emailintegrator.controller.dto.SendEmailResponse;
 import com.hoseacodes.emailintegrator.email.EmailAddress;
 import com.hoseacodes.emailintegrator.email.MessageVariant;
-import com.hoseacodes.emailintegrator.email.SendEmailResult;
+import com.hoseacodes.emailintegrator.security.ClientRateLimiter;
 import com.hoseacodes.emailintegrator.service.EmailDeliveryService;
 import com.hoseacodes.emailintegrator.service.EmailDraft;
+import com.hoseacodes.emailintegrator.service.IdempotencyStore;
 import jakarta.validation.Valid;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
 
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * HTTP entry point for provider-backed email sending.
@@ -27,14 +30,26 @@ import java.util.List;
  * business rules, no provider knowledge, and — notably — no {@code try/catch}. Failures are
  * translated centrally by {@link ApiExceptionHandler}, which is what keeps the error contract
  * identical across every endpoint.
+ *
+ * <p>{@code POST /email} returns a {@link CompletableFuture}, which Spring MVC serves through
+ * the Servlet async API: the Tomcat worker is released as soon as the send is handed to the
+ * provider, and the response is written when Brevo answers. A slow provider then accumulates
+ * open connections rather than blocked workers, so it can no longer starve unrelated endpoints
+ * such as {@code /actuator/health}. Failures still reach {@link ApiExceptionHandler} — Spring
+ * unwraps the future's exception before resolving it.
  */
 @RestController
 public class EmailController {
 
     private final EmailDeliveryService emailDeliveryService;
+    private final ClientRateLimiter rateLimiter;
+    private final IdempotencyStore idempotency;
 
-    public EmailController(EmailDeliveryService emailDeliveryService) {
+    public EmailController(EmailDeliveryService emailDeliveryService, ClientRateLimiter rateLimiter,
+                           IdempotencyStore idempotency) {
         this.emailDeliveryService = emailDeliveryService;
+        this.rateLimiter = rateLimiter;
+        this.idempotency = idempotency;
     }
 
     /**
@@ -46,16 +61,28 @@ public class EmailController {
      * processing", which is precisely what happened. 201 Created would imply a resource this API
      * can retrieve, and there is no {@code GET /email/{id}}.
      *
-     * @param request validated send request
+     * <p>The calling client is charged for every recipient before anything else happens; over
+     * its limit, the request is refused with 429 and nothing is sent.
+     *
+     * <p>With an {@code Idempotency-Key}, a repeat of the request is answered with the first
+     * one's outcome and sends nothing, and is not charged; see {@link IdempotencyStore}.
+     *
+     * @param request        validated send request
+     * @param idempotencyKey optional key making a retry of this request safe
      * @return the provider's message identifiers, for correlating later delivery events
      */
     @PostMapping(path = "/email",
             consumes = MediaType.APPLICATION_JSON_VALUE,
             produces = MediaType.APPLICATION_JSON_VALUE)
     @ResponseStatus(HttpStatus.ACCEPTED)
-    public SendEmailResponse sendEmail(@Valid @RequestBody SendEmailRequest request) {
-        SendEmailResult result = emailDeliveryService.send(toDraft(request));
-        return new SendEmailResponse(result.messageIds(), result.provider());
+    public CompletableFuture<SendEmailResponse> sendEmail(
+            @Valid @RequestBody SendEmailRequest request,
+            @RequestHeader(name = IdempotencyStore.HEADER, required = false) String idempotencyKey) {
+        return idempotency.execute(idempotencyKey, request, () -> {
+            rateLimiter.acquire(request.recipientCount());
+            return emailDeliveryService.sendAsync(toDraft(request))
+                    .thenApply(result -> new SendEmailResponse(result.messageIds(), result.provider()));
+        });
     }
 
     // -- wire format to domain ---------------------------------------------------------------
@@ -3,12 +3,15 @@ package com.hoseacodes.emailintegrator.controller;
 import com.hoseacodes.emailintegrator.controller.dto.SendEmailResponse;
 import com.hoseacodes.emailintegrator.controller.dto.SendMailRequest;
 import com.hoseacodes.emailintegrator.email.SendEmailResult;
+import com.hoseacodes.emailintegrator.security.ClientRateLimiter;
+import com.hoseacodes.emailintegrator.service.IdempotencyStore;
 import com.hoseacodes.emailintegrator.service.SpringMailService;
 import jakarta.validation.Valid;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
@@ -32,9 +35,14 @@ import org.springframework.web.bind.annotation.RestController;
 public class SpringMailController {
 
     private final SpringMailService springMailService;
+    private final ClientRateLimiter rateLimiter;
+    private final IdempotencyStore idempotency;
 
-    public SpringMailController(SpringMailService springMailService) {
+    public SpringMailController(SpringMailService springMailService, ClientRateLimiter rateLimiter,
+                                IdempotencyStore idempotency) {
         this.springMailService = springMailService;
+        this.rateLimiter = rateLimiter;
+        this.idempotency = idempotency;
     }
 
     /**
@@ -42,7 +50,8 @@ public class SpringMailController {
      *
      * <p>Returns <b>202 Accepted</b>, consistent with {@code POST /email}. The mail server has
      * accepted the message for delivery; it has not necessarily reached a mailbox, and it can
-     * still bounce afterwards.
+     * still bounce afterwards. As there, the client is charged for each recipient first, and
+     * refused with 429 when over its limit, and an {@code Idempotency-Key} makes a retry safe.
      *
      * @return the SMTP {@code Message-ID}, which is what appears in mail server logs and in the
      *         recipient's headers — so it is the id worth keeping to trace a message later
@@ -51,8 +60,13 @@ public class SpringMailController {
             consumes = MediaType.APPLICATION_JSON_VALUE,
             produces = MediaType.APPLICATION_JSON_VALUE)
     @ResponseStatus(HttpStatus.ACCEPTED)
-    public SendEmailResponse sendEmail(@Valid @RequestBody SendMailRequest request) {
-        SendEmailResult result = springMailService.send(request);
-        return new SendEmailResponse(result.messageIds(), result.provider());
+    public SendEmailResponse sendEmail(
+            @Valid @RequestBody SendMailRequest request,
+            @RequestHeader(name = IdempotencyStore.HEADER, required = false) String idempotencyKey) {
+        return idempotency.call(idempotencyKey, request, () -> {
+            rateLimiter.acquire(request.recipientCount());
+            SendEmailResult result = springMailService.send(request);
+            return new SendEmailResponse(result.messageIds(), result.provider());
+        });
     }
 }
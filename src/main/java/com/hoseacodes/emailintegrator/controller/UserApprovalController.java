@@ -4,8 +4,12 @@ import com.hoseacodes.emailintegrator.controller.dto.ManualDecisionRequest;
 import com.hoseacodes.emailintegrator.controller.dto.SendEmailResponse;
 import com.hoseacodes.emailintegrator.controller.dto.TemplatedEmailRequest;
 import com.hoseacodes.emailintegrator.controller.dto.UserDecisionResponse;
+import com.hoseacodes.emailintegrator.email.EmailProviderException;
 import com.hoseacodes.emailintegrator.email.SendEmailResult;
+import com.hoseacodes.emailintegrator.security.ClientRateLimiter;
 import com.hoseacodes.emailintegrator.service.ApprovalTokenService;
+import com.hoseacodes.emailintegrator.service.ConsumedTokenStore;
+import com.hoseacodes.emailintegrator.service.IdempotencyStore;
 import com.hoseacodes.emailintegrator.service.UserApprovalEmailService;
 import jakarta.validation.Valid;
 import org.slf4j.Logger;
@@ -15,12 +19,15 @@ import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.server.ResponseStatusException;
 
+import java.time.Instant;
+import java.util.Date;
 import java.util.Map;
 
 /**
@@ -38,12 +45,14 @@ import java.util.Map;
  * cannot attach headers — the signed JWT in the query string is their credential, verified by
  * {@link ApprovalTokenService}. See {@code SecurityConfig}.
  *
- * <h2>Known limitation: side effects on GET</h2>
- * {@code GET /auth/approve} and {@code /auth/deny} change state and send mail, which {@code GET}
- * is not supposed to do. A mail client's link prefetcher can therefore trigger an approval nobody
- * clicked. Fixing it properly needs single-use tokens, which needs server-side token state — a
- * design decision deliberately not taken here. Recorded in ENGINEERING_AUDIT MED-6 rather than
- * quietly left.
+ * <h2>Single use, and what it does not fix</h2>
+ * A token's id is consumed in {@link ConsumedTokenStore} before the decision is applied, so each
+ * token acts once, on either endpoint: every later fetch is a 409. If sending the decision email
+ * fails before it could have reached the provider, the id is released, so the link can be tried
+ * again rather than being spent on nothing. What single use cannot fix is {@code GET} having side
+ * effects at all: a mail client's prefetcher that fetches the link <em>first</em> still applies
+ * the decision nobody clicked. A confirmation page that {@code POST}s is the fix for that.
+ * ENGINEERING_AUDIT MED-6.
  */
 @RestController
 @RequestMapping("/auth")
@@ -53,30 +62,49 @@ public class UserApprovalController {
 
     private final ApprovalTokenService approvalTokenService;
     private final UserApprovalEmailService userApprovalEmailService;
+    private final ConsumedTokenStore consumedTokens;
+    private final ClientRateLimiter rateLimiter;
+    private final IdempotencyStore idempotency;
 
     public UserApprovalController(ApprovalTokenService approvalTokenService,
-                                  UserApprovalEmailService userApprovalEmailService) {
+                                  UserApprovalEmailService userApprovalEmailService,
+                                  ConsumedTokenStore consumedTokens,
+                                  ClientRateLimiter rateLimiter,
+                                  IdempotencyStore idempotency) {
         this.approvalTokenService = approvalTokenService;
         this.userApprovalEmailService = userApprovalEmailService;
+        this.consumedTokens = consumedTokens;
+        this.rateLimiter = rateLimiter;
+        this.idempotency = idempotency;
     }
 
     /**
      * Sends a templated email.
      *
      * <p>The body is discriminated by {@code templateType}; each type declares its own required
-     * fields. An unrecognised value is rejected before any object is built.
+     * fields. An unrecognised value is rejected before any object is built. Each template goes
+     * to one recipient, which the calling client is charged for before it is rendered. An
+     * {@code Idempotency-Key} makes a retry safe, as on {@code POST /email}.
      */
     @PostMapping(path = "/send-email",
             consumes = MediaType.APPLICATION_JSON_VALUE,
             produces = MediaType.APPLICATION_JSON_VALUE)
     @ResponseStatus(HttpStatus.ACCEPTED)
-    public SendEmailResponse sendTemplatedEmail(@Valid @RequestBody TemplatedEmailRequest request) {
-        log.info("Sending '{}' email", request.templateType());
-        SendEmailResult result = userApprovalEmailService.send(request);
-        return new SendEmailResponse(result.messageIds(), result.provider());
+    public SendEmailResponse sendTemplatedEmail(
+            @Valid @RequestBody TemplatedEmailRequest request,
+            @RequestHeader(name = IdempotencyStore.HEADER, required = false) String idempotencyKey) {
+        return idempotency.call(idempotencyKey, request, () -> {
+            rateLimiter.acquire(1);
+            log.info("Sending '{}' email", request.templateType());
+            SendEmailResult result = userApprovalEmailService.send(request);
+            return new SendEmailResponse(result.messageIds(), result.provider());
+        });
     }
 
-    /** Approves a registration from a signed link in an email. */
+    /**
+     * Approves a registration from a signed link in an email. Not rate limited: there is no API
+     * client to charge, and the single-use token already bounds what a link can send.
+     */
     @GetMapping(path = "/approve", produces = MediaType.APPLICATION_JSON_VALUE)
     public UserDecisionResponse approveUser(@RequestParam String token) {
         return applyTokenDecision(token, Decision.APPROVED);
@@ -93,6 +121,7 @@ public class UserApprovalController {
             consumes = MediaType.APPLICATION_JSON_VALUE,
             produces = MediaType.APPLICATION_JSON_VALUE)
     public UserDecisionResponse manuallyApproveUser(@Valid @RequestBody ManualDecisionRequest request) {
+        rateLimiter.acquire(1);
         return notifyDecision(request.email(), request.nameOrDefault(), Decision.APPROVED);
     }
 
@@ -101,6 +130,7 @@ public class UserApprovalController {
             consumes = MediaType.APPLICATION_JSON_VALUE,
             produces = MediaType.APPLICATION_JSON_VALUE)
     public UserDecisionResponse manuallyDenyUser(@Valid @RequestBody ManualDecisionRequest request) {
+        rateLimiter.acquire(1);
         return notifyDecision(request.email(), request.nameOrDefault(), Decision.DENIED);
     }
 
@@ -123,7 +153,25 @@ public class UserApprovalController {
         String email = (String) claims.get("email");
         String name = claims.get("name") == null ? "User" : (String) claims.get("name");
 
-        return notifyDecision(email, name, decision);
+        // Null only for a token minted before ids were added, which stays reusable until it expires.
+        Long id = (Long) claims.get("jti");
+        if (id == null) {
+            return notifyDecision(email, name, decision);
+        }
+        Instant expiresAt = ((Date) claims.get("expiration")).toInstant();
+        if (!consumedTokens.consume(id, expiresAt)) {
+            log.info("Approval token refused: already used");
+            throw new ResponseStatusException(HttpStatus.CONFLICT, "This link has already been used");
+        }
+        try {
+            return notifyDecision(email, name, decision);
+        } catch (RuntimeException e) {
+            // Unless the email may have gone anyway, in which case a retry could send it twice.
+            if (!(e instanceof EmailProviderException failure && failure.isSideEffectPossible())) {
+                consumedTokens.release(id, expiresAt);
+            }
+            throw e;
+        }
     }
 
     /**
@@ -64,4 +64,23 @@ public record SendEmailRequest(
         return (htmlContent != null && !htmlContent.isBlank())
                 || (textContent != null && !textContent.isBlank());
     }
+
+    /**
+     * Every address this request names, counted as a send for rate limiting: each variant's
+     * recipients as well as the message's own. An address named twice is counted twice, which
+     * is what the provider charges.
+     */
+    public int recipientCount() {
+        int count = sizeOf(to) + sizeOf(cc) + sizeOf(bcc);
+        if (variants != null) {
+            for (MessageVariantDto variant : variants) {
+                count += variant == null ? 0 : sizeOf(variant.to());
+            }
+        }
+        return count;
+    }
+
+    private static int sizeOf(List<?> list) {
+        return list == null ? 0 : list.size();
+    }
 }
@@ -53,4 +53,13 @@ public record SendMailRequest(
         return (htmlContent != null && !htmlContent.isBlank())
                 || (textContent != null && !textContent.isBlank());
     }
+
+    /** Every address this request names, counted as a send for rate limiting. */
+    public int recipientCount() {
+        return sizeOf(to) + sizeOf(cc) + sizeOf(bcc);
+    }
+
+    private static int sizeOf(List<?> list) {
+        return list == null ? 0 : list.size();
+    }
 }
@@ -0,0 +1,70 @@
+package com.hoseacodes.emailintegrator.email;
+
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Positive;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.ConstructorBinding;
+import org.springframework.validation.annotation.Validated;
+
+import java.time.Duration;
+
+/**
+ * Tuning for the circuit breaker in front of the email provider.
+ *
+ * <p>The defaults are deliberately slow to open. A breaker that opens on a blip rejects sends
+ * that would have succeeded, which turns a transient fault into an outage of its own; one that
+ * needs half of the last twenty sends — and at least ten of them — to have failed only opens when
+ * the provider is genuinely down. See {@link CircuitBreakingEmailProvider} for which failures
+ * count.
+ *
+ * @param enabled              false makes the breaker a pass-through that never opens. On unless
+ *                             set: a missing key must not quietly remove the protection
+ * @param windowSize           how many of the most recent sends the failure rate is taken over
+ * @param minimumCalls         sends the window must hold before the rate is acted on, so three
+ *                             failures after a restart cannot open it
+ * @param failureRateThreshold percentage of the window that must have failed to open the breaker
+ * @param openDuration         how long the breaker stays open before letting probes through
+ * @param halfOpenProbes       sends let through to test recovery; all must succeed to close it
+ */
+@Validated
+@ConfigurationProperties(prefix = "app.email.circuit-breaker")
+public record CircuitBreakerProperties(
+
+        Boolean enabled,
+
+        @Positive
+        int windowSize,
+
+        @Positive
+        int minimumCalls,
+
+        @Min(1) @Max(100)
+        int failureRateThreshold,
+
+        @NotNull
+        Duration openDuration,
+
+        @Positive
+        int halfOpenProbes) {
+
+    @ConstructorBinding
+    public CircuitBreakerProperties {
+        enabled = enabled == null || enabled;
+        windowSize = windowSize == 0 ? 20 : windowSize;
+        minimumCalls = minimumCalls == 0 ? Math.min(10, windowSize) : minimumCalls;
+        failureRateThreshold = failureRateThreshold == 0 ? 50 : failureRateThreshold;
+        openDuration = openDuration == null ? Duration.ofSeconds(30) : openDuration;
+        halfOpenProbes = halfOpenProbes == 0 ? 3 : halfOpenProbes;
+        if (minimumCalls > windowSize) {
+            throw new IllegalArgumentException("app.email.circuit-breaker.minimum-calls (" + minimumCalls
+                    + ") cannot exceed window-size (" + windowSize + "): the breaker could never open");
+        }
+    }
+
+    /** The defaults, as an unconfigured deployment gets them. */
+    public static CircuitBreakerProperties defaults() {
+        return new CircuitBreakerProperties(null, 0, 0, 0, null, 0);
+    }
+}
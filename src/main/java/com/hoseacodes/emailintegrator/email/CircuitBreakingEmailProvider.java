@@ -0,0 +1,285 @@
+package com.hoseacodes.emailintegrator.email;
+
+import com.hoseacodes.emailintegrator.email.EmailProviderException.Reason;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Stops calling a provider that is failing, so a send during an outage fails at once instead of
+ * waiting out a connect or read timeout first.
+ *
+ * <p>Timeouts bound how long one send can take against a dead provider; they do nothing about
+ * every other send making the same discovery. With Brevo unreachable, each {@code POST /email}
+ * holds a connection slot for {@code brevo.connect-timeout}, and every caller waits that long to
+ * learn what the previous caller already learnt. Once the recent failure rate says the provider is
+ * down, this decorator answers {@link Reason#CIRCUIT_OPEN} without calling it — in microseconds,
+ * and with a {@code Retry-After} saying when it will look again.
+ *
+ * <h2>Which failures count</h2>
+ * Only those that say the provider is unhealthy: {@link Reason#CONNECT_FAILED},
+ * {@link Reason#PROVIDER_UNAVAILABLE} and {@link Reason#TIMEOUT}. A timeout is included because a
+ * provider that accepts connections and never answers is the most expensive outage of all — it
+ * holds a slot for the full read timeout rather than the connect timeout. Everything else is an
+ * <em>answer</em> from a provider that is up — a rejected request is a bad message, a 401 is our
+ * configuration, a 429 is pacing — or, for {@link Reason#CONCURRENCY_LIMITED}, a send that never
+ * reached it. Counting those would let one caller's malformed batch stop everyone's mail.
+ * {@link #tripsBreaker} is an exhaustive switch, so a new {@link Reason} cannot be added without
+ * deciding.
+ *
+ * <h2>The states</h2>
+ * <ul>
+ *   <li><b>Closed.</b> Every send goes through. The outcomes of the last
+ *       {@code window-size} sends are kept; once at least {@code minimum-calls} are recorded and
+ *       {@code failure-rate-threshold} percent of them failed, the breaker opens.</li>
+ *   <li><b>Open.</b> Every send is refused for {@code open-duration}. Nothing reaches the
+ *       provider.</li>
+ *   <li><b>Half-open.</b> The first {@code half-open-probes} sends after that go through; the
+ *       rest are still refused. If every probe succeeds the breaker closes with an empty window;
+ *       the first probe that fails reopens it for another full {@code open-duration}. Limiting
+ *       probes is what keeps a recovering provider from being hit by the whole backlog at
+ *       once.</li>
+ * </ul>
+ *
+ * <p>A send that started before a transition reports its outcome into a state that no longer
+ * exists — a slow success from before the breaker opened says nothing about recovery — so each
+ * permit carries the generation it was issued in, and stale outcomes are dropped.
+ *
+ * <h2>What it costs</h2>
+ * It can refuse sends that would have succeeded: during the open period, and for every send
+ * beyond the probes while half-open. A refusal is {@code CIRCUIT_OPEN}, not side-effect-possible,
+ * so a caller knows for certain nothing was sent and may retry after the delay. This is one
+ * breaker per process; on several instances each reaches its own conclusion, which is fine for a
+ * dependency every instance sees the same way.
+ *
+ * <p>State is guarded by {@code this}. The critical sections are a few field updates, far
+ * cheaper than the send they guard, and never held across a call to the provider.
+ */
+public class CircuitBreakingEmailProvider implements EmailProvider {
+
+    private static final Logger log = LoggerFactory.getLogger(CircuitBreakingEmailProvider.class);
+
+    /** Sends refused while probes are in flight are told to come back after this long. */
+    private static final Duration HALF_OPEN_RETRY_AFTER = Duration.ofSeconds(1);
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    /**
+     * A point-in-time view, for the actuator endpoint.
+     *
+     * @param failureRate percentage of the buffered sends that failed, or -1 while fewer than
+     *                    {@code minimum-calls} are buffered and the rate is not yet acted on
+     * @param retryAfter  while open, how long until probes are let through; otherwise null
+     */
+    public record Snapshot(boolean enabled,
+                           State state,
+                           int bufferedCalls,
+                           int failedCalls,
+                           int failureRate,
+                           long rejectedCalls,
+                           Duration retryAfter) {
+    }
+
+    private final EmailProvider delegate;
+    private final CircuitBreakerProperties settings;
+    private final LongSupplier nanoTime;
+    private final LongAdder rejected = new LongAdder();
+
+    // Guarded by this.
+    private State state = State.CLOSED;
+    private long generation;
+    private final boolean[] window;
+    private int nextSlot;
+    private int buffered;
+    private int failed;
+    private long openUntilNanos;
+    private int probesInFlight;
+    private int probesSucceeded;
+
+    public CircuitBreakingEmailProvider(EmailProvider delegate, CircuitBreakerProperties settings) {
+        this(delegate, settings, System::nanoTime);
+    }
+
+    /** @param nanoTime the clock, replaceable so tests can step through the open period */
+    CircuitBreakingEmailProvider(EmailProvider delegate, CircuitBreakerProperties settings, LongSupplier nanoTime) {
+        this.delegate = delegate;
+        this.settings = settings;
+        this.nanoTime = nanoTime;
+        this.window = new boolean[settings.windowSize()];
+    }
+
+    @Override
+    public String name() {
+        return delegate.name();
+    }
+
+    @Override
+    public boolean supports(SendEmailCommand command) {
+        return delegate.supports(command);
+    }
+
+    @Override
+    public SendEmailResult send(SendEmailCommand command) {
+        Permit permit = acquire();
+        try {
+            SendEmailResult result = delegate.send(command);
+            record(permit, null);
+            return result;
+        } catch (EmailProviderException e) {
+            record(permit, e);
+            throw e;
+        } catch (RuntimeException | Error e) {
+            release(permit);
+            throw e;
+        }
+    }
+
+    @Override
+    public CompletableFuture<SendEmailResult> sendAsync(SendEmailCommand command) {
+        Permit permit;
+        try {
+            permit = acquire();
+        } catch (EmailProviderException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        CompletableFuture<SendEmailResult> future;
+        try {
+            future = delegate.sendAsync(command);
+        } catch (RuntimeException | Error e) {
+            release(permit);
+            throw e;
+        }
+        return future.whenComplete((result, failure) -> {
+            Throwable cause = failure instanceof CompletionException && failure.getCause() != null
+                    ? failure.getCause()
+                    : failure;
+            if (cause == null) {
+                record(permit, null);
+            } else if (cause instanceof EmailProviderException e) {
+                record(permit, e);
+            } else {
+                release(permit);
+            }
+        });
+    }
+
+    /** Whether a failure of this kind is evidence that the provider is down. */
+    static boolean tripsBreaker(Reason reason) {
+        return switch (reason) {
+            case CONNECT_FAILED, PROVIDER_UNAVAILABLE, TIMEOUT -> true;
+            case REQUEST_REJECTED, PROVIDER_AUTH_FAILED, RATE_LIMITED, CIRCUIT_OPEN, CONCURRENCY_LIMITED -> false;
+        };
+    }
+
+    public synchronized Snapshot snapshot() {
+        Duration retryAfter = state == State.OPEN
+                ? Duration.ofNanos(Math.max(0, openUntilNanos - nanoTime.getAsLong()))
+                : null;
+        int failureRate = buffered >= settings.minimumCalls() ? failed * 100 / buffered : -1;
+        return new Snapshot(settings.enabled(), state, buffered, failed, failureRate, rejected.sum(), retryAfter);
+    }
+
+    // -- state machine -------------------------------------------------------------------------
+
+    /** Permission to make one call, stamped with the generation it was issued in. */
+    private record Permit(long generation, boolean probe) {
+    }
+
+    /** Issued when the breaker is disabled; its outcome is never recorded. */
+    private static final Permit UNGUARDED = new Permit(-1, false);
+
+    private synchronized Permit acquire() {
+        if (!settings.enabled()) {
+            return UNGUARDED;
+        }
+        if (state == State.OPEN) {
+            long remaining = openUntilNanos - nanoTime.getAsLong();
+            if (remaining > 0) {
+                throw refusal(Duration.ofNanos(remaining));
+            }
+            transitionTo(State.HALF_OPEN, "open period elapsed; letting " + settings.halfOpenProbes()
+                    + " probe(s) through");
+        }
+        if (state == State.HALF_OPEN) {
+            if (probesInFlight + probesSucceeded >= settings.halfOpenProbes()) {
+                throw refusal(HALF_OPEN_RETRY_AFTER);
+            }
+            probesInFlight++;
+            return new Permit(generation, true);
+        }
+        return new Permit(generation, false);
+    }
+
+    private synchronized void record(Permit permit, EmailProviderException failure) {
+        if (permit.generation() != generation) {
+            return; // issued before a transition, or unguarded
+        }
+        boolean tripped = failure != null && tripsBreaker(failure.getReason());
+
+        if (permit.probe()) {
+            probesInFlight--;
+            if (tripped) {
+                open("probe failed with " + failure.getReason());
+            } else if (++probesSucceeded >= settings.halfOpenProbes()) {
+                transitionTo(State.CLOSED, probesSucceeded + " probe(s) succeeded");
+            }
+            return;
+        }
+
+        if (buffered == window.length) {
+            failed -= window[nextSlot] ? 1 : 0;
+        } else {
+            buffered++;
+        }
+        window[nextSlot] = tripped;
+        failed += tripped ? 1 : 0;
+        nextSlot = (nextSlot + 1) % window.length;
+
+        if (buffered >= settings.minimumCalls() && failed * 100 >= settings.failureRateThreshold() * buffered) {
+            open(failed + " of the last " + buffered + " sends failed"
+                    + (failure != null ? ", most recently with " + failure.getReason() : ""));
+        }
+    }
+
+    /** A call ended without a classifiable outcome — a bug, not a provider failure. Frees its probe slot. */
+    private synchronized void release(Permit permit) {
+        if (permit.probe() && permit.generation() == generation) {
+            probesInFlight--;
+        }
+    }
+
+    private void open(String why) {
+        openUntilNanos = nanoTime.getAsLong() + settings.openDuration().toNanos();
+        transitionTo(State.OPEN, why + "; refusing sends for " + settings.openDuration());
+    }
+
+    private void transitionTo(State next, String why) {
+        if (next == State.OPEN) {
+            log.warn("Circuit breaker for {} {} -> OPEN: {}", delegate.name(), state, why);
+        } else {
+            log.info("Circuit breaker for {} {} -> {}: {}", delegate.name(), state, next, why);
+        }
+        state = next;
+        generation++;
+        probesInFlight = 0;
+        probesSucceeded = 0;
+        nextSlot = 0;
+        buffered = 0;
+        failed = 0;
+    }
+
+    private EmailProviderException refusal(Duration retryAfter) {
+        rejected.increment();
+        // Whole seconds, rounded up: Retry-After has no finer unit, and rounding down would tell
+        // a caller to come back before the breaker will let them through.
+        long seconds = Math.max(1, (retryAfter.toMillis() + 999) / 1000);
+        return new EmailProviderException(Reason.CIRCUIT_OPEN, delegate.name(),
+                "circuit breaker is " + state + "; send not attempted", Duration.ofSeconds(seconds), null);
+    }
+}
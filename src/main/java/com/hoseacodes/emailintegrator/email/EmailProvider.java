@@ -1,17 +1,19 @@
 package com.hoseacodes.emailintegrator.email;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  * The boundary between this application and whatever actually delivers email.
  *
- * <p>There is currently one implementation. That is deliberate, and the interface is not here
- * in anticipation of more: it exists because the application layer must not depend on a
- * vendor's request shapes or exception types. Implementations own all provider-specific
- * concerns — authentication, wire format, timeouts, status-code interpretation — and expose
- * only {@link SendEmailCommand}, {@link SendEmailResult}, and {@link EmailProviderException}.
+ * <p>The interface exists because the application layer must not depend on a vendor's request
+ * shapes or exception types. Implementations own all provider-specific concerns —
+ * authentication, wire format, timeouts, status-code interpretation — and expose only
+ * {@link SendEmailCommand}, {@link SendEmailResult}, and {@link EmailProviderException}. There are
+ * two delivery implementations, Brevo and SMTP, and decorators that wrap them; how they are
+ * assembled is decided in one place, {@code EmailProviderConfig}.
  *
- * <p>Kept deliberately narrow. No factory, registry, or strategy selector: those would be
- * scaffolding for a requirement that does not exist. Adding a second provider later means
- * writing one class and choosing between beans — a small, well-understood change.
+ * <p>Kept deliberately narrow. No factory or registry: the one router,
+ * {@link RoutingEmailProvider}, is given its providers rather than looking them up.
  */
 public interface EmailProvider {
 
@@ -26,6 +28,34 @@ public interface EmailProvider {
      */
     SendEmailResult send(SendEmailCommand command);
 
+    /**
+     * Sends one message without tying the calling thread to the provider's response time.
+     *
+     * <p>Failures complete the future exceptionally with an {@link EmailProviderException},
+     * classified exactly as {@link #send} would classify them. The default runs {@code send} on
+     * the calling thread and is correct but not asynchronous; an implementation whose transport
+     * can wait without a thread should override it.
+     *
+     * @param command what to send; already validated by the caller
+     * @return a future holding the provider-assigned message identifiers
+     */
+    default CompletableFuture<SendEmailResult> sendAsync(SendEmailCommand command) {
+        try {
+            return CompletableFuture.completedFuture(send(command));
+        } catch (EmailProviderException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Whether this provider can deliver the command at all, as opposed to whether it is healthy.
+     * A router offers a command only to providers that support it. Everything is supported unless
+     * an implementation says otherwise.
+     */
+    default boolean supports(SendEmailCommand command) {
+        return true;
+    }
+
     /** Short identifier used in logs, metrics, and API responses, e.g. {@code "brevo"}. */
     String name();
 }
@@ -55,7 +55,22 @@ public class EmailProviderException extends RuntimeException {
          * The TCP connection was never established — connection refused, DNS failure, connect
          * timeout. The provider cannot have seen the request, so this one <em>is</em> safe to retry.
          */
-        CONNECT_FAILED(false);
+        CONNECT_FAILED(false),
+
+        /**
+         * Not attempted: the circuit breaker in front of the provider is open after a run of
+         * failures, and this send was refused without a request being made. Nothing can have
+         * been sent, and {@link EmailProviderException#getRetryAfter()} says when the breaker will
+         * next let a probe through. See {@link CircuitBreakingEmailProvider}.
+         */
+        CIRCUIT_OPEN(false),
+
+        /**
+         * Not attempted: as many sends as the provider is currently judged able to handle are
+         * already in flight, and this one was refused rather than queued behind them. Nothing was
+         * sent; retrying after a short delay is safe.
+         */
+        CONCURRENCY_LIMITED(false);
 
         private final boolean sideEffectPossible;
 
@@ -0,0 +1,263 @@
+package com.hoseacodes.emailintegrator.email;
+
+import com.hoseacodes.emailintegrator.email.EmailProviderException.Reason;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.LongSupplier;
+
+/**
+ * Sends each command through whichever of several providers is currently healthiest, and fails
+ * over to the next when — and only when — the first certainly did not send.
+ *
+ * <h2>Choosing a provider</h2>
+ * Each provider keeps two figures from its own recent sends: a moving average of how long a
+ * successful send takes, and a moving average of how often sends fail. Its score is the first
+ * divided by the chance of success — roughly, the time it takes to get one message out. Lower is
+ * better. A provider with no latency yet is assumed as slow as the slowest one that has one, so
+ * it is not preferred for being unknown.
+ *
+ * <p>The order providers are given in is a preference: each step down it multiplies the score by
+ * {@value #PREFERENCE_STEP} more, so the second provider takes over only when the first is
+ * clearly worse, not on noise. A provider's error rate halves every
+ * {@code app.email.routing.recovery} in which it records nothing — a provider abandoned after an
+ * outage is never sent to and could not otherwise prove it has recovered — so it is preferred
+ * again once the outage is that far behind it.
+ *
+ * <h2>Failing over</h2>
+ * A failure moves on to the next provider only if {@link #failsOver} says so, and that never
+ * includes a side-effect-possible reason: after a timeout or a 5xx the first provider may have
+ * delivered, and a second send would be a duplicate in the recipient's inbox. Nor does it include
+ * {@link Reason#REQUEST_REJECTED}; a message one provider finds malformed is not improved by
+ * another. What remains — unreachable, refused our credentials, throttling, breaker open, at
+ * capacity — is every way a provider can say "not me, not now" without having sent anything.
+ * Each provider is tried at most once per send. When all of them fail, the caller gets the last
+ * failure, with the earlier ones attached as suppressed exceptions.
+ *
+ * <p>Only providers that {@linkplain EmailProvider#supports support} a command are candidates for
+ * it; per-recipient variants, for instance, go only to a provider that can send them.
+ *
+ * <p>Per-provider figures are guarded by that provider's entry. Nothing is held across a send.
+ */
+public class RoutingEmailProvider implements EmailProvider {
+
+    private static final Logger log = LoggerFactory.getLogger(RoutingEmailProvider.class);
+
+    /** Weight of each new sample in a moving average. */
+    static final double SMOOTHING = 0.2;
+
+    /** How much worse each step down the preference order is made to look. */
+    static final double PREFERENCE_STEP = 0.25;
+
+    /** The floor on the chance of success, so a provider failing every send scores high, not infinite. */
+    private static final double MIN_SUCCESS_RATE = 0.05;
+
+    private final List<Route> routes;
+    private final RoutingProperties settings;
+    private final LongSupplier nanoTime;
+    private volatile String leader;
+
+    /** @param providers in order of preference, most preferred first */
+    public RoutingEmailProvider(List<? extends EmailProvider> providers, RoutingProperties settings) {
+        this(providers, settings, System::nanoTime);
+    }
+
+    /** @param nanoTime the clock, replaceable so tests can step through the recovery period */
+    RoutingEmailProvider(List<? extends EmailProvider> providers, RoutingProperties settings, LongSupplier nanoTime) {
+        if (providers.isEmpty()) {
+            throw new IllegalArgumentException("at least one provider is required");
+        }
+        this.settings = settings;
+        this.nanoTime = nanoTime;
+        this.routes = new ArrayList<>();
+        for (EmailProvider provider : providers) {
+            routes.add(new Route(provider, routes.size(), nanoTime.getAsLong()));
+        }
+        this.leader = routes.get(0).provider.name();
+    }
+
+    @Override
+    public String name() {
+        return "routing";
+    }
+
+    @Override
+    public boolean supports(SendEmailCommand command) {
+        return routes.stream().anyMatch(route -> route.provider.supports(command));
+    }
+
+    @Override
+    public SendEmailResult send(SendEmailCommand command) {
+        List<Route> ranked = rank(command);
+        EmailProviderException previous = null;
+        for (int i = 0; i < ranked.size(); i++) {
+            Route route = ranked.get(i);
+            long startNanos = nanoTime.getAsLong();
+            try {
+                SendEmailResult result = route.provider.send(command);
+                route.record(null, nanoTime.getAsLong() - startNanos);
+                return result;
+            } catch (EmailProviderException e) {
+                route.record(e, nanoTime.getAsLong() - startNanos);
+                attach(e, previous);
+                if (!failsOver(e.getReason()) || i == ranked.size() - 1) {
+                    throw e;
+                }
+                logFailover(route, ranked.get(i + 1), e);
+                previous = e;
+            }
+        }
+        throw new IllegalStateException("no provider supports this command");
+    }
+
+    @Override
+    public CompletableFuture<SendEmailResult> sendAsync(SendEmailCommand command) {
+        return attempt(command, rank(command), 0, null);
+    }
+
+    private CompletableFuture<SendEmailResult> attempt(SendEmailCommand command, List<Route> ranked,
+                                                       int index, EmailProviderException previous) {
+        Route route = ranked.get(index);
+        long startNanos = nanoTime.getAsLong();
+        CompletableFuture<SendEmailResult> sent;
+        try {
+            sent = route.provider.sendAsync(command);
+        } catch (EmailProviderException e) {
+            sent = CompletableFuture.failedFuture(e);
+        }
+        return sent.handle((result, failure) -> {
+            long elapsed = nanoTime.getAsLong() - startNanos;
+            if (failure == null) {
+                route.record(null, elapsed);
+                return CompletableFuture.completedFuture(result);
+            }
+            Throwable cause = failure instanceof CompletionException && failure.getCause() != null
+                    ? failure.getCause()
+                    : failure;
+            if (!(cause instanceof EmailProviderException e)) {
+                return CompletableFuture.<SendEmailResult>failedFuture(cause);
+            }
+            route.record(e, elapsed);
+            attach(e, previous);
+            if (!failsOver(e.getReason()) || index == ranked.size() - 1) {
+                return CompletableFuture.<SendEmailResult>failedFuture(e);
+            }
+            logFailover(route, ranked.get(index + 1), e);
+            return attempt(command, ranked, index + 1, e);
+        }).thenCompose(next -> next);
+    }
+
+    /**
+     * Whether a failure of this kind may be retried on another provider. Never for a reason that
+     * is side-effect-possible; the switch is exhaustive, so a new {@link Reason} cannot be added
+     * without deciding.
+     */
+    static boolean failsOver(Reason reason) {
+        return switch (reason) {
+            case CONNECT_FAILED, PROVIDER_AUTH_FAILED, RATE_LIMITED, CIRCUIT_OPEN, CONCURRENCY_LIMITED -> true;
+            case REQUEST_REJECTED, PROVIDER_UNAVAILABLE, TIMEOUT -> false;
+        };
+    }
+
+    /** The candidates for a command, healthiest first. */
+    private List<Route> rank(SendEmailCommand command) {
+        long now = nanoTime.getAsLong();
+        double slowestKnown = routes.stream()
+                .mapToDouble(Route::latencyNanos)
+                .filter(latency -> !Double.isNaN(latency))
+                .max()
+                .orElse(1);
+
+        List<Scored> candidates = new ArrayList<>(routes.size());
+        for (Route route : routes) {
+            if (route.provider.supports(command)) {
+                candidates.add(new Scored(route, route.score(now, slowestKnown)));
+            }
+        }
+        if (candidates.isEmpty()) {
+            throw new EmailProviderException(Reason.REQUEST_REJECTED, name(),
+                    "no configured provider can send this message");
+        }
+        // Stable, so equal scores keep the preference order.
+        candidates.sort(Comparator.comparingDouble(Scored::score));
+
+        // Only a ranking over every provider says which one is preferred; one narrowed by what a
+        // command needs says nothing about the others.
+        String first = candidates.get(0).route.provider.name();
+        if (candidates.size() == routes.size() && !first.equals(leader)) {
+            log.info("Email routing now prefers {} over {}", first, leader);
+            leader = first;
+        }
+        return candidates.stream().map(Scored::route).toList();
+    }
+
+    private record Scored(Route route, double score) {
+    }
+
+    private static void attach(EmailProviderException failure, EmailProviderException previous) {
+        if (previous != null) {
+            failure.addSuppressed(previous);
+        }
+    }
+
+    private static void logFailover(Route from, Route to, EmailProviderException e) {
+        log.warn("Email send failing over: from={} to={} reason={} sideEffectPossible=false",
+                from.provider.name(), to.provider.name(), e.getReason());
+    }
+
+    /** One provider and what its recent sends say about it. */
+    private final class Route {
+
+        final EmailProvider provider;
+        final int position;
+
+        // Guarded by this.
+        private double latencyNanos = Double.NaN;
+        private double errorRate;
+        private long updatedNanos;
+
+        Route(EmailProvider provider, int position, long now) {
+            this.provider = provider;
+            this.position = position;
+            this.updatedNanos = now;
+        }
+
+        synchronized double latencyNanos() {
+            return latencyNanos;
+        }
+
+        /**
+         * @param failure null if the send succeeded. A rejected request is an answer from a
+         *                working provider, so it counts as a success for this purpose.
+         */
+        synchronized void record(EmailProviderException failure, long elapsedNanos) {
+            long now = nanoTime.getAsLong();
+            boolean failed = failure != null && failure.getReason() != Reason.REQUEST_REJECTED;
+            errorRate = decayedErrorRate(now) * (1 - SMOOTHING) + (failed ? SMOOTHING : 0);
+            updatedNanos = now;
+            // A failure's duration says nothing about a successful send's: an open breaker
+            // refuses in microseconds, and a timeout takes exactly as long as the timeout.
+            if (!failed) {
+                latencyNanos = Double.isNaN(latencyNanos)
+                        ? elapsedNanos
+                        : latencyNanos + (elapsedNanos - latencyNanos) * SMOOTHING;
+            }
+        }
+
+        synchronized double score(long now, double slowestKnown) {
+            double latency = Double.isNaN(latencyNanos) ? slowestKnown : latencyNanos;
+            double successRate = Math.max(MIN_SUCCESS_RATE, 1 - decayedErrorRate(now));
+            return latency / successRate * (1 + PREFERENCE_STEP * position);
+        }
+
+        private double decayedErrorRate(long now) {
+            double halfLives = (double) (now - updatedNanos) / settings.recovery().toNanos();
+            return errorRate * Math.pow(0.5, halfLives);
+        }
+    }
+}
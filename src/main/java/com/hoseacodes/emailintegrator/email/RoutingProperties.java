@@ -0,0 +1,36 @@
+package com.hoseacodes.emailintegrator.email;
+
+import jakarta.validation.constraints.NotNull;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.ConstructorBinding;
+import org.springframework.validation.annotation.Validated;
+
+import java.time.Duration;
+
+/**
+ * Whether {@code POST /email} may be routed between Brevo and SMTP, and how quickly a provider
+ * that failed is trusted again.
+ *
+ * <p>Off unless enabled. Routing a send to SMTP changes how it is delivered — a different
+ * sending infrastructure, and on Gmail a {@code From} rewritten to the authenticated account
+ * unless the configured sender is a verified alias — so it is a decision for whoever operates
+ * the deployment, not a default. See {@link RoutingEmailProvider}.
+ *
+ * @param enabled  route between providers; when false, {@code POST /email} uses Brevo alone
+ * @param recovery half-life of a provider's recorded error rate while it is not being used: how
+ *                 soon a provider that failed is tried first again
+ */
+@Validated
+@ConfigurationProperties(prefix = "app.email.routing")
+public record RoutingProperties(
+
+        boolean enabled,
+
+        @NotNull
+        Duration recovery) {
+
+    @ConstructorBinding
+    public RoutingProperties {
+        recovery = recovery == null ? Duration.ofSeconds(30) : recovery;
+    }
+}
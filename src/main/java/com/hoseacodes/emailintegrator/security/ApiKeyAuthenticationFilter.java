@@ -6,15 +6,22 @@ import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.context.SecurityContext;
 import org.springframework.security.core.context.SecurityContextHolder;
-import org.springframework.security.web.authentication.WebAuthenticationDetailsSource;
+import org.springframework.security.web.context.RequestAttributeSecurityContextRepository;
+import org.springframework.security.web.context.SecurityContextRepository;
 import org.springframework.web.filter.OncePerRequestFilter;
 
+import javax.crypto.Mac;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
-import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -25,6 +32,22 @@ import java.util.Map;
  * does nothing — it never writes a response itself. Rejection is left to the filter chain, so
  * the "who is allowed where" decision lives in one place ({@link SecurityConfig}) rather than
  * being split between a filter and a config class.
+ *
+ * <p>The authentication is also saved to the request's attributes, not only to the
+ * thread-bound holder. An async endpoint such as {@code POST /email} finishes on a second,
+ * {@code ASYNC} dispatch that this once-per-request filter does not run on; without the saved
+ * context, the authorization check on that dispatch would see an anonymous caller and replace
+ * a successful send's response with a 401.
+ *
+ * <h2>Resolving a key</h2>
+ * Keys are indexed once, at construction, by their HMAC under a random key generated for this
+ * process, so resolving one is a single HMAC and a hash lookup however many clients there are —
+ * it used to compare the presented key with every configured one. That stays free of timing
+ * leaks for a different reason than the constant-time comparison it replaces: the lookup's time
+ * depends only on the presented key's digest, and without the process key nobody can choose an
+ * input whose digest shares a prefix, or a bucket, with a real key's. Each request then gets the
+ * client's one, prebuilt, immutable {@link Authentication}, rather than a fresh token and request
+ * details; nothing reads the details.
  */
 public class ApiKeyAuthenticationFilter extends OncePerRequestFilter {
 
@@ -33,9 +56,35 @@ public class ApiKeyAuthenticationFilter extends OncePerRequestFilter {
     private static final Logger log = LoggerFactory.getLogger(ApiKeyAuthenticationFilter.class);
 
     private final ApiKeyProperties properties;
+    private final SecurityContextRepository securityContextRepository =
+            new RequestAttributeSecurityContextRepository();
+
+    private final ThreadLocal<Mac> mac;
+    // HMAC of a key under the process key -> its client's authentication.
+    private final Map<ByteBuffer, Authentication> clients;
 
+    /**
+     * @throws IllegalArgumentException if two clients are configured with the same key, which
+     *                                  would make every request from either one ambiguous
+     */
     public ApiKeyAuthenticationFilter(ApiKeyProperties properties) {
         this.properties = properties;
+        byte[] processKey = new byte[32];
+        new SecureRandom().nextBytes(processKey);
+        this.mac = ThreadLocal.withInitial(() -> Hashing.hmacSha256(processKey));
+
+        Map<ByteBuffer, Authentication> index = new HashMap<>();
+        Map<ByteBuffer, String> owners = new HashMap<>();
+        properties.apiKeys().forEach((clientId, apiKey) -> {
+            ByteBuffer digest = digest(apiKey);
+            String other = owners.putIfAbsent(digest, clientId);
+            if (other != null) {
+                throw new IllegalArgumentException("app.security.api-keys." + other + " and ."
+                        + clientId + " have the same key; each client needs its own");
+            }
+            index.put(digest, new ApiClientAuthentication(clientId));
+        });
+        this.clients = Map.copyOf(index);
     }
 
     @Override
@@ -46,19 +95,16 @@ public class ApiKeyAuthenticationFilter extends OncePerRequestFilter {
         String presentedKey = request.getHeader(properties.headerName());
 
         if (presentedKey != null && !presentedKey.isBlank()) {
-            String clientId = resolveClient(presentedKey);
+            Authentication authentication = resolveClient(presentedKey);
 
-            if (clientId != null) {
-                UsernamePasswordAuthenticationToken authentication =
-                        new UsernamePasswordAuthenticationToken(
-                                clientId,
-                                null, // credentials are cleared immediately; never held in context
-                                List.of(new SimpleGrantedAuthority(ROLE_API_CLIENT)));
-                authentication.setDetails(new WebAuthenticationDetailsSource().buildDetails(request));
-                SecurityContextHolder.getContext().setAuthentication(authentication);
+            if (authentication != null) {
+                SecurityContext context = SecurityContextHolder.createEmptyContext();
+                context.setAuthentication(authentication);
+                SecurityContextHolder.setContext(context);
+                securityContextRepository.saveContext(context, request, response);
 
                 log.debug("Authenticated client '{}' for {} {}",
-                        clientId, request.getMethod(), request.getRequestURI());
+                        authentication.getName(), request.getMethod(), request.getRequestURI());
             } else {
                 // Warn, not error: a single bad key is routine. It is logged so a burst of them
                 // is visible as the credential-guessing attempt it probably is.
@@ -73,30 +119,77 @@ public class ApiKeyAuthenticationFilter extends OncePerRequestFilter {
     }
 
     /**
-     * Finds the client owning the presented key, or null.
+     * The authentication of the client owning the presented key, or null.
      *
-     * <p>Two deliberate details:
-     *
-     * <ul>
-     *   <li>{@link MessageDigest#isEqual} rather than {@code String.equals}. String comparison
-     *       returns as soon as it finds a differing character, so response time leaks how many
-     *       leading characters were correct — enough, over many requests, to reconstruct a key
-     *       one character at a time. {@code isEqual} is documented as time-constant.</li>
-     *   <li>The loop does not break on a match. Returning early would make response time depend
-     *       on the matched key's position in the map, reintroducing a smaller version of the
-     *       same leak.</li>
-     * </ul>
+     * <p>Never {@code String.equals} against the configured keys, or a map keyed by them: string
+     * comparison returns at the first differing character, so response time would leak how many
+     * leading characters were correct — enough, over many requests, to reconstruct a key one
+     * character at a time. Comparing keyed digests leaks nothing usable, as the class comment
+     * explains.
      */
-    private String resolveClient(String presentedKey) {
-        byte[] presented = presentedKey.getBytes(StandardCharsets.UTF_8);
-        String matchedClient = null;
-
-        for (Map.Entry<String, String> entry : properties.apiKeys().entrySet()) {
-            byte[] configured = entry.getValue().getBytes(StandardCharsets.UTF_8);
-            if (MessageDigest.isEqual(presented, configured)) {
-                matchedClient = entry.getKey();
+    Authentication resolveClient(String presentedKey) {
+        return clients.get(digest(presentedKey));
+    }
+
+    private ByteBuffer digest(String apiKey) {
+        return ByteBuffer.wrap(mac.get().doFinal(apiKey.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * An authenticated API client, built once per client and shared by all its requests. Holds no
+     * credentials and no request details, and cannot be changed, so sharing it is safe.
+     */
+    static final class ApiClientAuthentication implements Authentication {
+
+        private static final List<GrantedAuthority> AUTHORITIES =
+                List.of(new SimpleGrantedAuthority(ROLE_API_CLIENT));
+
+        private final String clientId;
+
+        ApiClientAuthentication(String clientId) {
+            this.clientId = clientId;
+        }
+
+        @Override
+        public String getName() {
+            return clientId;
+        }
+
+        @Override
+        public Object getPrincipal() {
+            return clientId;
+        }
+
+        @Override
+        public Collection<? extends GrantedAuthority> getAuthorities() {
+            return AUTHORITIES;
+        }
+
+        @Override
+        public Object getCredentials() {
+            return null;
+        }
+
+        @Override
+        public Object getDetails() {
+            return null;
+        }
+
+        @Override
+        public boolean isAuthenticated() {
+            return true;
+        }
+
+        @Override
+        public void setAuthenticated(boolean authenticated) {
+            if (!authenticated) {
+                throw new IllegalArgumentException("A shared client authentication cannot be revoked in place");
             }
         }
-        return matchedClient;
+
+        @Override
+        public String toString() {
+            return "ApiClientAuthentication[" + clientId + "]";
+        }
     }
 }
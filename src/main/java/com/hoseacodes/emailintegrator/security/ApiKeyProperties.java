@@ -1,7 +1,11 @@
 package com.hoseacodes.emailintegrator.security;
 
+import jakarta.validation.Valid;
 import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.Positive;
+import jakarta.validation.constraints.PositiveOrZero;
 import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.ConstructorBinding;
 import org.springframework.validation.annotation.Validated;
 
 import java.util.Map;
@@ -23,9 +27,9 @@ import java.util.Map;
  * <em>action</em>.
  *
  * <h2>Why keys are per-client</h2>
- * Mapping client name to key rather than holding a flat list means logs, metrics, and future
- * rate limits can attribute a request to <em>who</em> sent it, and a single client's key can be
- * revoked without disrupting the others.
+ * Mapping client name to key rather than holding a flat list means logs, metrics, and
+ * {@link ClientRateLimiter rate limits} can attribute a request to <em>who</em> sent it, and a
+ * single client's key can be revoked without disrupting the others.
  *
  * <p>There is no default key, and startup fails without one. A default would mean a deployment
  * that forgot to configure credentials would come up accepting a publicly known secret —
@@ -40,6 +44,7 @@ import java.util.Map;
  *
  * @param apiKeys    client name to shared secret, from {@code app.security.api-keys.*}
  * @param headerName request header carrying the key; defaults to {@code X-API-Key}
+ * @param rateLimit  how many recipients each client may send to, from {@code app.security.rate-limit.*}
  */
 @Validated
 @ConfigurationProperties(prefix = "app.security")
@@ -48,13 +53,18 @@ public record ApiKeyProperties(
         @NotEmpty(message = "app.security.api-keys must define at least one client key; there is no default")
         Map<String, String> apiKeys,
 
-        String headerName) {
+        String headerName,
+
+        @Valid
+        RateLimit rateLimit) {
 
     /** Below this length a key is guessable enough that rate limiting alone would not save it. */
     private static final int MINIMUM_KEY_LENGTH = 32;
 
+    @ConstructorBinding
     public ApiKeyProperties {
         headerName = (headerName == null || headerName.isBlank()) ? "X-API-Key" : headerName.trim();
+        rateLimit = rateLimit == null ? new RateLimit(null, null, null) : rateLimit;
 
         if (apiKeys != null) {
             apiKeys.forEach((client, key) -> {
@@ -73,6 +83,71 @@ public record ApiKeyProperties(
                 }
             });
             apiKeys = Map.copyOf(apiKeys);
+
+            for (String client : rateLimit.clients().keySet()) {
+                // A limit for a misspelt client would otherwise apply to nobody, silently.
+                if (!apiKeys.containsKey(client)) {
+                    throw new IllegalArgumentException("app.security.rate-limit.clients." + client
+                            + " names no client in app.security.api-keys");
+                }
+            }
+        }
+    }
+
+    /** Keys and header alone, with the default rate limit for every client. */
+    public ApiKeyProperties(Map<String, String> apiKeys, String headerName) {
+        this(apiKeys, headerName, null);
+    }
+
+    /**
+     * Settings for {@link ClientRateLimiter}.
+     *
+     * <p>Limits count recipients, not requests: what runs out — Brevo's quota, Gmail's daily cap,
+     * the domain's sending reputation — is spent per address, and one request can name fifty.
+     * Rates are per minute because that is the scale client quotas are agreed in; per second, a
+     * modest client's allowance would be a fraction.
+     *
+     * @param recipientsPerMinute each client's sustained rate unless {@code clients} says
+     *                            otherwise; zero means unlimited.
+     * @param burst               recipients a client may send to at once after a quiet spell.
+     * @param clients             per-client overrides, by the name in {@code app.security.api-keys};
+     *                            a field left unset there takes the default above.
+     */
+    public record RateLimit(
+            @PositiveOrZero
+            Double recipientsPerMinute,
+
+            @Positive
+            Integer burst,
+
+            Map<String, @Valid Limit> clients) {
+
+        public RateLimit {
+            recipientsPerMinute = recipientsPerMinute == null ? 600.0 : recipientsPerMinute;
+            burst = burst == null ? 300 : burst;
+            clients = clients == null ? Map.of() : Map.copyOf(clients);
+        }
+
+        /** The limit {@code client} is held to, its own settings filled in from the defaults. */
+        public Limit limitFor(String client) {
+            Limit own = clients.get(client);
+            return new Limit(
+                    own == null || own.recipientsPerMinute() == null ? recipientsPerMinute : own.recipientsPerMinute(),
+                    own == null || own.burst() == null ? burst : own.burst());
         }
     }
+
+    /**
+     * One client's limit. Either field may be left unset to take the default.
+     *
+     * @param recipientsPerMinute sustained rate; zero means unlimited.
+     * @param burst               recipients at once after a quiet spell; at least one.
+     */
+    public record Limit(
+            @PositiveOrZero
+            Double recipientsPerMinute,
+
+            @Positive
+            Integer burst) {
+    }
 }
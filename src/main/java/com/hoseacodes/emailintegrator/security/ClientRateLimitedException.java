@@ -0,0 +1,31 @@
+package com.hoseacodes.emailintegrator.security;
+
+import java.time.Duration;
+
+/**
+ * Thrown when an API client has used up its recipient allowance; see {@link ClientRateLimiter}.
+ *
+ * <p>Distinct from a provider's {@code RATE_LIMITED}. That one means the account as a whole is
+ * being throttled and every caller will see it; this one means <em>this</em> client is sending
+ * more than it was allotted, and only it is refused. Nothing was rendered or sent.
+ */
+public class ClientRateLimitedException extends RuntimeException {
+
+    private final String clientId;
+    private final Duration retryAfter;
+
+    public ClientRateLimitedException(String clientId, Duration retryAfter) {
+        super("Client " + clientId + " is over its rate limit; retry after " + retryAfter);
+        this.clientId = clientId;
+        this.retryAfter = retryAfter;
+    }
+
+    public String getClientId() {
+        return clientId;
+    }
+
+    /** How long until the refused request would be admitted, if nothing else is sent meanwhile. */
+    public Duration getRetryAfter() {
+        return retryAfter;
+    }
+}
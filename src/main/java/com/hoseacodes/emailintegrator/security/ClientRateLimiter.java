@@ -0,0 +1,165 @@
+package com.hoseacodes.emailintegrator.security;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Holds each API client to its share of sending, counted in recipients.
+ *
+ * <p>Authentication says who a caller is; nothing said how much it could send. Any client holding
+ * a key could spend the whole Brevo quota or Gmail's daily cap in a loop, and every other client
+ * would find out from the provider's 429s. Each client now has its own token bucket, sized by
+ * {@code app.security.rate-limit.*}, and a send it cannot pay for is refused with 429 and
+ * {@code Retry-After} — by the controller, before the template is rendered or a provider called,
+ * so a refusal costs a map lookup and a compare-and-set.
+ *
+ * <h2>Recipients, not requests</h2>
+ * A request to one address and a request to fifty are not the same load on anything that runs
+ * out, so a send is charged one token per recipient it names. A request larger than the whole
+ * burst is admitted only into a full bucket and leaves it in debt, paid off at the client's rate
+ * before it sends again: refusing it outright would make a legitimate send impossible rather
+ * than slow.
+ *
+ * <h2>Lock-free</h2>
+ * Each bucket is the generic cell rate algorithm: a single {@code long} holding the instant at
+ * which the client's sending so far is paid off. A send advances it by the send's cost; a send
+ * that would push it more than a burst's worth past now is refused, and the excess is the
+ * {@code Retry-After}. Reading, checking and advancing it is one compare-and-set, so clients
+ * never wait on each other or on a lock — even the same client's concurrent requests only retry
+ * the CAS. Buckets are built once at startup, one per configured key, so the map they sit in is
+ * never written again.
+ *
+ * <p>The buckets are per process. On several instances, divide a client's allowance between
+ * them, as for {@code brevo.rate-limit}.
+ */
+@Component
+@EnableConfigurationProperties(ApiKeyProperties.class)
+public class ClientRateLimiter implements MeterBinder {
+
+    private static final Logger log = LoggerFactory.getLogger(ClientRateLimiter.class);
+
+    private final LongSupplier nanoTime;
+
+    // Client name -> its bucket; built in the constructor and only read after.
+    private final Map<String, Bucket> buckets = new HashMap<>();
+
+    @Autowired
+    public ClientRateLimiter(ApiKeyProperties properties) {
+        this(properties, System::nanoTime);
+    }
+
+    ClientRateLimiter(ApiKeyProperties properties, LongSupplier nanoTime) {
+        this.nanoTime = nanoTime;
+        long now = nanoTime.getAsLong();
+        for (String client : properties.apiKeys().keySet()) {
+            ApiKeyProperties.Limit limit = properties.rateLimit().limitFor(client);
+            if (limit.recipientsPerMinute() > 0) {
+                buckets.put(client, new Bucket(limit.recipientsPerMinute(), limit.burst(), now));
+            }
+        }
+    }
+
+    /**
+     * Charges the calling client for a send to {@code recipients} addresses.
+     *
+     * <p>The client is the one {@link ApiKeyAuthenticationFilter} authenticated on this thread.
+     * A call with no authenticated client, or from a client without a limit, is not charged.
+     *
+     * @throws ClientRateLimitedException if the client cannot afford the send yet; nothing has
+     *                                    been charged
+     */
+    public void acquire(int recipients) {
+        Authentication client = SecurityContextHolder.getContext().getAuthentication();
+        if (client == null) {
+            return;
+        }
+        acquire(client.getName(), recipients);
+    }
+
+    void acquire(String client, int recipients) {
+        Bucket bucket = buckets.get(client);
+        if (bucket == null) {
+            return;
+        }
+        long wait = bucket.tryTake(Math.max(1, recipients), nanoTime.getAsLong());
+        if (wait > 0) {
+            log.info("Client {} refused a send to {} recipient(s): over its rate limit for another {} ms",
+                    client, recipients, wait / 1_000_000);
+            throw new ClientRateLimitedException(client, Duration.ofNanos(wait));
+        }
+    }
+
+    long refused(String client) {
+        Bucket bucket = buckets.get(client);
+        return bucket == null ? 0 : bucket.refused.sum();
+    }
+
+    /**
+     * {@code api.rate-limit.refused}, tagged by client: which client is hitting its limit, and
+     * how often, without reading logs.
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        buckets.forEach((client, bucket) ->
+                FunctionCounter.builder("api.rate-limit.refused", bucket, b -> b.refused.sum())
+                        .tag("client", client)
+                        .description("Sends refused because the client was over its recipient rate limit")
+                        .register(registry));
+    }
+
+    /** One client's allowance, as the instant its sending so far is paid off. */
+    static final class Bucket {
+
+        private final long nanosPerRecipient;
+        private final int burst;
+        private final long tolerance;
+
+        // nanoTime by which everything admitted so far is paid for; at or before now when full.
+        private final AtomicLong paidOffAt;
+        private final LongAdder refused = new LongAdder();
+
+        Bucket(double recipientsPerMinute, int burst, long now) {
+            this.nanosPerRecipient = Math.max(1, (long) (60e9 / recipientsPerMinute));
+            this.burst = burst;
+            this.tolerance = burst * nanosPerRecipient;
+            this.paidOffAt = new AtomicLong(now);
+        }
+
+        /**
+         * Takes {@code recipients} tokens if the bucket holds them.
+         *
+         * @return zero if taken, otherwise nanoseconds until they would be
+         */
+        long tryTake(int recipients, long now) {
+            while (true) {
+                long current = paidOffAt.get();
+                // nanoTime has an arbitrary origin, so only differences are compared.
+                long owed = Math.max(0, current - now);
+                // A send larger than the burst needs a full bucket, not more than a bucket holds.
+                long excess = owed + Math.min(recipients, burst) * nanosPerRecipient - tolerance;
+                if (excess > 0) {
+                    refused.increment();
+                    return excess;
+                }
+                if (paidOffAt.compareAndSet(current, now + owed + recipients * nanosPerRecipient)) {
+                    return 0;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.hoseacodes.emailintegrator.security;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+
+/**
+ * SHA-256 and HMAC-SHA256, for the keys, tokens and requests hashed on every call. Looking an
+ * algorithm up costs more than hashing a token with it, and an instance is not thread-safe, so
+ * callers keep one per thread: {@link #sha256()} does that itself, and an HMAC, which is tied to
+ * its key, is made with {@link #hmacSha256} from the caller's own {@code ThreadLocal}.
+ *
+ * <p>Every Java platform is required to provide both algorithms, so not finding one is a broken
+ * runtime and fails with {@link IllegalStateException}.
+ */
+public final class Hashing {
+
+    private static final ThreadLocal<MessageDigest> SHA_256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    private Hashing() {
+    }
+
+    /**
+     * This thread's SHA-256. {@code digest()} resets it, so it can be reused indefinitely; a caller
+     * that gives up between {@code update} and {@code digest} must {@code reset()} it.
+     */
+    public static MessageDigest sha256() {
+        return SHA_256.get();
+    }
+
+    /** A new HMAC-SHA256 under {@code key}. */
+    public static Mac hmacSha256(byte[] key) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(key, "HmacSHA256"));
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
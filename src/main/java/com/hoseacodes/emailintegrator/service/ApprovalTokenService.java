@@ -1,21 +1,31 @@
 package com.hoseacodes.emailintegrator.service;
 
 import com.hoseacodes.emailintegrator.config.JwtProperties;
+import com.hoseacodes.emailintegrator.security.Hashing;
 import io.jsonwebtoken.Claims;
 import io.jsonwebtoken.ExpiredJwtException;
 import io.jsonwebtoken.JwtException;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.security.Keys;
 import io.jsonwebtoken.security.SignatureException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.stereotype.Service;
 
 import javax.crypto.SecretKey;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 /**
@@ -46,15 +56,31 @@ import java.util.Map;
  * there is exactly one consumer — this service. Adding it would be ceremony without a threat it
  * addresses.
  *
- * <h2>Revocation</h2>
- * These tokens are stateless, so nothing can withdraw one before it expires; the 24-hour
- * lifetime is the entire containment window. Shortening that is the cheapest lever. Real
- * revocation needs server-side state — the standard approach is a {@code jti} claim plus a store
- * of consumed or revoked ids, checked on every verification. That would also make these links
- * single-use, which they currently are not: an email-client link prefetcher can trigger an
- * approval simply by fetching the URL (ENGINEERING_AUDIT MED-6). Deliberately not implemented
- * here — a token store is a real design decision, not a line of code, and it belongs with the
- * idempotency work rather than bolted on.
+ * <h2>Single use</h2>
+ * Every token carries a random 64-bit {@code jti}, returned as a {@code Long} under
+ * {@code "jti"}. Verification stays stateless — it answers whether a token is genuine, not
+ * whether it has been used — and the controller consumes the id in {@link ConsumedTokenStore}
+ * before acting, so a link applies one decision however many times it is fetched. A token minted
+ * before ids were added verifies with a null {@code "jti"} and stays reusable until it expires,
+ * as it always was. Revoking a token nobody has used yet is still not possible; the 24-hour
+ * lifetime remains the containment window for a leaked link.
+ *
+ * <h2>Verifying repeatedly</h2>
+ * The same token is commonly presented more than once within seconds: a mail client's link
+ * prefetcher fetches it, then the administrator clicks it. The parser is built once, with the key
+ * and issuer requirement, and a token that passed every check is remembered — by its SHA-256
+ * digest, not its text, so the cache holds no usable credential — until its own {@code exp}.
+ * Presented again before then, it costs one digest and a lookup instead of base64, JSON and an
+ * HMAC. Presented after, it is dropped and verified afresh, which rejects it as expired exactly as
+ * before. Nothing that failed a check is cached, so every rejection is still logged as itself.
+ * {@code app.jwt.verified-cache-size} bounds the cache, least recently used first out.
+ *
+ * <h2>Two formats</h2>
+ * With {@code app.jwt.format=compact}, links carry a {@link CompactApprovalToken} instead: the
+ * same facts in a fixed binary layout under an HMAC, a quarter of the length and verified without
+ * JSON. Both formats are always accepted — a JWT always contains a dot, a compact token never
+ * does — so links already sent keep working when the format changes. Compact tokens skip the
+ * verified-token cache; verifying one costs about what looking it up would.
  */
 @Service
 @EnableConfigurationProperties(JwtProperties.class)
@@ -64,14 +90,38 @@ public class ApprovalTokenService {
 
     private static final Logger log = LoggerFactory.getLogger(ApprovalTokenService.class);
 
+    // Ids only have to be unpredictable enough never to repeat; SecureRandom is also thread-safe.
+    private static final SecureRandom RANDOM = new SecureRandom();
+
     private final JwtProperties properties;
     private final SecretKey signingKey;
+    private final JwtParser parser;
+    private final CompactApprovalToken compact;
+    private final Clock clock;
 
+    // Digest of a verified token -> its claims, in access order. Null when the cache is off.
+    private final Map<ByteBuffer, Verified> verified;
+
+    @Autowired
     public ApprovalTokenService(JwtProperties properties) {
+        this(properties, Clock.systemUTC());
+    }
+
+    ApprovalTokenService(JwtProperties properties, Clock clock) {
         this.properties = properties;
+        this.clock = clock;
         // Derived once, at startup. Besides avoiding the per-call cost, this means a key that is
         // structurally unusable fails the deployment rather than the first approval email.
         this.signingKey = Keys.hmacShaKeyFor(properties.secret().getBytes(StandardCharsets.UTF_8));
+        // Immutable and thread-safe once built, so one serves every verification.
+        this.parser = Jwts.parser()
+                .verifyWith(signingKey)
+                .requireIssuer(properties.issuer())
+                .clock(() -> Date.from(clock.instant()))
+                .build();
+        this.compact = new CompactApprovalToken(
+                properties.secret().getBytes(StandardCharsets.UTF_8), properties.issuer());
+        this.verified = lruCache(properties.verifiedCacheSize());
     }
 
     /** Generates an approval token carrying only the email address. */
@@ -79,8 +129,18 @@ public class ApprovalTokenService {
         return generateApprovalToken(email, null);
     }
 
-    /** Generates an approval token carrying the email address and display name. */
+    /**
+     * Generates an approval token carrying the email address and display name, in the configured
+     * format. A compact token is only minted if both fit its layout; otherwise this is a JWT.
+     */
     public String generateApprovalToken(String email, String name) {
+        long id = RANDOM.nextLong();
+        if (properties.format() == JwtProperties.TokenFormat.COMPACT) {
+            String token = compact.mint(id, email, name, clock.instant().plus(properties.expiration()));
+            if (token != null) {
+                return token;
+            }
+        }
         Map<String, Object> claims = new HashMap<>();
         claims.put("email", email);
         if (name != null) {
@@ -88,12 +148,13 @@ public class ApprovalTokenService {
         }
         claims.put("type", TOKEN_TYPE_APPROVAL);
 
-        Date issuedAt = new Date();
+        Date issuedAt = Date.from(clock.instant());
         Date expiresAt = new Date(issuedAt.getTime() + properties.expiration().toMillis());
 
         return Jwts.builder()
                 .claims(claims)
                 .subject(email)
+                .id(HexFormat.of().toHexDigits(id))
                 .issuer(properties.issuer())
                 .issuedAt(issuedAt)
                 .expiration(expiresAt)
@@ -109,7 +170,7 @@ public class ApprovalTokenService {
      * is useful mainly to someone probing the endpoint. The distinction is recorded in the log
      * instead, where it is available for diagnosis.
      *
-     * @param token the compact JWT from the link's query string
+     * @param token the JWT or compact token from the link's query string
      * @return the token's claims, or null if it is missing, malformed, expired, tampered with,
      *         issued elsewhere, or not an approval token
      */
@@ -117,15 +178,21 @@ public class ApprovalTokenService {
         if (token == null || token.isBlank()) {
             return null;
         }
+        if (token.indexOf('.') < 0) {
+            return compact.verify(token, clock.instant());
+        }
+        ByteBuffer digest = verified == null ? null : digest(token);
+        if (digest != null) {
+            Verified hit = verified.get(digest);
+            // Past its expiry it is verified again below, which rejects and logs it as expired.
+            if (hit != null && !clock.instant().isAfter(hit.expiresAt())) {
+                return hit.claims();
+            }
+        }
 
         Claims claims;
         try {
-            claims = Jwts.parser()
-                    .verifyWith(signingKey)
-                    .requireIssuer(properties.issuer())
-                    .build()
-                    .parseSignedClaims(token)
-                    .getPayload();
+            claims = parser.parseSignedClaims(token).getPayload();
 
         } catch (ExpiredJwtException e) {
             // Routine: approval links are meant to age out.
@@ -149,13 +216,27 @@ public class ApprovalTokenService {
             return null;
         }
 
+        Long id;
+        try {
+            id = claims.getId() == null ? null : HexFormat.fromHexDigitsToLong(claims.getId());
+        } catch (IllegalArgumentException e) {
+            log.warn("Approval token rejected: malformed jti");
+            return null;
+        }
+
         Map<String, Object> result = new HashMap<>();
         result.put("email", claims.get("email", String.class));
         result.put("name", claims.get("name", String.class));
         result.put("subject", claims.getSubject());
         result.put("issuedAt", claims.getIssuedAt());
         result.put("expiration", claims.getExpiration());
-        return result;
+        result.put("jti", id);
+        // Shared by every later hit, so no caller may change it.
+        Map<String, Object> unmodifiable = Collections.unmodifiableMap(result);
+        if (digest != null) {
+            verified.put(digest, new Verified(unmodifiable, claims.getExpiration().toInstant()));
+        }
+        return unmodifiable;
     }
 
     /**
@@ -167,4 +248,23 @@ public class ApprovalTokenService {
         Map<String, Object> claims = verifyApprovalTokenWithClaims(token);
         return claims == null ? null : (String) claims.get("email");
     }
+
+    private static ByteBuffer digest(String token) {
+        return ByteBuffer.wrap(Hashing.sha256().digest(token.getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    private static Map<ByteBuffer, Verified> lruCache(int capacity) {
+        if (capacity <= 0) {
+            return null;
+        }
+        return Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ByteBuffer, Verified> eldest) {
+                return size() > capacity;
+            }
+        });
+    }
+
+    private record Verified(Map<String, Object> claims, Instant expiresAt) {
+    }
 }
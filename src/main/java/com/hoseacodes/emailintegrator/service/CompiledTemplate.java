@@ -0,0 +1,292 @@
+package com.hoseacodes.emailintegrator.service;
+
+import com.hoseacodes.emailintegrator.service.HtmlEscaper.Context;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A template parsed once into the literal text between its placeholders and the variable each
+ * placeholder names.
+ *
+ * <p>{@code "<p>Dear {{userName}}, from {{appName}}</p>"} becomes the literals
+ * {@code ["<p>Dear ", ", from ", "</p>"]} and the slots {@code [0, 1]}, indices into the
+ * template's distinct variables {@code ["userName", "appName"]}. Rendering walks the two arrays
+ * and appends; there is nothing left to search for.
+ *
+ * <p>Slots refer to variables by index, not name, so a variable used twice — {@code resetUrl} in
+ * password-reset.html is both the button's {@code href} and the visible fallback link — is
+ * resolved once and written twice. The caller resolves raw values into an array in
+ * {@link #variables()} order; see {@link EmailTemplateService}.
+ *
+ * <p>The grammar is exactly the one the regex substitution used, {@code {{\w+}}}. Instances are
+ * immutable and shared by every render.
+ *
+ * <h2>Escaping by context</h2>
+ * Each slot records whether it sits in element text or inside a tag, and its value is escaped for
+ * that {@link Context} as it is written — see {@link HtmlEscaper}. The same {@code resetUrl} is
+ * escaped as an attribute in the {@code href} and as text in the visible link. Compiling rejects
+ * a placeholder inside a tag but outside quotes: no escaping makes {@code <a href={{url}}>} safe,
+ * since a space in the value starts a new attribute.
+ *
+ * <h2>Binding constants</h2>
+ * {@link #bind} folds variables whose value is fixed for the deployment — the configured
+ * application name, say — into the literals around them, escaped for each slot's context,
+ * producing a template that no longer has those variables at all. Rendering it skips their
+ * lookup and escaping entirely.
+ *
+ * <h2>Rendering to bytes</h2>
+ * The literals are also held UTF-8 encoded, so {@link #renderUtf8} can produce the bytes a mail
+ * transport sends without building a {@code String} first. It measures the values' escaped,
+ * encoded length, allocates one array of exactly the output size, copies the literals in and
+ * escapes the values straight into it. Encoding a rendered {@code String} instead costs the
+ * builder, the string and the encoder's own buffer, each the size of the whole message.
+ */
+final class CompiledTemplate {
+
+    /** Matches {@code {{name}}}. Restricted to word characters so it cannot span markup. */
+    private static final Pattern PLACEHOLDER = Pattern.compile("\\{\\{(\\w+)}}");
+
+    private final String name;
+    private final String[] literals;
+    private final int[] slots;
+    private final Context[] contexts;
+    private final String[] variables;
+    private final Map<String, Integer> variableIndex;
+    private final int literalLength;
+    private final byte[][] literalBytes;
+    private final int literalByteLength;
+
+    private CompiledTemplate(String name, List<String> literals, List<Integer> slots,
+                             List<Context> contexts, List<String> variables) {
+        this.name = name;
+        this.literals = literals.toArray(String[]::new);
+        this.slots = slots.stream().mapToInt(Integer::intValue).toArray();
+        this.contexts = contexts.toArray(Context[]::new);
+        this.variables = variables.toArray(String[]::new);
+        Map<String, Integer> index = new HashMap<>();
+        for (int i = 0; i < this.variables.length; i++) {
+            index.put(this.variables[i], i);
+        }
+        this.variableIndex = Map.copyOf(index);
+        this.literalLength = literals.stream().mapToInt(String::length).sum();
+        this.literalBytes = new byte[this.literals.length][];
+        int byteLength = 0;
+        for (int i = 0; i < this.literals.length; i++) {
+            literalBytes[i] = this.literals[i].getBytes(StandardCharsets.UTF_8);
+            byteLength += literalBytes[i].length;
+        }
+        this.literalByteLength = byteLength;
+    }
+
+    /**
+     * Parses a template. The regex runs here, once per template, and never during a render.
+     *
+     * @param name   the template's name, kept for logging
+     * @param source the template text
+     * @throws IllegalArgumentException if a placeholder is inside a tag but not in a quoted
+     *                                  attribute value
+     */
+    static CompiledTemplate compile(String name, String source) {
+        List<String> literals = new ArrayList<>();
+        List<Integer> slots = new ArrayList<>();
+        List<Context> contexts = new ArrayList<>();
+        List<String> variables = new ArrayList<>();
+        Markup markup = new Markup();
+
+        Matcher matcher = PLACEHOLDER.matcher(source);
+        int literalStart = 0;
+        while (matcher.find()) {
+            markup.scan(source, literalStart, matcher.start());
+            if (markup.state == Markup.TAG) {
+                throw new IllegalArgumentException(name + ": " + matcher.group()
+                        + " is inside a tag but not in a quoted attribute value");
+            }
+            literals.add(source.substring(literalStart, matcher.start()));
+            String variable = matcher.group(1);
+            int index = variables.indexOf(variable);
+            if (index < 0) {
+                index = variables.size();
+                variables.add(variable);
+            }
+            slots.add(index);
+            contexts.add(markup.state == Markup.TEXT ? Context.TEXT : Context.ATTRIBUTE);
+            literalStart = matcher.end();
+        }
+        literals.add(source.substring(literalStart));
+
+        return new CompiledTemplate(name, literals, slots, contexts, variables);
+    }
+
+    /**
+     * A copy with {@code constants} substituted into the literals. Variables not in
+     * {@code constants} keep their slots, renumbered in the same order of first appearance.
+     *
+     * @param constants raw values by variable name, escaped here for each slot's context
+     * @return this template itself if it uses none of them
+     */
+    CompiledTemplate bind(Map<String, String> constants) {
+        if (Arrays.stream(variables).noneMatch(constants::containsKey)) {
+            return this;
+        }
+        List<String> boundLiterals = new ArrayList<>();
+        List<Integer> boundSlots = new ArrayList<>();
+        List<Context> boundContexts = new ArrayList<>();
+        List<String> boundVariables = new ArrayList<>();
+
+        StringBuilder literal = new StringBuilder(literals[0]);
+        for (int i = 0; i < slots.length; i++) {
+            String variable = variables[slots[i]];
+            String constant = constants.get(variable);
+            if (constant != null) {
+                HtmlEscaper.escapeInto(literal, constant, contexts[i]);
+            } else {
+                boundLiterals.add(literal.toString());
+                literal.setLength(0);
+                int index = boundVariables.indexOf(variable);
+                if (index < 0) {
+                    index = boundVariables.size();
+                    boundVariables.add(variable);
+                }
+                boundSlots.add(index);
+                boundContexts.add(contexts[i]);
+            }
+            literal.append(literals[i + 1]);
+        }
+        boundLiterals.add(literal.toString());
+
+        return new CompiledTemplate(name, boundLiterals, boundSlots, boundContexts, boundVariables);
+    }
+
+    String name() {
+        return name;
+    }
+
+    /** The distinct variables the template uses, in order of first appearance. */
+    List<String> variables() {
+        return List.of(variables);
+    }
+
+    int variableCount() {
+        return variables.length;
+    }
+
+    /** @return the variable's position in {@link #variables()}, or -1 if the template does not use it */
+    int indexOf(String variable) {
+        Integer index = variableIndex.get(variable);
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * Renders in one pass into a builder sized for the exact output.
+     *
+     * @param values raw values in {@link #variables()} order, escaped here as they are written; a
+     *               {@code null} renders as nothing, as an unsupplied placeholder always has
+     */
+    String render(String[] values) {
+        int length = literalLength;
+        for (int i = 0; i < slots.length; i++) {
+            String value = values[slots[i]];
+            length += value == null ? 0 : HtmlEscaper.escapedLength(value, contexts[i]);
+        }
+
+        StringBuilder rendered = new StringBuilder(length);
+        rendered.append(literals[0]);
+        for (int i = 0; i < slots.length; i++) {
+            String value = values[slots[i]];
+            if (value != null) {
+                HtmlEscaper.escapeInto(rendered, value, contexts[i]);
+            }
+            rendered.append(literals[i + 1]);
+        }
+        return rendered.toString();
+    }
+
+    /**
+     * Renders in one pass straight into UTF-8, identical to encoding {@link #render}'s result.
+     * The returned array is the only allocation the render makes.
+     *
+     * @param values as for {@link #render}
+     */
+    byte[] renderUtf8(String[] values) {
+        int length = literalByteLength;
+        for (int i = 0; i < slots.length; i++) {
+            String value = values[slots[i]];
+            length += value == null ? 0 : HtmlEscaper.escapedUtf8Length(value, contexts[i]);
+        }
+
+        byte[] rendered = new byte[length];
+        System.arraycopy(literalBytes[0], 0, rendered, 0, literalBytes[0].length);
+        int position = literalBytes[0].length;
+        for (int i = 0; i < slots.length; i++) {
+            String value = values[slots[i]];
+            if (value != null) {
+                position = HtmlEscaper.escapeUtf8Into(rendered, position, value, contexts[i]);
+            }
+            byte[] literal = literalBytes[i + 1];
+            System.arraycopy(literal, 0, rendered, position, literal.length);
+            position += literal.length;
+        }
+        return rendered;
+    }
+
+    /**
+     * Just enough of HTML's tokenizer to say whether a position is in text, in a tag, in a quoted
+     * attribute value or in a comment. Templates are trusted, so it only has to be right for
+     * well-formed markup; and anywhere other than text gets the stricter attribute escaping.
+     */
+    private static final class Markup {
+
+        static final int TEXT = 0;
+        static final int TAG = 1;
+        static final int DOUBLE_QUOTED = 2;
+        static final int SINGLE_QUOTED = 3;
+        static final int COMMENT = 4;
+
+        int state = TEXT;
+
+        void scan(String source, int from, int to) {
+            for (int i = from; i < to; i++) {
+                char c = source.charAt(i);
+                switch (state) {
+                    case TEXT -> {
+                        if (source.startsWith("<!--", i)) {
+                            state = COMMENT;
+                            i += 3;
+                        } else if (c == '<' && i + 1 < source.length() && startsTag(source.charAt(i + 1))) {
+                            state = TAG;
+                        }
+                    }
+                    case TAG -> {
+                        if (c == '"') {
+                            state = DOUBLE_QUOTED;
+                        } else if (c == '\'') {
+                            state = SINGLE_QUOTED;
+                        } else if (c == '>') {
+                            state = TEXT;
+                        }
+                    }
+                    case DOUBLE_QUOTED -> state = c == '"' ? TAG : state;
+                    case SINGLE_QUOTED -> state = c == '\'' ? TAG : state;
+                    case COMMENT -> {
+                        if (source.startsWith("-->", i)) {
+                            state = TEXT;
+                            i += 2;
+                        }
+                    }
+                    default -> throw new IllegalStateException("state " + state);
+                }
+            }
+        }
+
+        private static boolean startsTag(char next) {
+            return Character.isLetter(next) || next == '/' || next == '!' || next == '?';
+        }
+    }
+}
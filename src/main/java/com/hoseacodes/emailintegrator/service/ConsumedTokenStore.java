@@ -0,0 +1,267 @@
+package com.hoseacodes.emailintegrator.service;
+
+import com.hoseacodes.emailintegrator.config.JwtProperties;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The ids of approval tokens that have already been used, kept until the tokens expire.
+ *
+ * <p>An approval link used to work until it expired, however many times it was fetched — so a mail
+ * client's prefetcher, a security scanner and the administrator's own click could each apply the
+ * decision and each send the user an email. Every token now carries a random 64-bit {@code jti},
+ * and {@code UserApprovalController} {@linkplain #consume consumes} it before acting: the first
+ * presentation wins, every later one is refused.
+ *
+ * <h2>Shape</h2>
+ * An id only has to be remembered while its token could still verify. Ids are grouped into
+ * buckets by the hour their token expires in, and once that hour is past the whole bucket is
+ * dropped — no per-entry timestamps, no sweep. A lookup goes straight to the bucket the token's
+ * own {@code exp} names. Each bucket is an open-addressed set of primitive {@code long}s: eight
+ * bytes a slot, at most three-quarters full, so a million consumed ids take about 16 MB, where a
+ * {@code HashSet<Long>} would take several times that.
+ *
+ * <h2>Surviving a restart</h2>
+ * Held only in memory, a restart would make every consumed link usable again until it expires.
+ * With {@code app.jwt.consumed-tokens-file} set, each consumption is also appended to that
+ * {@link Journal} as a 16-byte record, and the file is read back at startup, expired records
+ * dropped and the rest rewritten; likewise while running, once it has doubled.
+ *
+ * <p>With several instances each holds its own ids, so a link can be used once per instance. A
+ * shared store is the fix, and belongs with running more than one instance at all.
+ */
+@Component
+@EnableConfigurationProperties(JwtProperties.class)
+public class ConsumedTokenStore {
+
+    private static final Logger log = LoggerFactory.getLogger(ConsumedTokenStore.class);
+
+    private static final long BUCKET_SECONDS = 3600;
+    private static final int RECORD = 16;
+
+    private final Clock clock;
+    private final Journal journal;
+
+    // Hour an id's token expires in (rounded up) -> the ids. Guarded by this.
+    private final TreeMap<Long, LongSet> buckets = new TreeMap<>();
+
+    @Autowired
+    public ConsumedTokenStore(JwtProperties properties) {
+        this(properties.consumedTokensFile(), Clock.systemUTC());
+    }
+
+    ConsumedTokenStore(Path file, Clock clock) {
+        this.clock = clock;
+        this.journal = file == null ? null : openJournal(file);
+    }
+
+    /**
+     * Records {@code id} as used, unless it already was.
+     *
+     * @param id        the token's {@code jti}
+     * @param expiresAt the token's {@code exp}; the id is forgotten once this has passed
+     * @return true the first time an id is presented, false every time after
+     */
+    public synchronized boolean consume(long id, Instant expiresAt) {
+        long bucket = bucketOf(expiresAt);
+        dropExpired();
+        if (!buckets.computeIfAbsent(bucket, b -> new LongSet()).add(id)) {
+            return false;
+        }
+        append(expiresAt.getEpochSecond(), id);
+        return true;
+    }
+
+    /**
+     * Makes a consumed id usable again: for when acting on the token failed, so that the link can
+     * be tried again rather than having been spent on nothing.
+     */
+    public synchronized void release(long id, Instant expiresAt) {
+        LongSet ids = buckets.get(bucketOf(expiresAt));
+        if (ids != null && ids.remove(id)) {
+            // A negative expiry marks a release, which the next startup applies in order.
+            append(-expiresAt.getEpochSecond(), id);
+        }
+    }
+
+    /** How many ids are held; for tests. */
+    synchronized int size() {
+        return buckets.values().stream().mapToInt(LongSet::size).sum();
+    }
+
+    @PreDestroy
+    public synchronized void close() throws IOException {
+        if (journal != null) {
+            journal.close();
+        }
+    }
+
+    private static long bucketOf(Instant expiresAt) {
+        return Math.floorDiv(expiresAt.getEpochSecond() + BUCKET_SECONDS - 1, BUCKET_SECONDS);
+    }
+
+    /** Drops every bucket whose hour has wholly passed: all its tokens have expired. */
+    private void dropExpired() {
+        // A token is still valid at the second it expires, so a bucket goes once its end is behind us.
+        long passed = Math.floorDiv(clock.instant().getEpochSecond() - 1, BUCKET_SECONDS);
+        buckets.headMap(passed, true).clear();
+    }
+
+    private void append(long expiresAt, long id) {
+        if (journal != null) {
+            journal.append(record(expiresAt, id));
+            // Under this store's lock, so nothing is appended while the file is rewritten.
+            if (journal.due()) {
+                journal.compact(this::writeIds);
+            }
+        }
+    }
+
+    private static ByteBuffer record(long expiresAt, long id) {
+        return ByteBuffer.allocate(RECORD).putLong(expiresAt).putLong(id).flip();
+    }
+
+    /**
+     * Reads the journal back, drops what has expired, and rewrites it with what is left. It is
+     * rewritten again whenever it doubles, so it holds at most about twice the unexpired ids.
+     */
+    private Journal openJournal(Path file) {
+        Journal journal = Journal.open(file, "app.jwt.consumed-tokens-file", this::replay, this::writeIds);
+        log.info("Consumed approval tokens: {} still unexpired in {}", size(), file);
+        return journal;
+    }
+
+    private void writeIds(Journal.Output out) throws IOException {
+        for (Map.Entry<Long, LongSet> bucket : buckets.entrySet()) {
+            // The bucket's end stands in for each token's own expiry, which is all a reload needs.
+            long expiresAt = bucket.getKey() * BUCKET_SECONDS;
+            for (long id : bucket.getValue().toArray()) {
+                out.write(record(expiresAt, id));
+            }
+        }
+    }
+
+    private void replay(ByteBuffer records) {
+        // A record cut short by a crash mid-append is ignored.
+        while (records.remaining() >= RECORD) {
+            long expiresAt = records.getLong();
+            long id = records.getLong();
+            Instant expiry = Instant.ofEpochSecond(Math.abs(expiresAt));
+            if (expiresAt < 0) {
+                LongSet ids = buckets.get(bucketOf(expiry));
+                if (ids != null) {
+                    ids.remove(id);
+                }
+            } else {
+                buckets.computeIfAbsent(bucketOf(expiry), b -> new LongSet()).add(id);
+            }
+        }
+        dropExpired();
+    }
+
+    /**
+     * A set of {@code long}s, open-addressed with linear probing. Zero marks an empty slot, so
+     * zero itself is held in a flag; removal shifts the rest of the run back rather than leaving
+     * tombstones.
+     */
+    static final class LongSet {
+
+        private long[] table = new long[16];
+        private int size;
+        private boolean hasZero;
+
+        boolean add(long value) {
+            if (value == 0) {
+                boolean added = !hasZero;
+                hasZero = true;
+                return added;
+            }
+            int slot = find(value);
+            if (table[slot] == value) {
+                return false;
+            }
+            table[slot] = value;
+            if (++size * 4 > table.length * 3) {
+                grow();
+            }
+            return true;
+        }
+
+        boolean remove(long value) {
+            if (value == 0) {
+                boolean removed = hasZero;
+                hasZero = false;
+                return removed;
+            }
+            int slot = find(value);
+            if (table[slot] != value) {
+                return false;
+            }
+            table[slot] = 0;
+            size--;
+            int mask = table.length - 1;
+            // Move back any later entry in the run that would no longer be found past the gap.
+            for (int next = (slot + 1) & mask; table[next] != 0; next = (next + 1) & mask) {
+                int home = home(table[next], mask);
+                if (((next - home) & mask) >= ((next - slot) & mask)) {
+                    table[slot] = table[next];
+                    table[next] = 0;
+                    slot = next;
+                }
+            }
+            return true;
+        }
+
+        int size() {
+            return size + (hasZero ? 1 : 0);
+        }
+
+        long[] toArray() {
+            long[] values = new long[size()];
+            int i = hasZero ? 1 : 0;
+            for (long value : table) {
+                if (value != 0) {
+                    values[i++] = value;
+                }
+            }
+            return values;
+        }
+
+        /** The slot holding {@code value}, or the empty slot where it would go. */
+        private int find(long value) {
+            int mask = table.length - 1;
+            int slot = home(value, mask);
+            while (table[slot] != 0 && table[slot] != value) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        private void grow() {
+            long[] old = table;
+            table = new long[old.length * 2];
+            for (long value : old) {
+                if (value != 0) {
+                    table[find(value)] = value;
+                }
+            }
+        }
+
+        private static int home(long value, int mask) {
+            // Ids are random, but mixing costs little and keeps sequential ids from clustering.
+            return (int) ((value * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+        }
+    }
+}
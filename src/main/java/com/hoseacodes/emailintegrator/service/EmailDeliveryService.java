@@ -9,6 +9,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  * Application-level entry point for sending email through an external provider.
  *
@@ -49,6 +51,25 @@ public class EmailDeliveryService {
      *         rejected, throttled, failed, or did not respond
      */
     public SendEmailResult send(EmailDraft draft) {
+        return emailProvider.send(toCommand(draft));
+    }
+
+    /**
+     * Sends one message without holding the calling thread for the provider's response.
+     *
+     * <p>The kill switch and the sender check still run synchronously, so those failures are
+     * thrown straight from this method; only the provider's own failures arrive through the
+     * future.
+     *
+     * @param draft everything about the message except the sender, which this method supplies
+     * @return a future holding the provider-assigned message identifiers
+     * @throws EmailSendingDisabledException if sending is switched off by configuration
+     */
+    public CompletableFuture<SendEmailResult> sendAsync(EmailDraft draft) {
+        return emailProvider.sendAsync(toCommand(draft));
+    }
+
+    private SendEmailCommand toCommand(EmailDraft draft) {
         if (!emailProperties.isEnabled()) {
             log.warn("Send rejected: email sending is disabled by configuration");
             throw new EmailSendingDisabledException();
@@ -70,7 +91,7 @@ public class EmailDeliveryService {
         log.info("Sending email via {}: recipients={} variants={}",
                 emailProvider.name(), command.totalRecipientCount(), command.variants().size());
 
-        return emailProvider.send(command);
+        return command;
     }
 
     private EmailAddress configuredSender() {
@@ -1,18 +1,35 @@
 package com.hoseacodes.emailintegrator.service;
 
+import com.hoseacodes.emailintegrator.config.TemplateProperties;
+import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.core.io.ClassPathResource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
 import org.springframework.stereotype.Service;
 import org.springframework.util.StreamUtils;
-import org.springframework.web.util.HtmlUtils;
 
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.time.Duration;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
 
 /**
  * Renders HTML email templates by substituting {@code {{variable}}} placeholders.
@@ -28,7 +45,7 @@ import java.util.regex.Pattern;
  * groups:
  *
  * <ul>
- *   <li><b>text</b> — HTML-escaped, safe for element content and quoted attributes;</li>
+ *   <li><b>text</b> — HTML-escaped;</li>
  *   <li><b>links</b> — passed through {@link LinkSanitizer} <em>first</em> (scheme and host
  *       rules), then HTML-escaped. Escaping alone would happily preserve
  *       {@code javascript:alert(1)} as a valid {@code href}.</li>
@@ -37,17 +54,66 @@ import java.util.regex.Pattern;
  * <p>Callers name which group each value belongs to, rather than this class guessing from the
  * variable name. A guess silently fails open the day someone adds a new URL field.
  *
+ * <p>The escaping itself follows where the value lands, not which group it came in: the template
+ * knows whether each placeholder is in element text or a quoted attribute, and escapes for that
+ * as it writes. See {@link HtmlEscaper}.
+ *
  * <h2>Two subtler injection paths, also closed</h2>
  * <ol>
  *   <li><b>Sequential replacement was itself injectable.</b> Replacing placeholders one variable
  *       at a time re-scans text already substituted, so a value containing the literal
  *       {@code {{approvalUrl}}} would be expanded on a later pass. Substitution is now a single
- *       regex pass over the template; substituted content is never re-examined.</li>
- *   <li><b>{@code $} in values.</b> {@link Matcher#appendReplacement} treats {@code $1} as a
- *       group reference, so a value containing {@code $} could corrupt output or throw at
- *       runtime. {@link Matcher#quoteReplacement} neutralises it.</li>
+ *       pass over the compiled template; substituted content is never re-examined.</li>
+ *   <li><b>{@code $} in values.</b> The regex substitution this replaced treated {@code $1} in a
+ *       replacement as a group reference. Values are now appended as they are, so there is no
+ *       replacement syntax for them to collide with.</li>
  * </ol>
  *
+ * <h2>Compiled once</h2>
+ * Every template is read and parsed into a {@link CompiledTemplate} when the service is built,
+ * and held by name. A render is a map lookup, the escaping, and one pass of appends — no
+ * classpath read, no regex. Previously every send re-read its file from the jar and ran the
+ * placeholder regex over all of it. A template missing at startup is replaced by its built-in
+ * fallback then, and logged once, rather than on every send.
+ *
+ * <p>Compiling is also where a template is checked against the variables its callers supply,
+ * declared per template in {@link TemplateSchema}. A bundled template using anything else fails
+ * startup; one in the template directory is refused. A misspelt placeholder used to render as a
+ * blank slot in whatever email it was in.
+ *
+ * <p>Before compiling, a template is minified ({@link HtmlMinifier}): its indentation and comments
+ * are sent with every message and seen by no one, so they are removed once here rather than paid
+ * for per send. {@code app.email.templates.minify} and {@code .unminified} opt out globally or
+ * per template. What each template saved is logged as it is compiled.
+ *
+ * <p>Before that again, its layout and partials are flattened into it ({@link TemplateComposer}),
+ * so the head, wrapper and header every template shares are written once, under
+ * {@code templates/layouts} and {@code templates/partials}, and cost nothing per render. They are
+ * always read from the bundled location: a template in the directory may use them, but not
+ * replace them.
+ *
+ * <h2>Application constants, bound once</h2>
+ * The application name, display name and administrator address are the same on nearly every
+ * render, yet were escaped and substituted on each. {@link #bindConstants} escapes them once and
+ * folds them into each template's literals ({@link CompiledTemplate#bind}), keeping both forms. A
+ * render uses the bound form unless the caller supplies one of those variables with a different
+ * value — a per-request {@code appName} override — in which case it uses the unbound form with
+ * exactly the values supplied, as before. A supplied value equal to the constant is simply
+ * already in the template. Until constants are bound, every render takes the unbound form.
+ *
+ * <h2>An external directory, reloaded</h2>
+ * With {@code app.email.templates.directory} set, its {@code *.html} files are compiled over the
+ * bundled templates by name, and a daemon thread watches it. After a change, and
+ * {@code reload-delay} without another, the whole registry is recompiled off to the side and
+ * published, with its constants rebound, by one volatile write of an immutable registry. A render
+ * reads that reference once, so it uses either the old set or the new one, never a mixture, and
+ * no render ever waits for or touches the disk. A file that cannot be read keeps its previously
+ * compiled version; a file removed reverts to the bundled one.
+ *
+ * <p>The registry is atomic; a single file is not. A tool that rewrites a template in place can
+ * be caught mid-write, and the delay only makes that unlikely. Deploy by writing elsewhere and
+ * moving the file in.
+ *
  * <h2>Why not Thymeleaf</h2>
  * Thymeleaf would give contextual escaping by default and is the better long-term answer — the
  * README already (incorrectly) claims it. It is deliberately not part of this change: swapping
@@ -55,21 +121,72 @@ import java.util.regex.Pattern;
  * which change fixed what if something regressed. Recorded as follow-up work.
  */
 @Service
+@EnableConfigurationProperties(TemplateProperties.class)
 public class EmailTemplateService {
 
     private static final Logger log = LoggerFactory.getLogger(EmailTemplateService.class);
 
-    /** Matches {@code {{name}}}. Restricted to word characters so it cannot span markup. */
-    private static final Pattern PLACEHOLDER = Pattern.compile("\\{\\{(\\w+)}}");
+    /** Where templates are read from at startup. */
+    static final String TEMPLATE_LOCATION = "classpath:templates/";
+
+    /** The templates with a built-in fallback; each is guaranteed an entry in the registry. */
+    static final List<String> BUILT_IN_TEMPLATES = Arrays.stream(TemplateSchema.values())
+            .map(TemplateSchema::templateName)
+            .toList();
+
+    private static final CompiledTemplate UNAVAILABLE = CompiledTemplate.compile("unavailable",
+            "<html><body><h1>Email Template Error</h1><p>The requested template is "
+                    + "unavailable.</p></body></html>");
 
     private final LinkSanitizer linkSanitizer;
+    private final TemplateProperties properties;
+    private final TemplateComposer composer;
+    private final Map<String, CompiledTemplate> bundled;
+    private final Path directory;
+    private final Duration reloadDelay;
+    private final WatchService watcher;
+
+    // Replaced whole, never modified: a render reads it once and sees one consistent set.
+    // Written only under this object's lock, so a reload and a rebind cannot lose each other.
+    private volatile Registry registry;
 
     public EmailTemplateService(LinkSanitizer linkSanitizer) {
+        this(linkSanitizer, TemplateProperties.bundledOnly());
+    }
+
+    @Autowired
+    public EmailTemplateService(LinkSanitizer linkSanitizer, TemplateProperties properties) {
+        this(linkSanitizer, TEMPLATE_LOCATION, properties);
+    }
+
+    /** @param location a resource location ending in {@code /}; every {@code *.html} in it is compiled */
+    EmailTemplateService(LinkSanitizer linkSanitizer, String location) {
+        this(linkSanitizer, location, TemplateProperties.bundledOnly());
+    }
+
+    EmailTemplateService(LinkSanitizer linkSanitizer, String location, TemplateProperties properties) {
         this.linkSanitizer = linkSanitizer;
+        this.properties = properties;
+        this.composer = new TemplateComposer(path -> read(location + path));
+        this.bundled = compileTemplates(location);
+        this.directory = properties.directory();
+        this.reloadDelay = properties.reloadDelay();
+        if (directory == null) {
+            this.registry = Registry.of(bundled, Map.of());
+            this.watcher = null;
+            return;
+        }
+        // A configured directory that is not there is a deployment mistake; starting on the
+        // bundled templates would hide it until someone noticed the wrong email going out.
+        if (!Files.isDirectory(directory)) {
+            throw new IllegalStateException("app.email.templates.directory is not a directory: " + directory);
+        }
+        this.registry = Registry.of(compileDirectory(Map.of()), Map.of());
+        this.watcher = watch(directory);
     }
 
     /**
-     * Loads a template and substitutes escaped values.
+     * Renders a compiled template with escaped values.
      *
      * @param templateName  file name under {@code resources/templates}
      * @param textVariables values rendered as text; HTML-escaped
@@ -80,65 +197,258 @@ public class EmailTemplateService {
     public String processTemplate(String templateName,
                                   Map<String, String> textVariables,
                                   Map<String, String> linkVariables) {
+        CompiledTemplate template = select(templateName, textVariables, linkVariables);
+        return template.render(values(template, textVariables, linkVariables));
+    }
+
+    /**
+     * As {@link #processTemplate}, rendered straight into UTF-8 — the form a mail transport
+     * sends. One array of exactly the output size, with no intermediate {@code String} for the
+     * transport to encode again.
+     */
+    public byte[] processTemplateUtf8(String templateName,
+                                      Map<String, String> textVariables,
+                                      Map<String, String> linkVariables) {
+        CompiledTemplate template = select(templateName, textVariables, linkVariables);
+        return template.renderUtf8(values(template, textVariables, linkVariables));
+    }
 
-        // Link validation happens before the template is loaded, so a bad link fails fast and
-        // identically whether or not the template file is present.
-        Map<String, String> safeValues = new HashMap<>();
+    /**
+     * Sets the values folded into every template ahead of rendering, replacing any set before.
+     *
+     * @param constants raw values by variable name; escaped once, here
+     */
+    public synchronized void bindConstants(Map<String, String> constants) {
+        registry = Registry.of(registry.templates(), constants);
+        log.info("Bound {} into email templates", constants.keySet());
+    }
 
+    /** The template to render: bound to the constants unless the caller overrides one of them. */
+    private CompiledTemplate select(String templateName,
+                                    Map<String, String> textVariables,
+                                    Map<String, String> linkVariables) {
+        Registry current = registry;
+        CompiledTemplate template = current.templates().get(templateName);
+        if (template == null) {
+            // Degrade to an error page rather than failing the send outright, as a missing file
+            // always has. Only a name no caller in this service uses can get here.
+            log.error("Error loading template {}: not compiled at startup", templateName);
+            return UNAVAILABLE;
+        }
+        if (agrees(current.constants(), textVariables) && agrees(current.constants(), linkVariables)) {
+            return current.bound().get(templateName);
+        }
+        return template;
+    }
+
+    /** Whether every constant the caller supplied has the bound value. */
+    private static boolean agrees(Map<String, String> constants, Map<String, String> supplied) {
+        if (supplied == null) {
+            return true;
+        }
+        for (Map.Entry<String, String> constant : constants.entrySet()) {
+            if (supplied.containsKey(constant.getKey())
+                    && !constant.getValue().equals(supplied.get(constant.getKey()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The values {@code template} uses, in its variable order, links validated. Escaping is left to
+     * the template, which knows the context each is written in.
+     */
+    private String[] values(CompiledTemplate template,
+                            Map<String, String> textVariables,
+                            Map<String, String> linkVariables) {
+        // Every link is validated, including any the template does not use, so a bad link fails
+        // identically whichever template it was sent to.
+        String[] values = new String[template.variableCount()];
         if (linkVariables != null) {
-            linkVariables.forEach((name, value) ->
-                    safeValues.put(name, HtmlUtils.htmlEscape(linkSanitizer.sanitize(name, value))));
+            for (Map.Entry<String, String> link : linkVariables.entrySet()) {
+                String safe = linkSanitizer.sanitize(link.getKey(), link.getValue());
+                int index = template.indexOf(link.getKey());
+                if (index >= 0) {
+                    values[index] = safe;
+                }
+            }
         }
+        // Text after links, so a name supplied in both renders as text — as it always has.
         if (textVariables != null) {
-            textVariables.forEach((name, value) ->
-                    safeValues.put(name, HtmlUtils.htmlEscape(value == null ? "" : value)));
+            for (Map.Entry<String, String> text : textVariables.entrySet()) {
+                int index = template.indexOf(text.getKey());
+                if (index >= 0) {
+                    values[index] = text.getValue() == null ? "" : text.getValue();
+                }
+            }
         }
+        return values;
+    }
 
-        String template;
+    /**
+     * Reads and compiles every template at {@code location}, then fills any built-in template
+     * that was not there with its fallback. Failing to read one falls back rather than failing
+     * startup: the message content matters more than its styling.
+     *
+     * <p>A template that reads but does not compile — a placeholder outside quotes in a tag, or
+     * one {@link TemplateSchema} does not declare — fails startup instead. That is a mistake in
+     * the jar, not the environment, and failing here is what makes the build's tests catch it
+     * rather than a recipient noticing the blank.
+     *
+     * @throws IllegalStateException if a template at {@code location} does not compile
+     */
+    private Map<String, CompiledTemplate> compileTemplates(String location) {
+        Map<String, CompiledTemplate> compiled = new HashMap<>();
         try {
-            template = loadTemplate(templateName);
+            for (Resource resource : new PathMatchingResourcePatternResolver().getResources(location + "*.html")) {
+                String name = resource.getFilename();
+                String source;
+                try {
+                    source = StreamUtils.copyToString(resource.getInputStream(), StandardCharsets.UTF_8);
+                } catch (IOException e) {
+                    log.error("Error loading template {}: {}", name, e.getMessage());
+                    continue;
+                }
+                try {
+                    compiled.put(name, compile(name, source));
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalStateException("Template " + location + name + " does not compile: "
+                            + e.getMessage(), e);
+                }
+            }
         } catch (IOException e) {
-            // Degrade to a built-in template rather than failing the send outright: the message
-            // content matters more than its styling. The fallback is substituted through the
-            // same escaping path, so it is no less safe.
-            log.error("Error loading template {}: {}", templateName, e.getMessage());
-            template = getDefaultTemplate(templateName);
+            log.error("Error listing templates in {}: {}", location, e.getMessage());
         }
 
-        return replaceVariables(template, safeValues);
+        for (String name : BUILT_IN_TEMPLATES) {
+            if (!compiled.containsKey(name)) {
+                log.error("Template {} not found in {}; using the built-in fallback", name, location);
+                compiled.put(name, compile(name, getDefaultTemplate(name)));
+            }
+        }
+        log.info("Compiled {} email templates from {}", compiled.size(), location);
+        return Map.copyOf(compiled);
     }
 
-    private String loadTemplate(String templateName) throws IOException {
-        String templatePath = "templates/" + templateName;
-        ClassPathResource resource = new ClassPathResource(templatePath);
+    /**
+     * The bundled templates with every {@code *.html} in the directory compiled over them.
+     *
+     * @param previous the set currently live, whose version of a template is kept if its file
+     *                 cannot be read now
+     */
+    private Map<String, CompiledTemplate> compileDirectory(Map<String, CompiledTemplate> previous) {
+        Map<String, CompiledTemplate> compiled = new HashMap<>(bundled);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.html")) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    compiled.put(name, compile(name, Files.readString(file)));
+                } catch (IOException | IllegalArgumentException e) {
+                    log.error("Error loading template {}: {}; keeping the version last loaded", file, e.toString());
+                    if (previous.containsKey(name)) {
+                        compiled.put(name, previous.get(name));
+                    }
+                }
+            }
+        } catch (IOException e) {
+            log.error("Error listing templates in {}: {}; keeping those last loaded", directory, e.toString());
+            return previous.isEmpty() ? bundled : previous;
+        }
+        log.info("Compiled {} email templates from {} over the bundled set", compiled.size(), directory);
+        return Map.copyOf(compiled);
+    }
+
+    /**
+     * Flattens a template's layout and partials, minifies it unless configured not to, compiles
+     * it and, if it is a built-in one, checks it uses only the variables its callers supply. What
+     * minifying saved is logged per template, as it happens — at startup, and for a directory
+     * template on each reload.
+     *
+     * @throws IllegalArgumentException if it does not compile or uses an undeclared variable
+     */
+    private CompiledTemplate compile(String name, String source) {
+        source = composer.compose(name, source);
+        if (properties.minifies(name)) {
+            String minified = HtmlMinifier.minify(source);
+            int before = source.getBytes(StandardCharsets.UTF_8).length;
+            int after = minified.getBytes(StandardCharsets.UTF_8).length;
+            log.info("Minified template {}: {} -> {} bytes, {}% smaller",
+                    name, before, after, before == 0 ? 0 : 100 * (before - after) / before);
+            source = minified;
+        }
+        CompiledTemplate template = CompiledTemplate.compile(name, source);
+        TemplateSchema.forTemplate(name).ifPresent(schema -> schema.check(template));
+        return template;
+    }
 
+    /** A partial or layout, read once by {@link TemplateComposer} and cached there. */
+    private static Optional<String> read(String location) {
+        Resource resource = new PathMatchingResourcePatternResolver().getResource(location);
         if (!resource.exists()) {
-            throw new IOException("Template not found: " + templatePath);
+            return Optional.empty();
         }
+        try {
+            return Optional.of(StreamUtils.copyToString(resource.getInputStream(), StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new IllegalArgumentException("cannot read " + location + ": " + e.getMessage(), e);
+        }
+    }
 
-        return StreamUtils.copyToString(resource.getInputStream(), StandardCharsets.UTF_8);
+    private WatchService watch(Path directory) {
+        try {
+            WatchService watchService = directory.getFileSystem().newWatchService();
+            directory.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+            Thread thread = new Thread(() -> reloadOnChange(watchService), "template-watcher");
+            thread.setDaemon(true);
+            thread.start();
+            return watchService;
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not watch template directory " + directory, e);
+        }
     }
 
     /**
-     * Substitutes placeholders in a single pass.
-     *
-     * <p>Single-pass matters for correctness as well as security: a value is written to the
-     * output and never looked at again, so no value can influence how another is rendered.
-     * Unknown placeholders resolve to an empty string rather than being left visible as
-     * {@code {{something}}} in a delivered email.
+     * Waits for a change, waits out the burst it starts, then recompiles and publishes. Runs until
+     * the watch service is closed.
      */
-    private String replaceVariables(String template, Map<String, String> values) {
-        Matcher matcher = PLACEHOLDER.matcher(template);
-        StringBuilder rendered = new StringBuilder();
+    private void reloadOnChange(WatchService watchService) {
+        try {
+            while (drain(watchService.take())) {
+                WatchKey next;
+                while ((next = watchService.poll(reloadDelay.toMillis(), TimeUnit.MILLISECONDS)) != null) {
+                    if (!drain(next)) {
+                        return;
+                    }
+                }
+                reload();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Shutting down.
+        }
+    }
+
+    private synchronized void reload() {
+        Registry current = registry;
+        registry = Registry.of(compileDirectory(current.templates()), current.constants());
+    }
 
-        while (matcher.find()) {
-            String name = matcher.group(1);
-            String value = values.getOrDefault(name, "");
-            matcher.appendReplacement(rendered, Matcher.quoteReplacement(value));
+    /** @return false once the directory can no longer be watched — it was deleted or replaced */
+    private boolean drain(WatchKey key) {
+        key.pollEvents();
+        if (key.reset()) {
+            return true;
         }
-        matcher.appendTail(rendered);
+        log.warn("Template directory {} is no longer watched; keeping the templates last loaded", directory);
+        return false;
+    }
 
-        return rendered.toString();
+    /** Stops watching the directory. The templates last loaded stay in use. */
+    @PreDestroy
+    void close() throws IOException {
+        if (watcher != null) {
+            watcher.close();
+        }
     }
 
     private String getDefaultTemplate(String templateName) {
@@ -150,8 +460,7 @@ public class EmailTemplateService {
             case "consultation-confirmation.html" -> getDefaultConsultationConfirmationTemplate();
             case "consultation-notification.html" -> getDefaultConsultationNotificationTemplate();
             case "password-reset.html" -> getDefaultPasswordResetTemplate();
-            default -> "<html><body><h1>Email Template Error</h1><p>The requested template is "
-                    + "unavailable.</p></body></html>";
+            default -> throw new IllegalArgumentException("No built-in template: " + templateName);
         };
     }
 
@@ -241,4 +550,16 @@ public class EmailTemplateService {
             </body></html>
             """;
     }
+
+    /** Everything a render reads, published together. */
+    private record Registry(Map<String, CompiledTemplate> templates,
+                            Map<String, String> constants,
+                            Map<String, CompiledTemplate> bound) {
+
+        static Registry of(Map<String, CompiledTemplate> templates, Map<String, String> constants) {
+            Map<String, CompiledTemplate> bound = new HashMap<>();
+            templates.forEach((name, template) -> bound.put(name, template.bind(constants)));
+            return new Registry(templates, Map.copyOf(constants), Map.copyOf(bound));
+        }
+    }
 }
@@ -0,0 +1,92 @@
+package com.hoseacodes.emailintegrator.service;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Matches a host against the link allowlist: exact hosts, and {@code *.example.com} wildcards.
+ *
+ * <p>Exact hosts are a hash set, so the common case — a handful of application hosts — is one
+ * lookup however long the list. Wildcards go in a trie keyed by label from the right:
+ * {@code *.mail.example.com} is the path {@code com → example → mail}, marked as accepting any
+ * subdomain there. Matching {@code a.b.mail.example.com} walks {@code com, example, mail} and
+ * stops at the mark, so the cost is the host's depth, not the number of patterns.
+ *
+ * <h2>What a wildcard means</h2>
+ * {@code *.example.com} matches any host <em>below</em> {@code example.com}, at any depth, but not
+ * {@code example.com} itself; list both if both are wanted. That is the certificate convention
+ * operators already know, widened to any depth, since an application's hosts rarely stop at one
+ * level. Labels are compared whole, so {@code *.example.com} never matches {@code notexample.com}
+ * or {@code example.com.attacker.net}.
+ *
+ * <p>A wildcard must be the whole leftmost label and leave at least two labels fixed:
+ * {@code *.com} would allow every host anyone can register, and {@code *} every host, which is
+ * what an empty allowlist already means. Such a pattern fails startup rather than quietly
+ * allowing more than intended.
+ */
+final class HostMatcher {
+
+    private final Set<String> exact = new HashSet<>();
+    private final Node wildcards = new Node();
+
+    /**
+     * @param patterns hosts and {@code *.}-prefixed wildcards, already trimmed and lower-cased
+     * @throws IllegalArgumentException if a wildcard is anywhere but a whole leftmost label, or
+     *                                  leaves fewer than two labels fixed
+     */
+    HostMatcher(Collection<String> patterns) {
+        for (String pattern : patterns) {
+            if (!pattern.contains("*")) {
+                exact.add(pattern);
+                continue;
+            }
+            String suffix = pattern.startsWith("*.") ? pattern.substring(2) : null;
+            if (suffix == null || suffix.contains("*") || suffix.split("\\.").length < 2) {
+                throw new IllegalArgumentException("app.email.allowed-link-hosts: '" + pattern
+                        + "' is not a valid wildcard; use *.example.com, with at least two labels after *.");
+            }
+            String[] labels = suffix.split("\\.");
+            Node node = wildcards;
+            for (int i = labels.length - 1; i >= 0; i--) {
+                node = node.children.computeIfAbsent(labels[i], label -> new Node());
+            }
+            node.anySubdomain = true;
+        }
+    }
+
+    boolean isEmpty() {
+        return exact.isEmpty() && wildcards.children.isEmpty();
+    }
+
+    /** Whether {@code host}, compared case-insensitively, is on the allowlist. */
+    boolean matches(String host) {
+        String normalized = host.toLowerCase(Locale.ROOT);
+        if (exact.contains(normalized)) {
+            return true;
+        }
+        Node node = wildcards;
+        int end = normalized.length();
+        while (end > 0) {
+            int dot = normalized.lastIndexOf('.', end - 1);
+            node = node.children.get(normalized.substring(dot + 1, end));
+            if (node == null) {
+                return false;
+            }
+            // A mark only matches a host with at least one label still to the left of it.
+            if (node.anySubdomain && dot > 0) {
+                return true;
+            }
+            end = dot;
+        }
+        return false;
+    }
+
+    private static final class Node {
+        final Map<String, Node> children = new HashMap<>();
+        boolean anySubdomain;
+    }
+}
@@ -0,0 +1,153 @@
+package com.hoseacodes.emailintegrator.service;
+
+/**
+ * HTML escaping for template values, by context, without allocating.
+ *
+ * <p>{@code HtmlUtils.htmlEscape} builds a new string for every value, including the great
+ * majority that contain nothing to escape, and then the renderer copies that string again. Here
+ * {@link #escape} returns a clean value as the same instance, and the renderer does not call it at
+ * all: it asks for the escaped length, then escapes straight into the output it is building —
+ * a {@code StringBuilder} or, for {@link CompiledTemplate#renderUtf8}, the UTF-8 byte array.
+ *
+ * <h2>Contexts</h2>
+ * <ul>
+ *   <li><b>{@link Context#TEXT}</b> — element content. Only {@code & < >} mean anything there, so
+ *       only they are escaped; a quote in a name is rendered as a quote.</li>
+ *   <li><b>{@link Context#ATTRIBUTE}</b> — a quoted attribute value, such as the {@code href} an
+ *       {@code approvalUrl} goes in. Both quote characters are escaped as well, whichever quote
+ *       the attribute uses, so a value cannot close it. Also used inside comments, where
+ *       conditional comments can hold markup; the stricter set is the safe default.</li>
+ * </ul>
+ * {@link CompiledTemplate} decides each slot's context from where it sits in the template.
+ *
+ * <p>Only markup characters are replaced. Everything else, non-ASCII included, is written as is:
+ * the output is UTF-8 and says so, so there is no need for {@code HtmlUtils}'s named references
+ * for accented letters, which cost up to eight bytes for a two-byte character. The references
+ * used are the ones {@code HtmlUtils} uses for the same characters.
+ */
+final class HtmlEscaper {
+
+    /** Where in the document a value is written. */
+    enum Context {
+        TEXT,
+        ATTRIBUTE
+    }
+
+    private HtmlEscaper() {
+    }
+
+    /**
+     * @return {@code value} itself when it has nothing to escape in {@code context}, otherwise an
+     * escaped copy
+     */
+    static String escape(String value, Context context) {
+        int length = escapedLength(value, context);
+        if (length == value.length()) {
+            return value;
+        }
+        StringBuilder escaped = new StringBuilder(length);
+        escapeInto(escaped, value, context);
+        return escaped.toString();
+    }
+
+    /** The length of {@code value} once escaped, in chars. Equal to its length if nothing needs it. */
+    static int escapedLength(String value, Context context) {
+        int length = value.length();
+        for (int i = 0; i < value.length(); i++) {
+            String reference = reference(value.charAt(i), context);
+            if (reference != null) {
+                length += reference.length() - 1;
+            }
+        }
+        return length;
+    }
+
+    static void escapeInto(StringBuilder out, String value, Context context) {
+        int clean = 0;
+        for (int i = 0; i < value.length(); i++) {
+            String reference = reference(value.charAt(i), context);
+            if (reference != null) {
+                out.append(value, clean, i).append(reference);
+                clean = i + 1;
+            }
+        }
+        out.append(value, clean, value.length());
+    }
+
+    /**
+     * The length of {@code value} once escaped and encoded as UTF-8, in bytes. An unpaired
+     * surrogate counts as the single {@code ?} that {@link String#getBytes} replaces it with.
+     */
+    static int escapedUtf8Length(String value, Context context) {
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                String reference = reference(c, context);
+                length += reference == null ? 1 : reference.length();
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c)
+                    && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                length += 1;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Escapes and encodes {@code value} at {@code position}, exactly as
+     * {@link #escapedUtf8Length} measured it.
+     *
+     * @return the position after the last byte written
+     */
+    static int escapeUtf8Into(byte[] out, int position, String value, Context context) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                String reference = reference(c, context);
+                if (reference == null) {
+                    out[position++] = (byte) c;
+                } else {
+                    for (int j = 0; j < reference.length(); j++) {
+                        out[position++] = (byte) reference.charAt(j);
+                    }
+                }
+            } else if (c < 0x800) {
+                out[position++] = (byte) (0xC0 | (c >> 6));
+                out[position++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c)
+                    && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                out[position++] = (byte) (0xF0 | (codePoint >> 18));
+                out[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                out[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                out[position++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                out[position++] = (byte) '?';
+            } else {
+                out[position++] = (byte) (0xE0 | (c >> 12));
+                out[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                out[position++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        return position;
+    }
+
+    /** The character reference for {@code c} in {@code context}, or null if it is written as is. */
+    private static String reference(char c, Context context) {
+        return switch (c) {
+            case '&' -> "&amp;";
+            case '<' -> "&lt;";
+            case '>' -> "&gt;";
+            case '"' -> context == Context.ATTRIBUTE ? "&quot;" : null;
+            case '\'' -> context == Context.ATTRIBUTE ? "&#39;" : null;
+            default -> null;
+        };
+    }
+}
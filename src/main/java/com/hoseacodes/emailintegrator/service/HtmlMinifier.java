@@ -0,0 +1,159 @@
+package com.hoseacodes.emailintegrator.service;
+
+/**
+ * Strips a template's indentation and comments before it is compiled.
+ *
+ * <p>The templates are written to be read: every line indented, attributes wrapped onto their own
+ * lines. None of that reaches the recipient, but all of it is sent — in every SMTP {@code DATA}
+ * phase and in every JSON body to Brevo — and on a bulk send it is paid per message. Minifying
+ * once, when the template is compiled, makes it free at render time.
+ *
+ * <h2>What changes</h2>
+ * <ul>
+ *   <li>A run of whitespace in text becomes one character: a newline if the run contained one,
+ *       otherwise a space. Browsers and mail clients render either as one space, so nothing moves;
+ *       keeping the line breaks keeps lines well under SMTP's 998-character limit, where a single
+ *       line would rely on the transfer encoding to fold it.</li>
+ *   <li>Whitespace between attributes becomes one space, and before a tag's closing {@code >}
+ *       disappears. Attribute values are copied as they are.</li>
+ *   <li>Comments are removed — except conditional comments ({@code <!--[if mso]>},
+ *       {@code <!--<![endif]-->} and the like), which Outlook reads as markup and which are copied
+ *       whole.</li>
+ * </ul>
+ *
+ * <h2>What does not</h2>
+ * The content of {@code pre} and {@code textarea}, where whitespace is the content, and of
+ * {@code style} and {@code script}, which are not HTML. Placeholders contain no whitespace, so
+ * they come through untouched and the result compiles exactly as the original would.
+ *
+ * <p>This is a minifier for templates written by people, not a validating parser: like
+ * {@link CompiledTemplate}'s scanner, it only has to be right for well-formed markup.
+ */
+final class HtmlMinifier {
+
+    private static final String[] RAW_TEXT_ELEMENTS = {"pre", "textarea", "style", "script"};
+
+    private HtmlMinifier() {
+    }
+
+    static String minify(String html) {
+        StringBuilder out = new StringBuilder(html.length());
+        int i = 0;
+        while (i < html.length()) {
+            char c = html.charAt(i);
+            if (html.startsWith("<!--", i)) {
+                int end = html.indexOf("-->", i + 4);
+                end = end < 0 ? html.length() : end + 3;
+                if (isConditional(html, i)) {
+                    out.append(html, i, end);
+                }
+                i = end;
+            } else if (c == '<') {
+                String rawText = rawTextElement(html, i);
+                i = copyTag(html, i, out);
+                if (rawText != null) {
+                    int close = indexOfIgnoreCase(html, "</" + rawText, i);
+                    close = close < 0 ? html.length() : close;
+                    out.append(html, i, close);
+                    i = close;
+                }
+            } else if (Character.isWhitespace(c)) {
+                int end = i;
+                boolean newline = false;
+                while (end < html.length() && Character.isWhitespace(html.charAt(end))) {
+                    newline |= html.charAt(end) == '\n';
+                    end++;
+                }
+                appendWhitespace(out, newline, end == html.length());
+                i = end;
+            } else {
+                out.append(c);
+                i++;
+            }
+        }
+        return out.toString();
+    }
+
+    /**
+     * One whitespace character, unless the output already ends in one — which happens when a
+     * removed comment separated two runs — or is at either end of the document.
+     */
+    private static void appendWhitespace(StringBuilder out, boolean newline, boolean atEnd) {
+        if (out.isEmpty() || atEnd) {
+            return;
+        }
+        char last = out.charAt(out.length() - 1);
+        if (last == '\n' || last == ' ') {
+            if (newline) {
+                out.setCharAt(out.length() - 1, '\n');
+            }
+            return;
+        }
+        out.append(newline ? '\n' : ' ');
+    }
+
+    /**
+     * Copies the tag starting at {@code start}, collapsing the whitespace between its attributes.
+     *
+     * @return the position after its {@code >}
+     */
+    private static int copyTag(String html, int start, StringBuilder out) {
+        char quote = 0;
+        int i = start;
+        while (i < html.length()) {
+            char c = html.charAt(i);
+            if (quote != 0) {
+                out.append(c);
+                quote = c == quote ? 0 : quote;
+                i++;
+            } else if (c == '"' || c == '\'') {
+                out.append(c);
+                quote = c;
+                i++;
+            } else if (Character.isWhitespace(c)) {
+                while (i < html.length() && Character.isWhitespace(html.charAt(i))) {
+                    i++;
+                }
+                boolean closing = i < html.length()
+                        && (html.charAt(i) == '>' || html.startsWith("/>", i));
+                if (!closing) {
+                    out.append(' ');
+                }
+            } else {
+                out.append(c);
+                i++;
+                if (c == '>') {
+                    return i;
+                }
+            }
+        }
+        return i;
+    }
+
+    private static boolean isConditional(String html, int commentStart) {
+        return html.startsWith("<!--[", commentStart) || html.startsWith("<!--<!", commentStart);
+    }
+
+    /** The element's name if the tag at {@code start} opens one whose content is copied as is. */
+    private static String rawTextElement(String html, int start) {
+        for (String name : RAW_TEXT_ELEMENTS) {
+            int after = start + 1 + name.length();
+            if (html.regionMatches(true, start + 1, name, 0, name.length()) && after < html.length()) {
+                char next = html.charAt(after);
+                if (next == '>' || next == '/' || Character.isWhitespace(next)) {
+                    return name;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static int indexOfIgnoreCase(String html, String target, int from) {
+        for (int i = from; i <= html.length() - target.length(); i++) {
+            if (html.regionMatches(true, i, target, 0, target.length())) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,16 @@
+package com.hoseacodes.emailintegrator.service;
+
+/**
+ * Thrown when an {@code Idempotency-Key} already used for one request arrives with a different one.
+ *
+ * <p>Answering with the stored response would tell the caller their new request was sent when it
+ * was not; sending it would break the promise that a key sends at most once. Neither is right, so
+ * the request is refused and nothing is sent. This is almost always a client bug — a key reused
+ * across messages, or generated once per process rather than once per message.
+ */
+public class IdempotencyKeyReusedException extends RuntimeException {
+
+    public IdempotencyKeyReusedException() {
+        super("Idempotency-Key was already used for a different request");
+    }
+}
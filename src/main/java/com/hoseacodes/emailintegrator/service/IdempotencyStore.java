@@ -0,0 +1,634 @@
+package com.hoseacodes.emailintegrator.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hoseacodes.emailintegrator.config.IdempotencyProperties;
+import com.hoseacodes.emailintegrator.controller.dto.SendEmailResponse;
+import com.hoseacodes.emailintegrator.email.EmailProviderException;
+import com.hoseacodes.emailintegrator.security.Hashing;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * The outcome of every send made with an {@code Idempotency-Key}, so that a repeat of it is answered
+ * without sending again.
+ *
+ * <p>A send that fails with {@code deliveryUncertain} leaves its caller stuck: retrying may deliver
+ * the message twice, not retrying may deliver it never. With a key, the retry is safe. The first
+ * request with a key sends and records the outcome; a later one with the same key gets that
+ * outcome back — the same message ids, or the same uncertain failure — and the provider is not
+ * called. A repeat that arrives while the first is still sending does not send in parallel: it
+ * waits on the first one's future and answers with its outcome.
+ *
+ * <h2>What is remembered</h2>
+ * <ul>
+ *   <li>A success, for {@code app.email.idempotency.ttl}.</li>
+ *   <li>A failure that may have sent, likewise: a repeat must not be the second copy. To send
+ *       anyway, having checked the message did not arrive, the caller uses a new key.</li>
+ *   <li>A failure that cannot have sent — a connect failure, an open circuit, a rate limit — is
+ *       forgotten, so the retry it invites really is tried.</li>
+ * </ul>
+ * A key is the caller's and the client's together: two clients using the same key do not see each
+ * other's responses. A key repeated with a different request is refused with 422 rather than
+ * answered with a response that is not about it; requests are compared by a SHA-256 of their JSON.
+ *
+ * <h2>Shape</h2>
+ * Keys are spread over 64 stripes, each a map under its own lock, so concurrent requests with
+ * different keys seldom wait on one another and never on a send — the lock is held to look a key
+ * up or claim it, not while the message goes out. Every key lives for the same {@code ttl}, so each
+ * stripe's insertion order is also its expiry order, and expired keys are dropped from the front
+ * whenever the stripe is used: no timestamps to scan, no sweeper thread. {@code max-keys} bounds
+ * the whole: past it, the stripes give up their eldest settled keys in turn. A key whose send is
+ * still in flight is never forgotten — a repeat of it would send in parallel — so only sends in
+ * flight can take the store over {@code max-keys}.
+ *
+ * <h2>Surviving a restart</h2>
+ * In memory only, a restart forgets every key, and the retry that follows a restart mid-send is
+ * the one most likely to duplicate. With {@code app.email.idempotency.file} set, each claim and
+ * outcome is appended to that file, and it is read back and compacted at startup — and while
+ * running, with every stripe held, once it has doubled. A key claimed
+ * but never settled — the process stopped while it was sending — comes back as an uncertain
+ * failure, which is what it is. The file is a {@link Journal}, with its guarantees.
+ *
+ * <p>With several instances each holds its own keys, so a retry that lands on another instance
+ * sends again. A shared store is the fix, and belongs with running more than one instance at all.
+ */
+@Component
+@EnableConfigurationProperties(IdempotencyProperties.class)
+public class IdempotencyStore implements MeterBinder {
+
+    /** The request header carrying the key. */
+    public static final String HEADER = "Idempotency-Key";
+
+    private static final Logger log = LoggerFactory.getLogger(IdempotencyStore.class);
+
+    private static final int STRIPES = 64;
+    private static final int MAX_KEY_LENGTH = 255;
+
+    // Journal record kinds.
+    private static final byte CLAIMED = 1;
+    private static final byte SENT = 2;
+    private static final byte UNCERTAIN = 3;
+    private static final byte RELEASED = 4;
+
+    private final long ttlMillis;
+    private final int maxKeys;
+    private final ObjectMapper objectMapper;
+    private final Clock clock;
+    private final Journal journal;
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    // Keys held across all stripes, and the stripe to shed from next once there are too many.
+    private final AtomicInteger held = new AtomicInteger();
+    private final AtomicInteger nextToShed = new AtomicInteger();
+
+    private final LongAdder replayed = new LongAdder();
+    private final LongAdder evicted = new LongAdder();
+
+    @Autowired
+    public IdempotencyStore(IdempotencyProperties properties, ObjectMapper objectMapper) {
+        this(properties, objectMapper, Clock.systemUTC());
+    }
+
+    IdempotencyStore(IdempotencyProperties properties, ObjectMapper objectMapper, Clock clock) {
+        this.ttlMillis = properties.ttl().toMillis();
+        this.maxKeys = properties.maxKeys();
+        this.objectMapper = objectMapper;
+        this.clock = clock;
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+        this.journal = properties.file() == null ? null : openJournal(properties.file());
+    }
+
+    /**
+     * Sends {@code request} with {@code send}, unless {@code key} was used before.
+     *
+     * @param key     the caller's {@code Idempotency-Key}, or null to send without one
+     * @param request the validated request body, compared with the one the key was first used for
+     * @param send    makes the send; called at most once per key while the key is remembered
+     * @return the send's outcome, or the first outcome for this key
+     * @throws IdempotencyKeyReusedException if the key was used for a different request
+     * @throws IllegalArgumentException      if the key is not 1 to 255 printable ASCII characters
+     */
+    public CompletableFuture<SendEmailResponse> execute(String key, Object request,
+                                                        Supplier<CompletableFuture<SendEmailResponse>> send) {
+        if (key == null) {
+            return send.get();
+        }
+        String scoped = scope(key);
+        long now = clock.millis();
+        Entry entry = new Entry(fingerprint(request), now + ttlMillis);
+        Stripe stripe = stripes[stripeOf(scoped)];
+
+        Entry existing = stripe.claim(scoped, entry, now);
+        if (existing != null) {
+            return repeat(existing, entry.fingerprint);
+        }
+        shed(now);
+        compactIfDue();
+
+        CompletableFuture<SendEmailResponse> sending;
+        try {
+            sending = send.get();
+        } catch (RuntimeException | Error e) {
+            settle(stripe, scoped, entry, null, e);
+            throw e;
+        }
+        sending.whenComplete((response, failure) -> settle(stripe, scoped, entry, response, failure));
+        return entry.outcome.copy();
+    }
+
+    /** {@link #execute}, for an endpoint that sends on the request thread. */
+    public SendEmailResponse call(String key, Object request, Supplier<SendEmailResponse> send) {
+        if (key == null) {
+            return send.get();
+        }
+        CompletableFuture<SendEmailResponse> outcome =
+                execute(key, request, () -> CompletableFuture.completedFuture(send.get()));
+        try {
+            return outcome.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException failure) {
+                throw failure;
+            }
+            throw e;
+        }
+    }
+
+    /** How many keys are held; for tests and the gauge. */
+    int size() {
+        return held.get();
+    }
+
+    /** How many keys were forgotten before their ttl to stay within {@code max-keys}. */
+    long evicted() {
+        return evicted.sum();
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        if (journal != null) {
+            journal.close();
+        }
+    }
+
+    /**
+     * {@code idempotency.keys} held now; {@code idempotency.replayed}, repeats answered without
+     * sending; {@code idempotency.evicted}, keys forgotten before their ttl because
+     * {@code max-keys} was reached — which, if it grows, means a retry could send twice.
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("idempotency.keys", this, IdempotencyStore::size)
+                .description("Idempotency keys held")
+                .register(registry);
+        FunctionCounter.builder("idempotency.replayed", replayed, LongAdder::sum)
+                .description("Repeated idempotency keys answered without sending")
+                .register(registry);
+        FunctionCounter.builder("idempotency.evicted", evicted, LongAdder::sum)
+                .description("Idempotency keys forgotten before their ttl to stay within max-keys")
+                .register(registry);
+    }
+
+    // -- internals ------------------------------------------------------------------------------
+
+    private CompletableFuture<SendEmailResponse> repeat(Entry existing, byte[] fingerprint) {
+        if (!MessageDigest.isEqual(existing.fingerprint, fingerprint)) {
+            throw new IdempotencyKeyReusedException();
+        }
+        replayed.increment();
+        log.debug("Idempotency key repeated: {}",
+                existing.outcome.isDone() ? "answering with the stored outcome" : "waiting for the send in flight");
+        return existing.outcome.copy();
+    }
+
+    /** Records how a claimed key's send ended, and lets anyone waiting on it know. */
+    private void settle(Stripe stripe, String scoped, Entry entry, SendEmailResponse response, Throwable failure) {
+        if (failure == null) {
+            stripe.record(scoped, entry, response);
+            entry.outcome.complete(response);
+            return;
+        }
+        Throwable cause = failure instanceof CompletionException && failure.getCause() != null
+                ? failure.getCause() : failure;
+        if (cause instanceof EmailProviderException uncertain && uncertain.isSideEffectPossible()) {
+            // It may have gone, so a repeat gets this answer rather than a second copy.
+            stripe.record(scoped, entry, uncertain);
+        } else {
+            // Nothing was sent, so the key is free for the retry this failure invites. Removed
+            // before waiters are told, so one retrying at once finds it free.
+            stripe.release(scoped, entry);
+        }
+        entry.outcome.completeExceptionally(cause);
+    }
+
+    /**
+     * Forgets settled keys, a stripe at a time, until the store is back within {@code max-keys}
+     * or every stripe has been found to have none to give up.
+     */
+    private void shed(long now) {
+        for (int fruitless = 0; held.get() > maxKeys && fruitless < STRIPES; ) {
+            if (!stripes[nextToShed.getAndIncrement() & (STRIPES - 1)].shed(now)) {
+                fruitless++;
+            }
+        }
+    }
+
+    /** The key, validated, prefixed with the calling client so clients cannot see each other's. */
+    private static String scope(String key) {
+        if (key.isEmpty() || key.length() > MAX_KEY_LENGTH || !key.chars().allMatch(c -> c >= 0x20 && c < 0x7f)) {
+            throw new IllegalArgumentException(
+                    HEADER + " must be 1 to " + MAX_KEY_LENGTH + " printable ASCII characters");
+        }
+        Authentication client = SecurityContextHolder.getContext().getAuthentication();
+        return (client == null ? "" : client.getName()) + '\n' + key;
+    }
+
+    private byte[] fingerprint(Object request) {
+        MessageDigest sha256 = Hashing.sha256();
+        sha256.update(request.getClass().getName().getBytes(StandardCharsets.UTF_8));
+        try {
+            return sha256.digest(objectMapper.writeValueAsBytes(request));
+        } catch (JsonProcessingException e) {
+            sha256.reset();
+            throw new IllegalStateException("Cannot fingerprint " + request.getClass().getSimpleName(), e);
+        }
+    }
+
+    private static int stripeOf(String scoped) {
+        int hash = scoped.hashCode();
+        return (hash ^ (hash >>> 16)) & (STRIPES - 1);
+    }
+
+    // -- journal --------------------------------------------------------------------------------
+
+    @FunctionalInterface
+    private interface Payload {
+        void writeTo(DataOutputStream out) throws IOException;
+    }
+
+    private static Payload claimed(Entry entry) {
+        return out -> {
+            out.writeLong(entry.expiresAt);
+            out.write(entry.fingerprint);
+        };
+    }
+
+    private static Payload sent(SendEmailResponse response) {
+        return out -> {
+            writeString(out, response.provider());
+            out.writeInt(response.messageIds().size());
+            for (String id : response.messageIds()) {
+                writeString(out, id);
+            }
+        };
+    }
+
+    private static Payload uncertain(EmailProviderException failure) {
+        return out -> {
+            writeString(out, failure.getReason().name());
+            writeString(out, failure.getProvider());
+        };
+    }
+
+    /**
+     * Appends one record: its length, kind, key, then whatever the kind carries. Called under the
+     * key's stripe lock, so each key's records are in the order its claims and outcomes happened.
+     */
+    private void append(byte kind, String scoped, Payload payload) {
+        if (journal == null) {
+            return;
+        }
+        try {
+            journal.append(ByteBuffer.wrap(encode(kind, scoped, payload)));
+        } catch (IOException e) {
+            // Encoding to memory; a payload that cannot be written is a bug, not a full disk.
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static byte[] encode(byte kind, String scoped, Payload payload) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0);
+        out.writeByte(kind);
+        writeString(out, scoped);
+        payload.writeTo(out);
+        byte[] record = bytes.toByteArray();
+        ByteBuffer.wrap(record).putInt(record.length - Integer.BYTES);
+        return record;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(utf8.length);
+        out.write(utf8);
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] utf8 = new byte[length];
+        in.get(utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads the journal back into the stripes, drops what has expired, and rewrites it with what
+     * is left, one claim and one outcome per key.
+     */
+    private Journal openJournal(Path file) {
+        Journal journal = Journal.open(file, "app.email.idempotency.file", this::restore, this::writeKeys);
+        log.info("Idempotency keys: {} still unexpired in {}", size(), file);
+        return journal;
+    }
+
+    private void restore(ByteBuffer records) {
+        long now = clock.millis();
+        for (Map.Entry<String, Loaded> key : read(records).entrySet()) {
+            Loaded record = key.getValue();
+            if (record.expiresAt > now) {
+                Entry entry = new Entry(record.fingerprint, record.expiresAt);
+                if (record.response != null) {
+                    entry.journaled = record.response;
+                    entry.outcome.complete(record.response);
+                } else {
+                    EmailProviderException uncertain = record.uncertain();
+                    entry.journaled = uncertain;
+                    entry.outcome.completeExceptionally(uncertain);
+                }
+                stripes[stripeOf(key.getKey())].restore(key.getKey(), entry);
+            }
+        }
+        shed(now);
+    }
+
+    /** Applies the journal's records in order: each key's latest claim, and how it ended. */
+    private static Map<String, Loaded> read(ByteBuffer records) {
+        Map<String, Loaded> loaded = new LinkedHashMap<>();
+        // A record cut short by a crash mid-append is ignored, along with anything after it.
+        while (records.remaining() >= Integer.BYTES) {
+            int length = records.getInt();
+            if (length <= 0 || records.remaining() < length) {
+                break;
+            }
+            ByteBuffer in = records.slice(records.position(), length);
+            records.position(records.position() + length);
+            try {
+                byte kind = in.get();
+                String key = readString(in);
+                switch (kind) {
+                    case CLAIMED -> {
+                        long expiresAt = in.getLong();
+                        byte[] fingerprint = new byte[32];
+                        in.get(fingerprint);
+                        // Removed first, so a key claimed again after a release moves to the end.
+                        loaded.remove(key);
+                        loaded.put(key, new Loaded(fingerprint, expiresAt));
+                    }
+                    case SENT -> {
+                        String provider = readString(in);
+                        List<String> messageIds = new ArrayList<>();
+                        for (int i = in.getInt(); i > 0; i--) {
+                            messageIds.add(readString(in));
+                        }
+                        Loaded record = loaded.get(key);
+                        if (record != null) {
+                            record.response = new SendEmailResponse(List.copyOf(messageIds), provider);
+                        }
+                    }
+                    case UNCERTAIN -> {
+                        Loaded record = loaded.get(key);
+                        if (record != null) {
+                            record.reason = readString(in);
+                            record.provider = readString(in);
+                        }
+                    }
+                    case RELEASED -> loaded.remove(key);
+                    default -> throw new IllegalStateException("unknown record kind " + kind);
+                }
+            } catch (BufferUnderflowException | IllegalStateException e) {
+                log.warn("Idempotency journal: ignoring a malformed record", e);
+            }
+        }
+        return loaded;
+    }
+
+    /** Every unexpired key, as the records that restore it; with the stripes held, or not yet shared. */
+    private void writeKeys(Journal.Output out) throws IOException {
+        long now = clock.millis();
+        for (Stripe stripe : stripes) {
+            for (Map.Entry<String, Entry> key : stripe.entries.entrySet()) {
+                if (key.getValue().expiresAt > now) {
+                    for (byte[] record : compacted(key.getKey(), key.getValue())) {
+                        out.write(ByteBuffer.wrap(record));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Rewrites the journal once it has grown enough, holding every stripe so that no record is
+     * appended meanwhile. Called holding none of them: taking them all in order from a thread
+     * already holding one could deadlock with another doing the same.
+     */
+    private void compactIfDue() {
+        if (journal != null && journal.due()) {
+            holdingStripes(0, () -> journal.compact(this::writeKeys));
+        }
+    }
+
+    private void holdingStripes(int from, Runnable action) {
+        if (from == STRIPES) {
+            action.run();
+            return;
+        }
+        synchronized (stripes[from]) {
+            holdingStripes(from + 1, action);
+        }
+    }
+
+    /**
+     * The records that restore one key: its claim, and its outcome as journaled. A key still
+     * sending has only its claim; its outcome is appended when it settles.
+     */
+    private static List<byte[]> compacted(String scoped, Entry entry) throws IOException {
+        List<byte[]> records = new ArrayList<>(2);
+        records.add(encode(CLAIMED, scoped, claimed(entry)));
+        if (entry.journaled instanceof SendEmailResponse response) {
+            records.add(encode(SENT, scoped, sent(response)));
+        } else if (entry.journaled instanceof EmailProviderException failure) {
+            records.add(encode(UNCERTAIN, scoped, uncertain(failure)));
+        }
+        return records;
+    }
+
+    /** One key as the journal left it. */
+    private static final class Loaded {
+        final byte[] fingerprint;
+        final long expiresAt;
+        SendEmailResponse response;
+        String reason;
+        String provider;
+
+        Loaded(byte[] fingerprint, long expiresAt) {
+            this.fingerprint = fingerprint;
+            this.expiresAt = expiresAt;
+        }
+
+        /**
+         * The failure to answer a repeat with. A claim with no outcome was cut off by the process
+         * stopping mid-send: whether the message went is unknown, which is what this says.
+         */
+        EmailProviderException uncertain() {
+            EmailProviderException.Reason cause = EmailProviderException.Reason.PROVIDER_UNAVAILABLE;
+            if (reason != null) {
+                try {
+                    cause = EmailProviderException.Reason.valueOf(reason);
+                } catch (IllegalArgumentException renamed) {
+                    // A reason no longer defined; still a send that may have gone.
+                }
+            }
+            return new EmailProviderException(cause, provider == null ? "unknown" : provider,
+                    reason == null ? "Send interrupted by a restart; delivery unknown"
+                            : "Delivery unknown, recorded before a restart");
+        }
+    }
+
+    /** One key's request and outcome. */
+    private static final class Entry {
+        final byte[] fingerprint;
+        final long expiresAt;
+        final CompletableFuture<SendEmailResponse> outcome = new CompletableFuture<>();
+        // The outcome as the journal has it: a SendEmailResponse, an EmailProviderException, or
+        // null while sending. Set under the stripe lock, before the outcome above is completed.
+        Object journaled;
+
+        Entry(byte[] fingerprint, long expiresAt) {
+            this.fingerprint = fingerprint;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /** A share of the keys, under its own lock. */
+    private final class Stripe {
+
+        // Insertion order, which with one ttl for every key is also expiry order. Guarded by this.
+        final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>();
+
+        /** Claims {@code scoped} for {@code entry}; or, if it is already claimed, returns that entry. */
+        synchronized Entry claim(String scoped, Entry entry, long now) {
+            dropExpired(now);
+            Entry existing = entries.putIfAbsent(scoped, entry);
+            if (existing == null) {
+                held.incrementAndGet();
+                append(CLAIMED, scoped, claimed(entry));
+            }
+            return existing;
+        }
+
+        /** Holds {@code entry}, read back from the journal, without journaling it again. */
+        synchronized void restore(String scoped, Entry entry) {
+            if (entries.put(scoped, entry) == null) {
+                held.incrementAndGet();
+            }
+        }
+
+        /**
+         * Makes room: drops this stripe's expired keys or, if it has none, forgets its eldest key
+         * whose send has settled.
+         *
+         * @return false if there was nothing this stripe could give up
+         */
+        synchronized boolean shed(long now) {
+            if (dropExpired(now)) {
+                return true;
+            }
+            for (Iterator<Entry> eldest = entries.values().iterator(); eldest.hasNext(); ) {
+                if (eldest.next().outcome.isDone()) {
+                    eldest.remove();
+                    held.decrementAndGet();
+                    evicted.increment();
+                    log.warn("Idempotency key forgotten before its ttl: app.email.idempotency.max-keys reached");
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean dropExpired(long now) {
+            boolean dropped = false;
+            Iterator<Entry> eldest = entries.values().iterator();
+            while (eldest.hasNext() && eldest.next().expiresAt <= now) {
+                eldest.remove();
+                held.decrementAndGet();
+                dropped = true;
+            }
+            return dropped;
+        }
+
+        /**
+         * Journals how {@code entry}'s send ended, if it still holds {@code scoped}. One that has
+         * expired meanwhile is not, or the record could be read back as the outcome of a later claim.
+         */
+        synchronized void record(String scoped, Entry entry, Object outcome) {
+            if (entries.get(scoped) == entry) {
+                entry.journaled = outcome;
+                if (outcome instanceof SendEmailResponse response) {
+                    append(SENT, scoped, sent(response));
+                } else {
+                    append(UNCERTAIN, scoped, uncertain((EmailProviderException) outcome));
+                }
+            }
+        }
+
+        /** Frees {@code scoped}, journaled first so that a claim of it again is journaled after. */
+        synchronized void release(String scoped, Entry entry) {
+            if (entries.get(scoped) == entry) {
+                append(RELEASED, scoped, out -> {
+                });
+                entries.remove(scoped);
+                held.decrementAndGet();
+            }
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.hoseacodes.emailintegrator.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+
+/**
+ * An append-only file of records that lets a store's state survive a restart. What a record holds
+ * is the store's business; this only reads the file back, rewrites it, and appends to it.
+ *
+ * <p>At startup the whole file is handed back to the store, which applies it; the store's state,
+ * now without what has expired, is written to a temporary file, forced to disk and moved over the
+ * old one, so a crash mid-rewrite leaves the old file whole. Appends after that go to the
+ * operating system, not the disk: a crash of the process loses nothing, a power failure can lose
+ * the last few records. Once the file has grown to twice what the last rewrite left, and past
+ * {@value #COMPACT_FROM} bytes, it is {@linkplain #due due} and the store rewrites it the same way
+ * while running, so it never holds much more than twice the live state and startup never reads
+ * more than that. A file that cannot be opened fails startup; one that cannot be written to later
+ * is logged, and the store goes on holding the state in memory.
+ */
+final class Journal implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(Journal.class);
+
+    /** Bytes below which a file is never rewritten while running, however little of it is live. */
+    static final long COMPACT_FROM = 1 << 20;
+
+    /** A store's state, written out as records to start the rewritten file with. */
+    @FunctionalInterface
+    interface Contents {
+        void writeTo(Output out) throws IOException;
+    }
+
+    @FunctionalInterface
+    interface Output {
+        void write(ByteBuffer record) throws IOException;
+    }
+
+    private final Path file;
+
+    // Guarded by this.
+    private FileChannel channel;
+    private long size;
+    private long compactedSize;
+
+    private volatile boolean due;
+
+    private Journal(Path file, FileChannel channel, long size) {
+        this.file = file;
+        this.channel = channel;
+        this.size = size;
+        this.compactedSize = size;
+    }
+
+    /**
+     * Reads {@code file} back, if it exists, and rewrites it with {@code contents}.
+     *
+     * @param property the setting that named the file, for the error if it cannot be used
+     * @param replay   given every byte the file holds, to apply; called before {@code contents}
+     * @param contents what to start the rewritten file with
+     * @throws UncheckedIOException if the file cannot be read, rewritten or opened
+     */
+    static Journal open(Path file, String property, Consumer<ByteBuffer> replay, Contents contents) {
+        try {
+            if (Files.exists(file)) {
+                replay.accept(ByteBuffer.wrap(Files.readAllBytes(file)));
+            }
+            long size = rewrite(file, contents);
+            return new Journal(file, FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND), size);
+        } catch (IOException e) {
+            throw new UncheckedIOException(property + ": cannot use " + file, e);
+        }
+    }
+
+    /** Appends {@code record} whole; a failure is logged, not thrown. */
+    synchronized void append(ByteBuffer record) {
+        try {
+            size += writeFully(channel, record);
+            due = size > Math.max(COMPACT_FROM, 2 * compactedSize);
+        } catch (IOException e) {
+            log.error("Could not append to {}; what it records is held in memory only", file, e);
+        }
+    }
+
+    /** Whether the file has grown enough to be worth {@linkplain #compact rewriting}. */
+    boolean due() {
+        return due;
+    }
+
+    /**
+     * Rewrites the file with {@code contents}, if it is {@linkplain #due due}. The caller holds
+     * whatever keeps its state from changing meanwhile: a record appended between
+     * {@code contents} being written and the file being replaced would be lost. A failure is
+     * logged, and appends go on to the file as it was.
+     */
+    synchronized void compact(Contents contents) {
+        if (!due) {
+            return;
+        }
+        try {
+            long rewritten = rewrite(file, contents);
+            FileChannel reopened = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            channel.close();
+            channel = reopened;
+            size = rewritten;
+            log.debug("Compacted {} to {} bytes", file, rewritten);
+        } catch (IOException e) {
+            log.error("Could not compact {}; appending to it as it is", file, e);
+        }
+        // After a failure too, so that the next attempt waits for the file to double again.
+        compactedSize = size;
+        due = false;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+
+    /** Writes {@code contents} beside {@code file}, then moves it over; returns its length. */
+    private static long rewrite(Path file, Contents contents) throws IOException {
+        Path rewritten = file.resolveSibling(file.getFileName() + ".tmp");
+        long[] written = {0};
+        try (FileChannel out = FileChannel.open(rewritten, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            contents.writeTo(record -> written[0] += writeFully(out, record));
+            out.force(true);
+        }
+        Files.move(rewritten, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return written[0];
+    }
+
+    private static int writeFully(FileChannel channel, ByteBuffer record) throws IOException {
+        int length = record.remaining();
+        while (record.hasRemaining()) {
+            channel.write(record);
+        }
+        return length;
+    }
+}
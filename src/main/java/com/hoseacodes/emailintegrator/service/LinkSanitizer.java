@@ -7,8 +7,11 @@ import org.springframework.stereotype.Component;
 
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -42,6 +45,17 @@ import java.util.Set;
  *
  * <p>Invalid links are rejected with an exception rather than quietly blanked. A caller who sent
  * a bad URL gets a 400 and can fix it; silently mailing someone a dead button helps nobody.
+ *
+ * <h2>Matching and caching</h2>
+ * The allowlist may hold {@code *.example.com} wildcards as well as exact hosts; see
+ * {@link HostMatcher} for what they match. Either way a lookup costs the same however many
+ * entries there are.
+ *
+ * <p>Links that passed are remembered, up to {@code app.email.link-cache-size} of the most
+ * recently used, so sending the same {@code loginUrl} or {@code meetingLink} again skips parsing
+ * it. Only the exact string is remembered, and only an accepted one: a rejected link is checked
+ * afresh every time, so what gets logged about it stays accurate. Links carrying a per-user token
+ * differ every time and simply miss.
  */
 @Component
 public class LinkSanitizer {
@@ -51,21 +65,31 @@ public class LinkSanitizer {
     /** Not configurable. Anything outside this set is a script-execution or data-exfiltration vector. */
     private static final Set<String> ALLOWED_SCHEMES = Set.of("http", "https");
 
-    private final List<String> allowedHosts;
+    private final HostMatcher allowedHosts;
+
+    // Accepted link -> its sanitized form, in access order so the least recently used goes first.
+    // Null when the cache is off.
+    private final Map<String, String> accepted;
 
+    /**
+     * @throws IllegalArgumentException if an allowlist wildcard is malformed or too broad; see
+     *                                  {@link HostMatcher}
+     */
     public LinkSanitizer(EmailProperties emailProperties) {
-        this.allowedHosts = emailProperties.getAllowedLinkHosts() == null
+        List<String> hosts = emailProperties.getAllowedLinkHosts() == null
                 ? List.of()
                 : emailProperties.getAllowedLinkHosts().stream()
                         .filter(host -> host != null && !host.isBlank())
                         .map(host -> host.trim().toLowerCase(Locale.ROOT))
                         .toList();
+        this.allowedHosts = new HostMatcher(hosts);
+        this.accepted = lruCache(emailProperties.getLinkCacheSize());
 
         if (allowedHosts.isEmpty()) {
             log.warn("app.email.allowed-link-hosts is not configured. Caller-supplied links may "
                     + "point at any http(s) host. Set it to restrict outgoing links to known domains.");
         } else {
-            log.info("Outgoing email links restricted to hosts: {}", allowedHosts);
+            log.info("Outgoing email links restricted to hosts: {}", hosts);
         }
     }
 
@@ -81,6 +105,10 @@ public class LinkSanitizer {
         if (url == null || url.isBlank()) {
             return "";
         }
+        String cached = accepted == null ? null : accepted.get(url);
+        if (cached != null) {
+            return cached;
+        }
 
         URI uri;
         try {
@@ -105,12 +133,28 @@ public class LinkSanitizer {
             throw reject(fieldName, "must include a host");
         }
 
-        if (!allowedHosts.isEmpty() && !allowedHosts.contains(host.toLowerCase(Locale.ROOT))) {
+        if (!allowedHosts.isEmpty() && !allowedHosts.matches(host)) {
             log.warn("Rejected link to non-allowlisted host '{}' for field '{}'", host, fieldName);
             throw reject(fieldName, "points to a host that is not permitted for outgoing links");
         }
 
-        return uri.toString();
+        String sanitized = uri.toString();
+        if (accepted != null) {
+            accepted.put(url, sanitized);
+        }
+        return sanitized;
+    }
+
+    private static Map<String, String> lruCache(int capacity) {
+        if (capacity <= 0) {
+            return null;
+        }
+        return Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > capacity;
+            }
+        });
     }
 
     private static IllegalArgumentException reject(String fieldName, String problem) {
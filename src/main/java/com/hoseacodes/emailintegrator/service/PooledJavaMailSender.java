@@ -0,0 +1,251 @@
+package com.hoseacodes.emailintegrator.service;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.mail.Address;
+import jakarta.mail.AuthenticationFailedException;
+import jakarta.mail.MessagingException;
+import jakarta.mail.Transport;
+import jakarta.mail.internet.MimeMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.mail.MailAuthenticationException;
+import org.springframework.mail.MailException;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * A {@link JavaMailSenderImpl} that keeps authenticated SMTP sessions open between sends.
+ *
+ * <p>The plain implementation connects for every {@code send}: TCP, the greeting, EHLO, STARTTLS,
+ * EHLO again, AUTH — six or more round trips to the mail server before the first byte of the
+ * message, and a QUIT after it. Against Gmail from AWS that is most of the time a send takes. Here
+ * a send borrows an idle session, and only the message itself crosses the network.
+ *
+ * <h2>Keeping sessions honest</h2>
+ * <ul>
+ *   <li><b>Validated before reuse.</b> A session idle for more than {@value #VALIDATE_AFTER_MILLIS}
+ *       ms is sent a {@code NOOP} (JavaMail's {@link Transport#isConnected}) before it is used; a
+ *       server that closed it meanwhile is found out there, not halfway through a message. The
+ *       reply is bounded by {@code app.mail.read-timeout}, like any other command.</li>
+ *   <li><b>Recycled.</b> After {@code max-messages} messages, or {@code max-idle} without one, a
+ *       session is closed rather than reused. Mail servers cap both, and closing first is cheaper
+ *       than discovering it.</li>
+ *   <li><b>Evicted on any failure.</b> A session whose send threw is never returned. After a read
+ *       or write timeout the conversation is out of step — the next reply read may be the answer
+ *       to the previous command — and after anything else there is no cheap way to tell.</li>
+ * </ul>
+ *
+ * <h2>Size</h2>
+ * At most {@code size} sessions are kept idle. A send that finds none idle opens one rather than
+ * waiting for one, so the pool never adds a wait or a new way to fail; a session returned while
+ * {@code size} are already idle is closed. Concurrency is bounded where it was before: by the
+ * request threads and {@link SmtpEmailProvider}'s async pool.
+ *
+ * <p>Failures are raised exactly as the plain implementation raises them — a connect failure as a
+ * {@link MailSendException} with the cause attached, bad credentials as
+ * {@link MailAuthenticationException} — so {@link SmtpFailures} classifies them unchanged.
+ *
+ * <p>The idle deque is guarded by {@code this}. Connecting, validating and closing happen outside
+ * it: each is a network round trip.
+ */
+public class PooledJavaMailSender extends JavaMailSenderImpl implements MeterBinder, DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(PooledJavaMailSender.class);
+
+    /**
+     * Idle time after which a session is checked with NOOP before use. Below it the check would
+     * cost as much as it saves; a server does not usually drop a session it answered a moment ago.
+     */
+    static final long VALIDATE_AFTER_MILLIS = 1_000;
+
+    private static final String HEADER_MESSAGE_ID = "Message-ID";
+
+    private final int size;
+    private final int maxMessages;
+    private final long maxIdleNanos;
+    private final LongSupplier nanoTime;
+
+    // Guarded by this. Most recently returned first, so the warmest session is reused and the
+    // rest age out.
+    private final Deque<PooledSession> idle = new ArrayDeque<>();
+    private long opened;
+    private boolean closed;
+
+    /**
+     * @param size        sessions kept open while idle
+     * @param maxMessages messages sent on one session before it is closed
+     * @param maxIdle     time a session may sit unused before it is closed
+     */
+    public PooledJavaMailSender(int size, int maxMessages, Duration maxIdle) {
+        this(size, maxMessages, maxIdle, System::nanoTime);
+    }
+
+    /** @param nanoTime the clock, replaceable so tests can age sessions without waiting */
+    PooledJavaMailSender(int size, int maxMessages, Duration maxIdle, LongSupplier nanoTime) {
+        if (size < 1 || maxMessages < 1 || maxIdle.isNegative() || maxIdle.isZero()) {
+            throw new IllegalArgumentException("size, max-messages and max-idle must be positive");
+        }
+        this.size = size;
+        this.maxMessages = maxMessages;
+        this.maxIdleNanos = maxIdle.toNanos();
+        this.nanoTime = nanoTime;
+    }
+
+    /**
+     * Sends each message on a borrowed session. Mirrors the plain implementation's handling —
+     * sent date, an explicitly set Message-ID preserved across {@code saveChanges}, per-message
+     * failures collected — except that the session outlives the call.
+     */
+    @Override
+    protected void doSend(MimeMessage[] mimeMessages, Object[] originalMessages) throws MailException {
+        Map<Object, Exception> failedMessages = new LinkedHashMap<>();
+        for (int i = 0; i < mimeMessages.length; i++) {
+            MimeMessage mimeMessage = mimeMessages[i];
+            Object original = originalMessages != null ? originalMessages[i] : mimeMessage;
+
+            PooledSession session;
+            try {
+                session = borrow();
+            } catch (AuthenticationFailedException ex) {
+                throw new MailAuthenticationException(ex);
+            } catch (Exception ex) {
+                // Every remaining message failed with it, as in the plain implementation.
+                for (int j = i; j < mimeMessages.length; j++) {
+                    failedMessages.put(originalMessages != null ? originalMessages[j] : mimeMessages[j], ex);
+                }
+                throw new MailSendException("Mail server connection failed", ex, failedMessages);
+            }
+
+            try {
+                if (mimeMessage.getSentDate() == null) {
+                    mimeMessage.setSentDate(new Date());
+                }
+                String messageId = mimeMessage.getMessageID();
+                mimeMessage.saveChanges();
+                if (messageId != null) {
+                    mimeMessage.setHeader(HEADER_MESSAGE_ID, messageId);
+                }
+                Address[] addresses = mimeMessage.getAllRecipients();
+                session.transport.sendMessage(mimeMessage, addresses != null ? addresses : new Address[0]);
+                session.sent++;
+                giveBack(session);
+            } catch (Exception ex) {
+                failedMessages.put(original, ex);
+                close(session, "send failed");
+            }
+        }
+        if (!failedMessages.isEmpty()) {
+            throw new MailSendException(failedMessages);
+        }
+    }
+
+    /** Closes the idle sessions. Sessions in use are closed as their sends return them. */
+    @Override
+    public void destroy() {
+        List<PooledSession> toClose;
+        synchronized (this) {
+            closed = true;
+            toClose = new ArrayList<>(idle);
+            idle.clear();
+        }
+        toClose.forEach(session -> close(session, "shutdown"));
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("smtp.sessions.idle", this, PooledJavaMailSender::idleSessions)
+                .description("Authenticated SMTP sessions open and waiting for a send")
+                .register(registry);
+        FunctionCounter.builder("smtp.sessions.opened", this, PooledJavaMailSender::openedSessions)
+                .description("SMTP sessions opened, each a full connect, STARTTLS and AUTH")
+                .register(registry);
+    }
+
+    synchronized int idleSessions() {
+        return idle.size();
+    }
+
+    synchronized long openedSessions() {
+        return opened;
+    }
+
+    private PooledSession borrow() throws MessagingException {
+        while (true) {
+            PooledSession candidate;
+            long now = nanoTime.getAsLong();
+            synchronized (this) {
+                candidate = idle.pollFirst();
+            }
+            if (candidate == null) {
+                break;
+            }
+            long idleNanos = now - candidate.returnedNanos;
+            if (idleNanos >= maxIdleNanos) {
+                close(candidate, "idle too long");
+            } else if (idleNanos >= TimeUnit.MILLISECONDS.toNanos(VALIDATE_AFTER_MILLIS)
+                    && !candidate.transport.isConnected()) {
+                close(candidate, "failed NOOP");
+            } else {
+                return candidate;
+            }
+        }
+
+        Transport transport = connectTransport();
+        synchronized (this) {
+            opened++;
+        }
+        return new PooledSession(transport);
+    }
+
+    private void giveBack(PooledSession session) {
+        if (session.sent >= maxMessages) {
+            close(session, "message limit reached");
+            return;
+        }
+        session.returnedNanos = nanoTime.getAsLong();
+        synchronized (this) {
+            if (!closed && idle.size() < size) {
+                idle.addFirst(session);
+                return;
+            }
+        }
+        close(session, "pool full");
+    }
+
+    /** Best effort: the session is being discarded either way, so a failed QUIT changes nothing. */
+    private static void close(PooledSession session, String why) {
+        log.debug("Closing SMTP session after {} messages: {}", session.sent, why);
+        try {
+            session.transport.close();
+        } catch (Exception e) {
+            log.debug("SMTP session did not close cleanly", e);
+        }
+    }
+
+    /** A connected, authenticated transport and how it has been used. */
+    private static final class PooledSession {
+
+        final Transport transport;
+        int sent;
+        long returnedNanos;
+
+        PooledSession(Transport transport) {
+            this.transport = transport;
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package com.hoseacodes.emailintegrator.service;
+
+import com.hoseacodes.emailintegrator.email.EmailProviderException;
+import com.hoseacodes.emailintegrator.email.EmailProviderException.Reason;
+import jakarta.annotation.PreDestroy;
+import jakarta.mail.internet.MimeMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.mail.MailException;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends queued templated messages in batches, over one SMTP connection per batch.
+ *
+ * <p>A burst of templated sends — an admin approving a queue of registrations, a block of
+ * consultations booked at once — otherwise makes one blocking {@code send} per caller, each paying
+ * for its own SMTP transaction and, without the session pool, its own connection. Here callers
+ * queue their prepared {@link MimeMessage} and wait; a single drainer thread takes everything
+ * queued, up to {@code app.mail.batching.max-batch}, and hands it to
+ * {@link JavaMailSender#send(MimeMessage...)}, which sends the lot over one connection.
+ *
+ * <h2>No linger</h2>
+ * A batch is whatever queued while the previous one was being sent. A lone message goes out as
+ * soon as the drainer is free, so light traffic pays nothing; under a burst, batches grow exactly
+ * as fast as SMTP falls behind.
+ *
+ * <h2>Each caller gets its own outcome</h2>
+ * {@link MailSendException} reports failures per message, so a batch does not share its fate the
+ * way a coalesced Brevo request does. A message absent from the failed set was sent; one present
+ * fails with an exception holding only its own failure, with the connection failure attached as
+ * the cause where there was one — so {@link SmtpFailures} classifies it exactly as it would have
+ * classified that message sent alone. A failure that is not per message, such as rejected
+ * credentials, fails every caller in the batch with it.
+ *
+ * <p>Off unless {@code app.mail.batching.enabled=true}. It serialises templated mail through one
+ * thread, which is a good trade under bursts and an unnecessary one otherwise. The queue is
+ * bounded; a send that finds it full is refused as {@link Reason#CONCURRENCY_LIMITED} without
+ * being queued.
+ */
+@Component
+@ConditionalOnProperty(prefix = "app.mail.batching", name = "enabled", havingValue = "true")
+class SmtpBatchDispatcher {
+
+    private static final Logger log = LoggerFactory.getLogger(SmtpBatchDispatcher.class);
+
+    private static final Duration FULL_RETRY_AFTER = Duration.ofSeconds(1);
+
+    private final JavaMailSender mailSender;
+    private final int maxBatch;
+    private final BlockingQueue<Pending> queue;
+    private final ExecutorService drainer;
+
+    SmtpBatchDispatcher(JavaMailSender mailSender,
+                        @Value("${app.mail.batching.max-batch:50}") int maxBatch,
+                        @Value("${app.mail.batching.queue-capacity:500}") int queueCapacity) {
+        if (maxBatch < 1 || queueCapacity < 1) {
+            throw new IllegalArgumentException("max-batch and queue-capacity must be positive");
+        }
+        this.mailSender = mailSender;
+        this.maxBatch = maxBatch;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.drainer = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "smtp-batch-drainer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        drainer.execute(this::drain);
+    }
+
+    /**
+     * Queues a prepared message. The future completes when its batch has been sent, or fails with
+     * the {@link MailException} for this message alone.
+     */
+    CompletableFuture<Void> submit(MimeMessage message) {
+        Pending pending = new Pending(message, new CompletableFuture<>());
+        if (drainer.isShutdown() || !queue.offer(pending)) {
+            log.warn("SMTP batch refused: reason={} queued={}", Reason.CONCURRENCY_LIMITED, queue.size());
+            pending.done.completeExceptionally(new EmailProviderException(Reason.CONCURRENCY_LIMITED,
+                    SmtpEmailProvider.PROVIDER_NAME, "the mail queue is full; send not attempted",
+                    FULL_RETRY_AFTER, null));
+        }
+        return pending.done;
+    }
+
+    /**
+     * Queues a prepared message and waits for its batch, rethrowing its failure as the blocking
+     * {@link JavaMailSender#send(MimeMessage)} would have thrown it.
+     *
+     * @throws MailException           if the message was not sent
+     * @throws EmailProviderException  if it could not be queued
+     */
+    void send(MimeMessage message) {
+        try {
+            submit(message).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    /** Stops taking messages, sends what is already queued — those callers are waiting — and stops. */
+    @PreDestroy
+    void close() throws InterruptedException {
+        drainer.shutdownNow();
+        drainer.awaitTermination(30, TimeUnit.SECONDS);
+    }
+
+    private void drain() {
+        List<Pending> batch = new ArrayList<>(maxBatch);
+        while (true) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                for (queue.drainTo(batch, maxBatch); !batch.isEmpty(); queue.drainTo(batch, maxBatch)) {
+                    sendBatch(batch);
+                    batch.clear();
+                }
+                return;
+            }
+            queue.drainTo(batch, maxBatch - 1);
+            sendBatch(batch);
+            batch.clear();
+        }
+    }
+
+    private void sendBatch(List<Pending> batch) {
+        MimeMessage[] messages = batch.stream().map(Pending::message).toArray(MimeMessage[]::new);
+        try {
+            mailSender.send(messages);
+            batch.forEach(pending -> pending.done.complete(null));
+            log.debug("SMTP batch sent: messages={}", messages.length);
+        } catch (MailSendException e) {
+            Map<Object, Exception> failed = e.getFailedMessages();
+            if (failed.isEmpty()) {
+                failAll(batch, e);
+                return;
+            }
+            log.debug("SMTP batch partly failed: messages={} failed={}", messages.length, failed.size());
+            for (Pending pending : batch) {
+                Exception own = failed.get(pending.message);
+                if (own == null) {
+                    pending.done.complete(null);
+                } else {
+                    // The batch's cause only if it is this message's own failure: a connect failure
+                    // that stopped later messages says nothing about one that failed mid-send before.
+                    pending.done.completeExceptionally(own == e.getCause()
+                            ? new MailSendException(e.getMessage(), own, Map.of(pending.message, own))
+                            : new MailSendException(Map.of(pending.message, own)));
+                }
+            }
+        } catch (RuntimeException e) {
+            failAll(batch, e);
+        }
+    }
+
+    private static void failAll(List<Pending> batch, RuntimeException e) {
+        batch.forEach(pending -> pending.done.completeExceptionally(e));
+    }
+
+    private record Pending(MimeMessage message, CompletableFuture<Void> done) {
+    }
+}
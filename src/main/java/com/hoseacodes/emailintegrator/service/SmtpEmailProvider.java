@@ -0,0 +1,227 @@
+package com.hoseacodes.emailintegrator.service;
+
+import com.hoseacodes.emailintegrator.email.EmailAddress;
+import com.hoseacodes.emailintegrator.email.EmailProvider;
+import com.hoseacodes.emailintegrator.email.EmailProviderException;
+import com.hoseacodes.emailintegrator.email.EmailProviderException.Reason;
+import com.hoseacodes.emailintegrator.email.SendEmailCommand;
+import com.hoseacodes.emailintegrator.email.SendEmailResult;
+import jakarta.annotation.PreDestroy;
+import jakarta.mail.MessagingException;
+import jakarta.mail.internet.MimeMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.mail.MailException;
+import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.mail.javamail.MimeMessageHelper;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import java.io.UnsupportedEncodingException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends a {@link SendEmailCommand} over SMTP: the mail server as an {@link EmailProvider}.
+ *
+ * <p>Composition and failure classification for {@code POST /api/spring-mail/send} live here, so
+ * that endpoint and a provider-routed {@code POST /email} produce the same message from the same
+ * input and classify the same failure the same way. {@link SpringMailService} keeps what belongs to
+ * its endpoint — the kill switch and the configured sender — and hands the result to this class.
+ *
+ * <h2>What SMTP cannot do</h2>
+ * Per-recipient variants. Brevo sends them as one request; over SMTP they would be one
+ * transaction per variant, and a failure part-way through would leave some delivered and some
+ * not with no way to say which. {@link #supports} declines them, so a router never offers them
+ * here.
+ *
+ * <h2>Asynchronous sends</h2>
+ * JavaMail has no non-blocking API, so {@link #sendAsync} runs the blocking send on a small pool
+ * of its own rather than on the caller's thread. The caller may be an HTTP client's I/O
+ * dispatcher — when a router fails over from Brevo, it is — and an SMTP conversation there would
+ * stall every other send on that dispatcher. The pool's queue is bounded; a send it cannot take
+ * is refused as {@link Reason#CONCURRENCY_LIMITED}.
+ */
+@Component
+public class SmtpEmailProvider implements EmailProvider {
+
+    public static final String PROVIDER_NAME = "gmail-smtp";
+
+    private static final Logger log = LoggerFactory.getLogger(SmtpEmailProvider.class);
+
+    /** Sends that may wait for an async thread before further ones are refused. */
+    private static final int ASYNC_QUEUE_CAPACITY = 100;
+
+    private static final Duration BUSY_RETRY_AFTER = Duration.ofSeconds(1);
+
+    private final JavaMailSender mailSender;
+    private final ExecutorService asyncExecutor;
+
+    @Autowired
+    public SmtpEmailProvider(JavaMailSender mailSender,
+                             @Value("${app.mail.async-threads:4}") int asyncThreads) {
+        this(mailSender, asyncPool(asyncThreads));
+    }
+
+    /** @param asyncExecutor runs {@link #sendAsync}; replaceable so tests can run it inline */
+    SmtpEmailProvider(JavaMailSender mailSender, ExecutorService asyncExecutor) {
+        this.mailSender = mailSender;
+        this.asyncExecutor = asyncExecutor;
+    }
+
+    @Override
+    public String name() {
+        return PROVIDER_NAME;
+    }
+
+    @Override
+    public boolean supports(SendEmailCommand command) {
+        return !command.isMultiVariant();
+    }
+
+    @Override
+    public SendEmailResult send(SendEmailCommand command) {
+        if (!supports(command)) {
+            throw new EmailProviderException(Reason.REQUEST_REJECTED, PROVIDER_NAME,
+                    "per-recipient variants cannot be sent over SMTP");
+        }
+
+        long startNanos = System.nanoTime();
+        String messageId = null;
+
+        try {
+            MimeMessage mimeMessage = mailSender.createMimeMessage();
+            MimeMessageHelper helper = new MimeMessageHelper(mimeMessage, true, "UTF-8");
+
+            EmailAddress sender = command.sender();
+            if (StringUtils.hasText(sender.name())) {
+                helper.setFrom(sender.email(), sender.name());
+            } else {
+                helper.setFrom(sender.email());
+            }
+
+            helper.setTo(addresses(command.to()));
+            if (!command.cc().isEmpty()) {
+                helper.setCc(addresses(command.cc()));
+            }
+            if (!command.bcc().isEmpty()) {
+                helper.setBcc(addresses(command.bcc()));
+            }
+            if (command.replyTo() != null) {
+                helper.setReplyTo(command.replyTo().email());
+            }
+
+            helper.setSubject(command.subject());
+
+            // Both formats when available, so clients that cannot render HTML still get content.
+            if (StringUtils.hasText(command.htmlContent())) {
+                helper.setText(
+                        command.textContent() == null ? "" : command.textContent(),
+                        command.htmlContent());
+            } else {
+                helper.setText(command.textContent());
+            }
+
+            // Assign the Message-ID before transmitting rather than reading it back afterwards.
+            //
+            // saveChanges() is what generates the header; JavaMailSenderImpl would call it during
+            // send anyway, so this changes nothing about the message. What it buys is that the id
+            // exists *before* the network call — so when a send times out and delivery is
+            // genuinely unknown, there is still an identifier to search the mail server's logs
+            // for. Reading it back after a failed send would give nothing, which is exactly the
+            // case where it is most needed.
+            mimeMessage.saveChanges();
+            messageId = readMessageId(mimeMessage);
+
+            mailSender.send(mimeMessage);
+
+            log.info("SMTP send succeeded: recipients={} messageId={} durationMs={}",
+                    command.totalRecipientCount(), messageId, elapsedMillis(startNanos));
+
+            return SendEmailResult.single(messageId, PROVIDER_NAME);
+
+        } catch (MailException | MessagingException | UnsupportedEncodingException e) {
+            // Classification lives in SmtpFailures so this path and the templated-email path
+            // interpret the same SMTP failure identically. Notably, a generic send failure is
+            // treated as side-effect-possible: SMTP delivery is not atomic, so the server may
+            // already have accepted the message for some recipients.
+            throw failure(e, startNanos, messageId);
+        }
+    }
+
+    @Override
+    public CompletableFuture<SendEmailResult> sendAsync(SendEmailCommand command) {
+        try {
+            return CompletableFuture.supplyAsync(() -> send(command), asyncExecutor);
+        } catch (RejectedExecutionException e) {
+            log.warn("SMTP send refused: reason={} queued={}", Reason.CONCURRENCY_LIMITED, ASYNC_QUEUE_CAPACITY);
+            return CompletableFuture.failedFuture(new EmailProviderException(Reason.CONCURRENCY_LIMITED,
+                    PROVIDER_NAME, "every SMTP send slot is busy; send not attempted", BUSY_RETRY_AFTER, e));
+        }
+    }
+
+    /** Lets queued sends finish — they may already have been promised to callers — then stops. */
+    @PreDestroy
+    void close() throws InterruptedException {
+        asyncExecutor.shutdown();
+        asyncExecutor.awaitTermination(30, TimeUnit.SECONDS);
+    }
+
+    private EmailProviderException failure(Exception cause, long startNanos, String messageId) {
+        Reason reason = SmtpFailures.classify(cause);
+        String detail = SmtpFailures.detailFor(reason);
+        // Detail, timing, and the Message-ID are logged. The Message-ID matters most on a
+        // side-effect-possible failure: it is the only handle for checking after the fact whether
+        // the message actually went out.
+        //
+        // The exception message itself carries no SMTP host, port, or server response text,
+        // because it may reach an API response.
+        log.warn("SMTP send failed: reason={} sideEffectPossible={} messageId={} durationMs={} detail={}",
+                reason, reason.isSideEffectPossible(), messageId, elapsedMillis(startNanos),
+                cause.getMessage());
+        return new EmailProviderException(reason, PROVIDER_NAME, detail, cause);
+    }
+
+    /**
+     * Reads the {@code Message-ID} that JavaMail assigned during send.
+     *
+     * <p>Best effort: the message was already sent by this point, so failing to read its id must
+     * not turn a successful send into an error.
+     */
+    private String readMessageId(MimeMessage mimeMessage) {
+        try {
+            return mimeMessage.getMessageID();
+        } catch (MessagingException e) {
+            log.debug("Could not read Message-ID from a sent message", e);
+            return null;
+        }
+    }
+
+    private static String[] addresses(List<EmailAddress> recipients) {
+        return recipients.stream().map(EmailAddress::email).toArray(String[]::new);
+    }
+
+    private static long elapsedMillis(long startNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    private static ExecutorService asyncPool(int threads) {
+        AtomicInteger count = new AtomicInteger();
+        return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(ASYNC_QUEUE_CAPACITY),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "smtp-send-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+}
@@ -4,6 +4,10 @@ import com.hoseacodes.emailintegrator.email.EmailProviderException;
 import com.hoseacodes.emailintegrator.email.EmailProviderException.Reason;
 import org.springframework.mail.MailAuthenticationException;
 import org.springframework.mail.MailParseException;
+import org.springframework.mail.MailSendException;
+
+import java.net.ConnectException;
+import java.net.UnknownHostException;
 
 /**
  * Translates SMTP failures into the application's provider-failure model.
@@ -49,6 +53,7 @@ final class SmtpFailures {
         return switch (reason) {
             case PROVIDER_AUTH_FAILED -> "the mail service could not authenticate with its provider";
             case REQUEST_REJECTED -> "the message could not be composed";
+            case CONNECT_FAILED -> "could not connect to the mail server";
             default -> "the mail server could not deliver the message";
         };
     }
@@ -68,7 +73,15 @@ final class SmtpFailures {
             return Reason.REQUEST_REJECTED;
         }
 
-        // Everything else: connection failures, server rejections, partial delivery.
+        // The mail server was never reached: refused, unresolvable, or JavaMail's own
+        // MailConnectException. No SMTP conversation took place, so nothing can have been
+        // accepted — the one send failure that is definitely-not-sent, and so the one a router may
+        // take to another provider.
+        if (cause instanceof MailSendException && neverConnected(cause)) {
+            return Reason.CONNECT_FAILED;
+        }
+
+        // Everything else: server rejections, partial delivery, a connection lost mid-send.
         //
         // Deliberately side-effect-possible. SMTP delivery is not atomic — MailSendException
         // explicitly models per-recipient failures, so the server may already have accepted the
@@ -76,4 +89,30 @@ final class SmtpFailures {
         // definitely-not-sent would license a retry that duplicates mail already delivered.
         return Reason.PROVIDER_UNAVAILABLE;
     }
+
+    /**
+     * Walks the cause chain — including {@link jakarta.mail.MessagingException#getNextException},
+     * where JavaMail puts the socket error — for evidence the connection was never established.
+     * Anything unrecognised is treated as connected, the conservative direction.
+     */
+    private static boolean neverConnected(Throwable throwable) {
+        for (Throwable t = throwable; t != null; t = next(t)) {
+            if (t instanceof ConnectException || t instanceof UnknownHostException) {
+                return true;
+            }
+            // Matched by name: the class lives in whichever JavaMail implementation is on the
+            // classpath (com.sun.mail or org.eclipse.angus.mail), not in the API.
+            if ("MailConnectException".equals(t.getClass().getSimpleName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Throwable next(Throwable t) {
+        Throwable next = t instanceof jakarta.mail.MessagingException m && m.getNextException() != null
+                ? m.getNextException()
+                : t.getCause();
+        return next == t ? null : next;
+    }
 }
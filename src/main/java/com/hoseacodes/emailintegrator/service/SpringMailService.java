@@ -3,22 +3,16 @@ package com.hoseacodes.emailintegrator.service;
 import com.hoseacodes.emailintegrator.config.EmailProperties;
 import com.hoseacodes.emailintegrator.controller.dto.Recipient;
 import com.hoseacodes.emailintegrator.controller.dto.SendMailRequest;
+import com.hoseacodes.emailintegrator.email.EmailAddress;
 import com.hoseacodes.emailintegrator.email.EmailProviderException;
-import com.hoseacodes.emailintegrator.email.EmailProviderException.Reason;
+import com.hoseacodes.emailintegrator.email.SendEmailCommand;
 import com.hoseacodes.emailintegrator.email.SendEmailResult;
-import jakarta.mail.MessagingException;
-import jakarta.mail.internet.MimeMessage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.mail.MailException;
-import org.springframework.mail.javamail.JavaMailSender;
-import org.springframework.mail.javamail.MimeMessageHelper;
 import org.springframework.stereotype.Service;
 import org.springframework.util.StringUtils;
 
-import java.io.UnsupportedEncodingException;
 import java.util.List;
-import java.util.concurrent.TimeUnit;
 
 /**
  * Sends mail directly over SMTP.
@@ -39,19 +33,20 @@ import java.util.concurrent.TimeUnit;
  *       {@code Message-ID} assigned to the outgoing message, which is what actually appears in
  *       mail logs and in the recipient's headers.</li>
  * </ul>
+ *
+ * <p>Composition and failure classification now live in {@link SmtpEmailProvider}, shared with
+ * provider routing; this class keeps the decisions that belong to its endpoint.
  */
 @Service
 public class SpringMailService {
 
-    static final String PROVIDER_NAME = "gmail-smtp";
-
     private static final Logger log = LoggerFactory.getLogger(SpringMailService.class);
 
-    private final JavaMailSender mailSender;
+    private final SmtpEmailProvider smtpEmailProvider;
     private final EmailProperties emailProperties;
 
-    public SpringMailService(JavaMailSender mailSender, EmailProperties emailProperties) {
-        this.mailSender = mailSender;
+    public SpringMailService(SmtpEmailProvider smtpEmailProvider, EmailProperties emailProperties) {
+        this.smtpEmailProvider = smtpEmailProvider;
         this.emailProperties = emailProperties;
     }
 
@@ -70,119 +65,30 @@ public class SpringMailService {
             throw new EmailSendingDisabledException();
         }
 
-        String fromAddress = configuredSender();
-        long startNanos = System.nanoTime();
-        String messageId = null;
-
-        try {
-            MimeMessage mimeMessage = mailSender.createMimeMessage();
-            MimeMessageHelper helper = new MimeMessageHelper(mimeMessage, true, "UTF-8");
-
-            if (StringUtils.hasText(emailProperties.getDefaultFromName())) {
-                helper.setFrom(fromAddress, emailProperties.getDefaultFromName());
-            } else {
-                helper.setFrom(fromAddress);
-            }
-
-            helper.setTo(addresses(request.to()));
-            if (request.cc() != null && !request.cc().isEmpty()) {
-                helper.setCc(addresses(request.cc()));
-            }
-            if (request.bcc() != null && !request.bcc().isEmpty()) {
-                helper.setBcc(addresses(request.bcc()));
-            }
-            if (request.replyTo() != null) {
-                helper.setReplyTo(request.replyTo().email());
-            }
-
-            helper.setSubject(request.subject());
-
-            // Both formats when available, so clients that cannot render HTML still get content.
-            if (StringUtils.hasText(request.htmlContent())) {
-                helper.setText(
-                        request.textContent() == null ? "" : request.textContent(),
-                        request.htmlContent());
-            } else {
-                helper.setText(request.textContent());
-            }
-
-            // Assign the Message-ID before transmitting rather than reading it back afterwards.
-            //
-            // saveChanges() is what generates the header; JavaMailSenderImpl would call it during
-            // send anyway, so this changes nothing about the message. What it buys is that the id
-            // exists *before* the network call — so when a send times out and delivery is
-            // genuinely unknown, there is still an identifier to search the mail server's logs
-            // for. Reading it back after a failed send would give nothing, which is exactly the
-            // case where it is most needed.
-            mimeMessage.saveChanges();
-            messageId = readMessageId(mimeMessage);
-
-            mailSender.send(mimeMessage);
-
-            log.info("SMTP send succeeded: recipients={} messageId={} durationMs={}",
-                    recipientCount(request), messageId, elapsedMillis(startNanos));
-
-            return SendEmailResult.single(messageId, PROVIDER_NAME);
-
-        } catch (MailException | MessagingException | UnsupportedEncodingException e) {
-            // Classification lives in SmtpFailures so this path and the templated-email path
-            // interpret the same SMTP failure identically. Notably, a generic send failure is
-            // treated as side-effect-possible: SMTP delivery is not atomic, so the server may
-            // already have accepted the message for some recipients.
-            throw failure(e, startNanos, messageId);
-        }
+        return smtpEmailProvider.send(new SendEmailCommand(
+                configuredSender(),
+                addresses(request.to()),
+                addresses(request.cc()),
+                addresses(request.bcc()),
+                request.replyTo() == null ? null : EmailAddress.of(request.replyTo().email()),
+                request.subject(),
+                request.htmlContent(),
+                request.textContent(),
+                List.of()));
     }
 
-    private EmailProviderException failure(Exception cause, long startNanos, String messageId) {
-        Reason reason = SmtpFailures.classify(cause);
-        String detail = SmtpFailures.detailFor(reason);
-        // Detail, timing, and the Message-ID are logged. The Message-ID matters most on a
-        // side-effect-possible failure: it is the only handle for checking after the fact whether
-        // the message actually went out.
-        //
-        // The exception message itself carries no SMTP host, port, or server response text,
-        // because it may reach an API response.
-        log.warn("SMTP send failed: reason={} sideEffectPossible={} messageId={} durationMs={} detail={}",
-                reason, reason.isSideEffectPossible(), messageId, elapsedMillis(startNanos),
-                cause.getMessage());
-        return new EmailProviderException(reason, PROVIDER_NAME, detail, cause);
-    }
-
-    /**
-     * Reads the {@code Message-ID} that JavaMail assigned during send.
-     *
-     * <p>Best effort: the message was already sent by this point, so failing to read its id must
-     * not turn a successful send into an error.
-     */
-    private String readMessageId(MimeMessage mimeMessage) {
-        try {
-            return mimeMessage.getMessageID();
-        } catch (MessagingException e) {
-            log.debug("Could not read Message-ID from a sent message", e);
-            return null;
-        }
-    }
-
-    private String configuredSender() {
+    private EmailAddress configuredSender() {
         String address = emailProperties.getDefaultFromAddress();
         if (!StringUtils.hasText(address)) {
             throw new IllegalStateException(
                     "app.email.default-from-address is not configured; refusing to send without a sender");
         }
-        return address;
-    }
-
-    private static String[] addresses(List<Recipient> recipients) {
-        return recipients.stream().map(Recipient::email).toArray(String[]::new);
-    }
-
-    private static int recipientCount(SendMailRequest request) {
-        return request.to().size()
-                + (request.cc() == null ? 0 : request.cc().size())
-                + (request.bcc() == null ? 0 : request.bcc().size());
+        return new EmailAddress(address, emailProperties.getDefaultFromName());
     }
 
-    private static long elapsedMillis(long startNanos) {
-        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    private static List<EmailAddress> addresses(List<Recipient> recipients) {
+        return recipients == null
+                ? List.of()
+                : recipients.stream().map(r -> new EmailAddress(r.email(), r.name())).toList();
     }
 }
@@ -0,0 +1,158 @@
+package com.hoseacodes.emailintegrator.service;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Flattens a template's layout and partials into one source, before it is compiled.
+ *
+ * <p>Every template used to repeat the same document head, wrapper, header and footer styling —
+ * fourteen lines each, seven times — so a change to any of them was seven edits, and a missed one a template that no
+ * longer matched the rest. The shared parts now live once, in two forms borrowed from Mustache:
+ *
+ * <ul>
+ *   <li><b>Partials.</b> {@code {{> name}}} is replaced by {@code partials/name.html}, which may
+ *       itself include partials.</li>
+ *   <li><b>Layouts.</b> A template whose first line is {@code {{< name}}} is rendered as
+ *       {@code layouts/name.html}, with each {@code {{$block}}default{{/block}}} the layout
+ *       declares replaced by the template's own {@code {{$block}}...{{/block}}} where it has one,
+ *       and by the default where it does not. A layout can itself extend another; the most
+ *       specific definition of a block wins.</li>
+ * </ul>
+ *
+ * <p>This happens once, when the template is compiled: {@link CompiledTemplate} only ever sees the
+ * flattened source, so a render is the same single pass of literals and slots whether a template
+ * uses a layout or not. Each partial and layout is read once per service and shared by every
+ * template that uses it, however many include it.
+ *
+ * <p>Mistakes are compile errors, which for a bundled template fail startup: a missing partial or
+ * layout, an include cycle, a block the layout does not declare, or content outside a block in a
+ * template that extends a layout — which would otherwise be silently dropped.
+ */
+final class TemplateComposer {
+
+    private static final Pattern INCLUDE = Pattern.compile("\\{\\{>\\s*([\\w-]+)\\s*}}");
+    private static final Pattern EXTENDS = Pattern.compile("\\A\\s*\\{\\{<\\s*([\\w-]+)\\s*}}");
+    private static final Pattern BLOCK = Pattern.compile("(?s)\\{\\{\\$([\\w-]+)}}(.*?)\\{\\{/\\1}}");
+    private static final Pattern DIRECTIVE = Pattern.compile("\\{\\{\\s*[<>$/]");
+
+    /** Deep enough for any sane nesting; stops a cycle the name check would also catch. */
+    private static final int MAX_DEPTH = 16;
+
+    private final Function<String, Optional<String>> reader;
+    private final Map<String, String> cache = new HashMap<>();
+
+    /**
+     * @param reader reads a path relative to the template location, such as
+     *               {@code partials/header.html}, or returns empty if there is none
+     */
+    TemplateComposer(Function<String, Optional<String>> reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * The template with its layout applied and partials included; {@code source} itself if it
+     * uses neither.
+     *
+     * @throws IllegalArgumentException if the template cannot be flattened, as listed above
+     */
+    synchronized String compose(String name, String source) {
+        if (!DIRECTIVE.matcher(source).find()) {
+            return source;
+        }
+        Map<String, String> blocks = new HashMap<>();
+        Deque<String> layouts = new ArrayDeque<>();
+        String current = source;
+        Matcher extending = EXTENDS.matcher(current);
+        while (extending.find()) {
+            String layout = extending.group(1);
+            if (layouts.contains(layout) || layouts.size() == MAX_DEPTH) {
+                throw new IllegalArgumentException(name + ": layout cycle through " + layouts + " and " + layout);
+            }
+            layouts.push(layout);
+            // The child's definitions were collected first, so they win over the layout's own.
+            collectBlocks(name, current.substring(extending.end()), blocks);
+            current = read(name, "layouts/" + layout + ".html");
+            extending = EXTENDS.matcher(current);
+        }
+
+        Map<String, String> undeclared = new LinkedHashMap<>(blocks);
+        Matcher block = BLOCK.matcher(current);
+        StringBuilder flattened = new StringBuilder(current.length());
+        while (block.find()) {
+            undeclared.remove(block.group(1));
+            block.appendReplacement(flattened, "");
+            flattened.append(blocks.getOrDefault(block.group(1), block.group(2)));
+        }
+        block.appendTail(flattened);
+        if (!undeclared.isEmpty()) {
+            throw new IllegalArgumentException(name + ": block " + undeclared.keySet()
+                    + " is not declared by layout " + layouts.peekFirst());
+        }
+
+        String composed = include(name, flattened.toString(), new ArrayDeque<>());
+        Matcher stray = DIRECTIVE.matcher(composed);
+        if (stray.find()) {
+            throw new IllegalArgumentException(name + ": unmatched " + composed.substring(stray.start(),
+                    Math.min(composed.length(), stray.start() + 20)).lines().findFirst().orElse(""));
+        }
+        return composed;
+    }
+
+    /** Adds the blocks {@code body} defines that are not already defined by a more specific template. */
+    private static void collectBlocks(String name, String body, Map<String, String> blocks) {
+        Matcher block = BLOCK.matcher(body);
+        int end = 0;
+        while (block.find()) {
+            requireBlank(name, body.substring(end, block.start()));
+            blocks.putIfAbsent(block.group(1), block.group(2));
+            end = block.end();
+        }
+        requireBlank(name, body.substring(end));
+    }
+
+    private static void requireBlank(String name, String outside) {
+        if (!outside.isBlank()) {
+            throw new IllegalArgumentException(name + ": content outside a {{$block}} in a template with a layout: "
+                    + outside.strip().lines().findFirst().orElse(""));
+        }
+    }
+
+    private String include(String name, String source, Deque<String> including) {
+        Matcher include = INCLUDE.matcher(source);
+        if (!include.find()) {
+            return source;
+        }
+        StringBuilder expanded = new StringBuilder(source.length());
+        do {
+            String partial = include.group(1);
+            if (including.contains(partial) || including.size() == MAX_DEPTH) {
+                throw new IllegalArgumentException(name + ": partial cycle through " + including + " and " + partial);
+            }
+            including.push(partial);
+            String content = include(name, read(name, "partials/" + partial + ".html"), including);
+            including.pop();
+            include.appendReplacement(expanded, "");
+            expanded.append(content);
+        } while (include.find());
+        include.appendTail(expanded);
+        return expanded.toString();
+    }
+
+    private String read(String name, String path) {
+        String content = cache.get(path);
+        if (content == null) {
+            content = reader.apply(path).orElseThrow(() ->
+                    new IllegalArgumentException(name + " uses " + path + ", which does not exist"));
+            cache.put(path, content);
+        }
+        return content;
+    }
+}
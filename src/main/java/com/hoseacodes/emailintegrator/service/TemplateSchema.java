@@ -0,0 +1,108 @@
+package com.hoseacodes.emailintegrator.service;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * The variables each built-in template is rendered with: the contract between a template file
+ * and the code in {@link UserApprovalEmailService} that renders it.
+ *
+ * <p>A placeholder is only a name in a file, so a template using a variable no caller supplies —
+ * a typo, or a field renamed on one side only — used to render a blank slot, and nothing said so.
+ * Now both sides are checked against this declaration:
+ *
+ * <ul>
+ *   <li><b>The template side</b>, when it is compiled: a placeholder not declared here fails
+ *       startup for a bundled template, which every context-loading test in the build does, and
+ *       is refused, keeping the version last loaded, for one from the template directory. See
+ *       {@link EmailTemplateService}.</li>
+ *   <li><b>The caller side</b>, by a test asserting that each request type supplies exactly these
+ *       variables, links as links.</li>
+ * </ul>
+ *
+ * <p>A declared variable a template does not use is fine: the consultation templates leave out
+ * {@code fullName}, and an operator's template may leave out more.
+ */
+enum TemplateSchema {
+
+    APPROVAL_REQUEST("approval-email.html",
+            List.of("userName", "userEmail", "approvalToken", "appName", "appDisplayName"),
+            List.of("approvalUrl", "denyUrl")),
+
+    ACCOUNT_APPROVED("account-approved.html",
+            List.of("userName", "appName", "appDisplayName"),
+            List.of("loginUrl")),
+
+    ACCOUNT_DENIED("account-denied.html",
+            List.of("userName", "adminEmail", "appName", "appDisplayName"),
+            List.of()),
+
+    REGISTRATION_PENDING("registration-pending.html",
+            List.of("userName", "adminEmail", "appName", "appDisplayName"),
+            List.of()),
+
+    CONSULTATION_CONFIRMATION("consultation-confirmation.html",
+            List.of("firstName", "lastName", "fullName", "company", "consultationType",
+                    "formattedDate", "formattedTime", "notes"),
+            List.of("meetingLink")),
+
+    CONSULTATION_NOTIFICATION("consultation-notification.html",
+            List.of("firstName", "lastName", "fullName", "email", "company", "consultationType",
+                    "formattedDate", "formattedTime", "phone", "notes"),
+            List.of("meetingLink")),
+
+    PASSWORD_RESET("password-reset.html",
+            List.of("userName", "expiryTime", "adminEmail", "appName", "appDisplayName"),
+            List.of("resetUrl"));
+
+    private final String templateName;
+    private final Set<String> text;
+    private final Set<String> links;
+
+    TemplateSchema(String templateName, List<String> text, List<String> links) {
+        this.templateName = templateName;
+        this.text = Set.copyOf(text);
+        this.links = Set.copyOf(links);
+    }
+
+    /** The schema for a template file name, if it is one of the built-in templates. */
+    static Optional<TemplateSchema> forTemplate(String templateName) {
+        return Arrays.stream(values()).filter(schema -> schema.templateName.equals(templateName)).findFirst();
+    }
+
+    String templateName() {
+        return templateName;
+    }
+
+    /** Variables supplied as text. */
+    Set<String> text() {
+        return text;
+    }
+
+    /** Variables supplied as links, and so validated by {@link LinkSanitizer}. */
+    Set<String> links() {
+        return links;
+    }
+
+    /**
+     * Checks a compiled template against the declaration.
+     *
+     * @throws IllegalArgumentException naming every placeholder the template uses that no caller
+     *                                  supplies
+     */
+    void check(CompiledTemplate template) {
+        List<String> undeclared = template.variables().stream()
+                .filter(variable -> !text.contains(variable) && !links.contains(variable))
+                .toList();
+        if (!undeclared.isEmpty()) {
+            throw new IllegalArgumentException(templateName + " uses "
+                    + undeclared.stream().map(variable -> "{{" + variable + "}}").collect(Collectors.joining(", "))
+                    + ", which no caller supplies; it would render blank. Declared: "
+                    + Stream.concat(text.stream(), links.stream()).sorted().toList());
+        }
+    }
+}
@@ -11,10 +11,17 @@ import com.hoseacodes.emailintegrator.controller.dto.TemplatedEmailRequest.Passw
 import com.hoseacodes.emailintegrator.controller.dto.TemplatedEmailRequest.RegistrationPending;
 import com.hoseacodes.emailintegrator.email.SendEmailResult;
 import com.hoseacodes.emailintegrator.model.ConsultationData;
+import jakarta.activation.DataHandler;
+import jakarta.annotation.PostConstruct;
 import jakarta.mail.MessagingException;
+import jakarta.mail.internet.MimeBodyPart;
 import jakarta.mail.internet.MimeMessage;
+import jakarta.mail.internet.MimeMultipart;
+import jakarta.mail.util.ByteArrayDataSource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.ByteArrayResource;
 import org.springframework.mail.MailException;
@@ -23,6 +30,7 @@ import org.springframework.mail.javamail.MimeMessageHelper;
 import org.springframework.stereotype.Service;
 import org.springframework.util.StringUtils;
 
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
@@ -53,9 +61,12 @@ public class UserApprovalEmailService {
 
     private static final Logger log = LoggerFactory.getLogger(UserApprovalEmailService.class);
 
+    private static final String HTML_CONTENT_TYPE = "text/html; charset=UTF-8";
+
     private final JavaMailSender mailSender;
     private final EmailProperties emailProperties;
     private final EmailTemplateService emailTemplateService;
+    private final SmtpBatchDispatcher batchDispatcher;
 
     @Value("${app.base-url:http://localhost:8080}")
     private String baseUrl;
@@ -72,9 +83,39 @@ public class UserApprovalEmailService {
     public UserApprovalEmailService(JavaMailSender mailSender,
                                     EmailProperties emailProperties,
                                     EmailTemplateService emailTemplateService) {
+        this(mailSender, emailProperties, emailTemplateService, (SmtpBatchDispatcher) null);
+    }
+
+    /** @param batchDispatcher present only when {@code app.mail.batching.enabled=true} */
+    @Autowired
+    public UserApprovalEmailService(JavaMailSender mailSender,
+                                    EmailProperties emailProperties,
+                                    EmailTemplateService emailTemplateService,
+                                    ObjectProvider<SmtpBatchDispatcher> batchDispatcher) {
+        this(mailSender, emailProperties, emailTemplateService, batchDispatcher.getIfAvailable());
+    }
+
+    UserApprovalEmailService(JavaMailSender mailSender,
+                             EmailProperties emailProperties,
+                             EmailTemplateService emailTemplateService,
+                             SmtpBatchDispatcher batchDispatcher) {
         this.mailSender = mailSender;
         this.emailProperties = emailProperties;
         this.emailTemplateService = emailTemplateService;
+        this.batchDispatcher = batchDispatcher;
+    }
+
+    /**
+     * Binds the configured application name, display name and administrator address into the
+     * templates, so a render that uses them as configured does not escape and substitute them
+     * again. A request overriding the name still renders correctly, only without the saving.
+     */
+    @PostConstruct
+    void bindTemplateConstants() {
+        emailTemplateService.bindConstants(Map.of(
+                "appName", appName,
+                "appDisplayName", appDisplayName,
+                "adminEmail", adminEmail == null ? "" : adminEmail));
     }
 
     /**
@@ -134,7 +175,7 @@ public class UserApprovalEmailService {
     private SendEmailResult sendApprovalRequest(ApprovalRequest r) {
         String app = appNameOr(r.appName());
 
-        String html = emailTemplateService.processTemplate("approval-email.html",
+        byte[] html = emailTemplateService.processTemplateUtf8("approval-email.html",
                 Map.of(
                         "userName", r.name(),
                         "userEmail", r.email(),
@@ -157,7 +198,7 @@ public class UserApprovalEmailService {
         String app = appNameOr(r.appName());
         String loginUrl = StringUtils.hasText(r.loginUrl()) ? r.loginUrl() : baseUrl + "/login";
 
-        String html = emailTemplateService.processTemplate("account-approved.html",
+        byte[] html = emailTemplateService.processTemplateUtf8("account-approved.html",
                 Map.of(
                         "userName", r.name(),
                         "appName", app,
@@ -171,7 +212,7 @@ public class UserApprovalEmailService {
     private SendEmailResult sendAccountDenied(AccountDenied r) {
         String app = appNameOr(r.appName());
 
-        String html = emailTemplateService.processTemplate("account-denied.html",
+        byte[] html = emailTemplateService.processTemplateUtf8("account-denied.html",
                 Map.of(
                         "userName", r.name(),
                         "adminEmail", adminEmail == null ? "" : adminEmail,
@@ -186,7 +227,7 @@ public class UserApprovalEmailService {
     private SendEmailResult sendRegistrationPending(RegistrationPending r) {
         String app = appNameOr(r.appName());
 
-        String html = emailTemplateService.processTemplate("registration-pending.html",
+        byte[] html = emailTemplateService.processTemplateUtf8("registration-pending.html",
                 Map.of(
                         "userName", r.name(),
                         "adminEmail", adminEmail == null ? "" : adminEmail,
@@ -201,7 +242,7 @@ public class UserApprovalEmailService {
     private SendEmailResult sendPasswordReset(PasswordReset r) {
         String app = appNameOr(r.appName());
 
-        String html = emailTemplateService.processTemplate("password-reset.html",
+        byte[] html = emailTemplateService.processTemplateUtf8("password-reset.html",
                 Map.of(
                         "userName", StringUtils.hasText(r.name()) ? r.name() : "User",
                         "expiryTime", StringUtils.hasText(r.expiryTime()) ? r.expiryTime() : "24 hours",
@@ -216,7 +257,7 @@ public class UserApprovalEmailService {
     private SendEmailResult sendConsultationConfirmation(ConsultationConfirmation r) {
         ConsultationData data = toConsultationData(r);
 
-        String html = emailTemplateService.processTemplate("consultation-confirmation.html",
+        byte[] html = emailTemplateService.processTemplateUtf8("consultation-confirmation.html",
                 Map.of(
                         "firstName", r.firstName(),
                         "lastName", r.lastName(),
@@ -247,7 +288,7 @@ public class UserApprovalEmailService {
         text.put("phone", nullToEmpty(r.phone()));
         text.put("notes", nullToEmpty(r.notes()));
 
-        String html = emailTemplateService.processTemplate("consultation-notification.html",
+        byte[] html = emailTemplateService.processTemplateUtf8("consultation-notification.html",
                 text, Map.of("meetingLink", r.meetingLink()));
 
         // Previously the admin address was hardcoded here, bypassing app.admin-email entirely.
@@ -263,7 +304,7 @@ public class UserApprovalEmailService {
      * @param icsContent optional iCalendar payload attached as {@code consultation.ics}
      */
     private SendEmailResult dispatch(String to, String fromDisplayName, String subject,
-                                     String htmlContent, String icsContent) {
+                                     byte[] htmlContent, String icsContent) {
         String messageId = null;
         try {
             MimeMessage mimeMessage = mailSender.createMimeMessage();
@@ -272,7 +313,7 @@ public class UserApprovalEmailService {
             helper.setFrom(fromAddress(), fromDisplayName);
             helper.setTo(to);
             helper.setSubject(subject);
-            helper.setText("", htmlContent);
+            setHtml(helper, htmlContent);
 
             if (StringUtils.hasText(icsContent)) {
                 helper.addAttachment("consultation.ics",
@@ -281,23 +322,48 @@ public class UserApprovalEmailService {
             }
 
             // Assign the Message-ID before transmitting, so a send that times out still leaves an
-            // identifier to search the mail server's logs for. See SpringMailService.
+            // identifier to search the mail server's logs for. See SmtpEmailProvider.
             mimeMessage.saveChanges();
             messageId = readMessageId(mimeMessage);
 
-            mailSender.send(mimeMessage);
+            // With batching on, this waits for the batch it joins, and a failure is this message's
+            // alone — so what follows is the same either way.
+            if (batchDispatcher != null) {
+                batchDispatcher.send(mimeMessage);
+            } else {
+                mailSender.send(mimeMessage);
+            }
 
             log.info("Templated email sent: subject='{}' messageId={}", subject, messageId);
-            return SendEmailResult.single(messageId, SpringMailService.PROVIDER_NAME);
+            return SendEmailResult.single(messageId, SmtpEmailProvider.PROVIDER_NAME);
 
         } catch (MailException | MessagingException | UnsupportedEncodingException e) {
             log.warn("Templated email failed: subject='{}' messageId={} detail={}",
                     subject, messageId, e.getMessage());
-            throw SmtpFailures.translate(e, SpringMailService.PROVIDER_NAME,
+            throw SmtpFailures.translate(e, SmtpEmailProvider.PROVIDER_NAME,
                     "the notification email could not be delivered");
         }
     }
 
+    /**
+     * Sets the HTML body from bytes already encoded as UTF-8.
+     *
+     * <p>{@link MimeMessageHelper#setText(String, String)} lays out the multipart/alternative
+     * structure this keeps, but takes the HTML as a {@code String}, which Jakarta Mail encodes
+     * each time it reads the part — once to choose a transfer encoding, again to send. Here the
+     * HTML part's content is replaced with the rendered bytes, which are read as they are.
+     */
+    private static void setHtml(MimeMessageHelper helper, byte[] html) throws MessagingException {
+        helper.setText("", "");
+        try {
+            MimeBodyPart mainPart = (MimeBodyPart) helper.getMimeMultipart().getBodyPart(0);
+            MimeBodyPart htmlPart = (MimeBodyPart) ((MimeMultipart) mainPart.getContent()).getBodyPart(1);
+            htmlPart.setDataHandler(new DataHandler(new ByteArrayDataSource(html, HTML_CONTENT_TYPE)));
+        } catch (IOException e) {
+            throw new MessagingException("Could not set the HTML body", e);
+        }
+    }
+
     private String readMessageId(MimeMessage mimeMessage) {
         try {
             return mimeMessage.getMessageID();
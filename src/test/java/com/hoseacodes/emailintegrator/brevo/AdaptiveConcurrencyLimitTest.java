@@ -0,0 +1,196 @@
+package com.hoseacodes.emailintegrator.brevo;
+
+import com.hoseacodes.emailintegrator.email.EmailProviderException;
+import com.hoseacodes.emailintegrator.email.EmailProviderException.Reason;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * The limit's arithmetic, driven by a clock the test steps, so every round trip is exactly as long
+ * as the test says. What is asserted is direction — grows, shrinks, holds — not the exact figures,
+ * which are tuning and would make every adjustment of the constants a test change.
+ */
+class AdaptiveConcurrencyLimitTest {
+
+    private static final Duration FAST = Duration.ofMillis(100);
+
+    private long now;
+    private AdaptiveConcurrencyLimit limit;
+
+    @BeforeEach
+    void setUp() {
+        now = 0;
+        limit = new AdaptiveConcurrencyLimit(new BrevoProperties.ConcurrencyLimit(true, 10, 2, 50), () -> now);
+    }
+
+    @Nested
+    @DisplayName("adapting")
+    class Adapting {
+
+        @Test
+        @DisplayName("grows while the limit is in full use and latency holds steady")
+        void growsAtSteadyLatency() {
+            for (int i = 0; i < 10; i++) {
+                fullRound(FAST);
+            }
+
+            assertThat(limit.limit()).isGreaterThan(10);
+        }
+
+        @Test
+        @DisplayName("shrinks when latency rises well beyond its long-run average")
+        void shrinksWhenLatencyRises() {
+            for (int i = 0; i < 5; i++) {
+                fullRound(FAST);
+            }
+            int settled = limit.limit();
+
+            // One round: after a few more the long-run average has caught up with the new latency
+            // and the limit grows again, which is intended.
+            fullRound(FAST.multipliedBy(4));
+
+            assertThat(limit.limit()).isLessThan(settled);
+        }
+
+        @Test
+        @DisplayName("does not grow while most of the limit goes unused")
+        void holdsWhenAppLimited() {
+            for (int i = 0; i < 50; i++) {
+                round(3, FAST);
+            }
+
+            assertThat(limit.limit()).isEqualTo(10);
+        }
+
+        @Test
+        @DisplayName("halves on a read timeout, the strongest overload signal there is")
+        void halvesOnTimeout() {
+            AdaptiveConcurrencyLimit.Permit permit = limit.tryAcquire();
+            now += Duration.ofSeconds(10).toNanos();
+
+            limit.release(permit, failure(Reason.TIMEOUT));
+
+            assertThat(limit.limit()).isEqualTo(5);
+        }
+
+        @Test
+        @DisplayName("never leaves the configured bounds")
+        void staysInBounds() {
+            for (int i = 0; i < 5; i++) {
+                AdaptiveConcurrencyLimit.Permit permit = limit.tryAcquire();
+                now += FAST.toNanos();
+                limit.release(permit, failure(Reason.TIMEOUT));
+            }
+            assertThat(limit.limit()).isEqualTo(2);
+
+            for (int i = 0; i < 200; i++) {
+                fullRound(FAST);
+            }
+            assertThat(limit.limit()).isEqualTo(50);
+        }
+
+        @Test
+        @DisplayName("a connection failure frees the slot but is not a latency sample")
+        void connectFailureIsNotASample() {
+            AdaptiveConcurrencyLimit.Permit permit = limit.tryAcquire();
+            now += Duration.ofSeconds(10).toNanos();
+
+            limit.release(permit, failure(Reason.CONNECT_FAILED));
+
+            assertThat(limit.limit()).isEqualTo(10);
+            assertThat(limit.inFlight()).isZero();
+        }
+
+        @Test
+        @DisplayName("an abandoned send frees the slot but is not a latency sample")
+        void abandonIsNotASample() {
+            List<AdaptiveConcurrencyLimit.Permit> permits = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                permits.add(limit.tryAcquire());
+            }
+            now += Duration.ofSeconds(10).toNanos();
+
+            permits.forEach(limit::abandon);
+
+            assertThat(limit.limit()).isEqualTo(10);
+            assertThat(limit.inFlight()).isZero();
+        }
+    }
+
+    @Nested
+    @DisplayName("admission")
+    class Admission {
+
+        @Test
+        @DisplayName("refuses once the limit is in flight, counts the refusal, and admits again on release")
+        void refusesAtLimit() {
+            limit = new AdaptiveConcurrencyLimit(new BrevoProperties.ConcurrencyLimit(true, 2, 2, 2), () -> now);
+            AdaptiveConcurrencyLimit.Permit first = limit.tryAcquire();
+            limit.tryAcquire();
+
+            assertThat(limit.tryAcquire()).isNull();
+            assertThat(limit.rejected()).isEqualTo(1);
+
+            limit.release(first, null);
+            assertThat(limit.tryAcquire()).isNotNull();
+        }
+
+        @Test
+        @DisplayName("disabled, it never refuses and never moves")
+        void disabled() {
+            limit = new AdaptiveConcurrencyLimit(new BrevoProperties.ConcurrencyLimit(false, 2, 2, 2), () -> now);
+
+            List<AdaptiveConcurrencyLimit.Permit> permits = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                permits.add(limit.tryAcquire());
+            }
+
+            assertThat(permits).doesNotContainNull();
+            assertThat(limit.inFlight()).isEqualTo(100);
+            permits.forEach(permit -> limit.release(permit, failure(Reason.TIMEOUT)));
+            assertThat(limit.limit()).isEqualTo(2);
+            assertThat(limit.inFlight()).isZero();
+        }
+    }
+
+    @Test
+    @DisplayName("publishes the limit, the sends in flight and the refusals as meters")
+    void meters() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        limit.bindTo(registry);
+        limit.tryAcquire();
+
+        assertThat(registry.get("brevo.concurrency.limit").gauge().value()).isEqualTo(10);
+        assertThat(registry.get("brevo.concurrency.in-flight").gauge().value()).isEqualTo(1);
+        assertThat(registry.get("brevo.concurrency.rejected").functionCounter().count()).isZero();
+    }
+
+    // -- helpers -------------------------------------------------------------------------------
+
+    /** As many sends as the limit allows, all taking {@code rtt}. */
+    private void fullRound(Duration rtt) {
+        round(limit.limit(), rtt);
+    }
+
+    private void round(int concurrency, Duration rtt) {
+        List<AdaptiveConcurrencyLimit.Permit> permits = new ArrayList<>();
+        for (int i = 0; i < concurrency; i++) {
+            permits.add(limit.tryAcquire());
+        }
+        now += rtt.toNanos();
+        permits.forEach(permit -> limit.release(permit, null));
+    }
+
+    private static EmailProviderException failure(Reason reason) {
+        return new EmailProviderException(reason, "brevo", "scripted failure");
+    }
+}
@@ -7,7 +7,9 @@ import com.hoseacodes.emailintegrator.email.EmailProviderException.Reason;
 import com.hoseacodes.emailintegrator.email.MessageVariant;
 import com.hoseacodes.emailintegrator.email.SendEmailCommand;
 import com.hoseacodes.emailintegrator.email.SendEmailResult;
+import org.apache.hc.core5.io.CloseMode;
 import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
@@ -15,12 +17,16 @@ import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.ValueSource;
-import org.springframework.web.client.RestClient;
 
 import java.io.IOException;
 import java.net.ServerSocket;
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
 
 import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
 import static com.github.tomakehurst.wiremock.client.WireMock.equalTo;
@@ -31,6 +37,7 @@ import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
 import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.options;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.catchThrowable;
 import static org.assertj.core.api.Assertions.catchThrowableOfType;
 
 /**
@@ -52,6 +59,7 @@ class BrevoEmailProviderTest {
 
     private static final String SEND_PATH = "/v3/smtp/email";
     private static final String API_KEY = "test-api-key-not-a-real-credential";
+    private static final int CONCURRENT_SENDS = 40;
 
     /**
      * One server for the whole class, reset between tests.
@@ -69,9 +77,14 @@ class BrevoEmailProviderTest {
 
     private BrevoEmailProvider provider;
 
+    /** Async transports own I/O reactor threads, so each one built for a test is closed after it. */
+    private static final List<BrevoAsyncTransport> asyncTransports = new ArrayList<>();
+
     @BeforeAll
     static void startServer() {
-        wireMock = new WireMockServer(options().dynamicPort());
+        // Enough request threads that the concurrency test measures our client, not WireMock's
+        // own pool, which defaults to a few dozen.
+        wireMock = new WireMockServer(options().dynamicPort().containerThreads(CONCURRENT_SENDS + 20));
         wireMock.start();
     }
 
@@ -80,6 +93,12 @@ class BrevoEmailProviderTest {
         wireMock.stop();
     }
 
+    @AfterEach
+    void closeAsyncTransports() {
+        asyncTransports.forEach(transport -> transport.close(CloseMode.IMMEDIATE));
+        asyncTransports.clear();
+    }
+
     @BeforeEach
     void resetServer() {
         wireMock.resetAll();
@@ -88,9 +107,15 @@ class BrevoEmailProviderTest {
 
     /** Builds the provider exactly as Spring does, so the real timeout configuration is covered too. */
     private static BrevoEmailProvider providerWith(String baseUrl, Duration connect, Duration read) {
-        BrevoProperties properties = new BrevoProperties(API_KEY, baseUrl, connect, read);
-        RestClient restClient = new BrevoClientConfig().brevoRestClient(properties);
-        return new BrevoEmailProvider(restClient, properties);
+        return providerWith(new BrevoProperties(API_KEY, baseUrl, connect, read));
+    }
+
+    private static BrevoEmailProvider providerWith(BrevoProperties properties) {
+        BrevoClientConfig config = new BrevoClientConfig();
+        BrevoAsyncTransport asyncTransport = config.brevoAsyncTransport(properties);
+        asyncTransports.add(asyncTransport);
+        return new BrevoEmailProvider(config.brevoRestClient(properties), asyncTransport, properties,
+                config.brevoConcurrencyLimit(properties), config.brevoRateLimitGate(properties));
     }
 
     private static SendEmailCommand simpleCommand() {
@@ -294,6 +319,58 @@ class BrevoEmailProviderTest {
         assertThat(e.getRetryAfter()).isNull(); // HTTP-date form is not parsed; absence is honest
     }
 
+    @Test
+    @DisplayName("429 without Retry-After falls back to Brevo's own reset header")
+    void rateLimitedWithBrevoResetHeader() {
+        wireMock.stubFor(post(urlEqualTo(SEND_PATH)).willReturn(aResponse()
+                .withStatus(429)
+                .withHeader("x-sib-ratelimit-reset", "7")
+                .withBody("{}")));
+
+        EmailProviderException e = failureOf(provider.sendAsync(simpleCommand()));
+
+        assertThat(e.getRetryAfter()).isEqualTo(Duration.ofSeconds(7));
+    }
+
+    @Test
+    @DisplayName("after a 429, every send is refused without calling Brevo until Retry-After has passed")
+    void pausesAfterRateLimit() {
+        wireMock.stubFor(post(urlEqualTo(SEND_PATH)).willReturn(aResponse()
+                .withStatus(429)
+                .withHeader("Retry-After", "30")
+                .withBody("{}")));
+        catchThrowable(() -> provider.send(simpleCommand()));
+
+        EmailProviderException blocking = catchThrowableOfType(
+                () -> provider.send(simpleCommand()), EmailProviderException.class);
+        EmailProviderException async = failureOf(provider.sendAsync(simpleCommand()));
+
+        wireMock.verify(1, postRequestedFor(urlEqualTo(SEND_PATH)));
+        assertThat(List.of(blocking, async)).allSatisfy(e -> {
+            assertThat(e.getReason()).isEqualTo(Reason.RATE_LIMITED);
+            assertThat(e.isSideEffectPossible()).isFalse();
+            // The time left, not the original 30s: a caller told 30s now would wait too long.
+            assertThat(e.getRetryAfter()).isBetween(Duration.ofSeconds(1), Duration.ofSeconds(30));
+        });
+    }
+
+    @Test
+    @DisplayName("with an account rate configured, sends beyond it are refused before Brevo can refuse them")
+    void pacesToAccountRate() {
+        stubCreated();
+        BrevoEmailProvider paced = providerWith(new BrevoProperties(API_KEY, wireMock.baseUrl(),
+                Duration.ofSeconds(2), Duration.ofSeconds(2), 0, null, false, null, null,
+                new BrevoProperties.RateLimit(0.1, 2, null, null)));
+
+        paced.send(simpleCommand());
+        paced.sendAsync(simpleCommand()).join();
+        EmailProviderException e = catchThrowableOfType(
+                () -> paced.send(simpleCommand()), EmailProviderException.class);
+
+        assertThat(e.getReason()).isEqualTo(Reason.RATE_LIMITED);
+        wireMock.verify(2, postRequestedFor(urlEqualTo(SEND_PATH)));
+    }
+
     // -- provider failures ---------------------------------------------------------------------
 
     @ParameterizedTest(name = "HTTP {0} marks the provider unavailable")
@@ -435,8 +512,350 @@ class BrevoEmailProviderTest {
         }
     }
 
+
+    // -- asynchronous sends --------------------------------------------------------------------
+
+    /**
+     * The async path shares its status interpretation with the blocking one, so these repeat
+     * the classifications that matter most rather than every case above. A divergence here
+     * would mean the same Brevo reply is a 502 on one path and something else on the other.
+     */
+    @Nested
+    @DisplayName("asynchronous sends")
+    class AsyncSends {
+
+        @Test
+        @DisplayName("completes with the provider message id and sends the same request")
+        void returnsMessageId() {
+            stubCreated();
+
+            SendEmailResult result = provider.sendAsync(simpleCommand()).join();
+
+            assertThat(result.messageIds()).containsExactly("<generated@brevo>");
+            assertThat(result.provider()).isEqualTo("brevo");
+            wireMock.verify(postRequestedFor(urlEqualTo(SEND_PATH))
+                    .withHeader("api-key", equalTo(API_KEY))
+                    .withRequestBody(matchingJsonPath("$.sender.email", equalTo("sender@example.com")))
+                    .withRequestBody(matchingJsonPath("$.to[0].email", equalTo("recipient@example.com")))
+                    .withRequestBody(matchingJsonPath("$[?(!@.cc)]")));
+        }
+
+        @Test
+        @DisplayName("429 fails the future with RATE_LIMITED and Retry-After, attempted once")
+        void rateLimited() {
+            wireMock.stubFor(post(urlEqualTo(SEND_PATH)).willReturn(aResponse()
+                    .withStatus(429)
+                    .withHeader("Content-Type", "application/json")
+                    .withHeader("Retry-After", "42")
+                    .withBody("{\"code\":\"too_many_requests\",\"message\":\"slow down\"}")));
+
+            EmailProviderException e = failureOf(provider.sendAsync(simpleCommand()));
+
+            assertThat(e.getReason()).isEqualTo(Reason.RATE_LIMITED);
+            assertThat(e.getRetryAfter()).isEqualTo(Duration.ofSeconds(42));
+            assertThat(e.getMessage()).contains("too_many_requests");
+            wireMock.verify(1, postRequestedFor(urlEqualTo(SEND_PATH)));
+        }
+
+        @ParameterizedTest(name = "HTTP {0} is side-effect-possible and attempted once")
+        @ValueSource(ints = {500, 503})
+        @DisplayName("5xx fails the future as PROVIDER_UNAVAILABLE without a retry")
+        void serverErrors(int status) {
+            wireMock.stubFor(post(urlEqualTo(SEND_PATH)).willReturn(aResponse()
+                    .withStatus(status)
+                    .withHeader("Retry-After", "42")
+                    .withBody("{}")));
+
+            EmailProviderException e = failureOf(provider.sendAsync(simpleCommand()));
+
+            assertThat(e.getReason()).isEqualTo(Reason.PROVIDER_UNAVAILABLE);
+            assertThat(e.isSideEffectPossible()).isTrue();
+            wireMock.verify(1, postRequestedFor(urlEqualTo(SEND_PATH)));
+        }
+
+        @Test
+        @DisplayName("a 2xx with an unparseable body is possibly-sent, not success")
+        void malformedSuccessBody() {
+            wireMock.stubFor(post(urlEqualTo(SEND_PATH)).willReturn(aResponse()
+                    .withStatus(201)
+                    .withHeader("Content-Type", "application/json")
+                    .withBody("{\"messageId\": \"truncated")));
+
+            EmailProviderException e = failureOf(provider.sendAsync(simpleCommand()));
+
+            assertThat(e.getReason()).isEqualTo(Reason.PROVIDER_UNAVAILABLE);
+            assertThat(e.isSideEffectPossible()).isTrue();
+        }
+
+        @Test
+        @DisplayName("a response slower than the read timeout is TIMEOUT")
+        void readTimeout() {
+            wireMock.stubFor(post(urlEqualTo(SEND_PATH)).willReturn(aResponse()
+                    .withStatus(201)
+                    .withFixedDelay(1500)
+                    .withBody("{\"messageId\":\"<sent-anyway@brevo>\"}")));
+
+            BrevoEmailProvider impatient =
+                    providerWith(wireMock.baseUrl(), Duration.ofSeconds(2), Duration.ofMillis(250));
+
+            EmailProviderException e = failureOf(impatient.sendAsync(simpleCommand()));
+
+            assertThat(e.getReason()).isEqualTo(Reason.TIMEOUT);
+            assertThat(e.isSideEffectPossible()).isTrue();
+        }
+
+        @Test
+        @DisplayName("a refused connection is CONNECT_FAILED")
+        void connectionRefused() throws IOException {
+            BrevoEmailProvider unreachable = providerWith(
+                    "http://localhost:" + unusedPort(), Duration.ofMillis(500), Duration.ofSeconds(2));
+
+            EmailProviderException e = failureOf(unreachable.sendAsync(simpleCommand()));
+
+            assertThat(e.getReason()).isEqualTo(Reason.CONNECT_FAILED);
+            assertThat(e.isSideEffectPossible()).isFalse();
+        }
+
+        /**
+         * The reason this path exists, measured against a slow stub.
+         *
+         * <p>{@value #CONCURRENT_SENDS} sends are issued from this one thread against a provider
+         * that takes a second to answer each. On the blocking path that needs as many threads
+         * or forty seconds; here every send is handed off in milliseconds and all of them finish
+         * in roughly the time of one, because waiting costs a connection rather than a thread.
+         * (Thread counts are not asserted: WireMock's own server shares this JVM and grows its
+         * pool under exactly this load.)
+         */
+        @Test
+        @DisplayName("sustains many slow sends concurrently without a thread per send")
+        void sustainsConcurrencyAgainstSlowProvider() {
+            wireMock.stubFor(post(urlEqualTo(SEND_PATH)).willReturn(aResponse()
+                    .withStatus(201)
+                    .withHeader("Content-Type", "application/json")
+                    .withFixedDelay(1000)
+                    .withBody("{\"messageId\":\"<slow@brevo>\"}")));
+
+            // The adaptive limit would refuse sends beyond its initial value; this test is about
+            // the transport underneath it, so the limit is off.
+            BrevoEmailProvider patient = providerWith(new BrevoProperties(API_KEY, wireMock.baseUrl(),
+                    Duration.ofSeconds(2), Duration.ofSeconds(5), 0, null, false, null,
+                    new BrevoProperties.ConcurrencyLimit(false, 0, 0, 0), null));
+            patient.sendAsync(simpleCommand()).join(); // warm up the reactor and class loading
+
+            long startNanos = System.nanoTime();
+
+            List<CompletableFuture<SendEmailResult>> inFlight = IntStream.range(0, CONCURRENT_SENDS)
+                    .mapToObj(i -> patient.sendAsync(simpleCommand()))
+                    .toList();
+            long handOffMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+
+            CompletableFuture.allOf(inFlight.toArray(CompletableFuture[]::new)).join();
+            long totalMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+
+            assertThat(inFlight).allSatisfy(f ->
+                    assertThat(f.join().messageIds()).containsExactly("<slow@brevo>"));
+            // Handing off does not wait for Brevo at all.
+            assertThat(handOffMillis).isLessThan(1_000);
+            // Forty one-second sends overlap instead of queueing: far closer to one second than
+            // to forty. The margin absorbs a slow CI machine, not a serialised pool.
+            assertThat(totalMillis).isLessThan(8_000);
+        }
+    }
+
+    // -- request compression -------------------------------------------------------------------
+
+    /**
+     * Both paths stream the body; with compression on, both must say so. WireMock decodes a
+     * gzip request body before matching, so the JSON assertions only pass if the body really is
+     * gzip and the header really is present.
+     */
+    @Nested
+    @DisplayName("request compression")
+    class Compression {
+
+        private BrevoEmailProvider compressing() {
+            return providerWith(new BrevoProperties(API_KEY, wireMock.baseUrl(),
+                    Duration.ofSeconds(2), Duration.ofSeconds(2), 0, null, true, null, null, null));
+        }
+
+        @ParameterizedTest(name = "async = {0}")
+        @ValueSource(booleans = {false, true})
+        @DisplayName("sends a gzip body marked Content-Encoding: gzip")
+        void gzipBody(boolean async) {
+            stubCreated();
+            BrevoEmailProvider gzip = compressing();
+
+            SendEmailResult result = async ? gzip.sendAsync(simpleCommand()).join() : gzip.send(simpleCommand());
+
+            assertThat(result.messageIds()).containsExactly("<generated@brevo>");
+            wireMock.verify(postRequestedFor(urlEqualTo(SEND_PATH))
+                    .withHeader("Content-Encoding", equalTo("gzip"))
+                    .withRequestBody(matchingJsonPath("$.subject", equalTo("Subject line")))
+                    .withRequestBody(matchingJsonPath("$.to[0].email", equalTo("recipient@example.com"))));
+        }
+
+        @Test
+        @DisplayName("is off by default")
+        void plainByDefault() {
+            stubCreated();
+
+            provider.sendAsync(simpleCommand()).join();
+
+            wireMock.verify(postRequestedFor(urlEqualTo(SEND_PATH)).withoutHeader("Content-Encoding"));
+        }
+    }
+
+    // -- admission -----------------------------------------------------------------------------
+
+    /**
+     * The limit's arithmetic is covered by {@code AdaptiveConcurrencyLimitTest}; these cover the
+     * wiring — that a send beyond it never reaches Brevo, and that every path gives its slot back.
+     * The limit is pinned at two so it cannot move during the test.
+     */
+    @Nested
+    @DisplayName("concurrency limit")
+    class Admission {
+
+        private BrevoEmailProvider limitedToTwo() {
+            return providerWith(new BrevoProperties(API_KEY, wireMock.baseUrl(),
+                    Duration.ofSeconds(2), Duration.ofSeconds(2), 0, null, false, null,
+                    new BrevoProperties.ConcurrencyLimit(true, 2, 2, 2), null));
+        }
+
+        @Test
+        @DisplayName("refuses a send beyond the limit at once, as CONCURRENCY_LIMITED, without calling Brevo")
+        void refusesBeyondLimit() {
+            wireMock.stubFor(post(urlEqualTo(SEND_PATH)).willReturn(aResponse()
+                    .withStatus(201)
+                    .withHeader("Content-Type", "application/json")
+                    .withFixedDelay(500)
+                    .withBody("{\"messageId\":\"<slow@brevo>\"}")));
+            BrevoEmailProvider limited = limitedToTwo();
+
+            CompletableFuture<SendEmailResult> first = limited.sendAsync(simpleCommand());
+            CompletableFuture<SendEmailResult> second = limited.sendAsync(simpleCommand());
+            CompletableFuture<SendEmailResult> third = limited.sendAsync(simpleCommand());
+
+            assertThat(third).isCompletedExceptionally();
+            EmailProviderException e = failureOf(third);
+            assertThat(e.getReason()).isEqualTo(Reason.CONCURRENCY_LIMITED);
+            assertThat(e.isSideEffectPossible()).isFalse();
+            assertThat(e.getRetryAfter()).isEqualTo(Duration.ofSeconds(1));
+            assertThatThrownBy(() -> limited.send(simpleCommand()))
+                    .isInstanceOfSatisfying(EmailProviderException.class,
+                            thrown -> assertThat(thrown.getReason()).isEqualTo(Reason.CONCURRENCY_LIMITED));
+
+            assertThat(first.join().messageIds()).containsExactly("<slow@brevo>");
+            assertThat(second.join().messageIds()).containsExactly("<slow@brevo>");
+            wireMock.verify(2, postRequestedFor(urlEqualTo(SEND_PATH)));
+        }
+
+        @Test
+        @DisplayName("gives the slot back after every outcome, on both paths")
+        void releasesOnEveryOutcome() {
+            wireMock.stubFor(post(urlEqualTo(SEND_PATH)).willReturn(aResponse()
+                    .withStatus(400)
+                    .withBody("{\"code\":\"invalid_parameter\",\"message\":\"bad\"}")));
+            BrevoEmailProvider limited = limitedToTwo();
+
+            for (int i = 0; i < 3; i++) {
+                catchThrowable(() -> limited.send(simpleCommand()));
+                catchThrowable(() -> limited.sendAsync(simpleCommand()).join());
+            }
+
+            // Six sends through a limit of two: a leaked slot would have refused the third.
+            wireMock.verify(6, postRequestedFor(urlEqualTo(SEND_PATH)));
+        }
+
+        @Test
+        @DisplayName("a send refused at the limit spends none of the account rate")
+        void refusalSpendsNoRate() {
+            wireMock.stubFor(post(urlEqualTo(SEND_PATH)).willReturn(aResponse()
+                    .withStatus(201)
+                    .withHeader("Content-Type", "application/json")
+                    .withFixedDelay(500)
+                    .withBody("{\"messageId\":\"<slow@brevo>\"}")));
+            // Two in flight at most, three sends' worth of rate with next to no refill.
+            BrevoEmailProvider limited = providerWith(new BrevoProperties(API_KEY, wireMock.baseUrl(),
+                    Duration.ofSeconds(2), Duration.ofSeconds(2), 0, null, false, null,
+                    new BrevoProperties.ConcurrencyLimit(true, 2, 2, 2),
+                    new BrevoProperties.RateLimit(0.001, 3, null, null)));
+
+            CompletableFuture<SendEmailResult> first = limited.sendAsync(simpleCommand());
+            CompletableFuture<SendEmailResult> second = limited.sendAsync(simpleCommand());
+            for (int i = 0; i < 5; i++) {
+                assertThat(failureOf(limited.sendAsync(simpleCommand())).getReason())
+                        .isEqualTo(Reason.CONCURRENCY_LIMITED);
+            }
+            first.join();
+            second.join();
+
+            assertThat(limited.send(simpleCommand()).messageIds()).containsExactly("<slow@brevo>");
+            wireMock.verify(3, postRequestedFor(urlEqualTo(SEND_PATH)));
+        }
+
+        @Test
+        @DisplayName("an unclassified failure is rethrown as itself and gives the slot back")
+        void releasesOnUnclassifiedFailure() {
+            stubCreated();
+            BrevoProperties properties = new BrevoProperties(API_KEY, wireMock.baseUrl(),
+                    Duration.ofSeconds(2), Duration.ofSeconds(2), 0, null, false, null,
+                    new BrevoProperties.ConcurrencyLimit(true, 2, 2, 2), null);
+            BrevoClientConfig config = new BrevoClientConfig();
+            BrevoAsyncTransport asyncTransport = config.brevoAsyncTransport(properties);
+            asyncTransports.add(asyncTransport);
+            IllegalStateException bug = new IllegalStateException("a bug of ours");
+            BrevoEmailProvider failing = new BrevoEmailProvider(
+                    config.brevoRestClient(properties).mutate()
+                            .requestInterceptor((request, body, execution) -> {
+                                throw bug;
+                            })
+                            .build(),
+                    asyncTransport, properties,
+                    config.brevoConcurrencyLimit(properties), config.brevoRateLimitGate(properties));
+
+            for (int i = 0; i < 3; i++) {
+                assertThatThrownBy(() -> failing.send(simpleCommand())).isSameAs(bug);
+            }
+
+            // A leaked slot would have refused the third attempt as CONCURRENCY_LIMITED.
+            assertThat(failing.sendAsync(simpleCommand()).join().messageIds()).containsExactly("<generated@brevo>");
+        }
+
+        @Test
+        @DisplayName("an async send that fails before any request is made fails its future and gives the slot back")
+        void releasesWhenRequestNotMade() {
+            // Not a URI, so building the request throws inside the transport call itself.
+            BrevoProperties properties = new BrevoProperties(API_KEY, wireMock.baseUrl() + "/not a uri",
+                    Duration.ofSeconds(2), Duration.ofSeconds(2), 0, null, false, null,
+                    new BrevoProperties.ConcurrencyLimit(true, 2, 2, 2), null);
+            BrevoClientConfig config = new BrevoClientConfig();
+            BrevoAsyncTransport asyncTransport = config.brevoAsyncTransport(properties);
+            asyncTransports.add(asyncTransport);
+            AdaptiveConcurrencyLimit limit = config.brevoConcurrencyLimit(properties);
+            BrevoEmailProvider failing = new BrevoEmailProvider(config.brevoRestClient(properties),
+                    asyncTransport, properties, limit, config.brevoRateLimitGate(properties));
+
+            for (int i = 0; i < 3; i++) {
+                assertThat(catchThrowable(failing.sendAsync(simpleCommand())::join))
+                        .isInstanceOf(CompletionException.class)
+                        .hasCauseInstanceOf(IllegalArgumentException.class);
+            }
+
+            assertThat(limit.inFlight()).isZero();
+        }
+    }
+
     // -- helpers -------------------------------------------------------------------------------
 
+    /** Waits for a future expected to fail and returns the provider exception it failed with. */
+    private static EmailProviderException failureOf(CompletableFuture<SendEmailResult> future) {
+        Throwable thrown = catchThrowable(future::join);
+        assertThat(thrown).isInstanceOf(CompletionException.class);
+        assertThat(thrown.getCause()).isInstanceOf(EmailProviderException.class);
+        return (EmailProviderException) thrown.getCause();
+    }
+
     private void stubCreated() {
         wireMock.stubFor(post(urlEqualTo(SEND_PATH)).willReturn(aResponse()
                 .withStatus(201)
@@ -0,0 +1,337 @@
+package com.hoseacodes.emailintegrator.brevo;
+
+import com.github.tomakehurst.wiremock.WireMockServer;
+import com.github.tomakehurst.wiremock.verification.LoggedRequest;
+import com.hoseacodes.emailintegrator.email.EmailAddress;
+import com.hoseacodes.emailintegrator.email.EmailProviderException;
+import com.hoseacodes.emailintegrator.email.EmailProviderException.Reason;
+import com.hoseacodes.emailintegrator.email.SendEmailCommand;
+import com.hoseacodes.emailintegrator.email.SendEmailResult;
+import org.apache.hc.client5.http.ssl.ClientTlsStrategyBuilder;
+import org.apache.hc.client5.http.ssl.NoopHostnameVerifier;
+import org.apache.hc.client5.http.ssl.TrustAllStrategy;
+import org.apache.hc.core5.concurrent.FutureCallback;
+import org.apache.hc.core5.http.HttpHost;
+import org.apache.hc.core5.http.nio.ssl.TlsStrategy;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.net.NamedEndpoint;
+import org.apache.hc.core5.reactor.ssl.TransportSecurityLayer;
+import org.apache.hc.core5.ssl.SSLContextBuilder;
+import org.apache.hc.core5.util.Timeout;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.SocketAddress;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.post;
+import static com.github.tomakehurst.wiremock.client.WireMock.postRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.options;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+/**
+ * The {@code brevo.protocol=HTTP_2} transport, against local TLS stubs.
+ *
+ * <p>Two servers: one that offers {@code h2} via ALPN, as Brevo's edge does, and one that only
+ * speaks HTTP/1.1 over TLS. The second is what makes the fallback claim testable — negotiating
+ * against a plain-{@code http} URL never reaches ALPN at all.
+ *
+ * <p>Each client is given a TLS strategy that trusts WireMock's self-signed certificate and counts
+ * handshakes. A handshake is a new connection, so the count is the number of connections the pool
+ * actually opened — the figure HTTP/2 exists to reduce.
+ */
+class BrevoHttp2TransportTest {
+
+    private static final Logger log = LoggerFactory.getLogger(BrevoHttp2TransportTest.class);
+
+    private static final String SEND_PATH = "/v3/smtp/email";
+    private static final String API_KEY = "test-api-key-not-a-real-credential";
+    private static final int CONCURRENT_SENDS = 60;
+
+    /** The adaptive limit would refuse sends beyond its initial value; these tests measure the wire. */
+    private static final BrevoProperties.ConcurrencyLimit UNLIMITED =
+            new BrevoProperties.ConcurrencyLimit(false, 0, 0, 0);
+
+    private static WireMockServer h2Server;
+    private static WireMockServer http1OnlyServer;
+
+    private final List<BrevoAsyncTransport> transports = new ArrayList<>();
+
+    @BeforeAll
+    static void startServers() {
+        h2Server = new WireMockServer(options().dynamicPort().dynamicHttpsPort()
+                .containerThreads(CONCURRENT_SENDS * 2));
+        http1OnlyServer = new WireMockServer(options().dynamicPort().dynamicHttpsPort()
+                .http2TlsDisabled(true)
+                .containerThreads(CONCURRENT_SENDS * 2));
+        h2Server.start();
+        http1OnlyServer.start();
+    }
+
+    @AfterAll
+    static void stopServers() {
+        h2Server.stop();
+        http1OnlyServer.stop();
+    }
+
+    @BeforeEach
+    void resetServers() {
+        h2Server.resetAll();
+        http1OnlyServer.resetAll();
+    }
+
+    @AfterEach
+    void closeTransports() {
+        transports.forEach(transport -> transport.close(CloseMode.IMMEDIATE));
+    }
+
+    @Nested
+    @DisplayName("negotiation")
+    class Negotiation {
+
+        @Test
+        @DisplayName("HTTP_2 speaks h2 to a server that offers it")
+        void negotiatesHttp2() {
+            stubCreated(h2Server, 0);
+
+            send(providerFor(h2Server, BrevoProperties.Protocol.HTTP_2, new CountingTlsStrategy()));
+
+            assertThat(onlyRequest(h2Server).getProtocol()).isEqualTo("HTTP/2.0");
+        }
+
+        @Test
+        @DisplayName("HTTP_2 falls back to HTTP/1.1 when ALPN does not select h2")
+        void fallsBackWithoutAlpn() {
+            stubCreated(http1OnlyServer, 0);
+
+            SendEmailResult result = send(
+                    providerFor(http1OnlyServer, BrevoProperties.Protocol.HTTP_2, new CountingTlsStrategy()));
+
+            assertThat(result.messageIds()).containsExactly("<generated@brevo>");
+            // Exactly one request reached the server: the refused HTTP/2 attempt sent nothing.
+            assertThat(onlyRequest(http1OnlyServer).getProtocol()).isEqualTo("HTTP/1.1");
+        }
+
+        @Test
+        @DisplayName("after one refusal, later sends go straight to HTTP/1.1")
+        void refusalIsRemembered() {
+            stubCreated(http1OnlyServer, 0);
+            BrevoEmailProvider provider =
+                    providerFor(http1OnlyServer, BrevoProperties.Protocol.HTTP_2, new CountingTlsStrategy());
+            assertThat(transports.get(0).protocol()).isEqualTo("HTTP/2");
+
+            send(provider);
+            send(provider);
+
+            assertThat(transports.get(0).protocol()).isEqualTo("HTTP/1.1");
+            http1OnlyServer.verify(2, postRequestedFor(urlEqualTo(SEND_PATH)));
+        }
+
+        @Test
+        @DisplayName("HTTP_2 is ignored on a plain-http base URL, where there is no ALPN")
+        void ignoredWithoutTls() {
+            BrevoProperties properties = new BrevoProperties(API_KEY, "http://localhost:" + h2Server.port(),
+                    Duration.ofSeconds(2), Duration.ofSeconds(2), 0, BrevoProperties.Protocol.HTTP_2, false, null,
+                    UNLIMITED, null);
+            BrevoAsyncTransport transport =
+                    BrevoClientConfig.brevoAsyncTransport(properties, new CountingTlsStrategy());
+            transports.add(transport);
+
+            assertThat(transport.protocol()).isEqualTo("HTTP/1.1");
+        }
+
+        @Test
+        @DisplayName("HTTP_1_1 stays on HTTP/1.1 even when the server offers h2")
+        void pinnedToHttp1() {
+            stubCreated(h2Server, 0);
+
+            send(providerFor(h2Server, BrevoProperties.Protocol.HTTP_1_1, new CountingTlsStrategy()));
+
+            assertThat(onlyRequest(h2Server).getProtocol()).isEqualTo("HTTP/1.1");
+        }
+
+        @Test
+        @DisplayName("over h2, a 503 with Retry-After is still attempted exactly once")
+        void noRetryOverHttp2() {
+            h2Server.stubFor(post(urlEqualTo(SEND_PATH)).willReturn(aResponse()
+                    .withStatus(503)
+                    .withHeader("Retry-After", "1")
+                    .withBody("{}")));
+
+            BrevoEmailProvider provider =
+                    providerFor(h2Server, BrevoProperties.Protocol.HTTP_2, new CountingTlsStrategy());
+            Throwable thrown = catchThrowable(() -> send(provider));
+
+            assertThat(thrown).isInstanceOf(CompletionException.class);
+            assertThat(((EmailProviderException) thrown.getCause()).getReason())
+                    .isEqualTo(Reason.PROVIDER_UNAVAILABLE);
+            h2Server.verify(1, postRequestedFor(urlEqualTo(SEND_PATH)));
+        }
+
+        @Test
+        @DisplayName("over h2, a 3xx is not followed")
+        void noRedirectOverHttp2() {
+            h2Server.stubFor(post(urlEqualTo(SEND_PATH)).willReturn(aResponse()
+                    .withStatus(307)
+                    .withHeader("Location", "/elsewhere")));
+
+            BrevoEmailProvider provider =
+                    providerFor(h2Server, BrevoProperties.Protocol.HTTP_2, new CountingTlsStrategy());
+            Throwable thrown = catchThrowable(() -> send(provider));
+
+            assertThat(((EmailProviderException) thrown.getCause()).getReason())
+                    .isEqualTo(Reason.REQUEST_REJECTED);
+            h2Server.verify(0, postRequestedFor(urlEqualTo("/elsewhere")));
+        }
+    }
+
+    /**
+     * The comparison the option is justified by: the same burst of slow sends over each protocol,
+     * reporting connections opened, p99 latency and throughput.
+     *
+     * <p>Only the connection count is asserted. Latency and throughput are logged for whoever is
+     * tuning, not gated on: against a loopback stub both protocols are bounded by the stub's fixed
+     * delay, and a CI machine's scheduling noise would make any threshold either meaningless or
+     * flaky. Against a real TLS endpoint across a network, the handshakes HTTP/2 avoids are where
+     * its latency advantage comes from.
+     */
+    @Nested
+    @DisplayName("comparison under a burst of slow sends")
+    class Comparison {
+
+        @Test
+        @DisplayName("HTTP/2 multiplexes the burst over far fewer connections than HTTP/1.1")
+        void http2UsesFewerConnections() {
+            stubCreated(h2Server, 200);
+
+            Run http1 = burst(BrevoProperties.Protocol.HTTP_1_1);
+            Run http2 = burst(BrevoProperties.Protocol.HTTP_2);
+
+            log.info("Brevo transport comparison, {} concurrent sends: {} | {}", CONCURRENT_SENDS, http1, http2);
+
+            // HTTP/1.1 needs a connection per concurrent send; HTTP/2 needs one, even from cold.
+            assertThat(http1.connections()).isGreaterThan(CONCURRENT_SENDS / 2);
+            assertThat(http2.connections()).isEqualTo(1);
+        }
+
+        private Run burst(BrevoProperties.Protocol protocol) {
+            CountingTlsStrategy tls = new CountingTlsStrategy();
+            BrevoEmailProvider provider = providerFor(h2Server, protocol, tls);
+
+            long startNanos = System.nanoTime();
+            List<CompletableFuture<Long>> latencies = IntStream.range(0, CONCURRENT_SENDS)
+                    .mapToObj(i -> {
+                        long sendStart = System.nanoTime();
+                        return provider.sendAsync(command()).thenApply(r -> System.nanoTime() - sendStart);
+                    })
+                    .toList();
+            long[] nanos = latencies.stream().mapToLong(CompletableFuture::join).sorted().toArray();
+            long wallNanos = System.nanoTime() - startNanos;
+
+            long p99Millis = TimeUnit.NANOSECONDS.toMillis(nanos[(int) Math.ceil(nanos.length * 0.99) - 1]);
+            double perSecond = CONCURRENT_SENDS / (wallNanos / 1e9);
+            return new Run(protocol, tls.handshakes.get(), p99Millis, perSecond);
+        }
+    }
+
+    // -- helpers -------------------------------------------------------------------------------
+
+    private record Run(BrevoProperties.Protocol protocol, int connections, long p99Millis, double perSecond) {
+        @Override
+        public String toString() {
+            return String.format("%s connections=%d p99=%dms throughput=%.0f/s",
+                    protocol, connections, p99Millis, perSecond);
+        }
+    }
+
+    private BrevoEmailProvider providerFor(WireMockServer server, BrevoProperties.Protocol protocol,
+                                           TlsStrategy tls) {
+        BrevoProperties properties = new BrevoProperties(API_KEY, "https://localhost:" + server.httpsPort(),
+                // Generous: fifty TLS handshakes at once on a loaded CI box are slow, and the
+                // comparison is about how many there are, not how quickly each completes.
+                Duration.ofSeconds(10), Duration.ofSeconds(10), 0, protocol, false, null, UNLIMITED, null);
+        BrevoAsyncTransport transport = BrevoClientConfig.brevoAsyncTransport(properties, tls);
+        transports.add(transport);
+        return new BrevoEmailProvider(new BrevoClientConfig().brevoRestClient(properties), transport, properties,
+                new AdaptiveConcurrencyLimit(properties.concurrencyLimit()), new RateLimitGate(properties.rateLimit()));
+    }
+
+    private static SendEmailResult send(BrevoEmailProvider provider) {
+        return provider.sendAsync(command()).join();
+    }
+
+    private static SendEmailCommand command() {
+        return new SendEmailCommand(
+                new EmailAddress("sender@example.com", "Example Sender"),
+                List.of(new EmailAddress("recipient@example.com", null)),
+                List.of(), List.of(), null,
+                "Subject line", "<p>Hello</p>", null,
+                List.of());
+    }
+
+    private static void stubCreated(WireMockServer server, int delayMillis) {
+        server.stubFor(post(urlEqualTo(SEND_PATH)).willReturn(aResponse()
+                .withStatus(201)
+                .withHeader("Content-Type", "application/json")
+                .withFixedDelay(delayMillis)
+                .withBody("{\"messageId\":\"<generated@brevo>\"}")));
+    }
+
+    private static LoggedRequest onlyRequest(WireMockServer server) {
+        List<LoggedRequest> requests = server.findAll(postRequestedFor(urlEqualTo(SEND_PATH)));
+        assertThat(requests).hasSize(1);
+        return requests.get(0);
+    }
+
+    /** Trusts the stub's self-signed certificate and counts handshakes, i.e. new connections. */
+    private static final class CountingTlsStrategy implements TlsStrategy {
+
+        final AtomicInteger handshakes = new AtomicInteger();
+        private final TlsStrategy delegate;
+
+        CountingTlsStrategy() {
+            try {
+                delegate = ClientTlsStrategyBuilder.create()
+                        .setSslContext(SSLContextBuilder.create()
+                                .loadTrustMaterial(TrustAllStrategy.INSTANCE)
+                                .build())
+                        .setHostnameVerifier(NoopHostnameVerifier.INSTANCE)
+                        .build();
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        @SuppressWarnings("deprecation")
+        public boolean upgrade(TransportSecurityLayer session, HttpHost host, SocketAddress localAddress,
+                               SocketAddress remoteAddress, Object attachment, Timeout handshakeTimeout) {
+            handshakes.incrementAndGet();
+            return delegate.upgrade(session, host, localAddress, remoteAddress, attachment, handshakeTimeout);
+        }
+
+        @Override
+        public void upgrade(TransportSecurityLayer session, NamedEndpoint endpoint, Object attachment,
+                            Timeout handshakeTimeout, FutureCallback<TransportSecurityLayer> callback) {
+            handshakes.incrementAndGet();
+            delegate.upgrade(session, endpoint, attachment, handshakeTimeout, callback);
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package com.hoseacodes.emailintegrator.brevo;
+
+import com.github.tomakehurst.wiremock.WireMockServer;
+import com.hoseacodes.emailintegrator.email.EmailAddress;
+import com.hoseacodes.emailintegrator.email.EmailProviderException;
+import com.hoseacodes.emailintegrator.email.EmailProviderException.Reason;
+import com.hoseacodes.emailintegrator.email.MessageVariant;
+import com.hoseacodes.emailintegrator.email.SendEmailCommand;
+import com.hoseacodes.emailintegrator.email.SendEmailResult;
+import org.apache.hc.core5.io.CloseMode;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.stream.IntStream;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.equalTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.matchingJsonPath;
+import static com.github.tomakehurst.wiremock.client.WireMock.post;
+import static com.github.tomakehurst.wiremock.client.WireMock.postRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.options;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+/**
+ * Coalescing, verified against the wire.
+ *
+ * <p>The property that matters is not that fewer requests are made — it is that every caller gets
+ * <em>its own</em> message id and nobody's mail reaches anybody else's recipients. So these tests
+ * assert on the JSON Brevo receives and on which id each future completes with, through the real
+ * {@link BrevoEmailProvider} rather than a stub of it.
+ */
+class CoalescingBrevoEmailProviderTest {
+
+    private static final String SEND_PATH = "/v3/smtp/email";
+    private static final String API_KEY = "test-api-key-not-a-real-credential";
+    private static final int MAX_VERSIONS = 3;
+
+    private static WireMockServer wireMock;
+
+    private BrevoAsyncTransport asyncTransport;
+    private CoalescingBrevoEmailProvider provider;
+
+    @BeforeAll
+    static void startServer() {
+        wireMock = new WireMockServer(options().dynamicPort());
+        wireMock.start();
+    }
+
+    @AfterAll
+    static void stopServer() {
+        wireMock.stop();
+    }
+
+    @BeforeEach
+    void setUp() {
+        wireMock.resetAll();
+        // A linger long enough that a batch only closes on size unless a test waits it out.
+        provider = providerWith(Duration.ofMillis(300));
+    }
+
+    @AfterEach
+    void tearDown() {
+        provider.flushOnShutdown();
+        asyncTransport.close(CloseMode.IMMEDIATE);
+    }
+
+    private CoalescingBrevoEmailProvider providerWith(Duration linger) {
+        BrevoProperties properties = new BrevoProperties(API_KEY, wireMock.baseUrl(),
+                Duration.ofSeconds(2), Duration.ofSeconds(2), 0, null, false,
+                new BrevoProperties.Batching(true, linger, MAX_VERSIONS), null, null);
+        BrevoClientConfig config = new BrevoClientConfig();
+        asyncTransport = config.brevoAsyncTransport(properties);
+        BrevoEmailProvider brevo =
+                new BrevoEmailProvider(config.brevoRestClient(properties), asyncTransport, properties,
+                        config.brevoConcurrencyLimit(properties), config.brevoRateLimitGate(properties));
+        return new CoalescingBrevoEmailProvider(brevo, properties);
+    }
+
+    @Nested
+    @DisplayName("coalescing")
+    class Coalescing {
+
+        @Test
+        @DisplayName("a full batch is one request with one version per caller, ids mapped back in order")
+        void fullBatchIsOneRequest() {
+            stubIds("<a@brevo>", "<b@brevo>", "<c@brevo>");
+
+            List<CompletableFuture<SendEmailResult>> futures = IntStream.range(0, MAX_VERSIONS)
+                    .mapToObj(i -> provider.sendAsync(commandTo("user" + i + "@example.com")))
+                    .toList();
+
+            assertThat(futures.get(0).join().messageIds()).containsExactly("<a@brevo>");
+            assertThat(futures.get(1).join().messageIds()).containsExactly("<b@brevo>");
+            assertThat(futures.get(2).join().messageIds()).containsExactly("<c@brevo>");
+
+            wireMock.verify(1, postRequestedFor(urlEqualTo(SEND_PATH)));
+            wireMock.verify(postRequestedFor(urlEqualTo(SEND_PATH))
+                    .withRequestBody(matchingJsonPath("$.subject", equalTo("Weekly digest")))
+                    .withRequestBody(matchingJsonPath("$.messageVersions[0].to[0].email", equalTo("user0@example.com")))
+                    .withRequestBody(matchingJsonPath("$.messageVersions[1].to[0].email", equalTo("user1@example.com")))
+                    .withRequestBody(matchingJsonPath("$.messageVersions[2].to[0].email", equalTo("user2@example.com")))
+                    // Versions inherit subject and body rather than repeating them.
+                    .withRequestBody(matchingJsonPath("$.messageVersions[?(!@[0].subject)]")));
+        }
+
+        @Test
+        @DisplayName("a batch that lingers out with one send is sent exactly as an unbatched send")
+        void loneSendIsUnchanged() {
+            stubIds("<solo@brevo>");
+
+            SendEmailResult result = provider.sendAsync(commandTo("solo@example.com")).join();
+
+            assertThat(result.messageIds()).containsExactly("<solo@brevo>");
+            wireMock.verify(postRequestedFor(urlEqualTo(SEND_PATH))
+                    .withRequestBody(matchingJsonPath("$.to[0].email", equalTo("solo@example.com")))
+                    .withRequestBody(matchingJsonPath("$[?(!@.messageVersions)]")));
+        }
+
+        @Test
+        @DisplayName("a partial batch is sent when the linger expires")
+        void partialBatchOnLinger() {
+            stubIds("<a@brevo>", "<b@brevo>");
+
+            CompletableFuture<SendEmailResult> first = provider.sendAsync(commandTo("a@example.com"));
+            CompletableFuture<SendEmailResult> second = provider.sendAsync(commandTo("b@example.com"));
+
+            assertThat(first.join().messageIds()).containsExactly("<a@brevo>");
+            assertThat(second.join().messageIds()).containsExactly("<b@brevo>");
+            wireMock.verify(1, postRequestedFor(urlEqualTo(SEND_PATH)));
+        }
+
+        @Test
+        @DisplayName("sends with different content are never merged")
+        void incompatibleSendsStayApart() {
+            stubIds("<x@brevo>");
+
+            CompletableFuture<SendEmailResult> digest = provider.sendAsync(commandTo("a@example.com"));
+            CompletableFuture<SendEmailResult> other = provider.sendAsync(new SendEmailCommand(
+                    sender(), List.of(new EmailAddress("b@example.com", null)), List.of(), List.of(), null,
+                    "A different subject", "<p>Digest</p>", null, List.of()));
+
+            digest.join();
+            other.join();
+            wireMock.verify(2, postRequestedFor(urlEqualTo(SEND_PATH)));
+            wireMock.verify(0, postRequestedFor(urlEqualTo(SEND_PATH))
+                    .withRequestBody(matchingJsonPath("$.messageVersions")));
+        }
+    }
+
+    @Nested
+    @DisplayName("eligibility")
+    class Eligibility {
+
+        @Test
+        @DisplayName("a plain single message is eligible")
+        void plainSend() {
+            assertThat(CoalescingBrevoEmailProvider.isEligible(commandTo("a@example.com"))).isTrue();
+        }
+
+        @Test
+        @DisplayName("cc or bcc would reach every caller's recipients, so it is not")
+        void copiesAreNot() {
+            SendEmailCommand withBcc = new SendEmailCommand(sender(),
+                    List.of(new EmailAddress("a@example.com", null)), List.of(),
+                    List.of(new EmailAddress("audit@example.com", null)), null,
+                    "Weekly digest", "<p>Digest</p>", null, List.of());
+
+            assertThat(CoalescingBrevoEmailProvider.isEligible(withBcc)).isFalse();
+        }
+
+        @Test
+        @DisplayName("a send that already has its own variants is not")
+        void multiVariantIsNot() {
+            SendEmailCommand variants = new SendEmailCommand(sender(), List.of(), List.of(), List.of(), null,
+                    "Weekly digest", "<p>Digest</p>", null,
+                    List.of(new MessageVariant(List.of(new EmailAddress("a@example.com", null)), null, null)));
+
+            assertThat(CoalescingBrevoEmailProvider.isEligible(variants)).isFalse();
+        }
+
+        @Test
+        @DisplayName("the blocking path bypasses batching entirely")
+        void blockingSendPassesThrough() {
+            stubIds("<now@brevo>");
+
+            SendEmailResult result = provider.send(commandTo("a@example.com"));
+
+            assertThat(result.messageIds()).containsExactly("<now@brevo>");
+            wireMock.verify(postRequestedFor(urlEqualTo(SEND_PATH))
+                    .withRequestBody(matchingJsonPath("$[?(!@.messageVersions)]")));
+        }
+    }
+
+    @Nested
+    @DisplayName("failures")
+    class Failures {
+
+        @Test
+        @DisplayName("a rejected batch fails every caller in it, attempted once")
+        void rejectionIsShared() {
+            wireMock.stubFor(post(urlEqualTo(SEND_PATH)).willReturn(aResponse()
+                    .withStatus(400)
+                    .withHeader("Content-Type", "application/json")
+                    .withBody("{\"code\":\"invalid_parameter\",\"message\":\"bad address\"}")));
+
+            List<CompletableFuture<SendEmailResult>> futures = IntStream.range(0, MAX_VERSIONS)
+                    .mapToObj(i -> provider.sendAsync(commandTo("user" + i + "@example.com")))
+                    .toList();
+
+            assertThat(futures).allSatisfy(future ->
+                    assertThat(failureOf(future).getReason()).isEqualTo(Reason.REQUEST_REJECTED));
+            wireMock.verify(1, postRequestedFor(urlEqualTo(SEND_PATH)));
+        }
+
+        @Test
+        @DisplayName("ids that cannot be attributed are possibly-sent, never handed to the wrong caller")
+        void mismatchedIds() {
+            stubIds("<only-one@brevo>", "<and-two@brevo>");
+
+            List<CompletableFuture<SendEmailResult>> futures = IntStream.range(0, MAX_VERSIONS)
+                    .mapToObj(i -> provider.sendAsync(commandTo("user" + i + "@example.com")))
+                    .toList();
+
+            assertThat(futures).allSatisfy(future -> {
+                EmailProviderException e = failureOf(future);
+                assertThat(e.getReason()).isEqualTo(Reason.PROVIDER_UNAVAILABLE);
+                assertThat(e.isSideEffectPossible()).isTrue();
+            });
+        }
+    }
+
+    // -- helpers -------------------------------------------------------------------------------
+
+    private void stubIds(String... ids) {
+        String body = ids.length == 1
+                ? "{\"messageId\":\"" + ids[0] + "\"}"
+                : "{\"messageIds\":[\"" + String.join("\",\"", ids) + "\"]}";
+        wireMock.stubFor(post(urlEqualTo(SEND_PATH)).willReturn(aResponse()
+                .withStatus(201)
+                .withHeader("Content-Type", "application/json")
+                .withBody(body)));
+    }
+
+    private static SendEmailCommand commandTo(String recipient) {
+        return new SendEmailCommand(sender(), List.of(new EmailAddress(recipient, null)),
+                List.of(), List.of(), null, "Weekly digest", "<p>Digest</p>", null, List.of());
+    }
+
+    private static EmailAddress sender() {
+        return new EmailAddress("sender@example.com", "Example Sender");
+    }
+
+    private static EmailProviderException failureOf(CompletableFuture<SendEmailResult> future) {
+        Throwable thrown = catchThrowable(future::join);
+        assertThat(thrown).isInstanceOf(CompletionException.class);
+        assertThat(thrown.getCause()).isInstanceOf(EmailProviderException.class);
+        return (EmailProviderException) thrown.getCause();
+    }
+}
@@ -0,0 +1,151 @@
+package com.hoseacodes.emailintegrator.brevo;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * The gate against a clock the test steps. Its origin is deliberately far from zero, as
+ * {@code System.nanoTime}'s may be: a gate that took zero for "not paused" would start closed.
+ */
+class RateLimitGateTest {
+
+    private static final BrevoProperties.RateLimit PAUSE_ONLY =
+            new BrevoProperties.RateLimit(0, 0, Duration.ofSeconds(2), Duration.ofMinutes(1));
+
+    private long now;
+    private RateLimitGate gate;
+
+    @BeforeEach
+    void setUp() {
+        now = -Duration.ofDays(3).toNanos();
+        gate = new RateLimitGate(PAUSE_ONLY, () -> now);
+    }
+
+    @Nested
+    @DisplayName("after a 429")
+    class Pause {
+
+        @Test
+        @DisplayName("passes everything until Brevo says otherwise")
+        void openByDefault() {
+            for (int i = 0; i < 1_000; i++) {
+                assertThat(gate.tryPass()).isNull();
+            }
+        }
+
+        @Test
+        @DisplayName("refuses with the time remaining until Retry-After, then opens")
+        void pausesForRetryAfter() {
+            gate.onRateLimited(Duration.ofSeconds(30));
+            advance(Duration.ofSeconds(12));
+
+            assertThat(gate.tryPass()).isEqualTo(Duration.ofSeconds(18));
+            assertThat(gate.refusedPaused()).isEqualTo(1);
+
+            advance(Duration.ofSeconds(18));
+            assertThat(gate.tryPass()).isNull();
+        }
+
+        @Test
+        @DisplayName("a shorter Retry-After arriving later does not reopen the gate early")
+        void onlyLengthens() {
+            gate.onRateLimited(Duration.ofSeconds(30));
+            gate.onRateLimited(Duration.ofSeconds(1));
+            advance(Duration.ofSeconds(5));
+
+            assertThat(gate.tryPass()).isEqualTo(Duration.ofSeconds(25));
+        }
+
+        @Test
+        @DisplayName("a 429 without a readable Retry-After pauses for the default")
+        void defaultPause() {
+            gate.onRateLimited(null);
+
+            assertThat(gate.tryPass()).isEqualTo(Duration.ofSeconds(2));
+        }
+
+        @Test
+        @DisplayName("no 429 pauses longer than the maximum, whatever it asks for")
+        void cappedPause() {
+            gate.onRateLimited(Duration.ofHours(20));
+
+            assertThat(gate.tryPass()).isEqualTo(Duration.ofMinutes(1));
+        }
+    }
+
+    @Nested
+    @DisplayName("pacing to the account rate")
+    class Pacing {
+
+        @BeforeEach
+        void tenPerSecond() {
+            gate = new RateLimitGate(new BrevoProperties.RateLimit(10, 5, null, null), () -> now);
+        }
+
+        @Test
+        @DisplayName("admits a burst, then refuses with the wait for the next token")
+        void burstThenRefuse() {
+            for (int i = 0; i < 5; i++) {
+                assertThat(gate.tryPass()).isNull();
+            }
+
+            assertThat(gate.tryPass()).isEqualTo(Duration.ofMillis(100));
+            assertThat(gate.refusedPaced()).isEqualTo(1);
+        }
+
+        @Test
+        @DisplayName("refills at the configured rate, never beyond the burst")
+        void refills() {
+            for (int i = 0; i < 5; i++) {
+                gate.tryPass();
+            }
+            advance(Duration.ofMillis(300));
+            int admitted = admitAll();
+            assertThat(admitted).isEqualTo(3);
+
+            advance(Duration.ofMinutes(10));
+            assertThat(admitAll()).isEqualTo(5);
+        }
+
+        private int admitAll() {
+            int admitted = 0;
+            while (gate.tryPass() == null) {
+                admitted++;
+            }
+            return admitted;
+        }
+    }
+
+    @Test
+    @DisplayName("the burst defaults to the rate rounded up")
+    void defaultBurst() {
+        assertThat(new BrevoProperties.RateLimit(2.5, 0, null, null).burst()).isEqualTo(3);
+        assertThat(new BrevoProperties.RateLimit(0.2, 0, null, null).burst()).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("counts refusals by cause")
+    void meters() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        gate.bindTo(registry);
+        gate.onRateLimited(Duration.ofSeconds(5));
+        gate.tryPass();
+        gate.tryPass();
+
+        assertThat(registry.get("brevo.rate-limit.refused").tag("cause", "retry-after")
+                .functionCounter().count()).isEqualTo(2);
+        assertThat(registry.get("brevo.rate-limit.refused").tag("cause", "rate")
+                .functionCounter().count()).isZero();
+    }
+
+    private void advance(Duration duration) {
+        now += duration.toNanos();
+    }
+}
@@ -0,0 +1,278 @@
+package com.hoseacodes.emailintegrator.brevo;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hoseacodes.emailintegrator.brevo.wire.BrevoWire;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.nio.DataStreamChannel;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.stream.IntStream;
+import java.util.zip.GZIPInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * The streamed body must be the same JSON Jackson would have produced, and must not cost a
+ * payload-sized allocation to produce.
+ *
+ * <p>The allocation figures come from the JVM's per-thread allocation counter, which counts every
+ * byte allocated on the calling thread. Producing into a channel stub on this thread therefore
+ * measures exactly what serialisation costs, without a profiler and without GC noise.
+ */
+class SendRequestBodyTest {
+
+    private static final Logger log = LoggerFactory.getLogger(SendRequestBodyTest.class);
+
+    private static final ObjectMapper JSON = Jackson2ObjectMapperBuilder.json().build();
+
+    /** A thousand versions of a ~2 KB body: about 2.5 MB of JSON. */
+    private static final int VERSIONS = 1_000;
+
+    @Nested
+    @DisplayName("output")
+    class Output {
+
+        @Test
+        @DisplayName("a single send is byte-identical to Jackson's serialisation")
+        void singleSendMatchesJackson() throws IOException {
+            BrevoWire.SendRequest request = new BrevoWire.SendRequest(
+                    new BrevoWire.Contact("sender@example.com", "Sender"),
+                    List.of(new BrevoWire.Contact("to@example.com", null)),
+                    null,
+                    List.of(new BrevoWire.Contact("bcc@example.com", "Audit")),
+                    new BrevoWire.Contact("reply@example.com", null),
+                    "Subject \"quoted\" — ünïcødé",
+                    "<p>Hello</p>",
+                    "Hello",
+                    null);
+
+            assertThat(written(request, false)).isEqualTo(JSON.writeValueAsBytes(request));
+            assertThat(produced(request, false, Integer.MAX_VALUE)).isEqualTo(JSON.writeValueAsBytes(request));
+        }
+
+        @Test
+        @DisplayName("a multi-version send is byte-identical to Jackson's serialisation")
+        void multiVersionMatchesJackson() throws IOException {
+            BrevoWire.SendRequest request = bulkRequest(VERSIONS);
+
+            assertThat(written(request, false)).isEqualTo(JSON.writeValueAsBytes(request));
+            assertThat(produced(request, false, Integer.MAX_VALUE)).isEqualTo(JSON.writeValueAsBytes(request));
+        }
+
+        @Test
+        @DisplayName("a channel that accepts a few bytes at a time still receives the whole body")
+        void partialWrites() throws IOException {
+            BrevoWire.SendRequest request = bulkRequest(50);
+
+            assertThat(produced(request, false, 777)).isEqualTo(JSON.writeValueAsBytes(request));
+        }
+
+        @Test
+        @DisplayName("gzip output decompresses to the same JSON, and is much smaller for a bulk send")
+        void gzipRoundTrip() throws IOException {
+            BrevoWire.SendRequest request = bulkRequest(VERSIONS);
+            byte[] plain = JSON.writeValueAsBytes(request);
+
+            byte[] streamed = written(request, true);
+            byte[] producedGzip = produced(request, true, 4096);
+
+            assertThat(gunzip(streamed)).isEqualTo(plain);
+            assertThat(gunzip(producedGzip)).isEqualTo(plain);
+            assertThat(producedGzip.length).isLessThan(plain.length / 10);
+        }
+
+        @Test
+        @DisplayName("the producer can be replayed from the top after releasing its resources")
+        void repeatable() throws IOException {
+            BrevoWire.SendRequest request = bulkRequest(20);
+            SendRequestBody body = new SendRequestBody(JSON, request, false);
+
+            byte[] first = drain(body, Integer.MAX_VALUE);
+            body.releaseResources();
+            byte[] second = drain(body, Integer.MAX_VALUE);
+
+            assertThat(body.isRepeatable()).isTrue();
+            assertThat(second).isEqualTo(first);
+        }
+    }
+
+    @Nested
+    @DisplayName("allocation")
+    class Allocation {
+
+        /**
+         * The measurement the streaming body exists for.
+         *
+         * <p>{@code writeValueAsBytes} allocates at least the payload twice — segments while
+         * writing, then the final array. The producer's allocation is bounded by its chunk buffer
+         * and Jackson's own per-generator buffers, so it is asserted against a small fraction of
+         * the payload rather than a fixed number, which would depend on the JDK and Jackson
+         * version.
+         */
+        @Test
+        @DisplayName("producing a 1,000-version body allocates a small fraction of its size")
+        void streamingAllocatesLittle() throws IOException {
+            BrevoWire.SendRequest request = bulkRequest(VERSIONS);
+            int payload = JSON.writeValueAsBytes(request).length;
+
+            // Warm up, so class loading and JIT do not count against either side.
+            for (int i = 0; i < 3; i++) {
+                drain(new SendRequestBody(JSON, request, false), Integer.MAX_VALUE, DISCARD);
+                JSON.writeValueAsBytes(request);
+            }
+
+            long materialised = allocatedBy(() -> JSON.writeValueAsBytes(request));
+            long streamed = allocatedBy(
+                    () -> drain(new SendRequestBody(JSON, request, false), Integer.MAX_VALUE, DISCARD));
+
+            log.info("1,000-version body: payload={} bytes, writeValueAsBytes allocated={}, streaming allocated={}",
+                    payload, materialised, streamed);
+
+            assertThat(materialised).isGreaterThanOrEqualTo(payload);
+            assertThat(streamed).isLessThan(payload / 10);
+        }
+
+        /**
+         * Each {@code writeObject} costs Jackson a serializer-provider instance, so allocation is
+         * not perfectly flat in the version count — but that cost is tens of bytes against a
+         * version body measured in kilobytes, and it does not depend on the body's size.
+         */
+        @Test
+        @DisplayName("each extra version costs a few bytes of allocation, not its own size")
+        void marginalCostPerVersion() throws IOException {
+            BrevoWire.SendRequest small = bulkRequest(100);
+            BrevoWire.SendRequest large = bulkRequest(VERSIONS);
+            for (int i = 0; i < 3; i++) {
+                drain(new SendRequestBody(JSON, small, false), Integer.MAX_VALUE, DISCARD);
+                drain(new SendRequestBody(JSON, large, false), Integer.MAX_VALUE, DISCARD);
+            }
+            int bytesPerVersion = (JSON.writeValueAsBytes(large).length - JSON.writeValueAsBytes(small).length)
+                    / (VERSIONS - 100);
+
+            long forSmall = allocatedBy(
+                    () -> drain(new SendRequestBody(JSON, small, false), Integer.MAX_VALUE, DISCARD));
+            long forLarge = allocatedBy(
+                    () -> drain(new SendRequestBody(JSON, large, false), Integer.MAX_VALUE, DISCARD));
+            long allocatedPerVersion = (forLarge - forSmall) / (VERSIONS - 100);
+
+            assertThat(allocatedPerVersion).isLessThan(bytesPerVersion / 10);
+        }
+    }
+
+    // -- helpers -------------------------------------------------------------------------------
+
+    private interface IoAction {
+        void run() throws IOException;
+    }
+
+    /** Sink for allocation runs: collecting the output would itself allocate the payload. */
+    private static final ByteArrayOutputStream DISCARD = null;
+
+    private static long allocatedBy(IoAction action) throws IOException {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(threadId);
+        action.run();
+        return threads.getThreadAllocatedBytes(threadId) - before;
+    }
+
+    private static BrevoWire.SendRequest bulkRequest(int versions) {
+        String html = "<table><tr><td>" + "Your weekly digest is ready. ".repeat(70) + "</td></tr></table>";
+        List<BrevoWire.MessageVersion> messageVersions = IntStream.range(0, versions)
+                .mapToObj(i -> new BrevoWire.MessageVersion(
+                        List.of(new BrevoWire.Contact("user" + i + "@example.com", "User " + i)),
+                        "Digest for user " + i,
+                        html.replace("Your", "User " + i + ", your")))
+                .toList();
+        return new BrevoWire.SendRequest(
+                new BrevoWire.Contact("sender@example.com", "Sender"),
+                List.of(new BrevoWire.Contact("user0@example.com", "User 0")),
+                null, null, null,
+                "Weekly digest", html, null,
+                messageVersions);
+    }
+
+    private static byte[] written(BrevoWire.SendRequest request, boolean gzip) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SendRequestBody.writeTo(JSON, request, gzip, out);
+        return out.toByteArray();
+    }
+
+    private static byte[] produced(BrevoWire.SendRequest request, boolean gzip, int maxPerWrite) throws IOException {
+        return drain(new SendRequestBody(JSON, request, gzip), maxPerWrite);
+    }
+
+    private static byte[] drain(SendRequestBody body, int maxPerWrite) throws IOException {
+        ByteArrayOutputStream received = new ByteArrayOutputStream();
+        drain(body, maxPerWrite, received);
+        return received.toByteArray();
+    }
+
+    /** Calls {@code produce} as the reactor would until the stream ends. A null sink discards. */
+    private static void drain(SendRequestBody body, int maxPerWrite, ByteArrayOutputStream sink)
+            throws IOException {
+        ChannelStub channel = new ChannelStub(maxPerWrite, sink);
+        int calls = 0;
+        while (!channel.ended) {
+            body.produce(channel);
+            if (++calls > 1_000_000) {
+                throw new AssertionError("producer never ended the stream");
+            }
+        }
+    }
+
+    private static byte[] gunzip(byte[] compressed) throws IOException {
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            return in.readAllBytes();
+        }
+    }
+
+    /** Accepts up to {@code maxPerWrite} bytes per write, the way a congested socket does. */
+    private static final class ChannelStub implements DataStreamChannel {
+
+        private final int maxPerWrite;
+        private final ByteArrayOutputStream sink;
+        boolean ended;
+
+        ChannelStub(int maxPerWrite, ByteArrayOutputStream sink) {
+            this.maxPerWrite = maxPerWrite;
+            this.sink = sink;
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            int n = Math.min(src.remaining(), maxPerWrite);
+            if (sink != null) {
+                sink.write(src.array(), src.arrayOffset() + src.position(), n);
+            }
+            src.position(src.position() + n);
+            return n;
+        }
+
+        @Override
+        public void endStream(List<? extends Header> trailers) {
+            ended = true;
+        }
+
+        @Override
+        public void endStream() {
+            ended = true;
+        }
+
+        @Override
+        public void requestOutput() {
+        }
+    }
+}
@@ -3,9 +3,12 @@ package com.hoseacodes.emailintegrator.controller;
 import com.hoseacodes.emailintegrator.email.EmailProviderException;
 import com.hoseacodes.emailintegrator.email.EmailProviderException.Reason;
 import com.hoseacodes.emailintegrator.email.SendEmailResult;
+import com.hoseacodes.emailintegrator.security.ClientRateLimitedException;
+import com.hoseacodes.emailintegrator.security.ClientRateLimiter;
 import com.hoseacodes.emailintegrator.service.EmailDeliveryService;
 import com.hoseacodes.emailintegrator.service.EmailDraft;
 import com.hoseacodes.emailintegrator.service.EmailSendingDisabledException;
+import com.hoseacodes.emailintegrator.service.IdempotencyStore;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
@@ -14,19 +17,31 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.RequestBuilder;
+import org.springframework.test.web.servlet.ResultActions;
 
 import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static java.util.concurrent.CompletableFuture.failedFuture;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.BDDMockito.given;
 import static org.mockito.BDDMockito.willThrow;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoInteractions;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 /**
@@ -48,6 +63,7 @@ import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.
  */
 @WebMvcTest(EmailController.class)
 @AutoConfigureMockMvc(addFilters = false)
+@Import(IdempotencyStore.class)
 class EmailControllerTest {
 
     @Autowired
@@ -56,6 +72,9 @@ class EmailControllerTest {
     @MockBean
     private EmailDeliveryService emailDeliveryService;
 
+    @MockBean
+    private ClientRateLimiter rateLimiter;
+
     private static final String VALID_REQUEST = """
             {
               "to": [{"email": "recipient@example.com", "name": "Recipient"}],
@@ -64,6 +83,21 @@ class EmailControllerTest {
             }
             """;
 
+    /**
+     * Performs a request and, when the controller went async, the dispatch that writes its result.
+     *
+     * <p>{@code POST /email} returns a future, so the status and body a client sees are produced
+     * by a second, {@code ASYNC} dispatch. Requests rejected before the controller runs —
+     * validation, media type — never start async processing and are returned as they are.
+     */
+    private ResultActions perform(RequestBuilder request) throws Exception {
+        ResultActions first = mockMvc.perform(request);
+        MvcResult result = first.andReturn();
+        return result.getRequest().isAsyncStarted()
+                ? mockMvc.perform(asyncDispatch(result))
+                : first;
+    }
+
     // -- success -------------------------------------------------------------------------------
 
     @Nested
@@ -73,10 +107,10 @@ class EmailControllerTest {
         @Test
         @DisplayName("returns 202 Accepted with the provider message ids")
         void acceptsValidRequest() throws Exception {
-            given(emailDeliveryService.send(any()))
-                    .willReturn(SendEmailResult.single("<abc@brevo>", "brevo"));
+            given(emailDeliveryService.sendAsync(any()))
+                    .willReturn(completedFuture(SendEmailResult.single("<abc@brevo>", "brevo")));
 
-            mockMvc.perform(post("/email")
+            perform(post("/email")
                             .contentType(MediaType.APPLICATION_JSON)
                             .content(VALID_REQUEST))
                     // 202, not 200: the provider accepted the message for processing. Actual
@@ -89,12 +123,12 @@ class EmailControllerTest {
         @Test
         @DisplayName("passes recipients through to the service without a caller-supplied sender")
         void doesNotAcceptSenderFromCaller() throws Exception {
-            given(emailDeliveryService.send(any()))
-                    .willReturn(SendEmailResult.single("<abc@brevo>", "brevo"));
+            given(emailDeliveryService.sendAsync(any()))
+                    .willReturn(completedFuture(SendEmailResult.single("<abc@brevo>", "brevo")));
 
             // A caller trying to set their own From address: the field is not part of the
             // contract, so Jackson ignores it and the configured sender is used regardless.
-            mockMvc.perform(post("/email")
+            perform(post("/email")
                             .contentType(MediaType.APPLICATION_JSON)
                             .content("""
                                     {
@@ -107,7 +141,7 @@ class EmailControllerTest {
                     .andExpect(status().isAccepted());
 
             ArgumentCaptor<EmailDraft> captor = ArgumentCaptor.forClass(EmailDraft.class);
-            org.mockito.Mockito.verify(emailDeliveryService).send(captor.capture());
+            org.mockito.Mockito.verify(emailDeliveryService).sendAsync(captor.capture());
 
             // EmailDraft has no sender field at all — the spoofing attempt cannot even be expressed.
             assertThat(captor.getValue().to()).hasSize(1);
@@ -124,7 +158,7 @@ class EmailControllerTest {
         @Test
         @DisplayName("rejects a request with no recipients and never calls the provider")
         void rejectsMissingRecipients() throws Exception {
-            mockMvc.perform(post("/email")
+            perform(post("/email")
                             .contentType(MediaType.APPLICATION_JSON)
                             .content("""
                                     {"subject": "No one to send to", "textContent": "hello"}
@@ -140,7 +174,7 @@ class EmailControllerTest {
         @Test
         @DisplayName("rejects a malformed email address and names the offending field")
         void rejectsInvalidEmail() throws Exception {
-            mockMvc.perform(post("/email")
+            perform(post("/email")
                             .contentType(MediaType.APPLICATION_JSON)
                             .content("""
                                     {
@@ -160,7 +194,7 @@ class EmailControllerTest {
         @Test
         @DisplayName("rejects a blank subject")
         void rejectsBlankSubject() throws Exception {
-            mockMvc.perform(post("/email")
+            perform(post("/email")
                             .contentType(MediaType.APPLICATION_JSON)
                             .content("""
                                     {
@@ -176,7 +210,7 @@ class EmailControllerTest {
         @Test
         @DisplayName("rejects a message with neither html nor text content")
         void rejectsEmptyBody() throws Exception {
-            mockMvc.perform(post("/email")
+            perform(post("/email")
                             .contentType(MediaType.APPLICATION_JSON)
                             .content("""
                                     {
@@ -199,7 +233,7 @@ class EmailControllerTest {
                     .mapToObj(i -> "{\"email\":\"user%d@example.com\"}".formatted(i))
                     .collect(java.util.stream.Collectors.joining(","));
 
-            mockMvc.perform(post("/email")
+            perform(post("/email")
                             .contentType(MediaType.APPLICATION_JSON)
                             .content("""
                                     {"to": [%s], "subject": "Bulk", "textContent": "hi"}
@@ -213,7 +247,7 @@ class EmailControllerTest {
         @Test
         @DisplayName("malformed JSON yields a clean 400, not a stack trace")
         void rejectsMalformedJson() throws Exception {
-            mockMvc.perform(post("/email")
+            perform(post("/email")
                             .contentType(MediaType.APPLICATION_JSON)
                             .content("{\"to\": [{\"email\": "))
                     .andExpect(status().isBadRequest())
@@ -233,11 +267,11 @@ class EmailControllerTest {
         @Test
         @DisplayName("provider auth failure is 502, never 401 — the caller's credentials were fine")
         void providerAuthFailureIsBadGateway() throws Exception {
-            willThrow(new EmailProviderException(Reason.PROVIDER_AUTH_FAILED, "brevo",
-                    "Brevo rejected our API credentials (HTTP 401)"))
-                    .given(emailDeliveryService).send(any());
+            given(emailDeliveryService.sendAsync(any())).willReturn(failedFuture(
+                    new EmailProviderException(Reason.PROVIDER_AUTH_FAILED, "brevo",
+                            "Brevo rejected our API credentials (HTTP 401)")));
 
-            mockMvc.perform(post("/email")
+            perform(post("/email")
                             .contentType(MediaType.APPLICATION_JSON)
                             .content(VALID_REQUEST))
                     .andExpect(status().isBadGateway())
@@ -250,11 +284,11 @@ class EmailControllerTest {
         @Test
         @DisplayName("rate limiting is 429 and forwards Retry-After so the caller can back off")
         void rateLimitIsForwarded() throws Exception {
-            willThrow(new EmailProviderException(Reason.RATE_LIMITED, "brevo",
-                    "rate limited", Duration.ofSeconds(30), null))
-                    .given(emailDeliveryService).send(any());
+            given(emailDeliveryService.sendAsync(any())).willReturn(failedFuture(
+                    new EmailProviderException(Reason.RATE_LIMITED, "brevo",
+                            "rate limited", Duration.ofSeconds(30), null)));
 
-            mockMvc.perform(post("/email")
+            perform(post("/email")
                             .contentType(MediaType.APPLICATION_JSON)
                             .content(VALID_REQUEST))
                     .andExpect(status().isTooManyRequests())
@@ -264,10 +298,10 @@ class EmailControllerTest {
         @Test
         @DisplayName("a timeout is 504 and warns the caller that delivery is uncertain")
         void timeoutSignalsDeliveryUncertainty() throws Exception {
-            willThrow(new EmailProviderException(Reason.TIMEOUT, "brevo", "no response in time"))
-                    .given(emailDeliveryService).send(any());
+            given(emailDeliveryService.sendAsync(any())).willReturn(failedFuture(
+                    new EmailProviderException(Reason.TIMEOUT, "brevo", "no response in time")));
 
-            mockMvc.perform(post("/email")
+            perform(post("/email")
                             .contentType(MediaType.APPLICATION_JSON)
                             .content(VALID_REQUEST))
                     .andExpect(status().isGatewayTimeout())
@@ -279,10 +313,10 @@ class EmailControllerTest {
         @Test
         @DisplayName("an unreachable provider is 503 and states plainly that nothing was sent")
         void connectFailureIsServiceUnavailable() throws Exception {
-            willThrow(new EmailProviderException(Reason.CONNECT_FAILED, "brevo", "could not connect"))
-                    .given(emailDeliveryService).send(any());
+            given(emailDeliveryService.sendAsync(any())).willReturn(failedFuture(
+                    new EmailProviderException(Reason.CONNECT_FAILED, "brevo", "could not connect")));
 
-            mockMvc.perform(post("/email")
+            perform(post("/email")
                             .contentType(MediaType.APPLICATION_JSON)
                             .content(VALID_REQUEST))
                     .andExpect(status().isServiceUnavailable())
@@ -290,12 +324,45 @@ class EmailControllerTest {
                     .andExpect(jsonPath("$.deliveryUncertain").doesNotExist());
         }
 
+        @Test
+        @DisplayName("an open circuit breaker is 503 with its own code and Retry-After")
+        void circuitOpenIsServiceUnavailable() throws Exception {
+            given(emailDeliveryService.sendAsync(any())).willReturn(failedFuture(
+                    new EmailProviderException(Reason.CIRCUIT_OPEN, "brevo",
+                            "circuit breaker is OPEN; send not attempted", Duration.ofSeconds(18), null)));
+
+            perform(post("/email")
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .content(VALID_REQUEST))
+                    .andExpect(status().isServiceUnavailable())
+                    .andExpect(jsonPath("$.code").value("PROVIDER_CIRCUIT_OPEN"))
+                    .andExpect(header().string("Retry-After", "18"))
+                    // Refused before any request was made: nothing can have been sent.
+                    .andExpect(jsonPath("$.deliveryUncertain").doesNotExist());
+        }
+
+        @Test
+        @DisplayName("a send refused at the concurrency limit is 503, not 429: the caller did nothing wrong")
+        void concurrencyLimitedIsServiceUnavailable() throws Exception {
+            given(emailDeliveryService.sendAsync(any())).willReturn(failedFuture(
+                    new EmailProviderException(Reason.CONCURRENCY_LIMITED, "brevo",
+                            "Brevo concurrency limit of 20 reached; send not attempted", Duration.ofSeconds(1), null)));
+
+            perform(post("/email")
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .content(VALID_REQUEST))
+                    .andExpect(status().isServiceUnavailable())
+                    .andExpect(jsonPath("$.code").value("PROVIDER_CONCURRENCY_LIMITED"))
+                    .andExpect(header().string("Retry-After", "1"))
+                    .andExpect(jsonPath("$.deliveryUncertain").doesNotExist());
+        }
+
         @Test
         @DisplayName("the configuration kill switch yields 503, not 500")
         void sendingDisabled() throws Exception {
-            willThrow(new EmailSendingDisabledException()).given(emailDeliveryService).send(any());
+            willThrow(new EmailSendingDisabledException()).given(emailDeliveryService).sendAsync(any());
 
-            mockMvc.perform(post("/email")
+            perform(post("/email")
                             .contentType(MediaType.APPLICATION_JSON)
                             .content(VALID_REQUEST))
                     .andExpect(status().isServiceUnavailable())
@@ -303,6 +370,155 @@ class EmailControllerTest {
         }
     }
 
+    // -- client rate limit ---------------------------------------------------------------------
+
+    @Nested
+    @DisplayName("client rate limit")
+    class ClientRateLimit {
+
+        @Test
+        @DisplayName("charges the client for every recipient the request names, variants included")
+        void chargesPerRecipient() throws Exception {
+            given(emailDeliveryService.sendAsync(any()))
+                    .willReturn(completedFuture(SendEmailResult.single("<id@brevo>", "brevo")));
+
+            perform(post("/email")
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .content("""
+                                    {
+                                      "to": [{"email": "a@example.com"}, {"email": "b@example.com"}],
+                                      "cc": [{"email": "c@example.com"}],
+                                      "bcc": [{"email": "d@example.com"}],
+                                      "subject": "Hello",
+                                      "htmlContent": "<p>Hello</p>",
+                                      "variants": [{"to": [{"email": "e@example.com"}, {"email": "f@example.com"}]}]
+                                    }
+                                    """))
+                    .andExpect(status().isAccepted());
+
+            verify(rateLimiter).acquire(6);
+        }
+
+        @Test
+        @DisplayName("a client over its limit is 429 with Retry-After rounded up, and nothing is sent")
+        void overLimitIsTooManyRequests() throws Exception {
+            willThrow(new ClientRateLimitedException("test-client", Duration.ofMillis(2_100)))
+                    .given(rateLimiter).acquire(1);
+
+            perform(post("/email")
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .content(VALID_REQUEST))
+                    .andExpect(status().isTooManyRequests())
+                    .andExpect(jsonPath("$.code").value("CLIENT_RATE_LIMITED"))
+                    .andExpect(header().string("Retry-After", "3"))
+                    .andExpect(jsonPath("$.deliveryUncertain").doesNotExist());
+
+            verifyNoInteractions(emailDeliveryService);
+        }
+    }
+
+    // -- idempotency keys ----------------------------------------------------------------------
+
+    /** The store is shared by every test in the context, so each test uses keys of its own. */
+    @Nested
+    @DisplayName("Idempotency-Key")
+    class IdempotencyKey {
+
+        private final String key = UUID.randomUUID().toString();
+
+        private RequestBuilder send(String body) {
+            return post("/email")
+                    .header(IdempotencyStore.HEADER, key)
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .content(body);
+        }
+
+        @Test
+        @DisplayName("a repeated key is answered with the first response, sends nothing and is not charged")
+        void repeatReplays() throws Exception {
+            given(emailDeliveryService.sendAsync(any()))
+                    .willReturn(completedFuture(SendEmailResult.single("<first@brevo>", "brevo")))
+                    .willReturn(completedFuture(SendEmailResult.single("<second@brevo>", "brevo")));
+
+            perform(send(VALID_REQUEST)).andExpect(status().isAccepted());
+            perform(send(VALID_REQUEST))
+                    .andExpect(status().isAccepted())
+                    .andExpect(jsonPath("$.messageIds[0]").value("<first@brevo>"));
+
+            verify(emailDeliveryService, times(1)).sendAsync(any());
+            verify(rateLimiter, times(1)).acquire(1);
+        }
+
+        @Test
+        @DisplayName("a duplicate arriving mid-send waits for the first instead of sending again")
+        void concurrentDuplicateAttaches() throws Exception {
+            CompletableFuture<SendEmailResult> inFlight = new CompletableFuture<>();
+            given(emailDeliveryService.sendAsync(any())).willReturn(inFlight);
+
+            MvcResult first = mockMvc.perform(send(VALID_REQUEST)).andExpect(request().asyncStarted()).andReturn();
+            MvcResult duplicate = mockMvc.perform(send(VALID_REQUEST)).andExpect(request().asyncStarted()).andReturn();
+            inFlight.complete(SendEmailResult.single("<only@brevo>", "brevo"));
+
+            mockMvc.perform(asyncDispatch(first)).andExpect(jsonPath("$.messageIds[0]").value("<only@brevo>"));
+            mockMvc.perform(asyncDispatch(duplicate)).andExpect(jsonPath("$.messageIds[0]").value("<only@brevo>"));
+            verify(emailDeliveryService, times(1)).sendAsync(any());
+        }
+
+        @Test
+        @DisplayName("an uncertain failure is replayed, so a retry cannot be the second copy")
+        void uncertainFailureReplayed() throws Exception {
+            given(emailDeliveryService.sendAsync(any())).willReturn(failedFuture(
+                    new EmailProviderException(Reason.TIMEOUT, "brevo", "read timed out")));
+
+            perform(send(VALID_REQUEST)).andExpect(status().isGatewayTimeout());
+            perform(send(VALID_REQUEST))
+                    .andExpect(status().isGatewayTimeout())
+                    .andExpect(jsonPath("$.deliveryUncertain").value(true));
+
+            verify(emailDeliveryService, times(1)).sendAsync(any());
+        }
+
+        @Test
+        @DisplayName("a failure that cannot have sent frees the key, so the retry is really tried")
+        void certainFailureReleased() throws Exception {
+            given(emailDeliveryService.sendAsync(any()))
+                    .willReturn(failedFuture(new EmailProviderException(Reason.CONNECT_FAILED, "brevo", "refused")))
+                    .willReturn(completedFuture(SendEmailResult.single("<retried@brevo>", "brevo")));
+
+            perform(send(VALID_REQUEST)).andExpect(status().isServiceUnavailable());
+            perform(send(VALID_REQUEST))
+                    .andExpect(status().isAccepted())
+                    .andExpect(jsonPath("$.messageIds[0]").value("<retried@brevo>"));
+        }
+
+        @Test
+        @DisplayName("a key reused for a different request is 422, and nothing is sent")
+        void reusedKeyRefused() throws Exception {
+            given(emailDeliveryService.sendAsync(any()))
+                    .willReturn(completedFuture(SendEmailResult.single("<first@brevo>", "brevo")));
+            perform(send(VALID_REQUEST)).andExpect(status().isAccepted());
+
+            perform(send(VALID_REQUEST.replace("Quarterly update", "Annual update")))
+                    .andExpect(status().isUnprocessableEntity())
+                    .andExpect(jsonPath("$.code").value("IDEMPOTENCY_KEY_REUSED"));
+
+            verify(emailDeliveryService, times(1)).sendAsync(any());
+        }
+
+        @Test
+        @DisplayName("a key that is not printable ASCII is a 400")
+        void malformedKeyRejected() throws Exception {
+            perform(post("/email")
+                            .header(IdempotencyStore.HEADER, "x".repeat(256))
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .content(VALID_REQUEST))
+                    .andExpect(status().isBadRequest())
+                    .andExpect(jsonPath("$.code").value("INVALID_REQUEST"));
+
+            verifyNoInteractions(emailDeliveryService);
+        }
+    }
+
     // -- information disclosure ----------------------------------------------------------------
 
     @Test
@@ -310,9 +526,9 @@ class EmailControllerTest {
     void unexpectedFailureDisclosesNothing() throws Exception {
         willThrow(new IllegalStateException(
                 "smtp-relay.brevo.com:587 refused credentials for account 41288"))
-                .given(emailDeliveryService).send(any());
+                .given(emailDeliveryService).sendAsync(any());
 
-        mockMvc.perform(post("/email")
+        perform(post("/email")
                         .contentType(MediaType.APPLICATION_JSON)
                         .content(VALID_REQUEST))
                 .andExpect(status().isInternalServerError())
@@ -326,10 +542,10 @@ class EmailControllerTest {
     @Test
     @DisplayName("every error response carries the same contract fields")
     void errorContractIsConsistent() throws Exception {
-        willThrow(new EmailProviderException(Reason.PROVIDER_UNAVAILABLE, "brevo", "boom"))
-                .given(emailDeliveryService).send(any());
+        given(emailDeliveryService.sendAsync(any())).willReturn(failedFuture(
+                new EmailProviderException(Reason.PROVIDER_UNAVAILABLE, "brevo", "boom")));
 
-        mockMvc.perform(post("/email")
+        perform(post("/email")
                         .contentType(MediaType.APPLICATION_JSON)
                         .content(VALID_REQUEST))
                 .andExpect(jsonPath("$.timestamp").exists())
@@ -344,9 +560,9 @@ class EmailControllerTest {
     @DisplayName("no error response ever contains a stack trace")
     void noStackTracesLeak() throws Exception {
         willThrow(new RuntimeException("internal failure", new IllegalStateException("root cause")))
-                .given(emailDeliveryService).send(any());
+                .given(emailDeliveryService).sendAsync(any());
 
-        String body = mockMvc.perform(post("/email")
+        String body = perform(post("/email")
                         .contentType(MediaType.APPLICATION_JSON)
                         .content(VALID_REQUEST))
                 .andExpect(status().isInternalServerError())
@@ -361,7 +577,7 @@ class EmailControllerTest {
     @Test
     @DisplayName("unsupported media type is rejected before parsing")
     void rejectsNonJsonContentType() throws Exception {
-        mockMvc.perform(post("/email")
+        perform(post("/email")
                         .contentType(MediaType.TEXT_PLAIN)
                         .content("to=someone@example.com"))
                 .andExpect(status().isUnsupportedMediaType());
@@ -4,7 +4,11 @@ import com.hoseacodes.emailintegrator.controller.dto.TemplatedEmailRequest;
 import com.hoseacodes.emailintegrator.email.EmailProviderException;
 import com.hoseacodes.emailintegrator.email.EmailProviderException.Reason;
 import com.hoseacodes.emailintegrator.email.SendEmailResult;
+import com.hoseacodes.emailintegrator.security.ClientRateLimitedException;
+import com.hoseacodes.emailintegrator.security.ClientRateLimiter;
 import com.hoseacodes.emailintegrator.service.ApprovalTokenService;
+import com.hoseacodes.emailintegrator.service.ConsumedTokenStore;
+import com.hoseacodes.emailintegrator.service.IdempotencyStore;
 import com.hoseacodes.emailintegrator.service.UserApprovalEmailService;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Nested;
@@ -14,15 +18,23 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
 
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
 import java.util.Map;
+import java.util.UUID;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.BDDMockito.given;
 import static org.mockito.BDDMockito.willThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoInteractions;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
@@ -38,9 +50,12 @@ import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.
  * without a key — are asserted against the real filter chain in {@code ApiKeySecurityTest}.
  */
 @WebMvcTest(UserApprovalController.class)
+@Import(IdempotencyStore.class)
 @AutoConfigureMockMvc(addFilters = false)
 class UserApprovalControllerTest {
 
+    private static final Date EXPIRY = Date.from(Instant.parse("2026-01-06T09:00:00Z"));
+
     @Autowired
     private MockMvc mockMvc;
 
@@ -50,6 +65,12 @@ class UserApprovalControllerTest {
     @MockBean
     private UserApprovalEmailService userApprovalEmailService;
 
+    @MockBean
+    private ConsumedTokenStore consumedTokens;
+
+    @MockBean
+    private ClientRateLimiter rateLimiter;
+
     private void givenSendSucceeds() {
         given(userApprovalEmailService.send(any()))
                 .willReturn(SendEmailResult.single("<id@smtp>", "gmail-smtp"));
@@ -193,6 +214,45 @@ class UserApprovalControllerTest {
                     .andExpect(status().isBadGateway())
                     .andExpect(jsonPath("$.deliveryUncertain").value(true));
         }
+
+        @Test
+        @DisplayName("a client over its rate limit is refused before the template is rendered")
+        void overLimitRefusedBeforeRendering() throws Exception {
+            willThrow(new ClientRateLimitedException("test-client", Duration.ofSeconds(4)))
+                    .given(rateLimiter).acquire(1);
+
+            mockMvc.perform(post("/auth/send-email")
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .content("""
+                                    {"templateType": "denied", "email": "user@example.com", "name": "Alex"}
+                                    """))
+                    .andExpect(status().isTooManyRequests())
+                    .andExpect(jsonPath("$.code").value("CLIENT_RATE_LIMITED"));
+
+            verifyNoInteractions(userApprovalEmailService);
+        }
+
+        @Test
+        @DisplayName("a repeated Idempotency-Key is answered with the first response and renders nothing")
+        void repeatedKeyReplays() throws Exception {
+            given(userApprovalEmailService.send(any()))
+                    .willReturn(SendEmailResult.single("<first@smtp>", "gmail-smtp"))
+                    .willReturn(SendEmailResult.single("<second@smtp>", "gmail-smtp"));
+            String key = UUID.randomUUID().toString();
+
+            for (int i = 0; i < 2; i++) {
+                mockMvc.perform(post("/auth/send-email")
+                                .header(IdempotencyStore.HEADER, key)
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .content("""
+                                        {"templateType": "denied", "email": "user@example.com", "name": "Alex"}
+                                        """))
+                        .andExpect(status().isAccepted())
+                        .andExpect(jsonPath("$.messageIds[0]").value("<first@smtp>"));
+            }
+
+            verify(userApprovalEmailService, times(1)).send(any());
+        }
     }
 
     // -- token-based decisions -------------------------------------------------------------------
@@ -250,6 +310,48 @@ class UserApprovalControllerTest {
             verifyNoInteractions(userApprovalEmailService);
         }
 
+        @Test
+        @DisplayName("a token that has already been used is a 409, and nothing is sent")
+        void refusesUsedToken() throws Exception {
+            given(approvalTokenService.verifyApprovalTokenWithClaims("used-token")).willReturn(claimsWithId());
+            given(consumedTokens.consume(7L, EXPIRY.toInstant())).willReturn(false);
+
+            mockMvc.perform(get("/auth/deny").param("token", "used-token"))
+                    .andExpect(status().isConflict());
+
+            verifyNoInteractions(userApprovalEmailService);
+        }
+
+        @Test
+        @DisplayName("a failed send releases the token so the link can be tried again")
+        void failedSendReleasesToken() throws Exception {
+            given(approvalTokenService.verifyApprovalTokenWithClaims("good-token")).willReturn(claimsWithId());
+            given(consumedTokens.consume(7L, EXPIRY.toInstant())).willReturn(true);
+            willThrow(new EmailProviderException(Reason.CONNECT_FAILED, "gmail-smtp", "refused"))
+                    .given(userApprovalEmailService).send(any());
+
+            mockMvc.perform(get("/auth/approve").param("token", "good-token"));
+
+            verify(consumedTokens).release(7L, EXPIRY.toInstant());
+        }
+
+        @Test
+        @DisplayName("a send that may have delivered keeps the token consumed")
+        void uncertainSendKeepsToken() throws Exception {
+            given(approvalTokenService.verifyApprovalTokenWithClaims("good-token")).willReturn(claimsWithId());
+            given(consumedTokens.consume(7L, EXPIRY.toInstant())).willReturn(true);
+            willThrow(new EmailProviderException(Reason.TIMEOUT, "gmail-smtp", "no reply"))
+                    .given(userApprovalEmailService).send(any());
+
+            mockMvc.perform(get("/auth/approve").param("token", "good-token"));
+
+            verify(consumedTokens, never()).release(anyLong(), any());
+        }
+
+        private Map<String, Object> claimsWithId() {
+            return Map.of("email", "user@example.com", "name", "Alex", "jti", 7L, "expiration", EXPIRY);
+        }
+
         @Test
         @DisplayName("a missing token parameter is a 400, not a 500")
         void missingTokenParameter() throws Exception {
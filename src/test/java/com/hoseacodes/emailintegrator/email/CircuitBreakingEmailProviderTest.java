@@ -0,0 +1,296 @@
+package com.hoseacodes.emailintegrator.email;
+
+import com.hoseacodes.emailintegrator.email.CircuitBreakingEmailProvider.State;
+import com.hoseacodes.emailintegrator.email.EmailProviderException.Reason;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+import static org.assertj.core.api.Assertions.catchThrowableOfType;
+
+/**
+ * The breaker's state machine, driven through a scripted provider and a clock the test steps.
+ *
+ * <p>Every assertion that matters is about the delegate: whether it was called. A breaker that
+ * reports OPEN but still lets sends through protects nothing, so {@code calls} is checked as
+ * often as the state.
+ */
+class CircuitBreakingEmailProviderTest {
+
+    private static final Duration OPEN_FOR = Duration.ofSeconds(30);
+
+    /** Window of 10, acted on from 4 calls, opens at 50%, two probes. */
+    private static final CircuitBreakerProperties SETTINGS =
+            new CircuitBreakerProperties(true, 10, 4, 50, OPEN_FOR, 2);
+
+    private ScriptedProvider delegate;
+    private long now;
+    private CircuitBreakingEmailProvider breaker;
+
+    @BeforeEach
+    void setUp() {
+        delegate = new ScriptedProvider();
+        now = 0;
+        breaker = new CircuitBreakingEmailProvider(delegate, SETTINGS, () -> now);
+    }
+
+    @Nested
+    @DisplayName("closed")
+    class Closed {
+
+        @Test
+        @DisplayName("opens once the failure rate reaches the threshold over the minimum calls")
+        void opensAtThreshold() {
+            succeed(2);
+            fail(Reason.CONNECT_FAILED, 1);
+            assertThat(breaker.snapshot().state()).isEqualTo(State.CLOSED);
+
+            fail(Reason.PROVIDER_UNAVAILABLE, 1);
+
+            assertThat(breaker.snapshot().state()).isEqualTo(State.OPEN);
+        }
+
+        @Test
+        @DisplayName("does not act on fewer than the minimum calls, however many failed")
+        void minimumCalls() {
+            fail(Reason.CONNECT_FAILED, 3);
+
+            assertThat(breaker.snapshot().state()).isEqualTo(State.CLOSED);
+            assertThat(breaker.snapshot().failureRate()).isEqualTo(-1);
+        }
+
+        @ParameterizedTest
+        @EnumSource(value = Reason.class, names = {"REQUEST_REJECTED", "PROVIDER_AUTH_FAILED", "RATE_LIMITED"})
+        @DisplayName("answers from a provider that is up never open it")
+        void answersDoNotCount(Reason reason) {
+            fail(reason, 10);
+
+            assertThat(breaker.snapshot().state()).isEqualTo(State.CLOSED);
+            assertThat(breaker.snapshot().failedCalls()).isZero();
+        }
+
+        @Test
+        @DisplayName("a timeout counts: a provider that never answers is the costliest outage")
+        void timeoutsCount() {
+            fail(Reason.TIMEOUT, 4);
+
+            assertThat(breaker.snapshot().state()).isEqualTo(State.OPEN);
+        }
+
+        @Test
+        @DisplayName("old failures slide out of the window")
+        void windowSlides() {
+            succeed(5);
+            fail(Reason.CONNECT_FAILED, 2);
+            assertThat(breaker.snapshot().failedCalls()).isEqualTo(2);
+
+            succeed(10);
+
+            assertThat(breaker.snapshot().failedCalls()).isZero();
+            assertThat(breaker.snapshot().bufferedCalls()).isEqualTo(10);
+        }
+
+        @Test
+        @DisplayName("a send still in flight when it opens does not report into the new state")
+        void staleOutcomesIgnored() {
+            succeed(3);
+            CompletableFuture<SendEmailResult> slow = delegate.hold();
+            CompletableFuture<SendEmailResult> inFlight = breaker.sendAsync(command());
+            fail(Reason.CONNECT_FAILED, 3);
+            assertThat(breaker.snapshot().state()).isEqualTo(State.OPEN);
+
+            slow.complete(new SendEmailResult(List.of("<late@test>"), "scripted"));
+            inFlight.join();
+
+            // A success from before the outage says nothing about recovery.
+            assertThat(breaker.snapshot().bufferedCalls()).isZero();
+        }
+    }
+
+    @Nested
+    @DisplayName("open")
+    class Open {
+
+        @BeforeEach
+        void trip() {
+            fail(Reason.CONNECT_FAILED, 4);
+            delegate.calls = 0;
+        }
+
+        @Test
+        @DisplayName("refuses without calling the provider, as CIRCUIT_OPEN with the time left")
+        void refusesFast() {
+            now += Duration.ofSeconds(12).toNanos() + 1;
+
+            EmailProviderException e = catchThrowableOfType(
+                    () -> breaker.send(command()), EmailProviderException.class);
+
+            assertThat(delegate.calls).isZero();
+            assertThat(e.getReason()).isEqualTo(Reason.CIRCUIT_OPEN);
+            assertThat(e.isSideEffectPossible()).isFalse();
+            // 17.999...s left, rounded up so the caller does not come back early.
+            assertThat(e.getRetryAfter()).isEqualTo(Duration.ofSeconds(18));
+            assertThat(breaker.snapshot().rejectedCalls()).isEqualTo(1);
+        }
+
+        @Test
+        @DisplayName("refuses asynchronous sends with a failed future, not a thrown exception")
+        void refusesAsync() {
+            CompletableFuture<SendEmailResult> future = breaker.sendAsync(command());
+
+            assertThat(delegate.calls).isZero();
+            assertThat(failureOf(future).getReason()).isEqualTo(Reason.CIRCUIT_OPEN);
+        }
+    }
+
+    @Nested
+    @DisplayName("half-open")
+    class HalfOpen {
+
+        @BeforeEach
+        void tripAndWait() {
+            fail(Reason.CONNECT_FAILED, 4);
+            now += OPEN_FOR.toNanos();
+            delegate.calls = 0;
+        }
+
+        @Test
+        @DisplayName("lets only the configured number of probes through at once")
+        void limitsProbes() {
+            delegate.hold();
+            delegate.hold();
+            CompletableFuture<SendEmailResult> first = breaker.sendAsync(command());
+            CompletableFuture<SendEmailResult> second = breaker.sendAsync(command());
+            CompletableFuture<SendEmailResult> third = breaker.sendAsync(command());
+
+            assertThat(delegate.calls).isEqualTo(2);
+            assertThat(first).isNotDone();
+            assertThat(second).isNotDone();
+            assertThat(failureOf(third).getReason()).isEqualTo(Reason.CIRCUIT_OPEN);
+            assertThat(failureOf(third).getRetryAfter()).isEqualTo(Duration.ofSeconds(1));
+            assertThat(breaker.snapshot().state()).isEqualTo(State.HALF_OPEN);
+        }
+
+        @Test
+        @DisplayName("closes with an empty window when every probe succeeds")
+        void closesOnSuccess() {
+            succeed(2);
+
+            assertThat(breaker.snapshot().state()).isEqualTo(State.CLOSED);
+            assertThat(breaker.snapshot().bufferedCalls()).isZero();
+        }
+
+        @Test
+        @DisplayName("reopens for a full period on the first failed probe")
+        void reopensOnFailure() {
+            succeed(1);
+            fail(Reason.PROVIDER_UNAVAILABLE, 1);
+
+            assertThat(breaker.snapshot().state()).isEqualTo(State.OPEN);
+            assertThat(breaker.snapshot().retryAfter()).isEqualTo(OPEN_FOR);
+        }
+
+        @Test
+        @DisplayName("a probe that ends in a non-provider error frees its slot")
+        void bugFreesProbeSlot() {
+            delegate.script.add(new IllegalStateException("bug"));
+            catchThrowable(() -> breaker.send(command()));
+
+            succeed(2);
+
+            assertThat(breaker.snapshot().state()).isEqualTo(State.CLOSED);
+        }
+    }
+
+    @Test
+    @DisplayName("disabled, it is a pass-through that never opens")
+    void disabled() {
+        breaker = new CircuitBreakingEmailProvider(delegate,
+                new CircuitBreakerProperties(false, 10, 4, 50, OPEN_FOR, 2), () -> now);
+
+        fail(Reason.CONNECT_FAILED, 20);
+
+        assertThat(delegate.calls).isEqualTo(20);
+        assertThat(breaker.snapshot().enabled()).isFalse();
+        assertThat(breaker.snapshot().state()).isEqualTo(State.CLOSED);
+    }
+
+    // -- helpers -------------------------------------------------------------------------------
+
+    private void succeed(int times) {
+        for (int i = 0; i < times; i++) {
+            breaker.send(command());
+        }
+    }
+
+    private void fail(Reason reason, int times) {
+        for (int i = 0; i < times; i++) {
+            delegate.script.add(new EmailProviderException(reason, "scripted", "scripted failure"));
+            catchThrowable(() -> breaker.send(command()));
+        }
+    }
+
+    private static EmailProviderException failureOf(CompletableFuture<SendEmailResult> future) {
+        Throwable thrown = catchThrowable(future::join);
+        assertThat(thrown).isInstanceOf(CompletionException.class);
+        assertThat(thrown.getCause()).isInstanceOf(EmailProviderException.class);
+        return (EmailProviderException) thrown.getCause();
+    }
+
+    private static SendEmailCommand command() {
+        return new SendEmailCommand(new EmailAddress("sender@example.com", null),
+                List.of(new EmailAddress("to@example.com", null)), List.of(), List.of(), null,
+                "Subject", "<p>Body</p>", null, List.of());
+    }
+
+    /**
+     * Succeeds unless a failure is scripted. {@link #hold} makes the next async send return a
+     * future the test completes itself.
+     */
+    private static final class ScriptedProvider implements EmailProvider {
+
+        final List<RuntimeException> script = new ArrayList<>();
+        final List<CompletableFuture<SendEmailResult>> held = new ArrayList<>();
+        int calls;
+
+        CompletableFuture<SendEmailResult> hold() {
+            CompletableFuture<SendEmailResult> future = new CompletableFuture<>();
+            held.add(future);
+            return future;
+        }
+
+        @Override
+        public SendEmailResult send(SendEmailCommand command) {
+            calls++;
+            if (!script.isEmpty()) {
+                throw script.remove(0);
+            }
+            return new SendEmailResult(List.of("<ok@test>"), "scripted");
+        }
+
+        @Override
+        public CompletableFuture<SendEmailResult> sendAsync(SendEmailCommand command) {
+            if (!held.isEmpty()) {
+                calls++;
+                return held.remove(0);
+            }
+            return EmailProvider.super.sendAsync(command);
+        }
+
+        @Override
+        public String name() {
+            return "scripted";
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package com.hoseacodes.emailintegrator.email;
+
+import com.hoseacodes.emailintegrator.email.EmailProviderException.Reason;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+import static org.assertj.core.api.Assertions.catchThrowableOfType;
+
+/**
+ * The router over two scripted providers and a clock the test steps. Each provider advances the
+ * clock by its own latency on every call, so the router's latency figures come from the same
+ * place they do in production: the time a send took.
+ *
+ * <p>The assertions that matter are the {@code calls} counts. A router that picks the right
+ * provider but also calls the wrong one has duplicated a message.
+ */
+class RoutingEmailProviderTest {
+
+    private static final Duration RECOVERY = Duration.ofSeconds(30);
+
+    private long now;
+    private ScriptedProvider brevo;
+    private ScriptedProvider smtp;
+    private RoutingEmailProvider router;
+
+    @BeforeEach
+    void setUp() {
+        now = 0;
+        brevo = new ScriptedProvider("brevo", Duration.ofMillis(100), true);
+        smtp = new ScriptedProvider("smtp", Duration.ofMillis(200), false);
+        router = new RoutingEmailProvider(List.of(brevo, smtp), new RoutingProperties(true, RECOVERY), () -> now);
+    }
+
+    @Test
+    @DisplayName("sends through the first provider while it is healthy")
+    void prefersFirst() {
+        for (int i = 0; i < 10; i++) {
+            assertThat(router.send(command()).provider()).isEqualTo("brevo");
+        }
+
+        assertThat(brevo.calls).isEqualTo(10);
+        assertThat(smtp.calls).isZero();
+    }
+
+    @Nested
+    @DisplayName("failing over")
+    class FailingOver {
+
+        @ParameterizedTest
+        @EnumSource(value = Reason.class,
+                names = {"CONNECT_FAILED", "PROVIDER_AUTH_FAILED", "RATE_LIMITED", "CIRCUIT_OPEN",
+                        "CONCURRENCY_LIMITED"})
+        @DisplayName("moves on when the first provider certainly did not send")
+        void failsOverWhenNothingWasSent(Reason reason) {
+            brevo.fail(reason);
+
+            assertThat(router.send(command()).provider()).isEqualTo("smtp");
+            assertThat(brevo.calls).isEqualTo(1);
+            assertThat(smtp.calls).isEqualTo(1);
+        }
+
+        @ParameterizedTest
+        @EnumSource(value = Reason.class, names = {"TIMEOUT", "PROVIDER_UNAVAILABLE", "REQUEST_REJECTED"})
+        @DisplayName("never moves on when the first provider may have sent, or refused the message itself")
+        void neverFailsOverWhenItMayHaveSent(Reason reason) {
+            EmailProviderException scripted = brevo.fail(reason);
+
+            assertThat(catchThrowable(() -> router.send(command()))).isSameAs(scripted);
+            // A second send after a timeout is a duplicate in the recipient's inbox.
+            assertThat(smtp.calls).isZero();
+        }
+
+        @Test
+        @DisplayName("every side-effect-possible reason is one it will not fail over on")
+        void sideEffectPossibleNeverFailsOver() {
+            for (Reason reason : Reason.values()) {
+                if (reason.isSideEffectPossible()) {
+                    assertThat(RoutingEmailProvider.failsOver(reason)).as(reason.name()).isFalse();
+                }
+            }
+        }
+
+        @Test
+        @DisplayName("when every provider fails, the last failure is thrown with the earlier attached")
+        void allFail() {
+            EmailProviderException first = brevo.fail(Reason.CONNECT_FAILED);
+            EmailProviderException last = smtp.fail(Reason.PROVIDER_AUTH_FAILED);
+
+            Throwable thrown = catchThrowable(() -> router.send(command()));
+
+            assertThat(thrown).isSameAs(last);
+            assertThat(thrown.getSuppressed()).containsExactly(first);
+        }
+
+        @Test
+        @DisplayName("a command only one provider supports is never offered to the other")
+        void unsupportedCommandIsNotFailedOver() {
+            EmailProviderException scripted = brevo.fail(Reason.CONNECT_FAILED);
+
+            assertThat(catchThrowable(() -> router.send(variantCommand()))).isSameAs(scripted);
+            assertThat(smtp.calls).isZero();
+        }
+    }
+
+    @Nested
+    @DisplayName("choosing a provider")
+    class Choosing {
+
+        @Test
+        @DisplayName("prefers the second provider once the first keeps failing, and returns after recovery")
+        void switchesAndRecovers() {
+            for (int i = 0; i < 5; i++) {
+                router.send(command());
+            }
+            for (int i = 0; i < 5; i++) {
+                brevo.fail(Reason.CONNECT_FAILED);
+                assertThat(router.send(command()).provider()).isEqualTo("smtp");
+            }
+            int brevoCalls = brevo.calls;
+
+            // Tried first now, so Brevo is not asked at all.
+            assertThat(router.send(command()).provider()).isEqualTo("smtp");
+            assertThat(brevo.calls).isEqualTo(brevoCalls);
+
+            now += RECOVERY.toNanos();
+
+            assertThat(router.send(command()).provider()).isEqualTo("brevo");
+        }
+
+        @Test
+        @DisplayName("a rejected message is an answer, not a mark against the provider")
+        void rejectionsDoNotCount() {
+            for (int i = 0; i < 20; i++) {
+                brevo.fail(Reason.REQUEST_REJECTED);
+                catchThrowable(() -> router.send(command()));
+            }
+
+            assertThat(router.send(command()).provider()).isEqualTo("brevo");
+            assertThat(smtp.calls).isZero();
+        }
+
+        @Test
+        @DisplayName("a provider that cannot take a command is skipped, not failed")
+        void unsupportedIsSkipped() {
+            assertThat(router.send(variantCommand()).provider()).isEqualTo("brevo");
+            assertThat(smtp.calls).isZero();
+
+            RoutingEmailProvider smtpOnly = new RoutingEmailProvider(List.of(smtp),
+                    new RoutingProperties(true, RECOVERY), () -> now);
+            assertThat(catchThrowableOfType(() -> smtpOnly.send(variantCommand()), EmailProviderException.class)
+                    .getReason()).isEqualTo(Reason.REQUEST_REJECTED);
+            assertThat(smtp.calls).isZero();
+        }
+    }
+
+    @Nested
+    @DisplayName("asynchronous sends")
+    class Async {
+
+        @Test
+        @DisplayName("fail over the same way")
+        void failsOver() {
+            brevo.fail(Reason.CIRCUIT_OPEN);
+
+            assertThat(router.sendAsync(command()).join().provider()).isEqualTo("smtp");
+            assertThat(smtp.calls).isEqualTo(1);
+        }
+
+        @Test
+        @DisplayName("and never on a failure that may have sent")
+        void neverFailsOverOnTimeout() {
+            EmailProviderException scripted = brevo.fail(Reason.TIMEOUT);
+
+            Throwable thrown = catchThrowable(() -> router.sendAsync(command()).join());
+
+            assertThat(thrown).isInstanceOf(CompletionException.class);
+            assertThat(thrown.getCause()).isSameAs(scripted);
+            assertThat(smtp.calls).isZero();
+        }
+    }
+
+    // -- helpers -------------------------------------------------------------------------------
+
+    private static SendEmailCommand command() {
+        return new SendEmailCommand(new EmailAddress("sender@example.com", null),
+                List.of(new EmailAddress("to@example.com", null)), List.of(), List.of(), null,
+                "Subject", "<p>Body</p>", null, List.of());
+    }
+
+    private static SendEmailCommand variantCommand() {
+        return new SendEmailCommand(new EmailAddress("sender@example.com", null),
+                List.of(), List.of(), List.of(), null, "Subject", "<p>Body</p>", null,
+                List.of(new MessageVariant(List.of(new EmailAddress("to@example.com", null)), null, null)));
+    }
+
+    /** Succeeds unless a failure is scripted; either way, takes its latency off the test clock. */
+    private final class ScriptedProvider implements EmailProvider {
+
+        final String name;
+        final long latencyNanos;
+        final boolean variants;
+        final List<EmailProviderException> script = new ArrayList<>();
+        int calls;
+
+        ScriptedProvider(String name, Duration latency, boolean variants) {
+            this.name = name;
+            this.latencyNanos = latency.toNanos();
+            this.variants = variants;
+        }
+
+        EmailProviderException fail(Reason reason) {
+            EmailProviderException failure = new EmailProviderException(reason, name, "scripted failure");
+            script.add(failure);
+            return failure;
+        }
+
+        @Override
+        public SendEmailResult send(SendEmailCommand command) {
+            calls++;
+            now += latencyNanos;
+            if (!script.isEmpty()) {
+                throw script.remove(0);
+            }
+            return new SendEmailResult(List.of("<ok@test>"), name);
+        }
+
+        @Override
+        public CompletableFuture<SendEmailResult> sendAsync(SendEmailCommand command) {
+            // Asynchronously, as a real transport would: failures arrive wrapped.
+            return CompletableFuture.supplyAsync(() -> send(command), Runnable::run);
+        }
+
+        @Override
+        public boolean supports(SendEmailCommand command) {
+            return variants || !command.isMultiVariant();
+        }
+
+        @Override
+        public String name() {
+            return name;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.hoseacodes.emailintegrator.security;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Key resolution in isolation. The filter's place in the chain — which endpoints need a key, and
+ * what a caller without one sees — is asserted in {@code ApiKeySecurityTest}.
+ */
+class ApiKeyAuthenticationFilterTest {
+
+    private static final Logger log = LoggerFactory.getLogger(ApiKeyAuthenticationFilterTest.class);
+
+    private static final String KEY_A = "client-a-key-0123456789abcdef0123456789abcdef";
+    private static final String KEY_B = "client-b-key-0123456789abcdef0123456789abcdef";
+
+    private final ApiKeyAuthenticationFilter filter = new ApiKeyAuthenticationFilter(
+            new ApiKeyProperties(Map.of("a", KEY_A, "b", KEY_B), null));
+
+    @AfterEach
+    void clearContext() {
+        SecurityContextHolder.clearContext();
+    }
+
+    @Test
+    @DisplayName("resolves each key to its own client, and anything else to nobody")
+    void resolves() {
+        assertThat(filter.resolveClient(KEY_A).getName()).isEqualTo("a");
+        assertThat(filter.resolveClient(KEY_B).getName()).isEqualTo("b");
+        assertThat(filter.resolveClient(KEY_A.substring(0, KEY_A.length() - 1))).isNull();
+        assertThat(filter.resolveClient(KEY_A + " ")).isNull();
+        assertThat(filter.resolveClient("")).isNull();
+    }
+
+    @Test
+    @DisplayName("every request from a client shares one immutable, credential-free authentication")
+    void sharesAuthentication() throws Exception {
+        Authentication first = authenticate(KEY_A);
+        Authentication second = authenticate(KEY_A);
+
+        assertThat(second).isSameAs(first);
+        assertThat(first.isAuthenticated()).isTrue();
+        assertThat(first.getCredentials()).isNull();
+        assertThat(first.getAuthorities()).extracting(Object::toString)
+                .containsExactly(ApiKeyAuthenticationFilter.ROLE_API_CLIENT);
+        assertThatThrownBy(() -> first.setAuthenticated(false)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    @DisplayName("two clients with the same key fail startup")
+    void refusesSharedKey() {
+        assertThatThrownBy(() -> new ApiKeyAuthenticationFilter(
+                new ApiKeyProperties(Map.of("a", KEY_A, "b", KEY_A), null)))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("have the same key");
+    }
+
+    @Test
+    @Tag("benchmark")
+    @DisplayName("benchmark: resolving a key with 1, 100 and 10,000 clients, against comparing with each")
+    void benchmark() {
+        for (int clients : new int[]{1, 100, 10_000}) {
+            Map<String, String> keys = new HashMap<>();
+            for (int i = 0; i < clients; i++) {
+                keys.put("client-" + i, "benchmark-key-%08d-0123456789abcdef0123456789".formatted(i));
+            }
+            ApiKeyAuthenticationFilter indexed = new ApiKeyAuthenticationFilter(new ApiKeyProperties(keys, null));
+            String presented = keys.get("client-" + (clients - 1));
+
+            long indexedNanos = nanosPer(200_000, () -> indexed.resolveClient(presented) != null);
+            // Fewer runs as there are more clients: each one walks all of them.
+            long linearNanos = nanosPer(Math.max(200, 2_000_000 / clients),
+                    () -> compareWithEach(keys, presented) != null);
+
+            log.info("API key resolution, {} clients: {} ns indexed, {} ns comparing with each",
+                    clients, indexedNanos, linearNanos);
+            assertThat(indexed.resolveClient(presented).getName()).isEqualTo("client-" + (clients - 1));
+        }
+    }
+
+    private Authentication authenticate(String key) throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/email");
+        request.addHeader("X-API-Key", key);
+        filter.doFilter(request, new MockHttpServletResponse(), new MockFilterChain());
+        return SecurityContextHolder.getContext().getAuthentication();
+    }
+
+    private static long nanosPer(int runs, BooleanSupplier resolve) {
+        for (int i = 0; i < runs; i++) {
+            resolve.getAsBoolean();
+        }
+        long began = System.nanoTime();
+        int found = 0;
+        for (int i = 0; i < runs; i++) {
+            found += resolve.getAsBoolean() ? 1 : 0;
+        }
+        long nanos = (System.nanoTime() - began) / runs;
+        assertThat(found).isEqualTo(runs);
+        return nanos;
+    }
+
+    /** What the filter did before keys were indexed. */
+    private static String compareWithEach(Map<String, String> keys, String presentedKey) {
+        byte[] presented = presentedKey.getBytes(StandardCharsets.UTF_8);
+        String matched = null;
+        for (Map.Entry<String, String> entry : keys.entrySet()) {
+            if (MessageDigest.isEqual(presented, entry.getValue().getBytes(StandardCharsets.UTF_8))) {
+                matched = entry.getKey();
+            }
+        }
+        return matched;
+    }
+}
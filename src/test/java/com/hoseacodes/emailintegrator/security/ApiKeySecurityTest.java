@@ -12,13 +12,20 @@ import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 
+import static java.util.concurrent.CompletableFuture.completedFuture;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoInteractions;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 /**
@@ -170,13 +177,20 @@ class ApiKeySecurityTest {
         @Test
         @DisplayName("a valid key is accepted and the request reaches the application")
         void validKeyAccepted() throws Exception {
-            given(emailDeliveryService.send(any()))
-                    .willReturn(SendEmailResult.single("<id@brevo>", "brevo"));
+            given(emailDeliveryService.sendAsync(any()))
+                    .willReturn(completedFuture(SendEmailResult.single("<id@brevo>", "brevo")));
 
-            mockMvc.perform(post("/email")
+            MvcResult started = mockMvc.perform(post("/email")
                             .header(HEADER, VALID_KEY)
                             .contentType(MediaType.APPLICATION_JSON)
                             .content(SEND_BODY))
+                    .andExpect(request().asyncStarted())
+                    .andReturn();
+
+            // The response is written on a second, ASYNC dispatch that the API key filter does
+            // not run on. It must still see the authenticated client, or a send that succeeded
+            // would be reported to the caller as a 401.
+            mockMvc.perform(asyncDispatch(started))
                     .andExpect(status().isAccepted())
                     .andExpect(jsonPath("$.messageIds[0]").value("<id@brevo>"));
         }
@@ -184,13 +198,17 @@ class ApiKeySecurityTest {
         @Test
         @DisplayName("a second configured client's key also works")
         void secondClientKeyAccepted() throws Exception {
-            given(emailDeliveryService.send(any()))
-                    .willReturn(SendEmailResult.single("<id@brevo>", "brevo"));
+            given(emailDeliveryService.sendAsync(any()))
+                    .willReturn(completedFuture(SendEmailResult.single("<id@brevo>", "brevo")));
 
-            mockMvc.perform(post("/email")
+            MvcResult started = mockMvc.perform(post("/email")
                             .header(HEADER, "other-client-key-fedcba9876543210fedcba98765432")
                             .contentType(MediaType.APPLICATION_JSON)
                             .content(SEND_BODY))
+                    .andExpect(request().asyncStarted())
+                    .andReturn();
+
+            mockMvc.perform(asyncDispatch(started))
                     .andExpect(status().isAccepted());
         }
 
@@ -218,6 +236,40 @@ class ApiKeySecurityTest {
         }
     }
 
+    // -- per-client rate limit -----------------------------------------------------------------
+
+    @Nested
+    @DisplayName("client rate limit")
+    class RateLimit {
+
+        @Test
+        @DisplayName("a client over its limit is 429 with Retry-After, and the send never reaches the service")
+        void overLimitRefused() throws Exception {
+            given(emailDeliveryService.sendAsync(any()))
+                    .willReturn(completedFuture(SendEmailResult.single("<id@brevo>", "brevo")));
+            String limitedKey = "limited-client-key-0123456789abcdef0123456789ab";
+
+            MvcResult first = mockMvc.perform(post("/email")
+                            .header(HEADER, limitedKey)
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .content(SEND_BODY))
+                    .andExpect(request().asyncStarted())
+                    .andReturn();
+            mockMvc.perform(asyncDispatch(first))
+                    .andExpect(status().isAccepted());
+
+            mockMvc.perform(post("/email")
+                            .header(HEADER, limitedKey)
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .content(SEND_BODY))
+                    .andExpect(status().isTooManyRequests())
+                    .andExpect(jsonPath("$.code").value("CLIENT_RATE_LIMITED"))
+                    .andExpect(header().exists("Retry-After"));
+
+            verify(emailDeliveryService, times(1)).sendAsync(any());
+        }
+    }
+
     // -- deliberately public endpoints ---------------------------------------------------------
 
     @Nested
@@ -283,6 +335,29 @@ class ApiKeySecurityTest {
                 .andExpect(status().isUnauthorized());
     }
 
+    @Test
+    @DisplayName("circuit breaker state is readable with an API key, and only with one")
+    void circuitBreakerEndpointRequiresKey() throws Exception {
+        mockMvc.perform(get("/actuator/circuitbreaker"))
+                .andExpect(status().isUnauthorized());
+
+        mockMvc.perform(get("/actuator/circuitbreaker").header(HEADER, VALID_KEY))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.state").value("CLOSED"))
+                .andExpect(jsonPath("$.enabled").value(true));
+    }
+
+    @Test
+    @DisplayName("the concurrency limit is published as a metric, behind an API key")
+    void concurrencyMetricsRequireKey() throws Exception {
+        mockMvc.perform(get("/actuator/metrics/brevo.concurrency.limit"))
+                .andExpect(status().isUnauthorized());
+
+        mockMvc.perform(get("/actuator/metrics/brevo.concurrency.limit").header(HEADER, VALID_KEY))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.measurements[0].value").value(20.0));
+    }
+
     @Test
     @DisplayName("actuator endpoints other than health are not anonymously reachable")
     void otherActuatorEndpointsAreProtected() throws Exception {
@@ -0,0 +1,222 @@
+package com.hoseacodes.emailintegrator.security;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatCode;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Per-client recipient limits, against a clock the test moves by hand. Where the limiter sits in
+ * a request — before rendering, answered with 429 — is asserted in the controller tests and
+ * {@code ApiKeySecurityTest}.
+ */
+class ClientRateLimiterTest {
+
+    private static final String KEY_A = "client-a-key-0123456789abcdef0123456789abcdef";
+    private static final String KEY_B = "client-b-key-0123456789abcdef0123456789abcdef";
+
+    private final AtomicLong now = new AtomicLong(-5_000_000_000L);
+
+    @AfterEach
+    void clearContext() {
+        SecurityContextHolder.clearContext();
+    }
+
+    /** Client {@code a} at 60 recipients a minute, one a second, with a burst of 10. */
+    private ClientRateLimiter limiter(Map<String, ApiKeyProperties.Limit> clients) {
+        return new ClientRateLimiter(new ApiKeyProperties(Map.of("a", KEY_A, "b", KEY_B), null,
+                new ApiKeyProperties.RateLimit(60.0, 10, clients)), now::get);
+    }
+
+    private void advance(Duration by) {
+        now.addAndGet(by.toNanos());
+    }
+
+    @Test
+    @DisplayName("admits a burst, then refuses with the time until one more recipient is paid for")
+    void admitsBurstThenRefuses() {
+        ClientRateLimiter limiter = limiter(null);
+
+        for (int i = 0; i < 10; i++) {
+            limiter.acquire("a", 1);
+        }
+
+        assertThatThrownBy(() -> limiter.acquire("a", 1))
+                .isInstanceOfSatisfying(ClientRateLimitedException.class, e -> {
+                    assertThat(e.getClientId()).isEqualTo("a");
+                    assertThat(e.getRetryAfter()).isEqualTo(Duration.ofSeconds(1));
+                });
+        assertThat(limiter.refused("a")).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("refills at the configured rate, and never beyond the burst")
+    void refillsAtRate() {
+        ClientRateLimiter limiter = limiter(null);
+        limiter.acquire("a", 10);
+
+        advance(Duration.ofSeconds(3));
+        limiter.acquire("a", 3);
+        assertThatThrownBy(() -> limiter.acquire("a", 1)).isInstanceOf(ClientRateLimitedException.class);
+
+        advance(Duration.ofHours(1));
+        limiter.acquire("a", 10);
+        assertThatThrownBy(() -> limiter.acquire("a", 1)).isInstanceOf(ClientRateLimitedException.class);
+    }
+
+    @Test
+    @DisplayName("charges by recipient: a send the bucket cannot cover is refused and charges nothing")
+    void chargesByRecipient() {
+        ClientRateLimiter limiter = limiter(null);
+        limiter.acquire("a", 7);
+
+        assertThatThrownBy(() -> limiter.acquire("a", 5))
+                .isInstanceOfSatisfying(ClientRateLimitedException.class,
+                        e -> assertThat(e.getRetryAfter()).isEqualTo(Duration.ofSeconds(2)));
+
+        assertThatCode(() -> limiter.acquire("a", 3)).doesNotThrowAnyException();
+    }
+
+    @Test
+    @DisplayName("a send larger than the burst is admitted into a full bucket and leaves it in debt")
+    void oversizedSendLeavesDebt() {
+        ClientRateLimiter limiter = limiter(null);
+
+        limiter.acquire("a", 25);
+
+        // 25 recipients at one a second is 15 seconds past what the burst covers, plus one more.
+        assertThatThrownBy(() -> limiter.acquire("a", 1))
+                .isInstanceOfSatisfying(ClientRateLimitedException.class,
+                        e -> assertThat(e.getRetryAfter()).isEqualTo(Duration.ofSeconds(16)));
+        advance(Duration.ofSeconds(16));
+        limiter.acquire("a", 1);
+
+        advance(Duration.ofSeconds(9));
+        assertThatThrownBy(() -> limiter.acquire("a", 25))
+                .as("a bucket not yet full")
+                .isInstanceOf(ClientRateLimitedException.class);
+        advance(Duration.ofSeconds(1));
+        limiter.acquire("a", 25);
+    }
+
+    @Test
+    @DisplayName("each client has its own bucket; overrides take unset fields from the default")
+    void perClient() {
+        ClientRateLimiter limiter = limiter(Map.of("b", new ApiKeyProperties.Limit(null, 2)));
+        limiter.acquire("a", 10);
+
+        limiter.acquire("b", 2);
+        assertThatThrownBy(() -> limiter.acquire("b", 1))
+                .isInstanceOfSatisfying(ClientRateLimitedException.class, e -> {
+                    assertThat(e.getClientId()).isEqualTo("b");
+                    // The default rate, one a second.
+                    assertThat(e.getRetryAfter()).isEqualTo(Duration.ofSeconds(1));
+                });
+        assertThat(limiter.refused("a")).isZero();
+    }
+
+    @Test
+    @DisplayName("a rate of zero means unlimited, for that client alone")
+    void zeroIsUnlimited() {
+        ClientRateLimiter limiter = limiter(Map.of("b", new ApiKeyProperties.Limit(0.0, null)));
+
+        for (int i = 0; i < 1_000; i++) {
+            limiter.acquire("b", 50);
+        }
+        limiter.acquire("a", 10);
+        assertThatThrownBy(() -> limiter.acquire("a", 1)).isInstanceOf(ClientRateLimitedException.class);
+    }
+
+    @Test
+    @DisplayName("charges the client authenticated on the thread, and no one when there is none")
+    void chargesAuthenticatedClient() {
+        ClientRateLimiter limiter = limiter(null);
+        ApiKeyAuthenticationFilter filter = new ApiKeyAuthenticationFilter(
+                new ApiKeyProperties(Map.of("a", KEY_A, "b", KEY_B), null));
+
+        limiter.acquire(1_000);
+
+        SecurityContextHolder.getContext().setAuthentication(filter.resolveClient(KEY_A));
+        limiter.acquire(10);
+        assertThatThrownBy(() -> limiter.acquire(1))
+                .isInstanceOfSatisfying(ClientRateLimitedException.class,
+                        e -> assertThat(e.getClientId()).isEqualTo("a"));
+    }
+
+    @Test
+    @DisplayName("under contention, admits exactly what the bucket holds")
+    void concurrent() throws Exception {
+        ClientRateLimiter limiter = new ClientRateLimiter(new ApiKeyProperties(Map.of("a", KEY_A), null,
+                new ApiKeyProperties.RateLimit(60.0, 10_000, null)), now::get);
+        int threads = 8;
+        AtomicInteger admitted = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> running = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                running.add(pool.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < 5_000; i++) {
+                        try {
+                            limiter.acquire("a", 1);
+                            admitted.incrementAndGet();
+                        } catch (ClientRateLimitedException refused) {
+                            // Expected once the bucket is empty.
+                        }
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> thread : running) {
+                thread.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        assertThat(admitted).hasValue(10_000);
+        assertThat(limiter.refused("a")).isEqualTo(threads * 5_000L - 10_000);
+    }
+
+    @Nested
+    @DisplayName("configuration")
+    class Configuration {
+
+        @Test
+        @DisplayName("a limit for a client with no key fails startup")
+        void unknownClientFailsStartup() {
+            assertThatThrownBy(() -> new ApiKeyProperties(Map.of("a", KEY_A), null,
+                    new ApiKeyProperties.RateLimit(null, null, Map.of("typo", new ApiKeyProperties.Limit(1.0, 1)))))
+                    .isInstanceOf(IllegalArgumentException.class)
+                    .hasMessageContaining("app.security.rate-limit.clients.typo");
+        }
+
+        @Test
+        @DisplayName("every client is limited by default")
+        void limitedByDefault() {
+            ApiKeyProperties.Limit limit = new ApiKeyProperties(Map.of("a", KEY_A), null).rateLimit().limitFor("a");
+
+            assertThat(limit.recipientsPerMinute()).isPositive();
+            assertThat(limit.burst()).isPositive();
+        }
+    }
+}
@@ -6,16 +6,24 @@ import io.jsonwebtoken.security.Keys;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Tag;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.ValueSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import javax.crypto.SecretKey;
 import java.nio.charset.StandardCharsets;
+import java.time.Clock;
 import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
 import java.util.Base64;
 import java.util.Date;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
@@ -33,6 +41,8 @@ class ApprovalTokenServiceTest {
     private static final String SECRET = "test-secret-key-that-is-at-least-256-bits-long-for-testing";
     private static final String ISSUER = "email-integrator-test";
 
+    private static final Logger log = LoggerFactory.getLogger(ApprovalTokenServiceTest.class);
+
     private ApprovalTokenService service;
 
     @BeforeEach
@@ -80,6 +90,35 @@ class ApprovalTokenServiceTest {
         assertThat(service.verifyApprovalToken(token)).isEqualTo("user@example.com");
     }
 
+    @Test
+    @DisplayName("every token carries its own id, which verification returns")
+    void carriesId() {
+        String first = service.generateApprovalToken("user@example.com");
+        String second = service.generateApprovalToken("user@example.com");
+
+        Object id = service.verifyApprovalTokenWithClaims(first).get("jti");
+
+        assertThat(id).isInstanceOf(Long.class);
+        assertThat(service.verifyApprovalTokenWithClaims(second).get("jti")).isNotEqualTo(id);
+    }
+
+    @Test
+    @DisplayName("a token minted before ids were added still verifies, with no id")
+    void verifiesWithoutId() {
+        String legacy = Jwts.builder()
+                .claims(Map.of("email", "user@example.com", "type", "approval"))
+                .subject("user@example.com")
+                .issuer(ISSUER)
+                .issuedAt(new Date())
+                .expiration(new Date(System.currentTimeMillis() + 3_600_000))
+                .signWith(keyFor(SECRET))
+                .compact();
+
+        assertThat(service.verifyApprovalTokenWithClaims(legacy))
+                .containsEntry("email", "user@example.com")
+                .containsEntry("jti", null);
+    }
+
     @Test
     @DisplayName("tokens are opaque to inspection but not encrypted — claims are readable")
     void payloadIsSignedNotEncrypted() {
@@ -204,6 +243,22 @@ class ApprovalTokenServiceTest {
             assertThat(service.verifyApprovalTokenWithClaims(header + "." + payload + ".")).isNull();
         }
 
+        @Test
+        @DisplayName("a correctly signed token with a malformed id is refused")
+        void malformedIdRefused() {
+            String badId = Jwts.builder()
+                    .claims(Map.of("email", "user@example.com", "type", "approval"))
+                    .subject("user@example.com")
+                    .id("not-hex")
+                    .issuer(ISSUER)
+                    .issuedAt(new Date())
+                    .expiration(new Date(System.currentTimeMillis() + 3_600_000))
+                    .signWith(keyFor(SECRET))
+                    .compact();
+
+            assertThat(service.verifyApprovalTokenWithClaims(badId)).isNull();
+        }
+
         @ParameterizedTest(name = "\"{0}\" is refused")
         @ValueSource(strings = {"", "   ", "not-a-jwt", "a.b.c", "....", "Bearer sometoken"})
         @DisplayName("malformed input is refused without throwing")
@@ -219,6 +274,235 @@ class ApprovalTokenServiceTest {
         }
     }
 
+    // -- verified-token cache ------------------------------------------------------------------
+
+    @Nested
+    @DisplayName("verifying a token again")
+    class VerifiedCache {
+
+        private final Instant start = Instant.parse("2026-01-05T09:00:00Z");
+        private final AtomicReference<Instant> now = new AtomicReference<>(start);
+        private final Clock clock = new Clock() {
+            @Override
+            public ZoneId getZone() {
+                return ZoneOffset.UTC;
+            }
+
+            @Override
+            public Clock withZone(ZoneId zone) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public Instant instant() {
+                return now.get();
+            }
+        };
+
+        private ApprovalTokenService cached(int size) {
+            return new ApprovalTokenService(
+                    new JwtProperties(SECRET, Duration.ofHours(24), ISSUER, size, null, null), clock);
+        }
+
+        @Test
+        @DisplayName("returns the claims it verified the first time, which no caller can change")
+        void repeatServedFromCache() {
+            ApprovalTokenService service = cached(16);
+            String token = service.generateApprovalToken("user@example.com", "Alex");
+
+            Map<String, Object> first = service.verifyApprovalTokenWithClaims(token);
+
+            assertThat(service.verifyApprovalTokenWithClaims(token)).isSameAs(first);
+            assertThatThrownBy(() -> first.put("email", "attacker@evil.example"))
+                    .isInstanceOf(UnsupportedOperationException.class);
+        }
+
+        @Test
+        @DisplayName("refuses a remembered token once it has expired")
+        void expiredEntryRefused() {
+            ApprovalTokenService service = cached(16);
+            String token = service.generateApprovalToken("user@example.com", "Alex");
+            assertThat(service.verifyApprovalTokenWithClaims(token)).isNotNull();
+
+            now.set(start.plus(Duration.ofHours(24)));
+            assertThat(service.verifyApprovalTokenWithClaims(token)).as("valid up to its exp").isNotNull();
+
+            now.set(start.plus(Duration.ofHours(24)).plusSeconds(1));
+            assertThat(service.verifyApprovalTokenWithClaims(token)).isNull();
+        }
+
+        @Test
+        @DisplayName("keys on the whole token, so a forgery sharing its header and payload is still refused")
+        void forgeryOfCachedTokenRefused() {
+            ApprovalTokenService service = cached(16);
+            String token = service.generateApprovalToken("user@example.com", "Alex");
+            service.verifyApprovalTokenWithClaims(token);
+            String forged = token.substring(0, token.lastIndexOf('.') + 1)
+                    + Base64.getUrlEncoder().withoutPadding().encodeToString(new byte[32]);
+
+            assertThat(service.verifyApprovalTokenWithClaims(forged)).isNull();
+        }
+
+        @Test
+        @DisplayName("keeps only the most recently used tokens, and none when the size is zero")
+        void bounded() {
+            ApprovalTokenService service = cached(1);
+            String a = service.generateApprovalToken("a@example.com");
+            String b = service.generateApprovalToken("b@example.com");
+            Map<String, Object> first = service.verifyApprovalTokenWithClaims(a);
+            service.verifyApprovalTokenWithClaims(b);
+
+            assertThat(service.verifyApprovalTokenWithClaims(a)).isEqualTo(first).isNotSameAs(first);
+
+            ApprovalTokenService uncached = cached(0);
+            Map<String, Object> once = uncached.verifyApprovalTokenWithClaims(a);
+            assertThat(uncached.verifyApprovalTokenWithClaims(a)).isEqualTo(once).isNotSameAs(once);
+        }
+    }
+
+    // -- compact format -------------------------------------------------------------------------
+
+    @Nested
+    @DisplayName("the compact format")
+    class CompactFormat {
+
+        private final Instant start = Instant.parse("2026-01-05T09:00:00Z");
+        private final AtomicReference<Instant> now = new AtomicReference<>(start);
+        private final Clock clock = new Clock() {
+            @Override
+            public ZoneId getZone() {
+                return ZoneOffset.UTC;
+            }
+
+            @Override
+            public Clock withZone(ZoneId zone) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public Instant instant() {
+                return now.get();
+            }
+        };
+
+        private ApprovalTokenService minting(JwtProperties.TokenFormat format, String secret, String issuer) {
+            return new ApprovalTokenService(
+                    new JwtProperties(secret, Duration.ofHours(24), issuer, 0, format, null), clock);
+        }
+
+        private final ApprovalTokenService compact = minting(JwtProperties.TokenFormat.COMPACT, SECRET, ISSUER);
+
+        @Test
+        @DisplayName("round-trips email and name in under half a JWT's length")
+        void roundTrip() {
+            String token = compact.generateApprovalToken("user@example.com", "Alex Sm\u00eft");
+            String jwt = minting(JwtProperties.TokenFormat.JWT, SECRET, ISSUER)
+                    .generateApprovalToken("user@example.com", "Alex Sm\u00eft");
+
+            Map<String, Object> claims = compact.verifyApprovalTokenWithClaims(token);
+
+            assertThat(token).doesNotContain(".").matches("[A-Za-z0-9_-]+");
+            assertThat(token.length()).isLessThan(jwt.length() / 2);
+            assertThat(claims).containsEntry("email", "user@example.com")
+                    .containsEntry("name", "Alex Sm\u00eft")
+                    .containsEntry("subject", "user@example.com")
+                    .containsEntry("expiration", Date.from(start.plus(Duration.ofHours(24))))
+                    .hasEntrySatisfying("jti", id -> assertThat(id).isInstanceOf(Long.class));
+            assertThat(compact.verifyApprovalTokenWithClaims(compact.generateApprovalToken("user@example.com")))
+                    .containsEntry("name", null);
+        }
+
+        @Test
+        @DisplayName("both formats verify whichever is configured for minting")
+        void acceptsBothFormats() {
+            ApprovalTokenService jwt = minting(JwtProperties.TokenFormat.JWT, SECRET, ISSUER);
+
+            assertThat(compact.verifyApprovalToken(jwt.generateApprovalToken("old@example.com")))
+                    .isEqualTo("old@example.com");
+            assertThat(jwt.verifyApprovalToken(compact.generateApprovalToken("new@example.com")))
+                    .isEqualTo("new@example.com");
+        }
+
+        @Test
+        @DisplayName("falls back to a JWT when the email or name is too long for the layout")
+        void tooLongFallsBack() {
+            String name = "n".repeat(256);
+
+            String token = compact.generateApprovalToken("user@example.com", name);
+
+            assertThat(token).contains(".");
+            assertThat(compact.verifyApprovalTokenWithClaims(token)).containsEntry("name", name);
+        }
+
+        @Test
+        @DisplayName("refuses any single changed byte, including in the tag")
+        void tamperedRefused() {
+            byte[] bytes = Base64.getUrlDecoder().decode(compact.generateApprovalToken("user@example.com", "Alex"));
+
+            for (int i = 0; i < bytes.length; i++) {
+                byte[] forged = bytes.clone();
+                forged[i] ^= 0x01;
+                assertThat(compact.verifyApprovalTokenWithClaims(
+                        Base64.getUrlEncoder().withoutPadding().encodeToString(forged))).as("byte %d", i).isNull();
+            }
+        }
+
+        @Test
+        @DisplayName("refuses a token minted with another key, by another issuer, or truncated")
+        void foreignRefused() {
+            String otherKey = minting(JwtProperties.TokenFormat.COMPACT,
+                    "a-completely-different-signing-key-of-sufficient-length", ISSUER)
+                    .generateApprovalToken("a@example.com");
+            String otherIssuer = minting(JwtProperties.TokenFormat.COMPACT, SECRET, "some-other-service")
+                    .generateApprovalToken("a@example.com");
+            String token = compact.generateApprovalToken("a@example.com");
+
+            assertThat(compact.verifyApprovalTokenWithClaims(otherKey)).isNull();
+            assertThat(compact.verifyApprovalTokenWithClaims(otherIssuer)).isNull();
+            assertThat(compact.verifyApprovalTokenWithClaims(token.substring(0, token.length() - 4))).isNull();
+            assertThat(compact.verifyApprovalTokenWithClaims("AQE")).isNull();
+        }
+
+        @Test
+        @DisplayName("refuses a token once it has expired")
+        void expiredRefused() {
+            String token = compact.generateApprovalToken("user@example.com");
+
+            now.set(start.plus(Duration.ofHours(24)));
+            assertThat(compact.verifyApprovalTokenWithClaims(token)).isNotNull();
+            now.set(start.plus(Duration.ofHours(24)).plusSeconds(1));
+            assertThat(compact.verifyApprovalTokenWithClaims(token)).isNull();
+        }
+
+        @Test
+        @Tag("benchmark")
+        @DisplayName("benchmark: verify throughput of each format")
+        void benchmark() {
+            String jwt = minting(JwtProperties.TokenFormat.JWT, SECRET, ISSUER)
+                    .generateApprovalToken("user@example.com", "Alex Smith");
+            String token = compact.generateApprovalToken("user@example.com", "Alex Smith");
+
+            long jwtPerSecond = verifiesPerSecond(jwt);
+            long compactPerSecond = verifiesPerSecond(token);
+
+            log.info("Approval token verify, one thread: JWT {} chars, {}/s; compact {} chars, {}/s",
+                    jwt.length(), jwtPerSecond, token.length(), compactPerSecond);
+            assertThat(compact.verifyApprovalTokenWithClaims(token)).isNotNull();
+        }
+
+        private long verifiesPerSecond(String token) {
+            for (int i = 0; i < 20_000; i++) {
+                compact.verifyApprovalTokenWithClaims(token);
+            }
+            int runs = 50_000;
+            long began = System.nanoTime();
+            for (int i = 0; i < runs; i++) {
+                compact.verifyApprovalTokenWithClaims(token);
+            }
+            return runs * 1_000_000_000L / (System.nanoTime() - began);
+        }
+    }
+
     // -- configuration -------------------------------------------------------------------------
 
     @Test
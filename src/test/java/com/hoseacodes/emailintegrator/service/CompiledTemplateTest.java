@@ -0,0 +1,321 @@
+package com.hoseacodes.emailintegrator.service;
+
+import com.hoseacodes.emailintegrator.config.EmailProperties;
+import com.hoseacodes.emailintegrator.config.TemplateProperties;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.util.StreamUtils;
+import org.springframework.web.util.HtmlUtils;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * The compiled form, and the service built on it compared against the implementation it
+ * replaced — reproduced here as {@link #legacyRender}: a classpath read and a regex pass per
+ * render.
+ */
+class CompiledTemplateTest {
+
+    private static final Logger log = LoggerFactory.getLogger(CompiledTemplateTest.class);
+
+    private static final Pattern PLACEHOLDER = Pattern.compile("\\{\\{(\\w+)}}");
+
+    private static final LinkSanitizer LINK_SANITIZER = new LinkSanitizer(new EmailProperties());
+
+    private static final TemplateComposer COMPOSER = new TemplateComposer(path -> Optional.of(readResource(path)));
+
+    @Test
+    @DisplayName("splits a template into literals and slots over its distinct variables")
+    void compiles() {
+        CompiledTemplate template = CompiledTemplate.compile("t",
+                "<a href=\"{{url}}\">{{name}}</a> {{url}}");
+
+        assertThat(template.variables()).containsExactly("url", "name");
+        assertThat(template.indexOf("name")).isEqualTo(1);
+        assertThat(template.indexOf("other")).isEqualTo(-1);
+        assertThat(template.render(new String[]{"https://x", "X"}))
+                .isEqualTo("<a href=\"https://x\">X</a> https://x");
+    }
+
+    @Test
+    @DisplayName("escapes each slot for where it sits: text, a quoted attribute, or a comment")
+    void escapesByContext() {
+        CompiledTemplate template = CompiledTemplate.compile("t",
+                "<a title=\"{{v}}\" data-x='{{v}}'>{{v}}</a><!--[if mso]><b>{{v}}</b><![endif]--><p>{{v}}</p>");
+
+        assertThat(template.render(new String[]{"\"'<&>"})).isEqualTo(
+                "<a title=\"&quot;&#39;&lt;&amp;&gt;\" data-x='&quot;&#39;&lt;&amp;&gt;'>\"'&lt;&amp;&gt;</a>"
+                        + "<!--[if mso]><b>&quot;&#39;&lt;&amp;&gt;</b><![endif]--><p>\"'&lt;&amp;&gt;</p>");
+    }
+
+    @Test
+    @DisplayName("refuses a placeholder inside a tag but outside quotes")
+    void refusesUnquotedAttribute() {
+        assertThatThrownBy(() -> CompiledTemplate.compile("t", "<a href={{url}}>x</a>"))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("{{url}}");
+    }
+
+    @Test
+    @DisplayName("an unsupplied variable renders as nothing")
+    void nullRendersEmpty() {
+        CompiledTemplate template = CompiledTemplate.compile("t", "[{{a}}|{{b}}]");
+
+        assertThat(template.render(new String[]{"A", null})).isEqualTo("[A|]");
+    }
+
+    @Test
+    @DisplayName("recognises placeholders exactly as the regex did")
+    void sameGrammar() {
+        CompiledTemplate template = CompiledTemplate.compile("t", "{{{a}}} {{ b }} {{c-d}} {{e}");
+
+        assertThat(template.variables()).containsExactly("a");
+        assertThat(template.render(new String[]{"A"})).isEqualTo("{A} {{ b }} {{c-d}} {{e}");
+    }
+
+    @Test
+    @DisplayName("a template with no placeholders renders as itself")
+    void noPlaceholders() {
+        assertThat(CompiledTemplate.compile("t", "<p>static</p>").render(new String[0]))
+                .isEqualTo("<p>static</p>");
+    }
+
+    @Test
+    @DisplayName("binding folds constants into the literals and leaves the other variables as slots")
+    void bindsConstants() {
+        CompiledTemplate template = CompiledTemplate.compile("t", "<h1>{{app}}</h1><p>{{user}} of {{app}}</p>");
+
+        CompiledTemplate bound = template.bind(Map.of("app", "Acme & Co"));
+
+        assertThat(bound.variables()).containsExactly("user");
+        assertThat(bound.render(new String[]{"Alex"}))
+                .isEqualTo(template.render(new String[]{"Acme & Co", "Alex"}))
+                .isEqualTo("<h1>Acme &amp; Co</h1><p>Alex of Acme &amp; Co</p>");
+    }
+
+    @Test
+    @DisplayName("binding constants a template does not use returns it unchanged")
+    void bindingUnusedConstants() {
+        CompiledTemplate template = CompiledTemplate.compile("t", "<p>{{user}}</p>");
+
+        assertThat(template.bind(Map.of("app", "Acme"))).isSameAs(template);
+    }
+
+    @Test
+    @DisplayName("renders to exactly the UTF-8 encoding of the string render")
+    void rendersUtf8() {
+        CompiledTemplate template = CompiledTemplate.compile("t", "<p>{{a}} \u00b7 {{b}}</p>");
+
+        for (String value : new String[]{"plain", "Zo\u00eb \u00c5ngstr\u00f6m", "\u65e5\u672c\u8a9e",
+                "emoji \uD83D\uDCE7 mail", "lone \uD83D surrogate", "trailing \uDCE7", ""}) {
+            String[] values = {value, null};
+            assertThat(template.renderUtf8(values)).as(value)
+                    .isEqualTo(template.render(values).getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    @DisplayName("every shipped template renders to the same bytes either way")
+    void everyTemplateRendersUtf8() {
+        EmailTemplateService service = service();
+
+        for (String name : EmailTemplateService.BUILT_IN_TEMPLATES) {
+            assertThat(service.processTemplateUtf8(name, textValues(), linkValues())).as(name)
+                    .isEqualTo(service.processTemplate(name, textValues(), linkValues())
+                            .getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Bytes allocated per render, measured by the JVM for this thread, against rendering a
+     * {@code String} and encoding it — the least a transport handed a {@code String} must do.
+     * The whole {@code processTemplate} call, link validation included, is logged alongside.
+     */
+    @Test
+    @DisplayName("rendering straight to UTF-8 allocates less than half of rendering then encoding")
+    void allocatesLessRenderingToBytes() {
+        EmailTemplateService service = service();
+        Map<String, String> text = textValues();
+        Map<String, String> links = linkValues();
+
+        for (String name : EmailTemplateService.BUILT_IN_TEMPLATES) {
+            CompiledTemplate template = CompiledTemplate.compile(name, read(name));
+            String[] values = template.variables().stream()
+                    .map(variable -> text.getOrDefault(variable, links.getOrDefault(variable, "")))
+                    .toArray(String[]::new);
+
+            long viaString = allocatedPerCall(() -> template.render(values).getBytes(StandardCharsets.UTF_8));
+            long direct = allocatedPerCall(() -> template.renderUtf8(values));
+            long serviceViaString = allocatedPerCall(() ->
+                    service.processTemplate(name, text, links).getBytes(StandardCharsets.UTF_8));
+            long serviceDirect = allocatedPerCall(() -> service.processTemplateUtf8(name, text, links));
+
+            log.info("Render {} allocates: string then encode {} B, direct {} B; whole call {} B, {} B",
+                    name, viaString, direct, serviceViaString, serviceDirect);
+            assertThat(direct).as(name).isLessThan(viaString / 2);
+        }
+    }
+
+    @Test
+    @DisplayName("every shipped template renders the same document the regex implementation rendered")
+    void matchesLegacyForEveryTemplate() {
+        // Unminified, since the regex implementation sent templates as written; minifying is
+        // tested on its own in HtmlMinifierTest.
+        EmailTemplateService service = new EmailTemplateService(LINK_SANITIZER, EmailTemplateService.TEMPLATE_LOCATION,
+                new TemplateProperties(null, null, false, null));
+
+        // Up to the choice of character references: the regex implementation escaped quotes in
+        // text and wrote named references for non-ASCII, where escaping by context does neither.
+        for (String name : EmailTemplateService.BUILT_IN_TEMPLATES) {
+            assertThat(HtmlUtils.htmlUnescape(service.processTemplate(name, textValues(), linkValues())))
+                    .as(name)
+                    .isEqualTo(HtmlUtils.htmlUnescape(legacyRender(name, textValues(), linkValues())));
+        }
+    }
+
+    /**
+     * Each of the seven templates rendered through the old path and the compiled one. Timings
+     * are logged, not asserted: on a shared CI runner they are evidence, not a contract. The
+     * differential test above is what guarantees the two agree.
+     */
+    @Test
+    @Tag("benchmark")
+    @DisplayName("benchmark: compiled rendering against a classpath read and regex pass per send")
+    void benchmark() {
+        EmailTemplateService service = service();
+        Map<String, String> text = textValues();
+        Map<String, String> links = linkValues();
+        int iterations = 2_000;
+
+        for (String name : EmailTemplateService.BUILT_IN_TEMPLATES) {
+            for (int i = 0; i < iterations; i++) {
+                legacyRender(name, text, links);
+                service.processTemplate(name, text, links);
+            }
+
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                legacyRender(name, text, links);
+            }
+            long legacyNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                service.processTemplate(name, text, links);
+            }
+            long compiledNanos = System.nanoTime() - start;
+
+            log.info("Render {}: regex {} ns, compiled {} ns", name,
+                    legacyNanos / iterations, compiledNanos / iterations);
+        }
+    }
+
+    // -- helpers -------------------------------------------------------------------------------
+
+    /** Mean bytes this thread allocates per call, after a warm-up so the JIT has settled. */
+    private static long allocatedPerCall(Supplier<byte[]> call) {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        int iterations = 2_000;
+        for (int i = 0; i < iterations; i++) {
+            call.get();
+        }
+        long before = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < iterations; i++) {
+            call.get();
+        }
+        return (threads.getThreadAllocatedBytes(thread) - before) / iterations;
+    }
+
+    private static EmailTemplateService service() {
+        return new EmailTemplateService(LINK_SANITIZER);
+    }
+
+    /** A value for every variable any template uses, several of them needing escaping. */
+    private static Map<String, String> textValues() {
+        Map<String, String> text = new HashMap<>();
+        text.put("userName", "Alex <O'Brien>");
+        text.put("userEmail", "alex@example.com");
+        text.put("approvalToken", "");
+        text.put("appName", "Storm Gate");
+        text.put("appDisplayName", "Storm & Gate Portal");
+        text.put("adminEmail", "admin@example.com");
+        text.put("expiryTime", "24 hours");
+        text.put("firstName", "Alex");
+        text.put("lastName", "O'Brien");
+        text.put("fullName", "Alex O'Brien");
+        text.put("email", "alex@example.com");
+        text.put("company", "Acme \"Widgets\"");
+        text.put("phone", "+1 555 0100");
+        text.put("consultationType", "Strategy");
+        text.put("formattedDate", "Monday, March 3, 2025");
+        text.put("formattedTime", "2:00 PM");
+        text.put("notes", "Costs $100 \u2014 bring notes");
+        return text;
+    }
+
+    private static Map<String, String> linkValues() {
+        return Map.of(
+                "approvalUrl", "https://app.example.com/approve?u=1&t=abc",
+                "denyUrl", "https://app.example.com/deny?u=1&t=abc",
+                "loginUrl", "https://app.example.com/login",
+                "resetUrl", "https://app.example.com/reset?token=abc",
+                "meetingLink", "https://meet.example.com/xyz");
+    }
+
+    /**
+     * A template's source as the legacy implementation would have found it: read from the
+     * classpath, with its layout and partials flattened in, since the files it read were written
+     * out in full. Flattening is a few hundred nanoseconds on top of the read.
+     */
+    private static String read(String templateName) {
+        return COMPOSER.compose(templateName, readResource(templateName));
+    }
+
+    private static String readResource(String path) {
+        try {
+            return StreamUtils.copyToString(
+                    new ClassPathResource("templates/" + path).getInputStream(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /** The implementation {@link CompiledTemplate} replaced, reproduced as it stood. */
+    private static String legacyRender(String templateName, Map<String, String> textVariables,
+                                       Map<String, String> linkVariables) {
+        Map<String, String> safeValues = new HashMap<>();
+        linkVariables.forEach((name, value) ->
+                safeValues.put(name, HtmlUtils.htmlEscape(LINK_SANITIZER.sanitize(name, value))));
+        textVariables.forEach((name, value) ->
+                safeValues.put(name, HtmlUtils.htmlEscape(value == null ? "" : value)));
+
+        String template = read(templateName);
+
+        Matcher matcher = PLACEHOLDER.matcher(template);
+        StringBuilder rendered = new StringBuilder();
+        while (matcher.find()) {
+            matcher.appendReplacement(rendered,
+                    Matcher.quoteReplacement(safeValues.getOrDefault(matcher.group(1), "")));
+        }
+        matcher.appendTail(rendered);
+        return rendered.toString();
+    }
+}
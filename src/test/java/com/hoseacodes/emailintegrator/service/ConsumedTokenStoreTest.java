@@ -0,0 +1,190 @@
+package com.hoseacodes.emailintegrator.service;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Consuming approval-token ids: once each, forgotten when the token expires, and — with a file —
+ * still consumed after a restart.
+ */
+class ConsumedTokenStoreTest {
+
+    private final Instant start = Instant.parse("2026-01-05T09:00:00Z");
+    private final Instant expiry = start.plus(Duration.ofHours(24));
+    private final AtomicReference<Instant> now = new AtomicReference<>(start);
+    private final Clock clock = new Clock() {
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Instant instant() {
+            return now.get();
+        }
+    };
+
+    @Test
+    @DisplayName("consumes an id once; every later attempt is refused")
+    void consumesOnce() {
+        ConsumedTokenStore store = new ConsumedTokenStore(null, clock);
+
+        assertThat(store.consume(42, expiry)).isTrue();
+        assertThat(store.consume(42, expiry)).isFalse();
+        assertThat(store.consume(43, expiry)).isTrue();
+        assertThat(store.consume(0, expiry)).as("zero is an id like any other").isTrue();
+        assertThat(store.consume(0, expiry)).isFalse();
+        assertThat(store.size()).isEqualTo(3);
+    }
+
+    @Test
+    @DisplayName("a released id can be consumed again")
+    void releases() {
+        ConsumedTokenStore store = new ConsumedTokenStore(null, clock);
+        store.consume(42, expiry);
+
+        store.release(42, expiry);
+
+        assertThat(store.consume(42, expiry)).isTrue();
+    }
+
+    @Test
+    @DisplayName("forgets ids a whole bucket at a time, once every token in it has expired")
+    void dropsExpiredBuckets() {
+        ConsumedTokenStore store = new ConsumedTokenStore(null, clock);
+        store.consume(1, start.plus(Duration.ofMinutes(10)));
+        store.consume(2, start.plus(Duration.ofMinutes(60)));
+        store.consume(3, start.plus(Duration.ofMinutes(61)));
+
+        now.set(start.plus(Duration.ofMinutes(60)));
+        store.consume(4, expiry);
+        assertThat(store.size()).as("tokens expiring at 10:00 are still valid at 10:00").isEqualTo(4);
+
+        now.set(start.plus(Duration.ofMinutes(60)).plusSeconds(1));
+        store.consume(5, expiry);
+        assertThat(store.size()).isEqualTo(3);
+        assertThat(store.consume(3, start.plus(Duration.ofMinutes(61)))).isFalse();
+    }
+
+    @Test
+    @DisplayName("agrees with a HashSet across random adds and removes")
+    void matchesHashSet() {
+        ConsumedTokenStore.LongSet ids = new ConsumedTokenStore.LongSet();
+        Set<Long> expected = new HashSet<>();
+        SplittableRandom random = new SplittableRandom(7);
+
+        int disagreements = 0;
+        for (int i = 0; i < 1_000_000; i++) {
+            // A narrow range, so adds collide and removes hit.
+            long id = random.nextLong(-50_000, 50_000);
+            boolean removing = random.nextInt(3) == 0;
+            boolean changed = removing ? ids.remove(id) : ids.add(id);
+            if (changed != (removing ? expected.remove(id) : expected.add(id))) {
+                disagreements++;
+            }
+        }
+
+        assertThat(disagreements).isZero();
+        assertThat(ids.size()).isEqualTo(expected.size());
+        assertThat(Arrays.stream(ids.toArray()).boxed().collect(Collectors.toSet())).isEqualTo(expected);
+    }
+
+    @Nested
+    @DisplayName("with a journal file")
+    class JournalFile {
+
+        @TempDir
+        Path dir;
+
+        @Test
+        @DisplayName("ids consumed before a restart stay consumed after it")
+        void survivesRestart() throws IOException {
+            Path file = dir.resolve("consumed");
+            ConsumedTokenStore before = new ConsumedTokenStore(file, clock);
+            before.consume(1, expiry);
+            before.consume(2, expiry);
+            before.release(2, expiry);
+            before.close();
+
+            ConsumedTokenStore after = new ConsumedTokenStore(file, clock);
+
+            assertThat(after.consume(1, expiry)).isFalse();
+            assertThat(after.consume(2, expiry)).as("released before the restart").isTrue();
+        }
+
+        @Test
+        @DisplayName("drops expired records and a record cut short, and rewrites the file without them")
+        void compactsOnStartup() throws IOException {
+            Path file = dir.resolve("consumed");
+            ConsumedTokenStore before = new ConsumedTokenStore(file, clock);
+            before.consume(1, start.plus(Duration.ofMinutes(30)));
+            before.consume(2, expiry);
+            before.close();
+            Files.write(file, new byte[]{1, 2, 3}, StandardOpenOption.APPEND);
+
+            now.set(start.plus(Duration.ofHours(2)));
+            ConsumedTokenStore after = new ConsumedTokenStore(file, clock);
+
+            assertThat(after.size()).isEqualTo(1);
+            assertThat(Files.size(file)).isEqualTo(16);
+            assertThat(after.consume(2, expiry)).isFalse();
+            after.consume(3, expiry);
+            after.close();
+            assertThat(new ConsumedTokenStore(file, clock).size()).isEqualTo(2);
+        }
+
+        @Test
+        @DisplayName("is compacted while running once it has grown past the threshold")
+        void compactsWhileRunning() throws IOException {
+            Path file = dir.resolve("consumed");
+            ConsumedTokenStore before = new ConsumedTokenStore(file, clock);
+            before.consume(1, expiry);
+            // A consumption and a release each time, about 1.3 MB in all.
+            for (int i = 0; i < 40_000; i++) {
+                before.consume(2, expiry);
+                before.release(2, expiry);
+            }
+
+            assertThat(Files.size(file)).isLessThan(Journal.COMPACT_FROM + 1024);
+            before.close();
+            ConsumedTokenStore after = new ConsumedTokenStore(file, clock);
+            assertThat(after.consume(1, expiry)).isFalse();
+            assertThat(after.consume(2, expiry)).isTrue();
+        }
+
+        @Test
+        @DisplayName("a file that cannot be used fails startup")
+        void unusableFileFailsStartup() throws IOException {
+            Path directory = Files.createDirectory(dir.resolve("not-a-file"));
+
+            assertThatThrownBy(() -> new ConsumedTokenStore(directory, clock))
+                    .hasMessageContaining("app.jwt.consumed-tokens-file");
+        }
+    }
+}
@@ -1,16 +1,29 @@
 package com.hoseacodes.emailintegrator.service;
 
 import com.hoseacodes.emailintegrator.config.EmailProperties;
+import com.hoseacodes.emailintegrator.config.TemplateProperties;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.ValueSource;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatCode;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 /**
@@ -51,14 +64,28 @@ class EmailTemplateServiceTest {
     @DisplayName("a value cannot close the attribute it is rendered inside")
     void escapesAttributeBreakout() {
         // The classic payload: close the quoted attribute, then add an event handler.
+        // account-denied.html renders adminEmail both inside href="mailto:..." and as link text.
+        String rendered = service.processTemplate("account-denied.html",
+                Map.of("userName", "Alex", "adminEmail", "\"><img src=x onerror=alert(1)>"), Map.of());
+
+        // What matters is that no tag is created. The characters "onerror=alert(1)" still appear
+        // as inert text — escaping neutralises the markup, it does not censor the words.
+        assertThat(rendered).doesNotContain("<img");
+        // In the attribute the quote is escaped, so it cannot end the value...
+        assertThat(rendered).contains("href=\"mailto:&quot;&gt;&lt;img src=x onerror=alert(1)&gt;\"");
+        // ...while in element text a quote ends nothing, and is left as written.
+        assertThat(rendered).contains(">\"&gt;&lt;img src=x onerror=alert(1)&gt;</a>");
+    }
+
+    @Test
+    @DisplayName("markup in a text value cannot create a tag")
+    void escapesTagInjectionInText() {
         String rendered = renderPasswordReset(
                 Map.of("userName", "\"><img src=x onerror=alert(1)>"),
                 Map.of("resetUrl", "https://app.example.com/reset"));
 
-        // What matters is that no tag is created. The characters "onerror=alert(1)" still appear
-        // as inert text — escaping neutralises the markup, it does not censor the words.
         assertThat(rendered).doesNotContain("<img");
-        assertThat(rendered).contains("&quot;&gt;&lt;img src=x onerror=alert(1)&gt;");
+        assertThat(rendered).contains("\"&gt;&lt;img src=x onerror=alert(1)&gt;");
     }
 
     @Test
@@ -197,6 +224,21 @@ class EmailTemplateServiceTest {
                 .isInstanceOf(IllegalArgumentException.class);
     }
 
+    @Test
+    @DisplayName("a wildcard in the allowlist admits subdomains, not the lookalikes around them")
+    void allowlistWildcard() {
+        EmailProperties properties = new EmailProperties();
+        properties.setAllowedLinkHosts(List.of("*.example.com"));
+        EmailTemplateService restricted = new EmailTemplateService(new LinkSanitizer(properties));
+
+        assertThat(restricted.processTemplate("password-reset.html",
+                Map.of("userName", "Alex"), Map.of("resetUrl", "https://eu.app.example.com/reset")))
+                .contains("https://eu.app.example.com/reset");
+        assertThatThrownBy(() -> restricted.processTemplate("password-reset.html",
+                Map.of("userName", "Alex"), Map.of("resetUrl", "https://example.com.attacker.net/x")))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
     @Test
     @DisplayName("a link is validated before the template is even loaded")
     void invalidLinkFailsEvenForAnUnknownTemplate() {
@@ -215,4 +257,252 @@ class EmailTemplateServiceTest {
         assertThat(rendered).doesNotContain("<b>bold</b>");
         assertThat(rendered).contains("&lt;b&gt;bold&lt;/b&gt;");
     }
+
+    @Test
+    @DisplayName("a template missing at startup is replaced by its built-in fallback")
+    void missingTemplatesAreCompiledFromFallbacks() {
+        EmailTemplateService empty = new EmailTemplateService(
+                new LinkSanitizer(new EmailProperties()), "classpath:no-such-templates/");
+
+        String rendered = empty.processTemplate("password-reset.html",
+                Map.of("userName", "Alex"), Map.of("resetUrl", "https://app.example.com/reset"));
+
+        assertThat(rendered).contains("<h1>Password Reset Request</h1>", "Dear Alex,",
+                "href=\"https://app.example.com/reset\"");
+    }
+
+    @Test
+    @DisplayName("an unknown template name renders the error page rather than failing the send")
+    void unknownTemplateRendersErrorPage() {
+        assertThat(service.processTemplate("no-such-template.html", Map.of("userName", "Alex"), Map.of()))
+                .contains("Email Template Error");
+    }
+
+    // -- declared variables ----------------------------------------------------------------------
+
+    @Test
+    @DisplayName("a bundled template using a variable no caller supplies fails startup")
+    void undeclaredVariableFailsStartup(@TempDir Path bundled) throws IOException {
+        Files.writeString(bundled.resolve("account-approved.html"), "<p>Dear {{userNmae}}</p>");
+
+        assertThatThrownBy(() -> new EmailTemplateService(new LinkSanitizer(new EmailProperties()),
+                bundled.toUri() + "/"))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("account-approved.html uses {{userNmae}}, which no caller supplies");
+    }
+
+    @Test
+    @DisplayName("every bundled template and every fallback uses only declared variables")
+    void bundledTemplatesMatchTheirSchema() {
+        // The bundled set is checked by every construction of the service; the fallbacks only
+        // when a file is missing, so compile them all.
+        assertThatCode(() -> new EmailTemplateService(new LinkSanitizer(new EmailProperties()),
+                "classpath:no-such-templates/")).doesNotThrowAnyException();
+        assertThat(EmailTemplateService.BUILT_IN_TEMPLATES).hasSize(TemplateSchema.values().length);
+    }
+
+    // -- minification ----------------------------------------------------------------------------
+
+    @Test
+    @DisplayName("templates are minified when compiled, unless opted out by name")
+    void minifiesUnlessOptedOut() {
+        EmailTemplateService optedOut = new EmailTemplateService(new LinkSanitizer(new EmailProperties()),
+                EmailTemplateService.TEMPLATE_LOCATION,
+                new TemplateProperties(null, null, null, Set.of("account-denied.html")));
+        Map<String, String> alex = Map.of("userName", "Alex");
+
+        assertThat(service.processTemplate("account-denied.html", alex, Map.of())).doesNotContain("    ");
+        assertThat(optedOut.processTemplate("account-denied.html", alex, Map.of())).contains("\n    <div");
+        assertThat(optedOut.processTemplate("account-approved.html", alex, Map.of()))
+                .isEqualTo(service.processTemplate("account-approved.html", alex, Map.of()));
+    }
+
+    // -- application constants -------------------------------------------------------------------
+
+    @Nested
+    @DisplayName("with application constants bound")
+    class Constants {
+
+        private static final Map<String, String> CONSTANTS = Map.of(
+                "appName", "Acme & Co", "appDisplayName", "Acme Portal", "adminEmail", "admin@example.com");
+
+        private EmailTemplateService bound;
+
+        @BeforeEach
+        void bind() {
+            bound = new EmailTemplateService(new LinkSanitizer(new EmailProperties()));
+            bound.bindConstants(CONSTANTS);
+        }
+
+        @Test
+        @DisplayName("renders exactly as the unbound template given the same values")
+        void sameOutput() {
+            Map<String, String> text = new java.util.HashMap<>(CONSTANTS);
+            text.put("userName", "Alex");
+            text.put("expiryTime", "1 hour");
+            Map<String, String> links = Map.of("resetUrl", "https://app.example.com/reset");
+
+            assertThat(bound.processTemplate("password-reset.html", text, links))
+                    .isEqualTo(service.processTemplate("password-reset.html", text, links))
+                    .contains("Acme &amp; Co");
+        }
+
+        @Test
+        @DisplayName("a constant the caller leaves out renders as bound")
+        void omittedConstantRendersAsBound() {
+            String rendered = bound.processTemplate("account-denied.html", Map.of("userName", "Alex"), Map.of());
+
+            assertThat(rendered).contains("Acme &amp; Co", "Acme Portal", "admin@example.com");
+        }
+
+        @Test
+        @DisplayName("a caller's override of a constant is rendered, escaped, instead of the bound value")
+        void overrideWins() {
+            String rendered = bound.processTemplate("account-denied.html",
+                    Map.of("userName", "Alex", "appName", "<Other>", "appDisplayName", "Acme Portal",
+                            "adminEmail", "admin@example.com"), Map.of());
+
+            assertThat(rendered).contains("&lt;Other&gt;").doesNotContain("Acme &amp; Co");
+        }
+    }
+
+    // -- external directory ----------------------------------------------------------------------
+
+    @Nested
+    @DisplayName("with a template directory")
+    class Directory {
+
+        private static final Map<String, String> ALEX = Map.of("userName", "Alex");
+        private static final Map<String, String> LINK = Map.of("loginUrl", "https://app.example.com/login");
+
+        @TempDir
+        Path directory;
+
+        private EmailTemplateService watching;
+
+        @AfterEach
+        void tearDown() throws IOException {
+            if (watching != null) {
+                watching.close();
+            }
+        }
+
+        @Test
+        @DisplayName("a file there overrides the bundled template of the same name; others stay bundled")
+        void overridesByName() throws IOException {
+            write("account-approved.html", "<p>Custom {{userName}}</p>");
+
+            watching = watching();
+
+            assertThat(watching.processTemplate("account-approved.html", ALEX, LINK)).isEqualTo("<p>Custom Alex</p>");
+            assertThat(watching.processTemplate("account-denied.html", ALEX, Map.of()))
+                    .isEqualTo(service.processTemplate("account-denied.html", ALEX, Map.of()));
+        }
+
+        @Test
+        @DisplayName("an edited file is recompiled and swapped in")
+        void reloadsOnChange() throws IOException {
+            write("account-approved.html", "<p>First {{userName}}</p>");
+            watching = watching();
+
+            write("account-approved.html", "<p>Second {{userName}}</p>");
+
+            assertThat(awaitRender("account-approved.html", "<p>Second Alex</p>")).isTrue();
+        }
+
+        @Test
+        @DisplayName("a deleted file reverts to the bundled template")
+        void revertsOnDelete() throws IOException {
+            write("account-approved.html", "<p>Custom {{userName}}</p>");
+            watching = watching();
+
+            Files.delete(directory.resolve("account-approved.html"));
+
+            assertThat(awaitRender("account-approved.html",
+                    service.processTemplate("account-approved.html", ALEX, LINK))).isTrue();
+        }
+
+        @Test
+        @DisplayName("renders during reloads see one whole version or the other, never a mixture")
+        void swapsAtomically() throws Exception {
+            String first = "<p>{{userName}} one</p>".repeat(200);
+            String second = "<p>{{userName}} two</p>".repeat(200);
+            write("account-approved.html", first);
+            watching = watching();
+            Set<String> seen = ConcurrentHashMap.newKeySet();
+            AtomicBoolean running = new AtomicBoolean(true);
+            Thread renderer = new Thread(() -> {
+                while (running.get()) {
+                    seen.add(watching.processTemplate("account-approved.html", ALEX, LINK));
+                }
+            });
+            renderer.start();
+
+            for (int i = 0; i < 10; i++) {
+                write("account-approved.html", i % 2 == 0 ? second : first);
+                Thread.sleep(60);
+            }
+            running.set(false);
+            renderer.join();
+
+            assertThat(seen).isSubsetOf(first.replace("{{userName}}", "Alex"), second.replace("{{userName}}", "Alex"));
+        }
+
+        @Test
+        @DisplayName("a file using a variable no caller supplies is refused; the bundled template stays")
+        void refusesUndeclaredVariable() throws IOException {
+            write("account-approved.html", "<p>Dear {{userNmae}}</p>");
+
+            watching = watching();
+
+            assertThat(watching.processTemplate("account-approved.html", ALEX, LINK))
+                    .isEqualTo(service.processTemplate("account-approved.html", ALEX, LINK));
+        }
+
+        @Test
+        @DisplayName("a file there can use the bundled layout and partials")
+        void usesBundledLayout() throws IOException {
+            write("account-approved.html",
+                    "{{< email}}{{$title}}Welcome{{/title}}{{$content}}<p>Custom {{userName}}</p>{{/content}}"
+                            + "{{$footer}}<p>Custom footer</p>{{/footer}}");
+
+            watching = watching();
+
+            assertThat(watching.processTemplate("account-approved.html", ALEX, LINK))
+                    .contains("<title>Welcome</title>", "<p>Custom Alex</p>",
+                            "<h1 style=\"color: #2563eb; margin: 0;\">", "border-top: 1px solid #eee",
+                            "<p>Custom footer</p>");
+        }
+
+        @Test
+        @DisplayName("a directory that does not exist fails startup rather than quietly using the bundled set")
+        void missingDirectoryFails() {
+            assertThatThrownBy(() -> new EmailTemplateService(new LinkSanitizer(new EmailProperties()),
+                    new TemplateProperties(directory.resolve("absent"), null)))
+                    .isInstanceOf(IllegalStateException.class)
+                    .hasMessageContaining("app.email.templates.directory");
+        }
+
+        private EmailTemplateService watching() {
+            return new EmailTemplateService(new LinkSanitizer(new EmailProperties()),
+                    new TemplateProperties(directory, Duration.ofMillis(20)));
+        }
+
+        /** Written beside the template and moved over it, as the class documentation advises. */
+        private void write(String name, String content) throws IOException {
+            Path staged = Files.writeString(directory.resolve(name + ".tmp"), content);
+            Files.move(staged, directory.resolve(name), StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        private boolean awaitRender(String name, String expected) {
+            long deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+            while (System.nanoTime() < deadline) {
+                if (watching.processTemplate(name, ALEX, LINK).equals(expected)) {
+                    return true;
+                }
+                Thread.onSpinWait();
+            }
+            return false;
+        }
+    }
 }
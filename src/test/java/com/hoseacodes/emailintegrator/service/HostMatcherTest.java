@@ -0,0 +1,65 @@
+package com.hoseacodes.emailintegrator.service;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class HostMatcherTest {
+
+    private final HostMatcher matcher = new HostMatcher(List.of(
+            "app.example.com", "*.mail.example.com", "*.example.org"));
+
+    @Test
+    @DisplayName("an exact host matches only itself, in any case")
+    void exact() {
+        assertThat(matcher.matches("app.example.com")).isTrue();
+        assertThat(matcher.matches("APP.Example.com")).isTrue();
+        assertThat(matcher.matches("www.app.example.com")).isFalse();
+        assertThat(matcher.matches("example.com")).isFalse();
+    }
+
+    @Test
+    @DisplayName("a wildcard matches hosts below its suffix at any depth, but not the suffix itself")
+    void wildcard() {
+        assertThat(matcher.matches("eu.mail.example.com")).isTrue();
+        assertThat(matcher.matches("a.b.c.mail.example.com")).isTrue();
+        assertThat(matcher.matches("www.example.org")).isTrue();
+        assertThat(matcher.matches("mail.example.com")).isFalse();
+        assertThat(matcher.matches("example.org")).isFalse();
+    }
+
+    @ParameterizedTest(name = "\"{0}\"")
+    @ValueSource(strings = {
+            "notexample.org", "www.notexample.org", "example.org.attacker.net",
+            "mail.example.com.attacker.net", "xmail.example.com", ".example.org", "org", ""
+    })
+    @DisplayName("labels are compared whole, so lookalikes do not match")
+    void lookalikes(String host) {
+        assertThat(matcher.matches(host)).isFalse();
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @ValueSource(strings = {"*", "*.com", "*example.com", "a.*.example.com", "*.*.example.com"})
+    @DisplayName("a wildcard that is malformed or would allow a whole public suffix is refused")
+    void refusesBroadWildcards(String pattern) {
+        assertThatThrownBy(() -> new HostMatcher(List.of(pattern)))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("app.email.allowed-link-hosts");
+    }
+
+    @Test
+    @DisplayName("no patterns is empty, and matches nothing")
+    void empty() {
+        HostMatcher none = new HostMatcher(List.of());
+
+        assertThat(none.isEmpty()).isTrue();
+        assertThat(none.matches("example.com")).isFalse();
+        assertThat(matcher.isEmpty()).isFalse();
+    }
+}
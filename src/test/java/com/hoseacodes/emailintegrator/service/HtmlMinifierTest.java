@@ -0,0 +1,103 @@
+package com.hoseacodes.emailintegrator.service;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.util.StreamUtils;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * The minifier on fragments, then on every shipped template — checked to change nothing a reader
+ * sees, with the bytes saved logged.
+ */
+class HtmlMinifierTest {
+
+    private static final Logger log = LoggerFactory.getLogger(HtmlMinifierTest.class);
+
+    @Test
+    @DisplayName("collapses whitespace in text to one character, keeping a line break where there was one")
+    void collapsesText() {
+        assertThat(HtmlMinifier.minify("  <div>\n    <p>Dear   {{userName}},</p>\n\n    <p>Hi</p>\n</div>\n"))
+                .isEqualTo("<div>\n<p>Dear {{userName}},</p>\n<p>Hi</p>\n</div>");
+    }
+
+    @Test
+    @DisplayName("collapses whitespace between attributes but not inside their values")
+    void collapsesTags() {
+        assertThat(HtmlMinifier.minify("<a href=\"{{url}}\"\n       style=\"color:  red;  padding: 1px\" >x</a><br />"))
+                .isEqualTo("<a href=\"{{url}}\" style=\"color:  red;  padding: 1px\">x</a><br/>");
+    }
+
+    @Test
+    @DisplayName("copies pre, textarea, style and script content as written")
+    void keepsRawText() {
+        String html = "<pre class=\"x\">  a\n    b  </pre>\n<textarea>  c  </textarea>"
+                + "<STYLE>\n  p  { margin: 0 }\n</STYLE><script>  var a  = 1;</script>";
+
+        assertThat(HtmlMinifier.minify(html)).isEqualTo(
+                "<pre class=\"x\">  a\n    b  </pre>\n<textarea>  c  </textarea>"
+                + "<STYLE>\n  p  { margin: 0 }\n</STYLE><script>  var a  = 1;</script>");
+    }
+
+    @Test
+    @DisplayName("removes comments, but keeps conditional comments whole")
+    void handlesComments() {
+        String html = "<p>a</p>\n  <!-- layout note -->\n  <p>b</p>"
+                + "<!--[if mso]>\n  <table><tr><td>\n<![endif]-->"
+                + "<!--[if !mso]><!--> <div> <!--<![endif]-->";
+
+        assertThat(HtmlMinifier.minify(html)).isEqualTo("<p>a</p>\n<p>b</p>"
+                + "<!--[if mso]>\n  <table><tr><td>\n<![endif]-->"
+                + "<!--[if !mso]><!--> <div> <!--<![endif]-->");
+    }
+
+    @Test
+    @DisplayName("every shipped template keeps its text and placeholders, and minifies to a fixed point")
+    void everyTemplateMeansTheSame() {
+        TemplateComposer composer = new TemplateComposer(path -> Optional.of(read(path)));
+        int totalBefore = 0;
+        int totalAfter = 0;
+        for (String name : EmailTemplateService.BUILT_IN_TEMPLATES) {
+            String source = composer.compose(name, read(name));
+            String minified = HtmlMinifier.minify(source);
+
+            assertThat(HtmlMinifier.minify(minified)).as(name).isEqualTo(minified);
+            assertThat(normalized(minified)).as(name).isEqualTo(normalized(source));
+            assertThat(CompiledTemplate.compile(name, minified).variables()).as(name)
+                    .containsExactlyElementsOf(CompiledTemplate.compile(name, source).variables());
+
+            int before = source.getBytes(StandardCharsets.UTF_8).length;
+            int after = minified.getBytes(StandardCharsets.UTF_8).length;
+            log.info("Template {}: {} -> {} bytes, saves {} per message", name, before, after, before - after);
+            assertThat(after).as(name).isLessThan(before);
+            totalBefore += before;
+            totalAfter += after;
+        }
+        log.info("All templates: {} -> {} bytes", totalBefore, totalAfter);
+    }
+
+    private static String read(String path) {
+        try {
+            return StreamUtils.copyToString(
+                    new ClassPathResource("templates/" + path).getInputStream(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /** The document with comments dropped and whitespace treated the way a renderer treats it. */
+    private static String normalized(String html) {
+        return html.replaceAll("(?s)<!--(?!\\[|<!).*?-->", "")
+                .replaceAll("\\s+", " ")
+                .replaceAll(" ?(/?>)", "$1")
+                .trim();
+    }
+}
@@ -0,0 +1,423 @@
+package com.hoseacodes.emailintegrator.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hoseacodes.emailintegrator.config.IdempotencyProperties;
+import com.hoseacodes.emailintegrator.controller.dto.SendEmailResponse;
+import com.hoseacodes.emailintegrator.email.EmailProviderException;
+import com.hoseacodes.emailintegrator.email.EmailProviderException.Reason;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Idempotency keys: each sends once, repeats and concurrent duplicates get its outcome, and — with
+ * a file — a restart forgets none of them.
+ */
+class IdempotencyStoreTest {
+
+    private static final Message MESSAGE = new Message("user@example.com", "Hello");
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Instant start = Instant.parse("2026-01-05T09:00:00Z");
+    private final AtomicReference<Instant> now = new AtomicReference<>(start);
+    private final Clock clock = new Clock() {
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Instant instant() {
+            return now.get();
+        }
+    };
+
+    private final AtomicInteger sends = new AtomicInteger();
+
+    record Message(String to, String subject) {
+    }
+
+    @AfterEach
+    void clearContext() {
+        SecurityContextHolder.clearContext();
+    }
+
+    private IdempotencyStore store() {
+        return new IdempotencyStore(IdempotencyProperties.inMemory(), objectMapper, clock);
+    }
+
+    /** A send that succeeds with a message id numbered by how many sends came before it. */
+    private CompletableFuture<SendEmailResponse> send() {
+        int send = sends.incrementAndGet();
+        return CompletableFuture.completedFuture(new SendEmailResponse(List.of("<" + send + "@brevo>"), "brevo"));
+    }
+
+    private static SendEmailResponse outcome(CompletableFuture<SendEmailResponse> future) {
+        return future.join();
+    }
+
+    @Test
+    @DisplayName("without a key, every request sends")
+    void noKeySends() {
+        IdempotencyStore store = store();
+
+        store.execute(null, MESSAGE, this::send);
+        store.execute(null, MESSAGE, this::send);
+
+        assertThat(sends).hasValue(2);
+        assertThat(store.size()).isZero();
+    }
+
+    @Test
+    @DisplayName("a repeated key is answered with the first outcome and sends nothing")
+    void repeatReplays() {
+        IdempotencyStore store = store();
+
+        SendEmailResponse first = outcome(store.execute("key-1", MESSAGE, this::send));
+        SendEmailResponse repeat = outcome(store.execute("key-1", MESSAGE, this::send));
+
+        assertThat(repeat).isEqualTo(first);
+        assertThat(sends).hasValue(1);
+        assertThat(outcome(store.execute("key-2", MESSAGE, this::send)).messageIds()).containsExactly("<2@brevo>");
+    }
+
+    @Test
+    @DisplayName("a key reused for a different request is refused, and nothing is sent")
+    void reusedKeyRefused() {
+        IdempotencyStore store = store();
+        store.execute("key-1", MESSAGE, this::send);
+
+        assertThatThrownBy(() -> store.execute("key-1", new Message("user@example.com", "Other"), this::send))
+                .isInstanceOf(IdempotencyKeyReusedException.class);
+        assertThat(sends).hasValue(1);
+    }
+
+    @Test
+    @DisplayName("two clients using the same key each send, and see only their own outcome")
+    void scopedByClient() {
+        IdempotencyStore store = store();
+
+        SecurityContextHolder.getContext().setAuthentication(new TestingAuthenticationToken("client-a", null));
+        SendEmailResponse a = outcome(store.execute("shared", MESSAGE, this::send));
+        SecurityContextHolder.getContext().setAuthentication(new TestingAuthenticationToken("client-b", null));
+        SendEmailResponse b = outcome(store.execute("shared", MESSAGE, this::send));
+
+        assertThat(a).isNotEqualTo(b);
+        assertThat(sends).hasValue(2);
+    }
+
+    @Test
+    @DisplayName("a key is forgotten once its ttl has passed")
+    void expires() {
+        IdempotencyStore store = store();
+        store.execute("key-1", MESSAGE, this::send);
+
+        now.set(start.plus(Duration.ofHours(24)).minusMillis(1));
+        store.execute("key-1", MESSAGE, this::send);
+        assertThat(sends).hasValue(1);
+
+        now.set(start.plus(Duration.ofHours(24)));
+        store.execute("key-1", MESSAGE, this::send);
+        assertThat(sends).hasValue(2);
+    }
+
+    @Test
+    @DisplayName("holds no more than max-keys, forgetting the eldest early and counting it")
+    void boundedByMaxKeys() {
+        IdempotencyStore store = new IdempotencyStore(
+                new IdempotencyProperties(null, 640, null), objectMapper, clock);
+
+        for (int i = 0; i < 10_000; i++) {
+            store.execute("key-" + i, MESSAGE, this::send);
+        }
+
+        assertThat(store.size()).isEqualTo(640);
+        assertThat(store.evicted()).isEqualTo(10_000L - 640);
+        // The newest key is always kept.
+        store.execute("key-9999", MESSAGE, this::send);
+        assertThat(sends).hasValue(10_000);
+    }
+
+    @Test
+    @DisplayName("at max-keys, a key whose send is still in flight is not forgotten")
+    void inFlightNotEvicted() {
+        IdempotencyStore store = new IdempotencyStore(
+                new IdempotencyProperties(null, 1, null), objectMapper, clock);
+        CompletableFuture<SendEmailResponse> inFlight = new CompletableFuture<>();
+        store.execute("pending", MESSAGE, () -> inFlight);
+
+        for (int i = 0; i < 100; i++) {
+            store.execute("key-" + i, MESSAGE, this::send);
+        }
+        CompletableFuture<SendEmailResponse> repeat = store.execute("pending", MESSAGE, () -> {
+            throw new AssertionError("sent twice");
+        });
+
+        assertThat(repeat).isNotDone();
+        SendEmailResponse response = new SendEmailResponse(List.of("<pending@brevo>"), "brevo");
+        inFlight.complete(response);
+        assertThat(repeat.join()).isEqualTo(response);
+        assertThat(store.evicted()).isEqualTo(99);
+    }
+
+    @Test
+    @DisplayName("a key that is empty, too long or not printable ASCII is refused")
+    void validatesKey() {
+        IdempotencyStore store = store();
+
+        for (String key : List.of("", "x".repeat(256), "caf\u00e9", "line\nbreak")) {
+            assertThatThrownBy(() -> store.execute(key, MESSAGE, this::send))
+                    .isInstanceOf(IllegalArgumentException.class)
+                    .hasMessageContaining("Idempotency-Key");
+        }
+        assertThat(sends).hasValue(0);
+    }
+
+    @Nested
+    @DisplayName("failures")
+    class Failures {
+
+        @Test
+        @DisplayName("a failure that may have sent is remembered and replayed")
+        void uncertainReplayed() {
+            IdempotencyStore store = store();
+            EmailProviderException timeout = new EmailProviderException(Reason.TIMEOUT, "brevo", "read timed out");
+
+            CompletableFuture<SendEmailResponse> first = store.execute("key-1", MESSAGE, () -> {
+                sends.incrementAndGet();
+                return CompletableFuture.failedFuture(timeout);
+            });
+            CompletableFuture<SendEmailResponse> repeat =
+                    store.execute("key-1", MESSAGE, IdempotencyStoreTest.this::send);
+
+            assertThat(first).isCompletedExceptionally();
+            assertThatThrownBy(repeat::join).hasCause(timeout);
+            assertThat(sends).hasValue(1);
+        }
+
+        @Test
+        @DisplayName("a failure that cannot have sent frees the key for the retry")
+        void certainReleased() {
+            IdempotencyStore store = store();
+
+            store.execute("key-1", MESSAGE, () -> {
+                sends.incrementAndGet();
+                return CompletableFuture.failedFuture(
+                        new EmailProviderException(Reason.CONNECT_FAILED, "brevo", "refused"));
+            });
+            SendEmailResponse retry = outcome(store.execute("key-1", MESSAGE, IdempotencyStoreTest.this::send));
+
+            assertThat(retry.messageIds()).containsExactly("<2@brevo>");
+            assertThat(sends).hasValue(2);
+        }
+
+        @Test
+        @DisplayName("a send that throws before returning is rethrown as itself and frees the key")
+        void thrownReleased() {
+            IdempotencyStore store = store();
+            EmailSendingDisabledException disabled = new EmailSendingDisabledException();
+
+            assertThatThrownBy(() -> store.execute("key-1", MESSAGE, () -> {
+                throw disabled;
+            })).isSameAs(disabled);
+
+            assertThat(store.size()).isZero();
+        }
+
+        @Test
+        @DisplayName("on the synchronous path, a replayed failure is thrown as itself, not wrapped")
+        void callUnwraps() {
+            IdempotencyStore store = store();
+            EmailProviderException unavailable =
+                    new EmailProviderException(Reason.PROVIDER_UNAVAILABLE, "gmail-smtp", "451");
+
+            assertThatThrownBy(() -> store.call("key-1", MESSAGE, () -> {
+                throw unavailable;
+            })).isSameAs(unavailable);
+            assertThatThrownBy(() -> store.call("key-1", MESSAGE, () -> {
+                throw new AssertionError("sent twice");
+            })).isSameAs(unavailable);
+        }
+    }
+
+    @Test
+    @DisplayName("concurrent duplicates attach to the send in flight; only one reaches the provider")
+    void concurrentDuplicatesCoalesce() throws Exception {
+        IdempotencyStore store = store();
+        CompletableFuture<SendEmailResponse> inFlight = new CompletableFuture<>();
+        int threads = 16;
+        CountDownLatch ready = new CountDownLatch(threads);
+        CountDownLatch go = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<CompletableFuture<SendEmailResponse>>> callers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                callers.add(pool.submit(() -> {
+                    ready.countDown();
+                    go.await();
+                    return store.execute("key-1", MESSAGE, () -> {
+                        sends.incrementAndGet();
+                        return inFlight;
+                    });
+                }));
+            }
+            ready.await();
+            go.countDown();
+            List<CompletableFuture<SendEmailResponse>> outcomes = new ArrayList<>();
+            for (Future<CompletableFuture<SendEmailResponse>> caller : callers) {
+                outcomes.add(caller.get(10, TimeUnit.SECONDS));
+            }
+            assertThat(outcomes).noneMatch(CompletableFuture::isDone);
+
+            SendEmailResponse response = new SendEmailResponse(List.of("<only@brevo>"), "brevo");
+            inFlight.complete(response);
+
+            assertThat(outcomes).allSatisfy(outcome -> assertThat(outcome.join()).isEqualTo(response));
+        } finally {
+            pool.shutdownNow();
+        }
+        assertThat(sends).hasValue(1);
+    }
+
+    @Nested
+    @DisplayName("with a journal file")
+    class JournalFile {
+
+        @TempDir
+        Path dir;
+
+        private IdempotencyStore store(Path file) {
+            return new IdempotencyStore(new IdempotencyProperties(null, null, file), objectMapper, clock);
+        }
+
+        @Test
+        @DisplayName("outcomes recorded before a restart are replayed after it")
+        void survivesRestart() throws IOException {
+            Path file = dir.resolve("idempotency");
+            IdempotencyStore before = store(file);
+            SendEmailResponse sent = outcome(before.execute("sent", MESSAGE, IdempotencyStoreTest.this::send));
+            before.execute("uncertain", MESSAGE, () -> CompletableFuture.failedFuture(
+                    new EmailProviderException(Reason.TIMEOUT, "brevo", "read timed out")));
+            before.execute("released", MESSAGE, () -> CompletableFuture.failedFuture(
+                    new EmailProviderException(Reason.CONNECT_FAILED, "brevo", "refused")));
+            before.close();
+
+            IdempotencyStore after = store(file);
+
+            assertThat(outcome(after.execute("sent", MESSAGE, IdempotencyStoreTest.this::send))).isEqualTo(sent);
+            assertThatThrownBy(() -> after.execute("uncertain", MESSAGE, IdempotencyStoreTest.this::send).join())
+                    .cause()
+                    .isInstanceOfSatisfying(EmailProviderException.class, e -> {
+                        assertThat(e.getReason()).isEqualTo(Reason.TIMEOUT);
+                        assertThat(e.isSideEffectPossible()).isTrue();
+                    });
+            Message other = new Message("other@example.com", "Hello");
+            assertThatThrownBy(() -> after.execute("sent", other, IdempotencyStoreTest.this::send))
+                    .as("the request a key was used for survives too")
+                    .isInstanceOf(IdempotencyKeyReusedException.class);
+            after.execute("released", MESSAGE, IdempotencyStoreTest.this::send);
+            assertThat(sends).as("only the released key sent again").hasValue(2);
+        }
+
+        @Test
+        @DisplayName("a send in flight when the process stopped comes back as delivery unknown")
+        void interruptedSendIsUncertain() throws IOException {
+            Path file = dir.resolve("idempotency");
+            IdempotencyStore before = store(file);
+            before.execute("in-flight", MESSAGE, CompletableFuture::new);
+            before.close();
+
+            IdempotencyStore after = store(file);
+
+            assertThatThrownBy(() -> after.execute("in-flight", MESSAGE, IdempotencyStoreTest.this::send).join())
+                    .cause()
+                    .isInstanceOfSatisfying(EmailProviderException.class,
+                            e -> assertThat(e.isSideEffectPossible()).isTrue());
+            assertThat(sends).hasValue(0);
+        }
+
+        @Test
+        @DisplayName("drops expired keys and a record cut short, and rewrites the file without them")
+        void compactsOnStartup() throws IOException {
+            Path file = dir.resolve("idempotency");
+            IdempotencyStore before = store(file);
+            before.execute("early", MESSAGE, IdempotencyStoreTest.this::send);
+            now.set(start.plus(Duration.ofHours(12)));
+            before.execute("late", MESSAGE, IdempotencyStoreTest.this::send);
+            before.execute("late", MESSAGE, IdempotencyStoreTest.this::send);
+            before.close();
+            long written = Files.size(file);
+            Files.write(file, new byte[]{0, 0, 0, 40, 1, 2}, StandardOpenOption.APPEND);
+
+            now.set(start.plus(Duration.ofHours(25)));
+            IdempotencyStore after = store(file);
+
+            assertThat(after.size()).isEqualTo(1);
+            assertThat(Files.size(file)).isLessThan(written);
+            after.execute("late", MESSAGE, IdempotencyStoreTest.this::send);
+            assertThat(sends).hasValue(2);
+            after.close();
+            assertThat(store(file).size()).isEqualTo(1);
+        }
+
+        @Test
+        @DisplayName("is compacted while running once it has grown past the threshold")
+        void compactsWhileRunning() throws IOException {
+            Path file = dir.resolve("idempotency");
+            IdempotencyStore before = store(file);
+            SendEmailResponse sent = outcome(before.execute("kept", MESSAGE, IdempotencyStoreTest.this::send));
+            EmailProviderException refused = new EmailProviderException(Reason.CONNECT_FAILED, "brevo", "refused");
+            // A claim and a release each time, about 1.5 MB in all.
+            for (int i = 0; i < 20_000; i++) {
+                before.execute("retried", MESSAGE, () -> CompletableFuture.failedFuture(refused));
+            }
+
+            assertThat(Files.size(file)).isLessThan(Journal.COMPACT_FROM + 1024);
+            before.close();
+            assertThat(outcome(store(file).execute("kept", MESSAGE, IdempotencyStoreTest.this::send)))
+                    .isEqualTo(sent);
+            assertThat(sends).hasValue(1);
+        }
+
+        @Test
+        @DisplayName("a file that cannot be used fails startup")
+        void unusableFileFailsStartup() throws IOException {
+            Path directory = Files.createDirectory(dir.resolve("not-a-file"));
+
+            assertThatThrownBy(() -> store(directory))
+                    .hasMessageContaining("app.email.idempotency.file");
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.hoseacodes.emailintegrator.service;
+
+import com.hoseacodes.emailintegrator.config.EmailProperties;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * The accepted-link cache. The rules themselves are tested through the templates that apply
+ * them, in {@link EmailTemplateServiceTest}, and host matching in {@link HostMatcherTest}.
+ *
+ * <p>{@code sanitize} trims a link before parsing it, so a link with surrounding whitespace comes
+ * back as a new string each time it is parsed; getting back the very same instance is what shows
+ * it came from the cache.
+ */
+class LinkSanitizerTest {
+
+    private static final String LOGIN = " https://app.example.com/login ";
+
+    @Test
+    @DisplayName("a link accepted before is returned from the cache, not parsed again")
+    void cachesAccepted() {
+        LinkSanitizer sanitizer = sanitizer(16);
+
+        String first = sanitizer.sanitize("loginUrl", LOGIN);
+
+        assertThat(sanitizer.sanitize("loginUrl", LOGIN)).isSameAs(first).isEqualTo(LOGIN.trim());
+    }
+
+    @Test
+    @DisplayName("keeps the most recently used links, evicting the least recently used")
+    void evictsLeastRecentlyUsed() {
+        LinkSanitizer sanitizer = sanitizer(2);
+        String a = sanitizer.sanitize("u", " https://app.example.com/a");
+        String b = sanitizer.sanitize("u", " https://app.example.com/b");
+        sanitizer.sanitize("u", " https://app.example.com/a");
+        sanitizer.sanitize("u", " https://app.example.com/c");
+
+        assertThat(sanitizer.sanitize("u", " https://app.example.com/a")).isSameAs(a);
+        assertThat(sanitizer.sanitize("u", " https://app.example.com/b")).isNotSameAs(b).isEqualTo(b);
+    }
+
+    @Test
+    @DisplayName("a rejected link is not remembered, and is rejected again with the field it came in")
+    void doesNotCacheRejections() {
+        LinkSanitizer sanitizer = sanitizer(16);
+
+        assertThatThrownBy(() -> sanitizer.sanitize("resetUrl", "https://attacker.example/x"))
+                .hasMessage("resetUrl points to a host that is not permitted for outgoing links");
+        assertThatThrownBy(() -> sanitizer.sanitize("loginUrl", "https://attacker.example/x"))
+                .hasMessage("loginUrl points to a host that is not permitted for outgoing links");
+    }
+
+    @Test
+    @DisplayName("with a size of zero nothing is cached")
+    void disabled() {
+        LinkSanitizer sanitizer = sanitizer(0);
+
+        String first = sanitizer.sanitize("loginUrl", LOGIN);
+
+        assertThat(sanitizer.sanitize("loginUrl", LOGIN)).isNotSameAs(first).isEqualTo(first);
+    }
+
+    private static LinkSanitizer sanitizer(int cacheSize) {
+        EmailProperties properties = new EmailProperties();
+        properties.setAllowedLinkHosts(List.of("app.example.com", "*.meet.example.com"));
+        properties.setLinkCacheSize(cacheSize);
+        return new LinkSanitizer(properties);
+    }
+}
@@ -0,0 +1,437 @@
+package com.hoseacodes.emailintegrator.service;
+
+import com.hoseacodes.emailintegrator.email.EmailProviderException.Reason;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.mail.internet.MimeMessage;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.mail.MailAuthenticationException;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+import org.springframework.mail.javamail.MimeMessageHelper;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+/**
+ * The pool against a real SMTP conversation: a stand-in server on a local socket that speaks
+ * enough of the protocol for JavaMail, and counts what it was asked to do. Counting connections
+ * is the point — a pool that sends correctly but reconnects for each message has saved nothing.
+ *
+ * <p>The stand-in offers neither STARTTLS nor real authentication, so these tests cover the
+ * session lifecycle, not TLS. Every reply is delayed by {@link FakeSmtpServer#replyDelay} to give
+ * round trips a cost, as they have against a real server.
+ */
+class PooledJavaMailSenderTest {
+
+    private static final Logger log = LoggerFactory.getLogger(PooledJavaMailSenderTest.class);
+
+    private FakeSmtpServer server;
+    private long now;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = new FakeSmtpServer();
+        now = -Duration.ofDays(1).toNanos();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        server.close();
+    }
+
+    @Nested
+    @DisplayName("reuse")
+    class Reuse {
+
+        @Test
+        @DisplayName("sends one message after another over a single session")
+        void oneSession() {
+            PooledJavaMailSender sender = pooled(4, 100, Duration.ofSeconds(30));
+
+            for (int i = 0; i < 20; i++) {
+                sender.send(message(sender));
+            }
+
+            assertThat(server.connections.get()).isEqualTo(1);
+            assertThat(server.messages.get()).isEqualTo(20);
+            assertThat(server.logins.get()).isEqualTo(1);
+        }
+
+        @Test
+        @DisplayName("checks a session that has been idle with NOOP before reusing it")
+        void validatesAfterIdle() {
+            PooledJavaMailSender sender = pooled(4, 100, Duration.ofSeconds(30));
+            sender.send(message(sender));
+
+            advance(Duration.ofSeconds(5));
+            sender.send(message(sender));
+
+            assertThat(server.noops.get()).isEqualTo(1);
+            assertThat(server.connections.get()).isEqualTo(1);
+        }
+
+        @Test
+        @DisplayName("replaces an idle session the server dropped, without failing the send")
+        void replacesDropped() {
+            PooledJavaMailSender sender = pooled(4, 100, Duration.ofSeconds(30));
+            sender.send(message(sender));
+            server.dropAfterMessage = true;
+            sender.send(message(sender));
+            server.dropAfterMessage = false;
+
+            advance(Duration.ofSeconds(5));
+            sender.send(message(sender));
+
+            assertThat(server.connections.get()).isEqualTo(2);
+            assertThat(server.messages.get()).isEqualTo(3);
+        }
+
+        @Test
+        @DisplayName("does not check a session returned a moment ago")
+        void noNoopWhenWarm() {
+            PooledJavaMailSender sender = pooled(4, 100, Duration.ofSeconds(30));
+
+            sender.send(message(sender));
+            sender.send(message(sender));
+
+            assertThat(server.noops.get()).isZero();
+        }
+    }
+
+    @Nested
+    @DisplayName("recycling")
+    class Recycling {
+
+        @Test
+        @DisplayName("closes a session after its message limit")
+        void messageLimit() {
+            PooledJavaMailSender sender = pooled(4, 5, Duration.ofSeconds(30));
+
+            for (int i = 0; i < 12; i++) {
+                sender.send(message(sender));
+            }
+
+            assertThat(server.connections.get()).isEqualTo(3);
+            assertThat(server.quits.get()).isEqualTo(2);
+        }
+
+        @Test
+        @DisplayName("closes a session idle beyond max-idle instead of reusing it")
+        void idleLimit() {
+            PooledJavaMailSender sender = pooled(4, 100, Duration.ofSeconds(30));
+            sender.send(message(sender));
+
+            advance(Duration.ofSeconds(31));
+            sender.send(message(sender));
+
+            assertThat(server.connections.get()).isEqualTo(2);
+            assertThat(server.noops.get()).isZero();
+        }
+
+        @Test
+        @DisplayName("never reuses a session whose send failed")
+        void evictsOnFailure() {
+            PooledJavaMailSender sender = pooled(4, 100, Duration.ofSeconds(30));
+            sender.send(message(sender));
+            server.rejectNextMail = true;
+
+            Throwable thrown = catchThrowable(() -> sender.send(message(sender)));
+            sender.send(message(sender));
+
+            assertThat(thrown).isInstanceOf(MailSendException.class);
+            assertThat(server.connections.get()).isEqualTo(2);
+            assertThat(sender.idleSessions()).isEqualTo(1);
+        }
+
+        @Test
+        @DisplayName("closes idle sessions on shutdown")
+        void destroy() {
+            PooledJavaMailSender sender = pooled(4, 100, Duration.ofSeconds(30));
+            sender.send(message(sender));
+
+            sender.destroy();
+
+            assertThat(server.awaitQuits(1)).isTrue();
+            assertThat(sender.idleSessions()).isZero();
+        }
+    }
+
+    @Nested
+    @DisplayName("failures")
+    class Failures {
+
+        @Test
+        @DisplayName("a server that cannot be reached fails the send as the plain sender does")
+        void connectFailure() throws IOException {
+            PooledJavaMailSender sender = pooled(4, 100, Duration.ofSeconds(30));
+            // A bound socket that is not listening: the port refuses connections, and unlike a
+            // closed server's port it cannot be handed to another socket meanwhile.
+            Socket unlistened = new Socket();
+            unlistened.bind(new InetSocketAddress("127.0.0.1", 0));
+            sender.setPort(unlistened.getLocalPort());
+
+            Throwable thrown;
+            try (unlistened) {
+                thrown = catchThrowable(() -> sender.send(message(sender)));
+            }
+
+            assertThat(thrown).isInstanceOf(MailSendException.class).hasMessageContaining("connection failed");
+            assertThat(SmtpFailures.classify((Exception) thrown))
+                    .isEqualTo(Reason.CONNECT_FAILED);
+        }
+
+        @Test
+        @DisplayName("credentials the server refuses fail as an authentication error")
+        void authFailure() {
+            PooledJavaMailSender sender = pooled(4, 100, Duration.ofSeconds(30));
+            server.rejectLogin = true;
+
+            assertThat(catchThrowable(() -> sender.send(message(sender))))
+                    .isInstanceOf(MailAuthenticationException.class);
+        }
+    }
+
+    @Test
+    @DisplayName("publishes idle and opened sessions")
+    void meters() {
+        PooledJavaMailSender sender = pooled(4, 100, Duration.ofSeconds(30));
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        sender.bindTo(registry);
+
+        sender.send(message(sender));
+
+        assertThat(registry.get("smtp.sessions.idle").gauge().value()).isEqualTo(1);
+        assertThat(registry.get("smtp.sessions.opened").functionCounter().count()).isEqualTo(1);
+    }
+
+    /**
+     * The per-message comparison the pool exists for: the same 50 messages through the plain
+     * sender and the pooled one, against a server that takes 2ms over each reply. Only the
+     * connection counts are asserted; the timings are logged; on a shared CI runner they are
+     * evidence, not a contract.
+     */
+    @Test
+    @Tag("benchmark")
+    @DisplayName("benchmark: one connection for 50 messages instead of 50")
+    void benchmark() {
+        server.replyDelay = Duration.ofMillis(2);
+        int messages = 50;
+
+        JavaMailSenderImpl plain = configure(new JavaMailSenderImpl());
+        long plainNanos = timeSends(plain, messages);
+        int plainConnections = server.connections.getAndSet(0);
+
+        PooledJavaMailSender pooled = configure(new PooledJavaMailSender(4, 100, Duration.ofSeconds(30)));
+        long pooledNanos = timeSends(pooled, messages);
+        int pooledConnections = server.connections.get();
+
+        log.info("SMTP per message: plain {} us over {} connections, pooled {} us over {} connections",
+                plainNanos / messages / 1_000, plainConnections, pooledNanos / messages / 1_000, pooledConnections);
+
+        assertThat(plainConnections).isEqualTo(messages);
+        assertThat(pooledConnections).isEqualTo(1);
+    }
+
+    // -- helpers -------------------------------------------------------------------------------
+
+    private long timeSends(JavaMailSenderImpl sender, int count) {
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            sender.send(message(sender));
+        }
+        return System.nanoTime() - start;
+    }
+
+    private PooledJavaMailSender pooled(int size, int maxMessages, Duration maxIdle) {
+        return configure(new PooledJavaMailSender(size, maxMessages, maxIdle, () -> now));
+    }
+
+    private <T extends JavaMailSenderImpl> T configure(T sender) {
+        sender.setHost("127.0.0.1");
+        sender.setPort(server.port());
+        sender.setUsername("sender@example.com");
+        sender.setPassword("password");
+        sender.getJavaMailProperties().put("mail.smtp.auth", "true");
+        sender.getJavaMailProperties().put("mail.smtp.connectiontimeout", "2000");
+        sender.getJavaMailProperties().put("mail.smtp.timeout", "2000");
+        sender.getJavaMailProperties().put("mail.smtp.writetimeout", "2000");
+        return sender;
+    }
+
+    private static MimeMessage message(JavaMailSenderImpl sender) {
+        try {
+            MimeMessage message = sender.createMimeMessage();
+            MimeMessageHelper helper = new MimeMessageHelper(message, false, "UTF-8");
+            helper.setFrom("sender@example.com");
+            helper.setTo("to@example.com");
+            helper.setSubject("Subject");
+            helper.setText("Body");
+            return message;
+        } catch (jakarta.mail.MessagingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void advance(Duration duration) {
+        now += duration.toNanos();
+    }
+
+    /**
+     * Enough SMTP for JavaMail: EHLO advertising {@code AUTH PLAIN LOGIN}, AUTH, MAIL, RCPT, DATA,
+     * NOOP, RSET, QUIT. One thread per connection.
+     */
+    private static final class FakeSmtpServer implements AutoCloseable {
+
+        final AtomicInteger connections = new AtomicInteger();
+        final AtomicInteger logins = new AtomicInteger();
+        final AtomicInteger messages = new AtomicInteger();
+        final AtomicInteger noops = new AtomicInteger();
+        final AtomicInteger quits = new AtomicInteger();
+        volatile Duration replyDelay = Duration.ZERO;
+        volatile boolean dropAfterMessage;
+        volatile boolean rejectNextMail;
+        volatile boolean rejectLogin;
+
+        private final ServerSocket socket;
+
+        FakeSmtpServer() throws IOException {
+            socket = new ServerSocket(0);
+            Thread acceptor = new Thread(this::accept, "fake-smtp");
+            acceptor.setDaemon(true);
+            acceptor.start();
+        }
+
+        int port() {
+            return socket.getLocalPort();
+        }
+
+        boolean awaitQuits(int expected) {
+            long deadline = System.nanoTime() + Duration.ofSeconds(2).toNanos();
+            while (quits.get() < expected && System.nanoTime() < deadline) {
+                Thread.onSpinWait();
+            }
+            return quits.get() >= expected;
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+
+        private void accept() {
+            while (!socket.isClosed()) {
+                try {
+                    Socket client = socket.accept();
+                    connections.incrementAndGet();
+                    Thread handler = new Thread(() -> converse(client), "fake-smtp-session");
+                    handler.setDaemon(true);
+                    handler.start();
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        }
+
+        private void converse(Socket client) {
+            try (client;
+                 BufferedReader in = new BufferedReader(
+                         new InputStreamReader(client.getInputStream(), StandardCharsets.US_ASCII));
+                 OutputStream out = client.getOutputStream()) {
+                reply(out, "220 fake ESMTP");
+                String line;
+                while ((line = in.readLine()) != null) {
+                    String command = line.toUpperCase();
+                    if (command.startsWith("EHLO")) {
+                        reply(out, "250-fake\r\n250-AUTH PLAIN LOGIN\r\n250 8BITMIME");
+                    } else if (command.startsWith("HELO")) {
+                        reply(out, "250 fake");
+                    } else if (command.startsWith("AUTH")) {
+                        authenticate(command, in, out);
+                    } else if (command.startsWith("MAIL")) {
+                        if (rejectNextMail) {
+                            rejectNextMail = false;
+                            reply(out, "451 try again later");
+                        } else {
+                            reply(out, "250 OK");
+                        }
+                    } else if (command.startsWith("RCPT")) {
+                        reply(out, "250 OK");
+                    } else if (command.equals("DATA")) {
+                        reply(out, "354 go ahead");
+                        while ((line = in.readLine()) != null && !line.equals(".")) {
+                            // Discard the message body.
+                        }
+                        messages.incrementAndGet();
+                        reply(out, "250 OK queued");
+                        if (dropAfterMessage) {
+                            return;
+                        }
+                    } else if (command.equals("NOOP")) {
+                        noops.incrementAndGet();
+                        reply(out, "250 OK");
+                    } else if (command.equals("RSET")) {
+                        reply(out, "250 OK");
+                    } else if (command.equals("QUIT")) {
+                        quits.incrementAndGet();
+                        reply(out, "221 bye");
+                        return;
+                    } else {
+                        reply(out, "502 not implemented");
+                    }
+                }
+            } catch (IOException e) {
+                // The client went away; nothing to report.
+            }
+        }
+
+        private void authenticate(String command, BufferedReader in, OutputStream out) throws IOException {
+            if (command.equals("AUTH PLAIN")) {
+                reply(out, "334 ");
+                in.readLine();
+            } else if (command.equals("AUTH LOGIN")) {
+                reply(out, "334 VXNlcm5hbWU6");
+                in.readLine();
+                reply(out, "334 UGFzc3dvcmQ6");
+                in.readLine();
+            }
+            if (rejectLogin) {
+                reply(out, "535 5.7.8 authentication failed");
+            } else {
+                logins.incrementAndGet();
+                reply(out, "235 accepted");
+            }
+        }
+
+        private void reply(OutputStream out, String text) throws IOException {
+            if (!replyDelay.isZero()) {
+                try {
+                    Thread.sleep(replyDelay.toMillis());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new UncheckedIOException(new IOException("interrupted"));
+                }
+            }
+            out.write((text + "\r\n").getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+        }
+    }
+}
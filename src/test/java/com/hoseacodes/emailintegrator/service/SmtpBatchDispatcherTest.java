@@ -0,0 +1,237 @@
+package com.hoseacodes.emailintegrator.service;
+
+import com.hoseacodes.emailintegrator.email.EmailProviderException;
+import com.hoseacodes.emailintegrator.email.EmailProviderException.Reason;
+import jakarta.mail.MessagingException;
+import jakarta.mail.SendFailedException;
+import jakarta.mail.internet.MimeMessage;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.mail.MailAuthenticationException;
+import org.springframework.mail.MailException;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+
+import java.net.ConnectException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+/**
+ * The dispatcher over a {@link JavaMailSenderImpl} whose transport is replaced: each call to
+ * {@code send(MimeMessage...)} is recorded as one batch, and can be held open or made to fail per
+ * message, as the real one does.
+ */
+class SmtpBatchDispatcherTest {
+
+    private final Map<MimeMessage, CompletableFuture<Void>> futures = new LinkedHashMap<>();
+    private RecordingSender sender;
+    private SmtpBatchDispatcher dispatcher;
+
+    @BeforeEach
+    void setUp() {
+        sender = new RecordingSender();
+        dispatcher = new SmtpBatchDispatcher(sender, 3, 10);
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        sender.release.countDown();
+        dispatcher.close();
+    }
+
+    @Test
+    @DisplayName("a lone message is sent at once, in a batch of one")
+    void loneMessage() {
+        sender.release.countDown();
+
+        dispatcher.send(sender.createMimeMessage());
+
+        assertThat(sender.batchSizes()).containsExactly(1);
+    }
+
+    @Test
+    @DisplayName("messages queued while a batch is being sent go out together, up to max-batch")
+    void queuedMessagesShareABatch() throws Exception {
+        CompletableFuture<Void> first = dispatcher.submit(sender.createMimeMessage());
+        assertThat(sender.started.await(2, TimeUnit.SECONDS)).isTrue();
+        List<CompletableFuture<Void>> queued = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            queued.add(dispatcher.submit(sender.createMimeMessage()));
+        }
+
+        sender.release.countDown();
+        first.get(2, TimeUnit.SECONDS);
+        for (CompletableFuture<Void> future : queued) {
+            future.get(2, TimeUnit.SECONDS);
+        }
+
+        assertThat(sender.batchSizes()).containsExactly(1, 3, 2);
+    }
+
+    @Test
+    @DisplayName("a message that failed fails its own caller only, classified as if sent alone")
+    void perMessageFailure() throws Exception {
+        MimeMessage good = sender.createMimeMessage();
+        MimeMessage bad = sender.createMimeMessage();
+        sender.outcome = messages -> {
+            Map<Object, Exception> failed = new LinkedHashMap<>();
+            failed.put(bad, new SendFailedException("550 mailbox unavailable"));
+            return new MailSendException(failed);
+        };
+        holdThenQueue(good, bad);
+
+        assertThat(sender.batchSizes()).containsExactly(1, 2);
+        assertThat(sent(good)).isTrue();
+        MailException own = (MailException) failureOf(bad);
+        assertThat(((MailSendException) own).getFailedMessages()).containsOnlyKeys(bad);
+        assertThat(SmtpFailures.classify(own)).isEqualTo(Reason.PROVIDER_UNAVAILABLE);
+    }
+
+    @Test
+    @DisplayName("a connection failure reaches each caller still classified as one")
+    void connectionFailure() {
+        MimeMessage a = sender.createMimeMessage();
+        MimeMessage b = sender.createMimeMessage();
+        sender.outcome = messages -> {
+            MessagingException cause = new MessagingException("Couldn't connect", new ConnectException("refused"));
+            Map<Object, Exception> failed = new LinkedHashMap<>();
+            for (MimeMessage message : messages) {
+                failed.put(message, cause);
+            }
+            return new MailSendException("Mail server connection failed", cause, failed);
+        };
+        holdThenQueue(a, b);
+
+        assertThat(SmtpFailures.classify((Exception) failureOf(a))).isEqualTo(Reason.CONNECT_FAILED);
+        assertThat(SmtpFailures.classify((Exception) failureOf(b))).isEqualTo(Reason.CONNECT_FAILED);
+    }
+
+    @Test
+    @DisplayName("a message lost mid-send is not classified by the connect failure that stopped the next")
+    void midSendFailureBeforeConnectionFailure() {
+        MimeMessage first = sender.createMimeMessage();
+        MimeMessage second = sender.createMimeMessage();
+        sender.outcome = messages -> {
+            MessagingException lost = new MessagingException("Connection reset");
+            MessagingException refused = new MessagingException("Couldn't connect", new ConnectException("refused"));
+            Map<Object, Exception> failed = new LinkedHashMap<>();
+            failed.put(messages[0], lost);
+            failed.put(messages[1], refused);
+            return new MailSendException("Mail server connection failed", refused, failed);
+        };
+        holdThenQueue(first, second);
+
+        EmailProviderException midSend = SmtpFailures.translate((Exception) failureOf(first), "gmail-smtp");
+        assertThat(midSend.getReason()).isEqualTo(Reason.PROVIDER_UNAVAILABLE);
+        assertThat(midSend.isSideEffectPossible()).isTrue();
+        assertThat(SmtpFailures.classify((Exception) failureOf(second))).isEqualTo(Reason.CONNECT_FAILED);
+    }
+
+    @Test
+    @DisplayName("a failure that is not per message fails the whole batch with it")
+    void wholeBatchFailure() {
+        MimeMessage a = sender.createMimeMessage();
+        MimeMessage b = sender.createMimeMessage();
+        sender.outcome = messages -> new MailAuthenticationException("535 auth failed");
+        holdThenQueue(a, b);
+
+        assertThat(failureOf(a)).isInstanceOf(MailAuthenticationException.class);
+        assertThat(failureOf(b)).isInstanceOf(MailAuthenticationException.class);
+    }
+
+    @Test
+    @DisplayName("a full queue refuses the send without queueing it")
+    void fullQueue() throws Exception {
+        dispatcher.submit(sender.createMimeMessage());
+        assertThat(sender.started.await(2, TimeUnit.SECONDS)).isTrue();
+        for (int i = 0; i < 10; i++) {
+            dispatcher.submit(sender.createMimeMessage());
+        }
+
+        Throwable thrown = catchThrowable(() -> dispatcher.send(sender.createMimeMessage()));
+
+        assertThat(thrown).isInstanceOf(EmailProviderException.class);
+        assertThat(((EmailProviderException) thrown).getReason()).isEqualTo(Reason.CONCURRENCY_LIMITED);
+    }
+
+    // -- helpers -------------------------------------------------------------------------------
+
+    /**
+     * Holds the drainer on a first message, queues these behind it so they form one batch, then
+     * lets everything through and waits for it.
+     */
+    private void holdThenQueue(MimeMessage... messages) {
+        Function<MimeMessage[], RuntimeException> outcome = sender.outcome;
+        sender.outcome = null;
+        CompletableFuture<Void> first = dispatcher.submit(sender.createMimeMessage());
+        try {
+            assertThat(sender.started.await(2, TimeUnit.SECONDS)).isTrue();
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+        sender.outcome = outcome;
+        for (MimeMessage message : messages) {
+            futures.put(message, dispatcher.submit(message));
+        }
+        sender.release.countDown();
+        first.join();
+        futures.values().forEach(future -> catchThrowable(future::join));
+    }
+
+    private boolean sent(MimeMessage message) {
+        return catchThrowable(futures.get(message)::join) == null;
+    }
+
+    private Throwable failureOf(MimeMessage message) {
+        Throwable thrown = catchThrowable(futures.get(message)::join);
+        assertThat(thrown).isInstanceOf(CompletionException.class);
+        return thrown.getCause();
+    }
+
+    /**
+     * Records each batch. The first holds until {@link #release} so later messages queue behind it;
+     * {@link #outcome}, when set, decides what a batch throws.
+     */
+    private static final class RecordingSender extends JavaMailSenderImpl {
+
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<Integer> batches = new ArrayList<>();
+        volatile Function<MimeMessage[], RuntimeException> outcome;
+
+        @Override
+        protected void doSend(MimeMessage[] mimeMessages, Object[] originalMessages) {
+            synchronized (batches) {
+                batches.add(mimeMessages.length);
+            }
+            Function<MimeMessage[], RuntimeException> decide = outcome;
+            started.countDown();
+            try {
+                release.await(2, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (decide != null) {
+                throw decide.apply(mimeMessages);
+            }
+        }
+
+        List<Integer> batchSizes() {
+            synchronized (batches) {
+                return List.copyOf(batches);
+            }
+        }
+    }
+}
@@ -6,6 +6,7 @@ import com.hoseacodes.emailintegrator.controller.dto.SendMailRequest;
 import com.hoseacodes.emailintegrator.email.EmailProviderException;
 import com.hoseacodes.emailintegrator.email.EmailProviderException.Reason;
 import com.hoseacodes.emailintegrator.email.SendEmailResult;
+import jakarta.mail.MessagingException;
 import jakarta.mail.Session;
 import jakarta.mail.internet.MimeMessage;
 import org.junit.jupiter.api.BeforeEach;
@@ -16,8 +17,11 @@ import org.springframework.mail.MailAuthenticationException;
 import org.springframework.mail.MailSendException;
 import org.springframework.mail.javamail.JavaMailSender;
 
+import java.net.ConnectException;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.Executors;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
@@ -54,7 +58,8 @@ class SpringMailServiceTest {
         properties.setDefaultFromAddress("noreply@ambitiousconcept.com");
         properties.setDefaultFromName("Ambitious Concept");
 
-        service = new SpringMailService(mailSender, properties);
+        service = new SpringMailService(
+                new SmtpEmailProvider(mailSender, Executors.newSingleThreadExecutor()), properties);
     }
 
     private static SendMailRequest request() {
@@ -161,6 +166,24 @@ class SpringMailServiceTest {
         assertThat(e.isSideEffectPossible()).isTrue();
     }
 
+    @Test
+    @DisplayName("a mail server that could not be reached cannot have accepted anything")
+    void connectFailureIsNotSideEffectPossible() {
+        // The shape JavaMailSenderImpl produces when Transport.connect fails: the socket error sits
+        // under a MessagingException, reachable through getNextException.
+        MessagingException connect = new MessagingException("Couldn't connect to host",
+                new ConnectException("Connection refused"));
+        willThrow(new MailSendException("Mail server connection failed", connect, Map.of()))
+                .given(mailSender).send(any(MimeMessage.class));
+
+        EmailProviderException e = catchThrowableOfType(
+                () -> service.send(request()), EmailProviderException.class);
+
+        assertThat(e.getReason()).isEqualTo(Reason.CONNECT_FAILED);
+        assertThat(e.isSideEffectPossible()).isFalse();
+        assertThat(e.getMessage()).doesNotContain("Connection refused");
+    }
+
     @Test
     @DisplayName("the SMTP server's response text is not copied into the exception message")
     void doesNotLeakServerResponse() {
@@ -0,0 +1,123 @@
+package com.hoseacodes.emailintegrator.service;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Layouts and partials, over an in-memory set of files so each case states exactly what it is
+ * composed from.
+ */
+class TemplateComposerTest {
+
+    private final Map<String, String> files = new HashMap<>();
+    private final Map<String, Integer> reads = new HashMap<>();
+    private final TemplateComposer composer = new TemplateComposer(path -> {
+        reads.merge(path, 1, Integer::sum);
+        return Optional.ofNullable(files.get(path));
+    });
+
+    @Test
+    @DisplayName("includes partials, including partials within partials")
+    void includesPartials() {
+        files.put("partials/header.html", "<h1>{{appName}}</h1>{{> tagline}}");
+        files.put("partials/tagline.html", "<p>{{appDisplayName}}</p>");
+
+        assertThat(composer.compose("t", "{{> header}}<p>Dear {{userName}}</p>{{>header}}"))
+                .isEqualTo("<h1>{{appName}}</h1><p>{{appDisplayName}}</p><p>Dear {{userName}}</p>"
+                        + "<h1>{{appName}}</h1><p>{{appDisplayName}}</p>");
+    }
+
+    @Test
+    @DisplayName("fills a layout's blocks from the template, and from the layout's defaults where it has none")
+    void appliesLayout() {
+        files.put("layouts/email.html",
+                "<title>{{$title}}{{/title}}</title>{{$header}}{{> header}}{{/header}}"
+                        + "<main>{{$content}}{{/content}}</main>");
+        files.put("partials/header.html", "<h1>{{appName}}</h1>");
+
+        assertThat(composer.compose("t", "{{< email}}\n{{$title}}Hello{{/title}}\n{{$content}}<p>Hi</p>{{/content}}\n"))
+                .isEqualTo("<title>Hello</title><h1>{{appName}}</h1><main><p>Hi</p></main>");
+        assertThat(composer.compose("t", "{{< email}}{{$header}}<h1>Other</h1>{{/header}}"))
+                .isEqualTo("<title></title><h1>Other</h1><main></main>");
+    }
+
+    @Test
+    @DisplayName("a layout can extend another; the most specific definition of a block wins")
+    void chainsLayouts() {
+        files.put("layouts/base.html", "[{{$a}}base a{{/a}}|{{$b}}base b{{/b}}|{{$c}}base c{{/c}}]");
+        files.put("layouts/branded.html", "{{< base}}{{$b}}branded b{{/b}}{{$c}}branded c{{/c}}");
+
+        assertThat(composer.compose("t", "{{< branded}}{{$c}}own c{{/c}}"))
+                .isEqualTo("[base a|branded b|own c]");
+    }
+
+    @Test
+    @DisplayName("reads each partial and layout once, however many templates use it")
+    void readsOnce() {
+        files.put("layouts/email.html", "{{> header}}{{$content}}{{/content}}");
+        files.put("partials/header.html", "<h1>x</h1>");
+
+        composer.compose("a", "{{< email}}{{$content}}a{{/content}}");
+        composer.compose("b", "{{< email}}{{$content}}b{{/content}}");
+
+        assertThat(reads).containsEntry("layouts/email.html", 1).containsEntry("partials/header.html", 1);
+    }
+
+    @Test
+    @DisplayName("refuses a missing partial or layout, naming the file")
+    void refusesMissing() {
+        assertThatThrownBy(() -> composer.compose("t", "{{> footer}}"))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("t uses partials/footer.html, which does not exist");
+        assertThatThrownBy(() -> composer.compose("t", "{{< email}}"))
+                .hasMessage("t uses layouts/email.html, which does not exist");
+    }
+
+    @Test
+    @DisplayName("refuses an include cycle")
+    void refusesCycle() {
+        files.put("partials/a.html", "{{> b}}");
+        files.put("partials/b.html", "{{> a}}");
+
+        assertThatThrownBy(() -> composer.compose("t", "{{> a}}"))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("partial cycle");
+    }
+
+    @Test
+    @DisplayName("refuses what would otherwise be silently dropped: unknown blocks, content outside blocks")
+    void refusesDroppedContent() {
+        files.put("layouts/email.html", "{{$content}}{{/content}}");
+
+        assertThatThrownBy(() -> composer.compose("t", "{{< email}}{{$contnet}}x{{/contnet}}"))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("t: block [contnet] is not declared by layout email");
+        assertThatThrownBy(() -> composer.compose("t", "{{< email}}\n<p>Stray</p>\n{{$content}}x{{/content}}"))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("content outside a {{$block}}")
+                .hasMessageContaining("<p>Stray</p>");
+    }
+
+    @Test
+    @DisplayName("refuses an unmatched directive rather than sending it as text")
+    void refusesUnmatched() {
+        assertThatThrownBy(() -> composer.compose("t", "<p>{{$content}}x</p>"))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("unmatched {{$content}}");
+    }
+
+    @Test
+    @DisplayName("leaves a template without directives exactly as it is")
+    void plainTemplateUnchanged() {
+        String plain = "<p>Dear {{userName}}, {{ not a directive }}</p>";
+
+        assertThat(composer.compose("t", plain)).isSameAs(plain);
+    }
+}
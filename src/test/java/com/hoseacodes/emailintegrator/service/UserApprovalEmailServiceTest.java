@@ -27,6 +27,8 @@ import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.BDDMockito.given;
 import static org.mockito.BDDMockito.willThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoInteractions;
 
@@ -111,6 +113,37 @@ class UserApprovalEmailServiceTest {
                 .hasSize(permitted);
     }
 
+    @Test
+    @DisplayName("every request type renders its template with exactly the declared variables")
+    void everySubtypeSuppliesItsTemplateVariables() {
+        // The caller's half of TemplateSchema; the template's half is checked when it compiles.
+        // Together they are what stops a renamed field rendering as a blank slot.
+        EmailTemplateService templates = spy(new EmailTemplateService(new LinkSanitizer(properties)));
+        UserApprovalEmailService spied = new UserApprovalEmailService(mailSender, properties, templates);
+        ReflectionTestUtils.setField(spied, "baseUrl", "https://app.example.com");
+        ReflectionTestUtils.setField(spied, "adminEmail", ADMIN);
+        ReflectionTestUtils.setField(spied, "appName", "Email Integrator");
+        ReflectionTestUtils.setField(spied, "appDisplayName", "Email Integrator Service");
+
+        for (TemplatedEmailRequest request : allRequestTypes()) {
+            spied.send(request);
+        }
+
+        ArgumentCaptor<String> name = ArgumentCaptor.forClass(String.class);
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<java.util.Map<String, String>> text = ArgumentCaptor.forClass(java.util.Map.class);
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<java.util.Map<String, String>> links = ArgumentCaptor.forClass(java.util.Map.class);
+        verify(templates, times(allRequestTypes().size()))
+                .processTemplateUtf8(name.capture(), text.capture(), links.capture());
+        for (int i = 0; i < name.getAllValues().size(); i++) {
+            TemplateSchema schema = TemplateSchema.forTemplate(name.getAllValues().get(i)).orElseThrow();
+            assertThat(text.getAllValues().get(i).keySet()).as(schema.templateName()).isEqualTo(schema.text());
+            assertThat(links.getAllValues().get(i).keySet()).as(schema.templateName()).isEqualTo(schema.links());
+        }
+        assertThat(name.getAllValues()).containsExactlyInAnyOrderElementsOf(EmailTemplateService.BUILT_IN_TEMPLATES);
+    }
+
     // -- addressing ------------------------------------------------------------------------------
 
     @Test
@@ -165,6 +198,18 @@ class UserApprovalEmailServiceTest {
         assertThat(sentMessage().getSubject()).contains("Acme Portal");
     }
 
+    @Test
+    @DisplayName("with the configured names bound into the templates, a per-request name still reaches the body")
+    void requestAppNameOverridesBoundConstants() throws Exception {
+        service.bindTemplateConstants();
+
+        service.send(new TemplatedEmailRequest.AccountApproved(
+                "user@example.com", "Alex", "Acme Portal", "Acme Portal Suite", null));
+        String overridden = (String) findPart(sentMessage(), "text/html").getContent();
+
+        assertThat(overridden).contains("Acme Portal Suite").doesNotContain("Email Integrator");
+    }
+
     @Test
     @DisplayName("a consultation confirmation carries the calendar attachment")
     void consultationConfirmationHasIcsAttachment() throws Exception {
@@ -184,6 +229,46 @@ class UserApprovalEmailServiceTest {
         assertThat(attachmentNames(sentMessage())).isEmpty();
     }
 
+    @Test
+    @DisplayName("the HTML body, handed over as bytes, arrives exactly as rendered")
+    void htmlBodyArrivesAsRendered() throws Exception {
+        service.send(new TemplatedEmailRequest.AccountApproved(
+                "user@example.com", "Zo\u00eb & \u00d1and\u00fa", null, null, null));
+
+        // Written out and parsed back, as the receiving server would see it.
+        java.io.ByteArrayOutputStream wire = new java.io.ByteArrayOutputStream();
+        sentMessage().writeTo(wire);
+        MimeMessage received = new MimeMessage(Session.getInstance(new Properties()),
+                new java.io.ByteArrayInputStream(wire.toByteArray()));
+
+        jakarta.mail.Part html = findPart(received, "text/html");
+        assertThat(html.getContentType()).containsIgnoringCase("charset=UTF-8");
+        // Raw UTF-8 is sent quoted-printable, which puts text lines in canonical CRLF form.
+        String expected = new EmailTemplateService(new LinkSanitizer(properties))
+                .processTemplate("account-approved.html",
+                        java.util.Map.of("userName", "Zo\u00eb & \u00d1and\u00fa", "appName", "Email Integrator",
+                                "appDisplayName", "Email Integrator Service"),
+                        java.util.Map.of("loginUrl", "https://app.example.com/login"));
+        assertThat(((String) html.getContent()).replace("\r\n", "\n")).isEqualTo(expected);
+        // The multipart/alternative layout is unchanged: an empty plain part beside the HTML.
+        assertThat(findPart(received, "text/plain")).isNotNull();
+    }
+
+    private static jakarta.mail.Part findPart(jakarta.mail.Part part, String mimeType) throws Exception {
+        if (part.isMimeType(mimeType)) {
+            return part;
+        }
+        if (part.getContent() instanceof jakarta.mail.Multipart multipart) {
+            for (int i = 0; i < multipart.getCount(); i++) {
+                jakarta.mail.Part found = findPart(multipart.getBodyPart(i), mimeType);
+                if (found != null) {
+                    return found;
+                }
+            }
+        }
+        return null;
+    }
+
     /**
      * Collects attachment file names by walking the MIME tree.
      *
@@ -290,6 +375,33 @@ class UserApprovalEmailServiceTest {
         assertThat(result.messageIds().get(0)).contains("@");
     }
 
+    @Test
+    @DisplayName("with batching on, a send goes through the dispatcher and its failure stays its own")
+    void batchedSend() throws InterruptedException {
+        SmtpBatchDispatcher dispatcher = new SmtpBatchDispatcher(mailSender, 50, 10);
+        UserApprovalEmailService batched = new UserApprovalEmailService(
+                mailSender, properties, new EmailTemplateService(new LinkSanitizer(properties)), dispatcher);
+        for (String field : List.of("baseUrl", "adminEmail", "appName", "appDisplayName")) {
+            ReflectionTestUtils.setField(batched, field, ReflectionTestUtils.getField(service, field));
+        }
+        try {
+            SendEmailResult result = batched.send(new TemplatedEmailRequest.AccountApproved(
+                    "user@example.com", "Alex", null, null, null));
+            assertThat(result.messageIds().get(0)).contains("@");
+            verify(mailSender).send(any(MimeMessage[].class));
+
+            willThrow(new MailAuthenticationException("535 auth failed"))
+                    .given(mailSender).send(any(MimeMessage[].class));
+            EmailProviderException e = catchThrowableOfType(
+                    () -> batched.send(new TemplatedEmailRequest.AccountApproved(
+                            "user@example.com", "Alex", null, null, null)),
+                    EmailProviderException.class);
+            assertThat(e.getReason()).isEqualTo(Reason.PROVIDER_AUTH_FAILED);
+        } finally {
+            dispatcher.close();
+        }
+    }
+
     private MimeMessage sentMessage() {
         ArgumentCaptor<MimeMessage> captor = ArgumentCaptor.forClass(MimeMessage.class);
         verify(mailSender).send(captor.capture());